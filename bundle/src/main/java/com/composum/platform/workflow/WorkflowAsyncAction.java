@@ -0,0 +1,47 @@
+package com.composum.platform.workflow;
+
+import com.composum.platform.workflow.model.WorkflowTaskInstance;
+import com.composum.platform.workflow.model.WorkflowTaskTemplate;
+import com.composum.sling.core.BeanContext;
+import org.apache.sling.api.resource.ValueMap;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * the interface of a workflow process action which completes asynchronously (e.g. the call of an external system);
+ * the transition is committed and the request is answered without waiting for the action, the task stays
+ * 'running' until the returned stage is completed and is finished then by the service (a failure is stored
+ * at the task which can be executed again); an asynchronous action of the task topic defers the chosen option (the
+ * following task and the option topic) until its successful completion; the pending completion is marked at the
+ * task - after a restart the action is called again with a service context, the action must be prepared for such
+ * a repeated call
+ */
+public interface WorkflowAsyncAction extends WorkflowAction {
+
+    /**
+     * starts the action of a task with the chosen option; the context is valid during the call only
+     *
+     * @param context the current request context (user session) or a service context (resumed after a restart)
+     * @param task    the task to process
+     * @param option  the chosen option
+     * @param data    the task data value union
+     * @return the stage of the action which is completed with the result of the action
+     */
+    @Nonnull
+    CompletionStage<Result> processAsync(@Nonnull BeanContext context, @Nonnull WorkflowTaskInstance task,
+                                         @Nullable WorkflowTaskTemplate.Option option, @Nonnull ValueMap data)
+            throws Exception;
+
+    /**
+     * the synchronous execution of the action; waits for the completion of the stage
+     */
+    @Override
+    @Nonnull
+    default Result process(@Nonnull BeanContext context, @Nonnull WorkflowTaskInstance task,
+                           @Nullable WorkflowTaskTemplate.Option option, @Nonnull ValueMap data)
+            throws Exception {
+        return processAsync(context, task, option, data).toCompletableFuture().get();
+    }
+}
@@ -15,6 +15,28 @@ public interface WorkflowTopic {
 
     String PROPERTY_TOPICS = JobExecutor.PROPERTY_TOPICS;
 
+    /**
+     * the service property of an action to declare its transaction handling; an action is executed by default
+     * within the unit of work of the workflow transition (committed after the transition is done); an action
+     * which requires the committed state of the task (e.g. to use it in its own session) declares 'separate'
+     */
+    String PROPERTY_TRANSACTION = "workflow.transaction";
+    String TRANSACTION_SEPARATE = "separate";
+
+    /**
+     * the service property of an action to declare its execution; the actions of a topic are executed by default
+     * one after another in the service ranking order; an action which doesn't depend on the other actions of the
+     * topic declares 'parallel' and is executed concurrently with the adjacent parallel actions of the topic;
+     * a group is executed concurrently only if no uncommitted changes of the transition are pending (the changes
+     * are committed before the group only if one of its actions declares a 'separate' transaction), each parallel
+     * action is called with its own session of the requesting user and a task reloaded in this session and its
+     * changes are committed separately after its successful execution (a separate transaction for each parallel
+     * action); the actions of a group are executed one after another within the transition if changes are pending
+     * or if the thread pool is exhausted
+     */
+    String PROPERTY_EXECUTION = "workflow.execution";
+    String EXECUTION_PARALLEL = "parallel";
+
     enum Status {
         success /* successful execution */,
         failure /* execution with errors; suspend the action */,
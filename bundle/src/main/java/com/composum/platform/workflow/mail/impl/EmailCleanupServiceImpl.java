@@ -76,10 +76,7 @@ public class EmailCleanupServiceImpl implements Runnable, EmailCleanupService {
         }
         cuttime.setTimeInMillis(cutTimeMillis);
         try (ResourceResolver resolver = resolverFactory.getServiceResourceResolver(null)) {
-            Query query = resolver.adaptTo(QueryBuilder.class).createQuery();
-            query.path(cleanupPath).condition(
-                    query.conditionBuilder().property(ResourceUtil.PROP_LAST_MODIFIED).lt().val(Calendar.getInstance())
-            );
+            Query query = cleanupQuery(resolver, cleanupPath, Calendar.getInstance());
             StringBuilder buf = new StringBuilder(cleanupPath).append(":\n");
             int count = 0;
             for (Resource resource : query.execute()) {
@@ -98,6 +95,19 @@ public class EmailCleanupServiceImpl implements Runnable, EmailCleanupService {
         }
     }
 
+    /**
+     * @return the query for the mails of the folder modified before the given time (served by the 'jcr:lastModified'
+     * index)
+     */
+    @Nonnull
+    public Query cleanupQuery(ResourceResolver resolver, String cleanupPath, Calendar before) {
+        Query query = resolver.adaptTo(QueryBuilder.class).createQuery();
+        query.path(cleanupPath).condition(
+                query.conditionBuilder().property(ResourceUtil.PROP_LAST_MODIFIED).lt().val(before)
+        );
+        return query;
+    }
+
     @Activate
     @Modified
     protected void activate(@Nonnull Config theConfig) {
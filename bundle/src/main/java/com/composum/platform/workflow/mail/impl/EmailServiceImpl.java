@@ -498,15 +498,24 @@ public class EmailServiceImpl implements EmailService, Runnable {
 
     @Nonnull
     protected List<Resource> queryPendingMails(ResourceResolver resolver) {
-        Query query = resolver.adaptTo(QueryBuilder.class).createQuery();
-        query.path(QueuedEmail.PATH_MAILQUEUE).type(QueuedEmail.PRIMARYTYPE).condition(
-                query.conditionBuilder().property(PROP_NEXTTRY).lt().val(Calendar.getInstance())
-        );
+        Query query = pendingMailsQuery(resolver, Calendar.getInstance());
         List<Resource> pendingMails = new ArrayList<>();
         query.execute().forEach(pendingMails::add);
         return pendingMails;
     }
 
+    /**
+     * @return the query for the queued mails to send before the given time (served by the 'nextTry' index)
+     */
+    @Nonnull
+    public Query pendingMailsQuery(ResourceResolver resolver, Calendar before) {
+        Query query = resolver.adaptTo(QueryBuilder.class).createQuery();
+        query.path(QueuedEmail.PATH_MAILQUEUE).type(QueuedEmail.PRIMARYTYPE).condition(
+                query.conditionBuilder().property(PROP_NEXTTRY).lt().val(before)
+        );
+        return query;
+    }
+
     /**
      * The time delay for the next retry in milliseconds.
      */
@@ -17,9 +17,14 @@ import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -78,6 +83,10 @@ public abstract class Workflow extends LoadedModel {
     }
 
     protected ArrayList<Transition> transitions = new ArrayList<>();
+    protected HashMap<String, List<Transition>> transitionsByTask = new HashMap<>(); // adjacency by task path
+    protected HashMap<String, Map<String, Transition>> transitionsByOption = new HashMap<>(); // by path and key
+    protected HashMap<String, WorkflowTask> tasksByPath = new HashMap<>(); // the first task of each path
+    protected HashMap<String, Integer> loopKeys = new HashMap<>(); // the loop count by template path
     protected ArrayList<WorkflowTaskInstance> openTasks = new ArrayList<>();
     protected ArrayList<WorkflowTaskInstance> instances = new ArrayList<>();
     protected boolean workflowTemplate = true;
@@ -99,6 +108,12 @@ public abstract class Workflow extends LoadedModel {
 
     protected abstract WorkflowService getService();
 
+    /**
+     * @return the compiled graph of the workflow which starts with the template; 'null' if not available
+     */
+    @Nullable
+    protected abstract WorkflowDefinition getDefinition(@Nonnull BeanContext context, @Nonnull String templatePath);
+
     /**
      * @return 'true' if the workflow is built from task templates only
      */
@@ -124,14 +139,11 @@ public abstract class Workflow extends LoadedModel {
         return getTasks().isEmpty();
     }
 
+    /**
+     * @return the (first) task of the graph with the path of the resource
+     */
     public WorkflowTask getTask(Resource resource) {
-        String path = resource.getPath();
-        for (WorkflowTask task : getTasks().values()) {
-            if (task.getPath().equals(path)) {
-                return task;
-            }
-        }
-        return null;
+        return tasksByPath.get(resource.getPath());
     }
 
     public boolean containsTasks(WorkflowTask task) {
@@ -166,23 +178,54 @@ public abstract class Workflow extends LoadedModel {
         return transitions;
     }
 
+    /**
+     * @return the outgoing transitions of the task (an unmodifiable view of the adjacency list)
+     */
     public List<Transition> getTransitions(WorkflowTask task) {
-        List<Transition> subset = new ArrayList<>();
-        for (Transition transition : transitions) {
-            if (transition.from.equals(task)) {
-                subset.add(transition);
-            }
-        }
-        return subset;
+        List<Transition> subset = transitionsByTask.get(task.getPath());
+        return subset != null ? Collections.unmodifiableList(subset) : Collections.emptyList();
     }
 
     public Transition getTransition(Resource resFrom, WorkflowTask.Option option) {
-        for (Transition transition : transitions) {
-            if (transition.from.getPath().equals(resFrom.getPath()) && transition.option.equals(option)) {
-                return transition;
-            }
+        Transition transition = getTransition(resFrom.getPath(), option.key);
+        return transition != null && transition.option.equals(option) ? transition : null;
+    }
+
+    /**
+     * @param taskPath  the path of the 'from' task
+     * @param optionKey the key (name) of the option of the transition
+     * @return the (first) transition of the task for the option; 'null' if not available
+     */
+    @Nullable
+    public Transition getTransition(@Nonnull final String taskPath, @Nonnull final String optionKey) {
+        Map<String, Transition> subset = transitionsByOption.get(taskPath);
+        return subset != null ? subset.get(optionKey) : null;
+    }
+
+    protected void addTransition(@Nonnull final Transition transition) {
+        String path = transition.from.getPath();
+        transitions.add(transition);
+        transitionsByTask.computeIfAbsent(path, key -> new ArrayList<>()).add(transition);
+        if (transition.option != null) {
+            transitionsByOption.computeIfAbsent(path, key -> new HashMap<>())
+                    .putIfAbsent(transition.option.key, transition);
         }
-        return null;
+    }
+
+    /**
+     * adds an instance to the tasks and to the path index of the graph
+     */
+    protected void putInstance(@Nonnull final WorkflowTaskInstance task) {
+        addInstance(task);
+        tasksByPath.putIfAbsent(task.getPath(), task);
+    }
+
+    /**
+     * adds a template to the tasks (by the key - the path or a loop key) and to the path index of the graph
+     */
+    protected void putTemplate(@Nonnull final WorkflowTaskTemplate template, @Nonnull final String key) {
+        addTemplate(template, key);
+        tasksByPath.putIfAbsent(template.getPath(), template);
     }
 
     public void initialize(BeanContext context, Resource taskResource) {
@@ -292,6 +335,14 @@ public abstract class Workflow extends LoadedModel {
     protected WorkflowTaskInstance findInitialTaskInstance(BeanContext context) {
         WorkflowTaskInstance task = getService().getInstance(context, resource.getPath());
         if (task != null) {
+            String workflowId = task.getTaskRefId(WorkflowTaskInstance.PN_WORKFLOW_ID);
+            if (StringUtils.isNotBlank(workflowId)) {
+                WorkflowTaskInstance first = linkInstances(task,
+                        getService().findWorkflowInstances(context, workflowId), workflowId);
+                if (first != null) {
+                    return first;
+                }
+            }
             WorkflowTaskInstance prevTask;
             while ((prevTask = task.getPreviousTask()) != null) {
                 task = prevTask;
@@ -301,35 +352,67 @@ public abstract class Workflow extends LoadedModel {
     }
 
     /**
-     * scan instances and configuration assuming that the resource references any of the instances
+     * links the instances of a workflow (loaded by one query) with their predecessors and successors
+     *
+     * @return the first instance of the workflow; 'null' if not part of the loaded instances
      */
-    protected void buildWorkflowFromInstances(@Nonnull final BeanContext context,
-                                              @Nonnull final WorkflowTaskInstance task) {
-        addInstance(task);
-        if (!instances.contains(task)) {
-            instances.add(task);
+    @Nullable
+    protected WorkflowTaskInstance linkInstances(@Nonnull final WorkflowTaskInstance task,
+                                                 @Nonnull final Collection<WorkflowTaskInstance> instances,
+                                                 @Nonnull final String workflowId) {
+        Map<String, WorkflowTaskInstance> byName = new HashMap<>();
+        byName.put(task.getName(), task);
+        for (WorkflowTaskInstance instance : instances) {
+            byName.putIfAbsent(instance.getName(), instance);
         }
-        if (task.getState() != WorkflowTaskInstance.State.finished) {
-            openTasks.add(task);
-        } else {
-            Calendar taskFinished = task.getFinished();
-            if (taskFinished != null && (finished == null || finished.before(taskFinished))) {
-                finished = taskFinished;
-                lastTask = task;
-            }
+        for (WorkflowTaskInstance instance : byName.values()) {
+            String previous = instance.getTaskRefId(WorkflowTaskInstance.PN_PREVIOUS);
+            String next = instance.getTaskRefId(WorkflowTaskInstance.PN_NEXT);
+            instance.linkTasks(previous != null ? byName.get(previous) : null, next != null ? byName.get(next) : null);
         }
-        WorkflowTaskTemplate template = task.getTemplate();
-        WorkflowTaskInstance nextTask = task.getNextTask();
-        WorkflowTask.Option chosenOption = null;
-        if (nextTask != null) {
-            String optionKey = task.getChosenOption();
-            chosenOption = template.getOption(optionKey);
-            transitions.add(new Transition(task, chosenOption, nextTask, null));
-            buildWorkflowFromInstances(context, nextTask);
+        return byName.get(workflowId);
+    }
+
+    /**
+     * scan instances and configuration assuming that the resource references the first instance; the chain of
+     * instances is walked in a loop (linked in memory if loaded together by the workflow id), the options not
+     * chosen are added afterwards from the last instance backwards (the order of the graph is kept)
+     */
+    protected void buildWorkflowFromInstances(@Nonnull final BeanContext context,
+                                              @Nonnull final WorkflowTaskInstance first) {
+        List<WorkflowTaskInstance> chain = new ArrayList<>();
+        List<WorkflowTask.Option> chosenOptions = new ArrayList<>();
+        WorkflowTaskInstance task = first;
+        while (task != null) {
+            putInstance(task); // throws an exception if the chain contains a cycle
+            if (!instances.contains(task)) {
+                instances.add(task);
+            }
+            if (task.getState() != WorkflowTaskInstance.State.finished) {
+                openTasks.add(task);
+            } else {
+                Calendar taskFinished = task.getFinished();
+                if (taskFinished != null && (finished == null || finished.before(taskFinished))) {
+                    finished = taskFinished;
+                    lastTask = task;
+                }
+            }
+            WorkflowTaskInstance nextTask = task.getNextTask();
+            WorkflowTask.Option chosenOption = null;
+            if (nextTask != null) {
+                chosenOption = task.getTemplate().getOption(task.getChosenOption());
+                addTransition(new Transition(task, chosenOption, nextTask, null));
+            }
+            chain.add(task);
+            chosenOptions.add(chosenOption);
+            task = nextTask;
         }
-        for (WorkflowTask.Option option : template.getOptions()) {
-            if (!option.equals(chosenOption)) {
-                addOption(context, task, option);
+        for (int i = chain.size() - 1; i >= 0; i--) {
+            task = chain.get(i);
+            for (WorkflowTask.Option option : task.getTemplate().getOptions()) {
+                if (!option.equals(chosenOptions.get(i))) {
+                    addOption(context, task, option);
+                }
             }
         }
     }
@@ -347,34 +430,105 @@ public abstract class Workflow extends LoadedModel {
         }
     }
 
+    /**
+     * adds the graph of the compiled workflow definition which starts with the given template
+     */
     protected void buildWorkflowFromTemplates(@Nonnull final BeanContext context,
                                               @Nonnull final WorkflowTaskTemplate task,
                                               @Nullable final WorkflowTask.Option optionToTask) {
+        WorkflowDefinition definition = getDefinition(context, task.getPath());
+        if (definition != null) {
+            buildWorkflowFromDefinition(context, definition, WorkflowDefinition.START, task, optionToTask);
+        } else if (!getTasks().containsKey(task.getPath())) {
+            LOG.warn("no workflow definition available for '{}'", task.getPath());
+            putTemplate(task, task.getPath());
+        }
+    }
+
+    /**
+     * a template node of the definition walk with the position in the transitions of the node
+     */
+    protected static class DefinitionStep {
+
+        protected final WorkflowTaskTemplate task;
+        protected final int[] transitions;
+        protected int next = 0;
+
+        protected DefinitionStep(@Nonnull final WorkflowTaskTemplate task, @Nonnull final int[] transitions) {
+            this.task = task;
+            this.transitions = transitions;
+        }
+    }
+
+    /**
+     * builds the graph of the request (the template models) along the compiled definition; the definition is
+     * walked depth first with an explicit stack (the order of the graph is the order of a recursive walk)
+     *
+     * @param node the id of the tasks node in the definition
+     */
+    protected void buildWorkflowFromDefinition(@Nonnull final BeanContext context,
+                                               @Nonnull final WorkflowDefinition definition, int node,
+                                               @Nonnull final WorkflowTaskTemplate task,
+                                               @Nullable final WorkflowTask.Option optionToTask) {
+        Deque<DefinitionStep> steps = new ArrayDeque<>();
+        DefinitionStep step = enterDefinitionNode(definition, node, task, optionToTask);
+        if (step != null) {
+            steps.push(step);
+        }
+        while ((step = steps.peek()) != null) {
+            if (step.next < step.transitions.length) {
+                int transition = step.transitions[step.next++];
+                WorkflowTask.Option option = step.task.getOption(definition.getOptionKey(transition));
+                if (option != null) {
+                    WorkflowTaskTemplate template = option.getTemplate();
+                    addTransition(new Transition(step.task, option, template, getTemplateKey(template)));
+                    int target = definition.getTarget(transition);
+                    if (template != null && target != WorkflowDefinition.END) {
+                        DefinitionStep following = enterDefinitionNode(definition, target, template, option);
+                        if (following != null) {
+                            steps.push(following);
+                        }
+                    }
+                }
+            } else {
+                steps.pop();
+            }
+        }
+    }
+
+    /**
+     * adds the template of a definition node to the graph
+     *
+     * @return the step to walk the transitions of the node; 'null' if the node is a loop (the walk stops here)
+     */
+    @Nullable
+    protected DefinitionStep enterDefinitionNode(@Nonnull final WorkflowDefinition definition, int node,
+                                                 @Nonnull final WorkflowTaskTemplate task,
+                                                 @Nullable final WorkflowTask.Option optionToTask) {
         String key = task.getPath();
-        if (getTasks().containsKey(key)) {
-            // this is a loop; it's ok but we should stop building here
-            addTemplate(task, getTemplateKey(task));
+        if (definition.isLoop(node) || getTasks().containsKey(key)) {
+            // this is a loop (in the definition or to a task of a running workflow); it's ok but we should stop here
+            putTemplate(task, getTemplateKey(task));
+            loopKeys.merge(key, 1, Integer::sum);
             if (optionToTask != null) {
                 optionToTask.setIsLoop(true);
             } else {
                 throw new IllegalStateException("unexpected template loop: '" + task.getPath() + "'");
             }
-        } else {
-            addTemplate(task, key);
-            for (WorkflowTask.Option option : task.getOptions()) {
-                addOption(context, task, option);
-            }
+            return null;
         }
+        putTemplate(task, key);
+        return new DefinitionStep(task, definition.getTransitions(node));
     }
 
+    /**
+     * @return the key of the template in the tasks map; a loop key ('path#i') if the template is already present
+     */
     protected String getTemplateKey(WorkflowTaskTemplate template) {
         if (template != null) {
             String key = template.getPath();
-            LinkedHashMap<String, WorkflowTask> tasks = getTasks();
-            if (tasks.containsKey(key)) {
-                int i = 0;
-                while (tasks.containsKey(key + "#" + i)) i++;
-                return key + "#" + i;
+            if (getTasks().containsKey(key)) {
+                return key + "#" + loopKeys.getOrDefault(key, 0);
             }
         }
         return null;
@@ -383,7 +537,7 @@ public abstract class Workflow extends LoadedModel {
     protected void addOption(@Nonnull final BeanContext context,
                              @Nonnull final WorkflowTask task, @Nonnull final WorkflowTask.Option option) {
         WorkflowTaskTemplate template = option.getTemplate();
-        transitions.add(new Transition(task, option, template, getTemplateKey(template)));
+        addTransition(new Transition(task, option, template, getTemplateKey(template)));
         if (template != null) {
             buildWorkflowFromTemplates(context, template, option);
         }
@@ -0,0 +1,193 @@
+package com.composum.platform.workflow.model;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.sling.api.resource.Resource;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+
+import static com.composum.platform.workflow.model.WorkflowTask.PN_TEMPLATE;
+import static com.composum.platform.workflow.model.WorkflowTask.PP_OPTIONS;
+
+/**
+ * the compiled (immutable) graph of a workflow declared by task templates
+ * <p>
+ * the nodes (tasks) and the transitions (options) are identified by dense integer ids in the order of a depth
+ * first walk starting with the first task (node 0); a node of a template which is already part of the graph is
+ * marked as loop and not expanded; the definition doesn't depend on the user and can be shared between requests
+ * </p>
+ */
+public class WorkflowDefinition {
+
+    /** the id of the start node */
+    public static final int START = 0;
+
+    /** the target of a transition which ends the workflow */
+    public static final int END = -1;
+
+    protected final String[] taskPaths;
+    protected final boolean[] loops;
+    protected final int[][] transitions;
+    protected final String[] optionKeys;
+    protected final int[] targets;
+    protected final Set<String> dependencies;
+
+    protected WorkflowDefinition(@Nonnull final Compiler compiler) {
+        int nodes = compiler.taskPaths.size();
+        taskPaths = compiler.taskPaths.toArray(new String[0]);
+        loops = new boolean[nodes];
+        transitions = new int[nodes][];
+        for (int node = 0; node < nodes; node++) {
+            loops[node] = compiler.loops.get(node);
+            List<Integer> nodeTransitions = compiler.transitions.get(node);
+            transitions[node] = new int[nodeTransitions.size()];
+            for (int i = 0; i < transitions[node].length; i++) {
+                transitions[node][i] = nodeTransitions.get(i);
+            }
+        }
+        optionKeys = compiler.optionKeys.toArray(new String[0]);
+        targets = new int[optionKeys.length];
+        for (int i = 0; i < targets.length; i++) {
+            targets[i] = compiler.targets.get(i);
+        }
+        dependencies = Collections.unmodifiableSet(compiler.dependencies);
+    }
+
+    /**
+     * @return the number of nodes of the graph
+     */
+    public int getTaskCount() {
+        return taskPaths.length;
+    }
+
+    @Nonnull
+    public String getTaskPath(int node) {
+        return taskPaths[node];
+    }
+
+    /**
+     * @return 'true' if the node references a template which is already part of the graph (not expanded)
+     */
+    public boolean isLoop(int node) {
+        return loops[node];
+    }
+
+    /**
+     * @return the ids of the transitions starting at the node (in the order of the templates options)
+     */
+    @Nonnull
+    public int[] getTransitions(int node) {
+        return transitions[node].clone();
+    }
+
+    /**
+     * @return the number of transitions of the graph
+     */
+    public int getTransitionCount() {
+        return optionKeys.length;
+    }
+
+    /**
+     * @return the name of the option of the transition
+     */
+    @Nonnull
+    public String getOptionKey(int transition) {
+        return optionKeys[transition];
+    }
+
+    /**
+     * @return the target node of the transition; {@link #END} if the option doesn't reference a template
+     */
+    public int getTarget(int transition) {
+        return targets[transition];
+    }
+
+    /**
+     * @return the paths of all templates the graph is built from including unresolved references
+     */
+    @Nonnull
+    public Set<String> getDependencies() {
+        return dependencies;
+    }
+
+    /**
+     * @return 'true' if the definition is affected by a change of the resource at the given path
+     */
+    public boolean dependsOn(@Nonnull final String path) {
+        String prefix = path + "/";
+        for (String dependency : dependencies) {
+            if (dependency.equals(path) || path.startsWith(dependency + "/") || dependency.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * compiles the graph of the templates starting with the given template
+     *
+     * @param start     the resource of the first task template
+     * @param templates the resolver of the referenced templates; returns 'null' if a template is not available
+     */
+    @Nonnull
+    public static WorkflowDefinition compile(@Nonnull final Resource start,
+                                             @Nonnull final Function<String, Resource> templates) {
+        Compiler compiler = new Compiler(templates);
+        compiler.compile(start);
+        return new WorkflowDefinition(compiler);
+    }
+
+    protected static class Compiler {
+
+        protected final Function<String, Resource> templates;
+
+        protected final List<String> taskPaths = new ArrayList<>();
+        protected final List<Boolean> loops = new ArrayList<>();
+        protected final List<List<Integer>> transitions = new ArrayList<>();
+        protected final List<String> optionKeys = new ArrayList<>();
+        protected final List<Integer> targets = new ArrayList<>();
+        protected final Set<String> dependencies = new LinkedHashSet<>();
+        protected final Set<String> visited = new HashSet<>();
+
+        protected Compiler(@Nonnull final Function<String, Resource> templates) {
+            this.templates = templates;
+        }
+
+        protected int compile(@Nonnull final Resource template) {
+            String path = template.getPath();
+            int node = taskPaths.size();
+            taskPaths.add(path);
+            dependencies.add(path);
+            List<Integer> nodeTransitions = new ArrayList<>();
+            transitions.add(nodeTransitions);
+            boolean isLoop = !visited.add(path);
+            loops.add(isLoop);
+            if (!isLoop) {
+                Resource options = template.getChild(PP_OPTIONS);
+                if (options != null) {
+                    for (Resource option : options.getChildren()) {
+                        int transition = optionKeys.size();
+                        optionKeys.add(option.getName());
+                        targets.add(END);
+                        nodeTransitions.add(transition);
+                        String targetPath = option.getValueMap().get(PN_TEMPLATE, "");
+                        if (StringUtils.isNotBlank(targetPath)) {
+                            dependencies.add(targetPath);
+                            Resource target = templates.apply(targetPath);
+                            if (target != null) {
+                                targets.set(transition, compile(target));
+                            }
+                        }
+                    }
+                }
+            }
+            return node;
+        }
+    }
+}
@@ -1,30 +1,64 @@
 package com.composum.platform.workflow.model;
 
+import com.composum.platform.workflow.service.WorkflowService;
 import com.composum.sling.core.util.XSS;
+import org.apache.commons.lang3.StringUtils;
 import org.apache.sling.api.SlingHttpServletRequest;
 
-import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Iterator;
 
 public class WorkflowInboxModel extends WorkflowServiceModel {
 
     public static final String PARAM_SCOPE = "scope";
+    /** the continuation token of the requested page of the task list */
+    public static final String PARAM_PAGE = "page";
+    /** the maximum number of tasks of a page */
+    public static final String PARAM_LIMIT = "limit";
+    /** the order of the task list: 'asc' (default) or 'desc' */
+    public static final String PARAM_ORDER = "order";
+
+    public static final int DEFAULT_LIMIT = 100;
+    public static final int MAX_LIMIT = 1000;
 
     public static final String SA_INBOX_SCOPE = "workflow.inbox.scope";
 
     private transient WorkflowTaskInstance.State scope;
-    private transient Collection<WorkflowTaskInstance> tasks;
+    private transient WorkflowService.TaskPage page;
 
     public Collection<WorkflowTaskInstance> getTasks() {
-        if (tasks == null) {
-            tasks = new ArrayList<>();
-            Iterator<WorkflowTaskInstance> iterator = getService().findTasks(context, getTenantId(), getScope());
-            while (iterator.hasNext()) {
-                tasks.add(iterator.next());
+        return getPage().getTasks();
+    }
+
+    /**
+     * @return the continuation token of the following page; 'null' if the last page is shown
+     */
+    public String getNext() {
+        return getPage().getNext();
+    }
+
+    protected WorkflowService.TaskPage getPage() {
+        if (page == null) {
+            page = getService().findTasks(context, getTenantId(), getScope(),
+                    getParameter(PARAM_PAGE), getLimit(), "desc".equalsIgnoreCase(getParameter(PARAM_ORDER)));
+        }
+        return page;
+    }
+
+    protected int getLimit() {
+        String limit = getParameter(PARAM_LIMIT);
+        if (StringUtils.isNotBlank(limit)) {
+            try {
+                return Math.max(1, Math.min(MAX_LIMIT, Integer.parseInt(limit)));
+            } catch (NumberFormatException ignore) {
             }
         }
-        return tasks;
+        return DEFAULT_LIMIT;
+    }
+
+    protected String getParameter(String name) {
+        SlingHttpServletRequest request = getRequest();
+        String value = request != null ? request.getParameter(name) : null;
+        return value != null ? XSS.filter(value) : null;
     }
 
     public WorkflowTaskInstance.State getScope() {
@@ -48,10 +48,14 @@ public abstract class WorkflowTaskInstance extends WorkflowTask {
      */
     public static final String INSTANCE_TYPE = "composum/platform/workflow/task/instance";
 
+    /** the state of a task stored with a stable path (property storage mode) */
+    public static final String PN_STATE = "state";
     public static final String PN_INITIATOR = "initiator";
     public static final String PN_CHOSEN_OPTION = "chosenOption";
     public static final String PN_PREVIOUS = "previous";
     public static final String PN_NEXT = "next";
+    /** the id of the workflow - the name of the first task instance of the workflow */
+    public static final String PN_WORKFLOW_ID = "workflowId";
 
     public static final String PN_EXECUTED = "executed";
     public static final String PN_EXECUTED_BY = PN_EXECUTED + "By";
@@ -59,6 +63,22 @@ public abstract class WorkflowTaskInstance extends WorkflowTask {
     public static final String PN_CANCELLED_BY = PN_CANCELLED + "By";
     public static final String PN_FINISHED = "finished";
     public static final String PN_FINISHED_BY = PN_FINISHED + "By";
+    /** the marker of a running task waiting for the completion of asynchronous actions (the start time) */
+    public static final String PN_ASYNC_PENDING = "asyncPending";
+    /** the topics of the pending asynchronous actions */
+    public static final String PN_ASYNC_TOPICS = "asyncTopics";
+    /** the messages of the failed completion of the asynchronous actions */
+    public static final String PN_ASYNC_FAILURE = "asyncFailure";
+    /** the Sling id of the instance which observes the completion of the asynchronous actions */
+    public static final String PN_ASYNC_OWNER = "asyncOwner";
+    /** the id of the service run which observes the completion (changed by each activation of the service) */
+    public static final String PN_ASYNC_RUN = "asyncRun";
+    /** the option of a run waiting for the completion of the task topic (following task and option topic deferred) */
+    public static final String PN_ASYNC_OPTION = "asyncOption";
+    /** the dialog data of the deferred option */
+    public static final String PP_ASYNC_DATA = "asyncData";
+    /** the request data of the deferred option */
+    public static final String PP_ASYNC_REQUEST = "asyncRequest";
 
     protected List<String> target;
     protected final WorkflowTaskTemplate template;
@@ -111,6 +131,21 @@ public abstract class WorkflowTaskInstance extends WorkflowTask {
         return getState() == State.finished && getProperty(PN_CANCELLED, Calendar.class) != null;
     }
 
+    /**
+     * @return 'true' if the task is running and waits for the completion of asynchronous actions
+     */
+    public boolean isCompletionPending() {
+        return getState() == State.running && getProperty(PN_ASYNC_PENDING, Calendar.class) != null;
+    }
+
+    /**
+     * @return the messages of a failed completion of the asynchronous actions of the task (empty if none)
+     */
+    @Nonnull
+    public List<String> getCompletionFailure() {
+        return Arrays.asList(getProperty(PN_ASYNC_FAILURE, new String[0]));
+    }
+
     /**
      * @return the 'current' time (finished : executed : created)
      */
@@ -244,6 +279,40 @@ public abstract class WorkflowTaskInstance extends WorkflowTask {
      */
     public abstract boolean isGraphAvailable();
 
+    /**
+     * @return the id of the workflow (the name of the first task); determined by the chain of the previous tasks
+     * if not stamped on the instance (an instance created before the stamping of the workflow id)
+     */
+    @Nonnull
+    public String getWorkflowId() {
+        String workflowId = getProperty(PN_WORKFLOW_ID, String.class);
+        if (StringUtils.isBlank(workflowId)) {
+            List<WorkflowTaskInstance> head = getHead();
+            workflowId = head.isEmpty() ? getName() : head.get(0).getName();
+        }
+        return workflowId;
+    }
+
+    /**
+     * @return the task id stored in the property ('previous', 'next' or 'workflowId'); 'null' if not present
+     */
+    @Nullable
+    protected String getTaskRefId(@Nonnull final String propertyName) {
+        return getProperty(propertyName, String.class);
+    }
+
+    /**
+     * sets the predecessor and the successor of an instance loaded together with all instances of its workflow
+     */
+    protected void linkTasks(@Nullable final WorkflowTaskInstance previous, @Nullable final WorkflowTaskInstance next) {
+        if (previous != null) {
+            previousTask = previous;
+        }
+        if (next != null) {
+            nextTask = next;
+        }
+    }
+
     /**
      * @return the predecessor task instance object if available
      */
@@ -9,7 +9,6 @@ import org.apache.sling.api.SlingHttpServletRequest;
 import org.apache.sling.api.resource.Resource;
 
 import javax.annotation.Nonnull;
-import java.util.List;
 
 import static com.composum.platform.workflow.model.Workflow.RA_WORKFLOW;
 
@@ -78,13 +77,7 @@ public class WorkflowTransition implements SlingBean {
                         }
                         task = workflow.getTask(initialResource);
                         if (task != null) {
-                            List<Workflow.Transition> transitions = workflow.getTransitions(task);
-                            for (Workflow.Transition transition : transitions) {
-                                if (transition.option.key.equals(suffix)) {
-                                    this.transition = transition;
-                                    break;
-                                }
-                            }
+                            transition = workflow.getTransition(task.getPath(), suffix);
                             if (transition == null) {
                                 throw new IllegalArgumentException("unknown option '" + suffix + "'");
                             }
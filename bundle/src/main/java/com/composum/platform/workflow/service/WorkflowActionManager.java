@@ -15,6 +15,16 @@ public interface WorkflowActionManager {
         int getRanking();
 
         WorkflowAction getAction();
+
+        /**
+         * @return 'true' if the pending changes of the transition must be committed before the action is executed
+         */
+        boolean isSeparateTransaction();
+
+        /**
+         * @return 'true' if the action can be executed concurrently with the other parallel actions of the topic
+         */
+        boolean isParallel();
     }
 
     @Nullable
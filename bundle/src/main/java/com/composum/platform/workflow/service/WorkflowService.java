@@ -13,9 +13,12 @@ import org.osgi.service.metatype.annotations.ObjectClassDefinition;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.util.Calendar;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
 
 public interface WorkflowService extends SlingBeanFactory {
 
@@ -58,6 +61,61 @@ public interface WorkflowService extends SlingBeanFactory {
                 description = "the cron rule for scheduling the workflow purge job (no scheduling if empty)"
         )
         String purge_job_cron() default "0 23 1 * * ?";
+
+        @AttributeDefinition(
+                name = "Purge time budget",
+                description = "the maximum duration of a purge job run in seconds; the next run resumes the purge "
+                        + "(no limit if '0')"
+        )
+        int purge_time_budget() default 1800;
+
+        @AttributeDefinition(
+                name = "Purge batch size",
+                description = "the number of task instances removed in one commit by the purge job"
+        )
+        int purge_batch_size() default 100;
+
+        @AttributeDefinition(
+                name = "Purge batch pause",
+                description = "the pause in milliseconds between two batches of the purge job"
+        )
+        long purge_batch_pause() default 200L;
+
+        @AttributeDefinition(
+                name = "State folder bucketing",
+                description = "the sub folder scheme for the task instances of a state folder: 'none' (flat), "
+                        + "'hash' (a hash prefix folder of the task id) or 'date' (year/month of the task creation)"
+        )
+        String state_folder_bucketing() default "none";
+
+        @AttributeDefinition(
+                name = "Task storage",
+                description = "the storage mode of the task instances: 'folder' (a task is moved into the "
+                        + "folder of its current state) or 'property' (a task keeps its path in the 'tasks' folder "
+                        + "and the state is stored as property)"
+        )
+        String task_storage() default "folder";
+
+        @AttributeDefinition(
+                name = "Storage migration",
+                description = "if enabled the existing task instances are moved into the configured storage layout "
+                        + "by a job started on service activation"
+        )
+        boolean storage_migration() default false;
+
+        @AttributeDefinition(
+                name = "Parallel actions",
+                description = "if enabled the actions of a topic declared as 'parallel' are executed concurrently "
+                        + "by the 'WorkflowActions' thread pool; otherwise all actions are executed one after another"
+        )
+        boolean parallel_actions() default true;
+
+        @AttributeDefinition(
+                name = "Parallel action timeout",
+                description = "the maximum duration in seconds of a group of parallel actions; an action which is "
+                        + "not done in time is cancelled and the transition fails; no limit if '0'"
+        )
+        int parallel_action_timeout() default 300;
     }
 
     @Nullable
@@ -75,6 +133,19 @@ public interface WorkflowService extends SlingBeanFactory {
                                      @Nullable String tenantId,
                                      @Nullable Resource target);
 
+    /**
+     * retrieves the applicable workflows for each of the given targets in one call
+     *
+     * @param context  the current request context
+     * @param tenantId the related tenant (must be selected by the user)
+     * @param targets  the resources to retrieve appropriate workflows for
+     * @return the list of workflows for each target by the path of the target
+     */
+    @Nonnull
+    Map<String, List<Workflow>> findApplicableWorkflows(@Nonnull BeanContext context,
+                                                        @Nullable String tenantId,
+                                                        @Nonnull Collection<Resource> targets);
+
     /**
      * retrieves the workflow which contains the resource as task
      *
@@ -84,6 +155,147 @@ public interface WorkflowService extends SlingBeanFactory {
     @Nullable
     Workflow getWorkflow(@Nonnull final BeanContext context, @Nonnull final Resource resource);
 
+    /**
+     * loads all task instances of a workflow by the stamped workflow id (one query)
+     *
+     * @param context    the current request context
+     * @param workflowId the id of the workflow (the name of the first task instance)
+     * @return the instances of the workflow (instances not accessible by the user as references)
+     */
+    @Nonnull
+    Collection<WorkflowTaskInstance> findWorkflowInstances(@Nonnull BeanContext context, @Nonnull String workflowId);
+
+    /**
+     * the history of a workflow replayed from the journal of the transitions (the audit trail)
+     */
+    interface Trail {
+
+        /**
+         * the types of the journal events
+         */
+        enum Type {
+            /** a task is added; value: the template path, ref: the id of the previous task */
+            added,
+            /** a task is executed; value: the chosen option */
+            run,
+            /** a task is finished */
+            finished,
+            /** a task is cancelled */
+            cancelled,
+            /** a comment is added to a task; value: the comment text */
+            comment
+        }
+
+        /**
+         * one event of the journal
+         */
+        interface Event {
+
+            @Nonnull
+            Type getType();
+
+            @Nonnull
+            Calendar getTime();
+
+            @Nonnull
+            String getWorkflowId();
+
+            @Nonnull
+            String getTaskId();
+
+            @Nullable
+            String getUser();
+
+            /**
+             * @return the template of an added task, the option of a run, the text of a comment
+             */
+            @Nullable
+            String getValue();
+
+            /**
+             * @return the previous task of an added task
+             */
+            @Nullable
+            String getRef();
+        }
+
+        /**
+         * the replayed state of one task of the workflow
+         */
+        interface Step {
+
+            @Nonnull
+            String getTaskId();
+
+            @Nullable
+            String getTemplate();
+
+            @Nullable
+            String getPrevious();
+
+            @Nullable
+            Calendar getAdded();
+
+            @Nullable
+            Calendar getExecuted();
+
+            @Nullable
+            String getExecutedBy();
+
+            @Nullable
+            String getOption();
+
+            @Nullable
+            Calendar getFinished();
+
+            @Nullable
+            String getFinishedBy();
+
+            boolean isCancelled();
+
+            boolean isOpen();
+
+            @Nonnull
+            List<? extends Event> getComments();
+        }
+
+        @Nonnull
+        String getWorkflowId();
+
+        /**
+         * @return all events of the workflow in the order of the journal
+         */
+        @Nonnull
+        List<? extends Event> getEvents();
+
+        /**
+         * @return the replayed tasks of the workflow in the order of their first event
+         */
+        @Nonnull
+        Collection<? extends Step> getSteps();
+
+        @Nullable
+        Step getStep(@Nonnull String taskId);
+
+        /**
+         * @return the steps which are added as the follower of the given task (the chosen transitions)
+         */
+        @Nonnull
+        List<? extends Step> getNext(@Nonnull String taskId);
+
+        boolean isOpen();
+    }
+
+    /**
+     * replays the journal of the tenant of a workflow from the start of the workflow
+     *
+     * @param context    the current request context
+     * @param workflowId the id of the workflow (the name of the first task instance)
+     * @return the history of the workflow; 'null' if the workflow is not available
+     */
+    @Nullable
+    Trail getTrail(@Nonnull BeanContext context, @Nonnull String workflowId);
+
     /**
      * find all open workflows which are initiated (started; implicit or explicit) by one user
      *
@@ -113,6 +325,51 @@ public interface WorkflowService extends SlingBeanFactory {
     Iterator<WorkflowTaskInstance> findTasks(@Nonnull BeanContext context, @Nullable String tenantId,
                                              @Nullable WorkflowTaskInstance.State scope);
 
+    /**
+     * a page of a task list with the continuation token of the following page
+     */
+    interface TaskPage {
+
+        /**
+         * @return the tasks of the page in the requested order
+         */
+        @Nonnull
+        List<WorkflowTaskInstance> getTasks();
+
+        /**
+         * @return the token to retrieve the following page; 'null' if this is the last page
+         */
+        @Nullable
+        String getNext();
+    }
+
+    /**
+     * retrieves one page of the list of tasks in the requested scope ordered by the time of the state change
+     * (created for 'pending', executed for 'running', finished for 'finished'); only the tasks of the page are loaded
+     *
+     * @param context    the current request context
+     * @param tenantId   the related tenant (must be selected by the user)
+     * @param scope      the status scope of the retrieval; default: pending
+     * @param page       the continuation token of the requested page ({@link TaskPage#getNext()}); 'null': first page
+     * @param limit      the maximum number of tasks of the page
+     * @param descending 'true' if the latest tasks should be delivered first
+     */
+    @Nonnull
+    TaskPage findTasks(@Nonnull BeanContext context, @Nullable String tenantId,
+                       @Nullable WorkflowTaskInstance.State scope, @Nullable String page, int limit,
+                       boolean descending);
+
+    /**
+     * counts the tasks of the current user (assigned to the user, to one of the users groups or unassigned)
+     * using the task counters maintained with each task change (without loading the tasks)
+     *
+     * @param context  the current request context
+     * @param tenantId the related tenant; all tenants if 'null'
+     * @return the number of tasks for each state
+     */
+    @Nonnull
+    Map<WorkflowTaskInstance.State, Long> countTasks(@Nonnull BeanContext context, @Nullable String tenantId);
+
     /**
      * loads a task instance from the repository
      *
@@ -137,6 +394,16 @@ public interface WorkflowService extends SlingBeanFactory {
     @Nullable
     WorkflowTaskInstance.State getState(@Nonnull BeanContext context, @Nonnull String pathOrId);
 
+    /**
+     * the change stamp of a rendered workflow graph
+     *
+     * @param context the current request context
+     * @param path    the path of a task instance or of a task template
+     * @return the time of the last transition of the workflow of a task instance or the time of the last change
+     * of the templates; '0' if not known (the graph must be rendered for each request)
+     */
+    long getGraphChanged(@Nonnull BeanContext context, @Nonnull String path);
+
     /**
      * @return the tenant id derived from the hint (task instance path or another path or a tenant parameter)
      */
@@ -206,4 +473,118 @@ public interface WorkflowService extends SlingBeanFactory {
      */
     void purgeTasks(@Nonnull BeanContext context, int daysToKeep)
             throws PersistenceException;
+
+    /**
+     * the progress of a purge run
+     */
+    interface PurgeProgress {
+
+        /**
+         * @return the number of expired workflows read so far (the expired workflows are read per batch)
+         */
+        int getExpired();
+
+        /**
+         * @return the number of workflows removed so far
+         */
+        int getWorkflows();
+
+        /**
+         * @return the number of task instances removed so far
+         */
+        int getTasks();
+
+        /**
+         * @return the duration of the run in milliseconds
+         */
+        long getDuration();
+
+        /**
+         * @return the finished date of the last removed workflow (the start of the next run if not complete)
+         */
+        @Nullable
+        Calendar getResumePoint();
+
+        /**
+         * @return 'true' if all expired workflows are removed
+         */
+        boolean isComplete();
+    }
+
+    /**
+     * removes the tasks of workflows finished before the date 'daysToKeep' in the past in batches; the run
+     * starts at the resume point of an incomplete run before and ends with the time budget; the journal events of
+     * the removed workflows are removed with their tasks, a complete run removes the journal segments left empty
+     *
+     * @param context    the current request context (must have all privileges to remove tasks)
+     * @param daysToKeep the number of days to keep finished workflows
+     * @param batchSize  the number of task instances removed in one commit
+     * @param timeBudget the maximum duration of the run in milliseconds; no limit if '0'
+     * @param batchPause the pause between two batches in milliseconds
+     * @param proceed    called after each batch; the run is stopped if 'false' is returned
+     * @return the progress of the run
+     */
+    @Nonnull
+    PurgeProgress purgeTasks(@Nonnull BeanContext context, int daysToKeep, int batchSize, long timeBudget,
+                             long batchPause, @Nullable Predicate<PurgeProgress> proceed)
+            throws PersistenceException;
+
+    /**
+     * moves all task instances into the storage layout of the current configuration (state folder bucketing)
+     *
+     * @param context the current request context (must have all privileges to move tasks)
+     * @return the number of task instances moved
+     */
+    int migrateTasks(@Nonnull BeanContext context)
+            throws PersistenceException;
+
+    /**
+     * stamps the workflow id on all task instances created before the stamping of the workflow id
+     *
+     * @param context the current request context (must have all privileges to change tasks)
+     * @return the number of task instances stamped
+     */
+    int stampWorkflowIds(@Nonnull BeanContext context)
+            throws PersistenceException;
+
+    /**
+     * creates the summaries of the workflows started before the summaries (the workflow ids must be stamped)
+     *
+     * @param context the current request context (must have all privileges to change tasks)
+     * @return the number of summaries created
+     */
+    int createSummaries(@Nonnull BeanContext context)
+            throws PersistenceException;
+
+    /**
+     * creates the task counters of the tenants without counters (the counts of tasks created before the counters)
+     *
+     * @param context the current request context (must have all privileges to change the workflow root)
+     * @return the number of tenants initialized
+     */
+    int createCounters(@Nonnull BeanContext context)
+            throws PersistenceException;
+
+    /**
+     * determines the tasks waiting for the completion of asynchronous actions which are no longer observed; the
+     * actions were started by a former run of the service on this instance (or by an unknown instance)
+     *
+     * @param context the current request context (must have the privileges to read all tasks)
+     * @return the paths of the tasks mapped to the id of the service run which has started the actions
+     */
+    @Nonnull
+    Map<String, String> findOrphanedCompletions(@Nonnull BeanContext context);
+
+    /**
+     * calls the asynchronous actions of a task which are no longer observed again and observes their completion
+     *
+     * @param context  the current request context (must have all privileges to change tasks)
+     * @param taskPath the path of the task waiting for the completion
+     * @param run      the id of the service run which has started the actions (the task is skipped if changed)
+     * @param giveUp   if 'true' the completion is marked as failed if the actions are not available
+     * @return 'false' if the actions are not available (yet), 'true' if resumed or nothing to resume
+     */
+    boolean resumeCompletion(@Nonnull BeanContext context, @Nonnull String taskPath, @Nullable String run,
+                             boolean giveUp)
+            throws PersistenceException;
 }
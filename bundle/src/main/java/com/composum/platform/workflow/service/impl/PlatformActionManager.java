@@ -113,6 +113,8 @@ public class PlatformActionManager implements WorkflowActionManager {
         public final ServiceReference<WorkflowAction> actionReference;
         public final long serviceId;
         public final int ranking;
+        public final boolean separateTransaction;
+        public final boolean parallel;
 
         private transient WorkflowAction action;
 
@@ -121,6 +123,10 @@ public class PlatformActionManager implements WorkflowActionManager {
             this.serviceId = (Long) actionReference.getProperty(Constants.SERVICE_ID);
             final Object property = actionReference.getProperty(Constants.SERVICE_RANKING);
             this.ranking = !(property instanceof Integer) ? 0 : (Integer) property;
+            this.separateTransaction = WorkflowAction.TRANSACTION_SEPARATE.equals(
+                    PropertiesUtil.toString(actionReference.getProperty(WorkflowAction.PROPERTY_TRANSACTION), ""));
+            this.parallel = WorkflowAction.EXECUTION_PARALLEL.equals(
+                    PropertiesUtil.toString(actionReference.getProperty(WorkflowAction.PROPERTY_EXECUTION), ""));
         }
 
         @Override
@@ -141,6 +147,16 @@ public class PlatformActionManager implements WorkflowActionManager {
             return ranking;
         }
 
+        @Override
+        public boolean isSeparateTransaction() {
+            return separateTransaction;
+        }
+
+        @Override
+        public boolean isParallel() {
+            return parallel;
+        }
+
         @Override
         public int compareTo(@Nonnull final ActionReference other) {
             CompareToBuilder builder = new CompareToBuilder();
@@ -0,0 +1,105 @@
+package com.composum.platform.workflow.service.impl;
+
+import com.composum.platform.workflow.service.WorkflowService;
+import com.composum.sling.core.BeanContext;
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.apache.sling.event.jobs.Job;
+import org.apache.sling.event.jobs.JobManager;
+import org.apache.sling.event.jobs.consumer.JobConsumer;
+import org.apache.sling.event.jobs.consumer.JobExecutor;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.composum.platform.workflow.service.impl.PlatformWorkflowAsyncResumeJob.ASYNC_RESUME_JOB_TOPIC;
+
+/**
+ * a Job implementation to resume the asynchronous actions of the tasks waiting for a completion which is no longer
+ * observed (the actions started by a former run of the workflow service on this instance); one job per task,
+ * the job is retried until the actions are available
+ */
+@Component(
+        service = JobConsumer.class,
+        property = {
+                Constants.SERVICE_DESCRIPTION + "=Composum Platform Workflow Async Resume Job",
+                JobExecutor.PROPERTY_TOPICS + "=" + ASYNC_RESUME_JOB_TOPIC
+        },
+        immediate = true
+)
+public class PlatformWorkflowAsyncResumeJob implements JobConsumer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PlatformWorkflowAsyncResumeJob.class);
+
+    public static final String ASYNC_RESUME_JOB_TOPIC = "composum/platform/workflow/async/resume";
+
+    public static final String PN_TASK_PATH = "taskPath";
+    public static final String PN_ASYNC_RUN = "asyncRun";
+
+    @Reference
+    protected ResourceResolverFactory resolverFactory;
+
+    @Reference
+    protected JobManager jobManager;
+
+    @Reference
+    protected WorkflowService workflowService;
+
+    @Activate
+    public void activate(BundleContext bundleContext) {
+        try (final ResourceResolver serviceResolver = resolverFactory.getServiceResourceResolver(null)) {
+            Map<String, String> orphaned = workflowService.findOrphanedCompletions(
+                    new BeanContext.Service(serviceResolver));
+            for (Map.Entry<String, String> task : orphaned.entrySet()) {
+                Map<String, Object> template = Collections.singletonMap(PN_TASK_PATH, task.getKey());
+                if (jobManager.findJobs(JobManager.QueryType.ACTIVE, ASYNC_RESUME_JOB_TOPIC, 1, template).isEmpty()
+                        && jobManager.findJobs(JobManager.QueryType.QUEUED, ASYNC_RESUME_JOB_TOPIC, 1, template).isEmpty()) {
+                    if (LOG.isInfoEnabled()) {
+                        LOG.info("start workflow async resume job ({})", task.getKey());
+                    }
+                    Map<String, Object> properties = new HashMap<>();
+                    properties.put(PN_TASK_PATH, task.getKey());
+                    properties.put(PN_ASYNC_RUN, task.getValue());
+                    jobManager.addJob(ASYNC_RESUME_JOB_TOPIC, properties);
+                }
+            }
+        } catch (LoginException ex) {
+            LOG.error(ex.toString());
+        }
+    }
+
+    @Override
+    public JobResult process(Job job) {
+        String taskPath = job.getProperty(PN_TASK_PATH, String.class);
+        if (taskPath == null) {
+            return JobResult.CANCEL;
+        }
+        boolean giveUp = job.getRetryCount() >= job.getNumberOfRetries();
+        try (final ResourceResolver serviceResolver = resolverFactory.getServiceResourceResolver(null)) {
+            BeanContext serviceContext = new BeanContext.Service(serviceResolver);
+            if (!workflowService.resumeCompletion(serviceContext, taskPath,
+                    job.getProperty(PN_ASYNC_RUN, ""), giveUp)) {
+                if (LOG.isInfoEnabled()) {
+                    LOG.info("asynchronous actions of '{}' not available, retry ({})", taskPath, job.getRetryCount());
+                }
+                return JobResult.FAILED;
+            }
+        } catch (LoginException ex) {
+            LOG.error(ex.toString());
+            return JobResult.FAILED;
+        } catch (Exception ex) {
+            LOG.error(ex.getMessage(), ex);
+            return JobResult.FAILED;
+        }
+        return JobResult.OK;
+    }
+}
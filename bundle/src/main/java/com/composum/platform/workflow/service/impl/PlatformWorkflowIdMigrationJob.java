@@ -0,0 +1,79 @@
+package com.composum.platform.workflow.service.impl;
+
+import com.composum.platform.workflow.service.WorkflowService;
+import com.composum.sling.core.BeanContext;
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.apache.sling.event.jobs.Job;
+import org.apache.sling.event.jobs.JobManager;
+import org.apache.sling.event.jobs.consumer.JobConsumer;
+import org.apache.sling.event.jobs.consumer.JobExecutor;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static com.composum.platform.workflow.service.impl.PlatformWorkflowIdMigrationJob.WORKFLOW_ID_JOB_TOPIC;
+
+/**
+ * a Job implementation to stamp the workflow id on the task instances created before the id was introduced
+ * and to create the summaries of the workflows started before the summaries were introduced and the task
+ * counters of the tenants created before the counters were introduced
+ */
+@Component(
+        service = JobConsumer.class,
+        property = {
+                Constants.SERVICE_DESCRIPTION + "=Composum Platform Workflow Id Migration Job",
+                JobExecutor.PROPERTY_TOPICS + "=" + WORKFLOW_ID_JOB_TOPIC
+        },
+        immediate = true
+)
+public class PlatformWorkflowIdMigrationJob implements JobConsumer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PlatformWorkflowIdMigrationJob.class);
+
+    public static final String WORKFLOW_ID_JOB_TOPIC = "composum/platform/workflow/migrate/workflowId";
+
+    @Reference
+    protected ResourceResolverFactory resolverFactory;
+
+    @Reference
+    protected JobManager jobManager;
+
+    @Reference
+    protected WorkflowService workflowService;
+
+    @Activate
+    public void activate(BundleContext bundleContext) {
+        // a job queued by a former activation (not started yet) is not added again
+        if (jobManager.findJobs(JobManager.QueryType.ACTIVE, WORKFLOW_ID_JOB_TOPIC, 1).isEmpty()
+                && jobManager.findJobs(JobManager.QueryType.QUEUED, WORKFLOW_ID_JOB_TOPIC, 1).isEmpty()) {
+            jobManager.addJob(WORKFLOW_ID_JOB_TOPIC, null);
+        }
+    }
+
+    @Override
+    public JobResult process(Job job) {
+        try (final ResourceResolver serviceResolver = resolverFactory.getServiceResourceResolver(null)) {
+            BeanContext serviceContext = new BeanContext.Service(serviceResolver);
+            int count = workflowService.stampWorkflowIds(serviceContext);
+            int summaries = workflowService.createSummaries(serviceContext);
+            int counters = workflowService.createCounters(serviceContext);
+            if ((count > 0 || summaries > 0 || counters > 0) && LOG.isInfoEnabled()) {
+                LOG.info("Workflow id migration job execution done ({} tasks stamped, {} summaries created, "
+                        + "{} tenant counters created).", count, summaries, counters);
+            }
+        } catch (LoginException ex) {
+            LOG.error(ex.toString());
+            return JobResult.FAILED;
+        } catch (Exception ex) {
+            LOG.error(ex.getMessage(), ex);
+            return JobResult.FAILED;
+        }
+        return JobResult.OK;
+    }
+}
@@ -0,0 +1,90 @@
+package com.composum.platform.workflow.service.impl;
+
+import com.composum.platform.workflow.service.WorkflowService;
+import com.composum.sling.core.BeanContext;
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.apache.sling.event.jobs.Job;
+import org.apache.sling.event.jobs.JobManager;
+import org.apache.sling.event.jobs.consumer.JobConsumer;
+import org.apache.sling.event.jobs.consumer.JobExecutor;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Modified;
+import org.osgi.service.component.annotations.Reference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static com.composum.platform.workflow.service.impl.PlatformWorkflowMigrationJob.MIGRATION_JOB_TOPIC;
+
+/**
+ * a Job implementation to move the existing task instances into the configured storage layout
+ */
+@Component(
+        service = JobConsumer.class,
+        property = {
+                Constants.SERVICE_DESCRIPTION + "=Composum Platform Workflow Migration Job",
+                JobExecutor.PROPERTY_TOPICS + "=" + MIGRATION_JOB_TOPIC
+        },
+        immediate = true
+)
+public class PlatformWorkflowMigrationJob implements JobConsumer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PlatformWorkflowMigrationJob.class);
+
+    public static final String MIGRATION_JOB_TOPIC = "composum/platform/workflow/migrate";
+
+    @Reference
+    protected ResourceResolverFactory resolverFactory;
+
+    @Reference
+    protected JobManager jobManager;
+
+    @Reference
+    protected WorkflowService workflowService;
+
+    protected WorkflowService.Configuration config;
+
+    @Activate
+    @Modified
+    public void activate(BundleContext bundleContext) {
+        this.config = workflowService.getConfig();
+        if (config != null && config.storage_migration()) {
+            // a job queued by a former activation (not started yet) is not added again
+            if (jobManager.findJobs(JobManager.QueryType.ACTIVE, MIGRATION_JOB_TOPIC, 1).isEmpty()
+                    && jobManager.findJobs(JobManager.QueryType.QUEUED, MIGRATION_JOB_TOPIC, 1).isEmpty()) {
+                if (LOG.isInfoEnabled()) {
+                    LOG.info("start workflow storage migration job ({}, {})",
+                            config.task_storage(), config.state_folder_bucketing());
+                }
+                jobManager.addJob(MIGRATION_JOB_TOPIC, null);
+            }
+        }
+    }
+
+    @Override
+    public JobResult process(Job job) {
+        if (config != null) {
+            try (final ResourceResolver serviceResolver = resolverFactory.getServiceResourceResolver(null)) {
+                BeanContext serviceContext = new BeanContext.Service(serviceResolver);
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("Start of workflow migration job execution...");
+                }
+                int count = workflowService.migrateTasks(serviceContext);
+                if (LOG.isInfoEnabled()) {
+                    LOG.info("Workflow migration job execution done ({} tasks moved).", count);
+                }
+            } catch (LoginException ex) {
+                LOG.error(ex.toString());
+                return JobResult.FAILED;
+            } catch (Exception ex) {
+                LOG.error(ex.getMessage(), ex);
+                return JobResult.FAILED;
+            }
+        }
+        return JobResult.OK;
+    }
+}
@@ -5,13 +5,15 @@ import com.composum.platform.workflow.service.WorkflowService;
 import com.composum.sling.core.BeanContext;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.PersistenceException;
 import org.apache.sling.api.resource.ResourceResolver;
 import org.apache.sling.api.resource.ResourceResolverFactory;
 import org.apache.sling.event.jobs.Job;
 import org.apache.sling.event.jobs.JobBuilder;
 import org.apache.sling.event.jobs.JobManager;
 import org.apache.sling.event.jobs.ScheduledJobInfo;
-import org.apache.sling.event.jobs.consumer.JobConsumer;
+import org.apache.sling.event.jobs.consumer.JobExecutionContext;
+import org.apache.sling.event.jobs.consumer.JobExecutionResult;
 import org.apache.sling.event.jobs.consumer.JobExecutor;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.Constants;
@@ -23,22 +25,27 @@ import org.osgi.service.component.annotations.Reference;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
 import java.util.Collection;
+import java.util.function.Predicate;
 
 import static com.composum.platform.workflow.service.impl.PlatformWorkflowPurgeJob.PURGE_JOB_TOPIC;
 
 /**
- * a Job implementation to schedule the purge of finished workflows
+ * a Job implementation to schedule the purge of finished workflows; a run is limited by the configured time budget
+ * and resumed by the next run, the progress and the throughput of a run are reported in the job result; the job is
+ * registered as executor (progress log and stop between the batches), the consumer variant of the service interface
+ * is available for direct calls
  */
 @Component(
-        service = {JobConsumer.class, WorkflowPurgeJob.class},
+        service = {JobExecutor.class, WorkflowPurgeJob.class},
         property = {
                 Constants.SERVICE_DESCRIPTION + "=Composum Platform Workflow Purge Job",
                 JobExecutor.PROPERTY_TOPICS + "=" + PURGE_JOB_TOPIC
         },
         immediate = true
 )
-public class PlatformWorkflowPurgeJob implements WorkflowPurgeJob {
+public class PlatformWorkflowPurgeJob implements WorkflowPurgeJob, JobExecutor {
 
     private static final Logger LOG = LoggerFactory.getLogger(PlatformWorkflowPurgeJob.class);
 
@@ -100,21 +107,57 @@ public class PlatformWorkflowPurgeJob implements WorkflowPurgeJob {
     @Override
     public JobResult process(Job job) {
         if (config != null) {
-            try (final ResourceResolver serviceResolver = resolverFactory.getServiceResourceResolver(null)) {
-                BeanContext serviceContext = new BeanContext.Service(serviceResolver);
-                if (LOG.isDebugEnabled()) {
-                    LOG.debug("Start of workflow purge job execution...");
-                }
-                workflowService.purgeTasks(serviceContext, config.workflow_keep_days());
-                if (LOG.isInfoEnabled()) {
-                    LOG.info("Workflow purge job execution done.");
-                }
+            try {
+                purge(null);
             } catch (LoginException ex) {
                 LOG.error(ex.toString());
+                return JobResult.FAILED;
             } catch (Exception ex) {
                 LOG.error(ex.getMessage(), ex);
+                return JobResult.FAILED;
             }
         }
         return JobResult.OK;
     }
+
+    @Override
+    public JobExecutionResult process(Job job, JobExecutionContext context) {
+        if (config != null) {
+            try {
+                WorkflowService.PurgeProgress progress = purge(batch -> {
+                    context.log("{0}/{1} workflows ({2} tasks) removed",
+                            batch.getWorkflows(), batch.getExpired(), batch.getTasks());
+                    return !context.isStopped();
+                });
+                return context.result().message(progress.toString()).succeeded();
+            } catch (LoginException ex) {
+                LOG.error(ex.toString());
+                return context.result().message(ex.toString()).failed();
+            } catch (Exception ex) {
+                LOG.error(ex.getMessage(), ex);
+                return context.result().message(ex.toString()).failed();
+            }
+        }
+        return context.result().succeeded();
+    }
+
+    /**
+     * @param proceed called after each batch; the run is stopped if 'false' is returned
+     */
+    protected WorkflowService.PurgeProgress purge(@Nullable final Predicate<WorkflowService.PurgeProgress> proceed)
+            throws LoginException, PersistenceException {
+        try (final ResourceResolver serviceResolver = resolverFactory.getServiceResourceResolver(null)) {
+            BeanContext serviceContext = new BeanContext.Service(serviceResolver);
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Start of workflow purge job execution...");
+            }
+            WorkflowService.PurgeProgress progress = workflowService.purgeTasks(serviceContext,
+                    config.workflow_keep_days(), config.purge_batch_size(),
+                    config.purge_time_budget() * 1000L, config.purge_batch_pause(), proceed);
+            if (LOG.isInfoEnabled()) {
+                LOG.info("Workflow purge job execution done: {}", progress);
+            }
+            return progress;
+        }
+    }
 }
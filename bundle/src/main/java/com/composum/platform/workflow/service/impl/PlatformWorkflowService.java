@@ -1,11 +1,14 @@
 package com.composum.platform.workflow.service.impl;
 
 import com.composum.platform.commons.resource.ValueUnion;
+import com.composum.platform.commons.util.SlingThreadPoolExecutorService;
 import com.composum.platform.workflow.WorkflowAction;
+import com.composum.platform.workflow.WorkflowAsyncAction;
 import com.composum.platform.workflow.WorkflowException;
 import com.composum.platform.workflow.WorkflowTopic;
 import com.composum.platform.workflow.WorkflowValidator;
 import com.composum.platform.workflow.model.Workflow;
+import com.composum.platform.workflow.model.WorkflowDefinition;
 import com.composum.platform.workflow.model.WorkflowTask;
 import com.composum.platform.workflow.model.WorkflowTaskInstance;
 import com.composum.platform.workflow.model.WorkflowTaskTemplate;
@@ -20,6 +23,7 @@ import org.apache.commons.lang3.StringUtils;
 import org.apache.jackrabbit.JcrConstants;
 import org.apache.jackrabbit.api.JackrabbitSession;
 import org.apache.jackrabbit.api.security.user.UserManager;
+import org.apache.jackrabbit.util.ISO8601;
 import org.apache.sling.api.SlingHttpServletRequest;
 import org.apache.sling.api.resource.LoginException;
 import org.apache.sling.api.resource.ModifiableValueMap;
@@ -28,13 +32,19 @@ import org.apache.sling.api.resource.Resource;
 import org.apache.sling.api.resource.ResourceResolver;
 import org.apache.sling.api.resource.ResourceResolverFactory;
 import org.apache.sling.api.resource.ValueMap;
+import org.apache.sling.api.resource.observation.ResourceChange;
+import org.apache.sling.api.resource.observation.ResourceChangeListener;
 import org.apache.sling.api.wrappers.ValueMapDecorator;
 import org.apache.sling.commons.classloader.DynamicClassLoaderManager;
+import org.apache.sling.commons.threads.ThreadPoolManager;
+import org.apache.sling.settings.SlingSettingsService;
 import org.apache.sling.tenant.Tenant;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceRegistration;
 import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
 import org.osgi.service.component.annotations.Modified;
 import org.osgi.service.component.annotations.Reference;
 import org.osgi.service.metatype.annotations.Designate;
@@ -43,22 +53,48 @@ import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
 import javax.jcr.Session;
 import javax.jcr.query.Query;
 import java.io.Closeable;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Base64;
 import java.util.Calendar;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.Dictionary;
+import java.util.EnumMap;
 import java.util.GregorianCalendar;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TimeZone;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Predicate;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -78,6 +114,7 @@ import static com.composum.platform.workflow.model.WorkflowTaskInstance.PN_FINIS
 import static com.composum.platform.workflow.model.WorkflowTaskInstance.PN_FINISHED_BY;
 import static com.composum.platform.workflow.model.WorkflowTaskInstance.PN_INITIATOR;
 import static com.composum.platform.workflow.model.WorkflowTaskInstance.PN_NEXT;
+import static com.composum.platform.workflow.model.WorkflowTaskInstance.PN_STATE;
 import static com.composum.platform.workflow.model.WorkflowTaskInstance.PN_TEMPLATE;
 import static com.composum.platform.workflow.model.WorkflowTaskTemplate.TEMPLATE_TYPE;
 import static com.composum.platform.workflow.servlet.WorkflowServlet.PARAM_COMMENT;
@@ -96,11 +133,32 @@ public class PlatformWorkflowService implements WorkflowService {
 
     public static final String PLATFORM_ID = "platform";
 
+    /** the name prefix of each task instance node */
+    public static final String TASK_PREFIX = "wft-";
+
+    /** the syntax of a task id (the name of a task instance node) */
+    protected static final Pattern TASK_ID = Pattern.compile("^" + TASK_PREFIX + "[A-Za-z0-9_-]+$");
+
+    /** the state folder bucketing schemes */
+    public static final String BUCKETING_NONE = "none";
+    public static final String BUCKETING_HASH = "hash";
+    public static final String BUCKETING_DATE = "date";
+
+    /** the task storage modes */
+    public static final String STORAGE_FOLDER = "folder";
+    public static final String STORAGE_PROPERTY = "property";
+
+    /** the name of the tenants task folder in the property storage mode */
+    public static final String TASKS_FOLDER = "tasks";
+
+    /** the number of moved tasks committed together during a storage migration */
+    protected static final int MIGRATION_BATCH_SIZE = 100;
+
     protected static final Map<String, Object> STATE_FOLDER_PROPERTIES;
 
     static {
         STATE_FOLDER_PROPERTIES = new HashMap<>();
-        STATE_FOLDER_PROPERTIES.put(JcrConstants.JCR_PRIMARYTYPE, ResourceUtil.TYPE_SLING_ORDERED_FOLDER);
+        STATE_FOLDER_PROPERTIES.put(JcrConstants.JCR_PRIMARYTYPE, ResourceUtil.TYPE_SLING_FOLDER);
     }
 
     protected static final Map<String, Object> SUBNODE_PROPERTIES;
@@ -110,6 +168,15 @@ public class PlatformWorkflowService implements WorkflowService {
         SUBNODE_PROPERTIES.put(JcrConstants.JCR_PRIMARYTYPE, ResourceUtil.TYPE_UNSTRUCTURED);
     }
 
+    /** the number of task instances stamped with the workflow id in one commit */
+    protected static final int STAMP_BATCH_SIZE = 100;
+
+    /** the finished date of the last workflow removed by an incomplete purge stored at the workflow root */
+    public static final String PN_PURGE_RESUME_POINT = "purgeResumePoint";
+
+    /** the name of the thread pool of the parallel actions (the size is configured by the Sling thread pool) */
+    public static final String ACTIONS_THREADPOOL_NAME = "WorkflowActions";
+
     protected static final String WRITE_PRIVILEGE_KEY = "rep:write";
     protected static final String[] TASK_PRIVILEGE_KEYS = new String[]{"jcr:read"};
 
@@ -123,8 +190,7 @@ public class PlatformWorkflowService implements WorkflowService {
             ValueMap values = resource.getValueMap();
             String assignee = values.get(PN_ASSIGNEE, "");
             Session session = resource.getResourceResolver().adaptTo(Session.class);
-            return StringUtils.isBlank(assignee) || (session != null &&
-                    (permissionsService.isMemberOfAll(session, assignee) || assignee.equals(session.getUserID())));
+            return StringUtils.isBlank(assignee) || (session != null && getAccess(session).isAssignee(assignee));
         }
 
         @Override
@@ -150,12 +216,224 @@ public class PlatformWorkflowService implements WorkflowService {
     @Reference
     protected WorkflowActionManager actionManager;
 
+    @Reference
+    protected ThreadPoolManager threadPoolManager;
+
+    @Reference
+    protected SlingSettingsService slingSettings;
+
     protected Configuration config;
 
+    protected Pattern pathPattern;
+
+    protected WorkflowTaskIndex taskIndex;
+
+    protected WorkflowTaskCounters taskCounters;
+
+    protected WorkflowSummaries summaries;
+
+    protected WorkflowJournal journal;
+
+    protected WorkflowAccessCache accessCache;
+    protected ServiceRegistration<ResourceChangeListener> taskIndexRegistration;
+
+    protected WorkflowTemplateCache templateCache;
+    protected ServiceRegistration<ResourceChangeListener> templateCacheRegistration;
+
+    protected WorkflowCatalog workflowCatalog;
+    protected ServiceRegistration<ResourceChangeListener> workflowCatalogRegistration;
+
+    protected final WorkflowStatistics statistics = new WorkflowStatistics();
+    protected ServiceRegistration<WorkflowStatisticsMBean> statisticsRegistration;
+
+    protected final ThreadLocal<OperationScope> operationScope = new ThreadLocal<>();
+
+    /** set in the thread of a parallel action; the groups of nested topics are executed in this thread */
+    protected final ThreadLocal<Boolean> parallelExecution = new ThreadLocal<>();
+
+    /** the executor of the parallel actions and of the completion of the asynchronous actions */
+    protected volatile ExecutorService actionExecutor;
+
+    /** the id of this service run stored with the marker of a pending completion observed by this run */
+    protected final String asyncRun = UUID.randomUUID().toString();
+
+    /** the paths of the tasks waiting for a completion observed by this service run */
+    protected final Set<String> trackedCompletions = ConcurrentHashMap.newKeySet();
+
     @Activate
     @Modified
     protected void activate(BundleContext bundleContext, Configuration config) {
+        unregisterTaskIndex();
         this.config = config;
+        this.pathPattern = createPathPattern(config.workflow_root());
+        registerTaskIndex(bundleContext);
+        taskCounters = new WorkflowTaskCounters(config.workflow_root(), this::collectTasks, this::getState);
+        summaries = new WorkflowSummaries(config.workflow_root(), this::getState);
+        journal = new WorkflowJournal(config.workflow_root());
+        if (actionExecutor == null) {
+            actionExecutor = new SlingThreadPoolExecutorService(threadPoolManager, ACTIONS_THREADPOOL_NAME);
+        }
+        if (templateCacheRegistration == null) {
+            registerTemplateCache(bundleContext);
+        }
+        if (workflowCatalogRegistration == null) {
+            registerWorkflowCatalog(bundleContext);
+        }
+        if (statisticsRegistration == null) {
+            Dictionary<String, Object> properties = new Hashtable<>();
+            properties.put(Constants.SERVICE_DESCRIPTION, "Composum Platform Workflow Statistics");
+            properties.put("jmx.objectname", WorkflowStatisticsMBean.OBJECT_NAME);
+            statisticsRegistration = bundleContext.registerService(
+                    WorkflowStatisticsMBean.class, statistics, properties);
+        }
+    }
+
+    @Deactivate
+    protected void deactivate() {
+        unregisterTaskIndex();
+        unregisterTemplateCache();
+        unregisterWorkflowCatalog();
+        shutdownActionExecutor();
+        accessCache = null;
+        if (statisticsRegistration != null) {
+            try {
+                statisticsRegistration.unregister();
+            } catch (IllegalStateException ignore) {
+                // service is already unregistered
+            }
+            statisticsRegistration = null;
+        }
+    }
+
+    protected void shutdownActionExecutor() {
+        ExecutorService executor = actionExecutor;
+        actionExecutor = null;
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * registers the task id index as resource change listener of the workflow root and
+     * bootstraps the index in the background (lookups are falling back to a query until done)
+     */
+    protected void registerTaskIndex(BundleContext bundleContext) {
+        final WorkflowTaskIndex index = new WorkflowTaskIndex(config.workflow_root(), this::getTaskId);
+        Dictionary<String, Object> properties = new Hashtable<>();
+        properties.put(Constants.SERVICE_DESCRIPTION, "Composum Platform Workflow Task Index");
+        properties.put(ResourceChangeListener.PATHS, config.workflow_root());
+        properties.put(ResourceChangeListener.CHANGES, new String[]{
+                ResourceChange.ChangeType.ADDED.name(), ResourceChange.ChangeType.REMOVED.name()});
+        taskIndexRegistration = bundleContext.registerService(ResourceChangeListener.class, index, properties);
+        taskIndex = index;
+        Thread bootstrap = new Thread(() -> {
+            try (ResourceResolver serviceResolver = resolverFactory.getServiceResourceResolver(null)) {
+                index.bootstrap(serviceResolver, allTasksQuery());
+            } catch (Exception ex) {
+                LOG.error("task index bootstrap failed: {}", ex.toString());
+            }
+        }, "composum-workflow-task-index");
+        bootstrap.setDaemon(true);
+        bootstrap.start();
+    }
+
+    protected void unregisterTaskIndex() {
+        if (taskIndexRegistration != null) {
+            try {
+                taskIndexRegistration.unregister();
+            } catch (IllegalStateException ignore) {
+                // service is already unregistered
+            }
+            taskIndexRegistration = null;
+        }
+        taskIndex = null;
+    }
+
+    /**
+     * registers the template cache as resource change listener of the template root (invalidation on changes)
+     */
+    protected void registerTemplateCache(BundleContext bundleContext) {
+        final WorkflowTemplateCache cache = new WorkflowTemplateCache(statistics);
+        Dictionary<String, Object> properties = new Hashtable<>();
+        properties.put(Constants.SERVICE_DESCRIPTION, "Composum Platform Workflow Template Cache");
+        properties.put(ResourceChangeListener.PATHS, WorkflowTemplateCache.TEMPLATE_ROOT);
+        properties.put(ResourceChangeListener.CHANGES, new String[]{
+                ResourceChange.ChangeType.ADDED.name(), ResourceChange.ChangeType.CHANGED.name(),
+                ResourceChange.ChangeType.REMOVED.name()});
+        templateCacheRegistration = bundleContext.registerService(ResourceChangeListener.class, cache, properties);
+        templateCache = cache;
+    }
+
+    protected void unregisterTemplateCache() {
+        if (templateCacheRegistration != null) {
+            try {
+                templateCacheRegistration.unregister();
+            } catch (IllegalStateException ignore) {
+                // service is already unregistered
+            }
+            templateCacheRegistration = null;
+        }
+        templateCache = null;
+    }
+
+    /**
+     * registers the workflow catalog as resource change listener of the template root (invalidation on changes)
+     */
+    protected void registerWorkflowCatalog(BundleContext bundleContext) {
+        final WorkflowCatalog catalog = new WorkflowCatalog();
+        Dictionary<String, Object> properties = new Hashtable<>();
+        properties.put(Constants.SERVICE_DESCRIPTION, "Composum Platform Workflow Catalog");
+        properties.put(ResourceChangeListener.PATHS, WorkflowTemplateCache.TEMPLATE_ROOT);
+        properties.put(ResourceChangeListener.CHANGES, new String[]{
+                ResourceChange.ChangeType.ADDED.name(), ResourceChange.ChangeType.CHANGED.name(),
+                ResourceChange.ChangeType.REMOVED.name()});
+        workflowCatalogRegistration = bundleContext.registerService(ResourceChangeListener.class, catalog, properties);
+        workflowCatalog = catalog;
+    }
+
+    protected void unregisterWorkflowCatalog() {
+        if (workflowCatalogRegistration != null) {
+            try {
+                workflowCatalogRegistration.unregister();
+            } catch (IllegalStateException ignore) {
+                // service is already unregistered
+            }
+            workflowCatalogRegistration = null;
+        }
+        workflowCatalog = null;
+    }
+
+    /**
+     * @param templateResource the template read with the resolver of the context (the access is checked)
+     * @return the cached snapshot of the template resource if the cache is available; a snapshot is always
+     * built with the service resolver (complete for all users)
+     */
+    @Nonnull
+    protected Resource getTemplateSnapshot(@Nonnull final Resource templateResource) {
+        WorkflowTemplateCache cache = templateCache;
+        if (cache == null) {
+            return templateResource;
+        }
+        try (final OperationScope scope = openScope()) {
+            return cache.getSnapshot(templateResource, path -> {
+                try {
+                    return scope.getServiceResolver().getResource(path);
+                } catch (LoginException ex) {
+                    LOG.error(ex.toString());
+                    return null;
+                }
+            });
+        }
+    }
+
+    /**
+     * keeps the task index up to date immediately after a change of a task location by the service itself
+     */
+    protected void updateTaskIndex(@Nullable final Resource taskResource) {
+        WorkflowTaskIndex index = taskIndex;
+        if (index != null && taskResource != null) {
+            index.put(taskResource.getName(), taskResource.getPath());
+        }
     }
 
     @Override
@@ -176,29 +454,112 @@ public class PlatformWorkflowService implements WorkflowService {
     public Iterator<Workflow> findWorkflows(@Nonnull final BeanContext context,
                                             @Nullable final String tenantId,
                                             @Nullable final Resource target) {
-        ArrayList<Workflow> workflows = new ArrayList<>();
-        ResourceResolver resolver = context.getResolver();
-        String query = "/jcr:root/conf//" + WORKFLOW_NODE + "[@sling:resourceType='" + WORKFLOW_TYPE + "']";
-        @SuppressWarnings("deprecation")
-        Iterator<Resource> found = resolver.findResources(query, Query.XPATH);
-        ResourceFilter resourceFilter = ResourceFilter.ALL; // TODO... new TaskInstanceAssigneeFilter();
-        while (found.hasNext()) {
-            Resource workflowResource = found.next();
-            if (resourceFilter.accept(workflowResource)) {
-                Resource templateResource = workflowResource.getParent();
-                if (templateResource != null && templateResource.isResourceType(TEMPLATE_TYPE)) {
-                    Workflow workflow = loadWorkflow(context, templateResource.getPath());
+        try (final OperationScope operation = openScope()) {
+            ArrayList<Workflow> workflows = new ArrayList<>();
+            for (WorkflowCatalog.Entry entry : getWorkflowCatalog().getApplicable(getLocale(context),
+                    () -> loadWorkflowCatalog(context), entry -> loadWorkflowTitle(context, entry), target)) {
+                // the workflow is loaded with the users resolver - null if the user has no access
+                Workflow workflow = loadWorkflow(context, entry.getPath());
+                if (workflow != null) {
+                    workflows.add(workflow);
+                }
+            }
+            return workflows.iterator();
+        }
+    }
+
+    /**
+     * retrieves the applicable workflows for each of the given targets
+     *
+     * @param context  the current request context
+     * @param tenantId the related tenant (must be selected by the user)
+     * @param targets  the resources to retrieve appropriate workflows for
+     * @return the list of workflows for each target by the path of the target
+     */
+    @Override
+    @Nonnull
+    public Map<String, List<Workflow>> findApplicableWorkflows(@Nonnull final BeanContext context,
+                                                               @Nullable final String tenantId,
+                                                               @Nonnull final Collection<Resource> targets) {
+        try (final OperationScope operation = openScope()) {
+            Map<String, List<Workflow>> result = new LinkedHashMap<>();
+            Map<WorkflowCatalog.Entry, Workflow> loaded = new HashMap<>();
+            for (Map.Entry<String, List<WorkflowCatalog.Entry>> applicable : getWorkflowCatalog().getApplicable(
+                    getLocale(context), () -> loadWorkflowCatalog(context),
+                    entry -> loadWorkflowTitle(context, entry), targets).entrySet()) {
+                List<Workflow> workflows = new ArrayList<>();
+                for (WorkflowCatalog.Entry entry : applicable.getValue()) {
+                    // each workflow is loaded once with the users resolver - null if the user has no access
+                    Workflow workflow = loaded.computeIfAbsent(entry, key -> loadWorkflow(context, key.getPath()));
                     if (workflow != null) {
-                        ResourceFilter targetFilter = workflow.getTargetFilter();
-                        if (targetFilter == null || (target != null && targetFilter.accept(target))) {
-                            workflows.add(workflow);
+                        workflows.add(workflow);
+                    }
+                }
+                result.put(applicable.getKey(), workflows);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * @return the workflow catalog of the service; a temporary catalog if the service is not activated
+     */
+    @Nonnull
+    protected WorkflowCatalog getWorkflowCatalog() {
+        WorkflowCatalog catalog = workflowCatalog;
+        return catalog != null ? catalog : new WorkflowCatalog();
+    }
+
+    @Nonnull
+    protected Locale getLocale(@Nonnull final BeanContext context) {
+        Locale locale = context.getLocale();
+        return locale != null ? locale : Locale.getDefault();
+    }
+
+    /**
+     * @return the catalog entries of all workflows (query with the service resolver)
+     */
+    @Nonnull
+    protected List<WorkflowCatalog.Entry> loadWorkflowCatalog(@Nonnull final BeanContext context) {
+        List<WorkflowCatalog.Entry> entries = new ArrayList<>();
+        try (final ServiceContext serviceContext = new ServiceContext(context)) {
+            ResourceFilter resourceFilter = ResourceFilter.ALL; // TODO... new TaskInstanceAssigneeFilter();
+            @SuppressWarnings("deprecation")
+            Iterator<Resource> found = serviceContext.getResolver().findResources(workflowsQuery(), Query.XPATH);
+            while (found.hasNext()) {
+                Resource workflowResource = found.next();
+                if (resourceFilter.accept(workflowResource)) {
+                    Resource templateResource = workflowResource.getParent();
+                    if (templateResource != null && templateResource.isResourceType(TEMPLATE_TYPE)) {
+                        try {
+                            entries.add(new WorkflowCatalog.Entry(templateResource));
+                        } catch (RuntimeException ex) {
+                            LOG.error("invalid workflow '{}': {}", templateResource.getPath(), ex.toString());
                         }
                     }
                 }
             }
+        } catch (LoginException ex) {
+            LOG.error(ex.toString());
+        }
+        return entries;
+    }
+
+    /**
+     * @return the title of the catalog entry in the locale of the context
+     */
+    @Nonnull
+    protected String loadWorkflowTitle(@Nonnull final BeanContext context,
+                                       @Nonnull final WorkflowCatalog.Entry entry) {
+        try (final ServiceContext serviceContext = new ServiceContext(context)) {
+            Workflow workflow = loadWorkflow(serviceContext, entry.getPath());
+            if (workflow != null) {
+                return workflow.getTitle();
+            }
+        } catch (LoginException ex) {
+            LOG.error(ex.toString());
         }
-        workflows.sort(Comparator.comparing(Workflow::getTitle));
-        return workflows.iterator();
+        return entry.getPath();
     }
 
     @Override
@@ -208,42 +569,96 @@ public class PlatformWorkflowService implements WorkflowService {
         return workflow == null || workflow.isHollow() ? null : workflow;
     }
 
+    /**
+     * loads all task instances of a workflow by the stamped workflow id (one query with the service resolver)
+     *
+     * @param context    the current request context
+     * @param workflowId the id of the workflow (the name of the first task instance)
+     * @return the instances of the workflow (instances not accessible by the user as references)
+     */
+    @Override
+    @Nonnull
+    public Collection<WorkflowTaskInstance> findWorkflowInstances(@Nonnull final BeanContext context,
+                                                                  @Nonnull final String workflowId) {
+        List<WorkflowTaskInstance> instances = new ArrayList<>();
+        try (final ServiceContext serviceContext = new ServiceContext(context instanceof ServiceContext
+                ? ((ServiceContext) context).getRequestContext() : context)) {
+            @SuppressWarnings("deprecation")
+            Iterator<Resource> found = serviceContext.getResolver().findResources(
+                    workflowIdQuery(workflowId), Query.XPATH);
+            while (found.hasNext()) {
+                WorkflowTaskInstance instance = loadInstanceRef(context, found.next().getPath());
+                if (instance != null) {
+                    instances.add(instance);
+                }
+            }
+        } catch (LoginException ex) {
+            LOG.error(ex.toString());
+        }
+        return instances;
+    }
+
+    /**
+     * replays the journal of the tenant of the workflow with a service resolver (the journal is not readable by
+     * the users) from the day of the start of the workflow
+     */
+    @Override
+    @Nullable
+    public Trail getTrail(@Nonnull final BeanContext context, @Nonnull final String workflowId) {
+        try (final ServiceContext serviceContext = new ServiceContext(context instanceof ServiceContext
+                ? ((ServiceContext) context).getRequestContext() : context)) {
+            Resource firstTask = getTaskResource(serviceContext, workflowId);
+            if (firstTask == null) {
+                return null;
+            }
+            ResourceResolver resolver = serviceContext.getResolver();
+            String tenant = summaries.getTenant(firstTask.getPath());
+            WorkflowSummaries.Summary summary = summaries.get(resolver, tenant, workflowId);
+            WorkflowJournal.Trail trail = new WorkflowJournal.Trail(workflowId);
+            journal.replay(resolver, tenant, summary != null ? summary.getCreated() : null, null, trail);
+            return trail;
+        } catch (LoginException | PersistenceException ex) {
+            LOG.error(ex.toString());
+            return null;
+        }
+    }
+
     @Override
     @Nonnull
     public Collection<Workflow> findInitiatedOpenWorkflows(@Nonnull final BeanContext context,
                                                            @Nonnull final String userId) {
-        Collection<Workflow> workflows = findInitiatedWorkflows(context, userId);
-        ArrayList<Workflow> openWorkflows = new ArrayList<>();
-        for (Workflow workflow : workflows) {
-            if (workflow.isOpen()) {
-                openWorkflows.add(workflow);
-            }
-        }
-        return openWorkflows;
+        return findInitiatedWorkflows(context, userId, true);
     }
 
     @Override
     @Nonnull
     public Collection<Workflow> findInitiatedWorkflows(@Nonnull final BeanContext context,
                                                        @Nonnull final String userId) {
+        return findInitiatedWorkflows(context, userId, false);
+    }
+
+    /**
+     * finds the workflows initiated by the user by their summaries; only the selected workflows are loaded
+     *
+     * @param openOnly if 'true' the finished workflows are skipped by their summary
+     */
+    @Nonnull
+    protected Collection<Workflow> findInitiatedWorkflows(@Nonnull final BeanContext context,
+                                                          @Nonnull final String userId, final boolean openOnly) {
         ArrayList<Workflow> workflows = new ArrayList<>();
         try (final ServiceContext serviceContext = new ServiceContext(context)) {
-            String query = "/jcr:root" + config.workflow_root() + "/*/*/*[@" + PN_INITIATOR + "='" + userId + "']";
+            String query = initiatedSummariesQuery(userId);
             @SuppressWarnings("deprecation")
-            Iterator<Resource> foundTasks = serviceContext.getResolver().findResources(query, Query.XPATH);
-            while (foundTasks.hasNext()) {
-                WorkflowTaskInstance task = loadInstance(serviceContext, foundTasks.next().getPath());
-                if (task != null) {
-                    Workflow workflow = null;
-                    for (Workflow wf : workflows) {
-                        if (wf.containsTasks(task)) {
-                            workflow = wf;
-                            break;
-                        }
-                    }
-                    if (workflow == null) {
-                        workflow = getWorkflow(serviceContext, task.getResource());
+            Iterator<Resource> found = serviceContext.getResolver().findResources(query, Query.XPATH);
+            while (found.hasNext()) {
+                WorkflowSummaries.Summary summary = new WorkflowSummaries.Summary(found.next());
+                if (!openOnly || summary.isOpen()) {
+                    Resource firstTask = getTaskResource(serviceContext, summary.getWorkflowId());
+                    Workflow workflow = firstTask != null ? getWorkflow(serviceContext, firstTask) : null;
+                    if (workflow != null) {
                         workflows.add(workflow);
+                    } else {
+                        LOG.warn("can't load the workflow of summary '{}'", summary);
                     }
                 }
             }
@@ -265,125 +680,460 @@ public class PlatformWorkflowService implements WorkflowService {
     public Iterator<WorkflowTaskInstance> findTasks(@Nonnull final BeanContext context,
                                                     @Nullable final String tenantId,
                                                     @Nullable final WorkflowTaskInstance.State scope) {
-        ArrayList<WorkflowTaskInstance> tasks = new ArrayList<>();
-        ResourceFilter filter = new TaskInstanceAssigneeFilter();
-        if (StringUtils.isNotBlank(tenantId)) {
-            Resource folder = getInstanceFolder(context, tenantId, scope != null ? scope : WorkflowTaskInstance.State.pending);
-            if (folder != null) {
-                for (Resource taskRes : folder.getChildren()) {
+        try (final OperationScope operation = openScope()) {
+            ArrayList<WorkflowTaskInstance> tasks = new ArrayList<>();
+            ResourceFilter filter = new TaskInstanceAssigneeFilter();
+            ResourceResolver resolver = context.getResolver();
+            for (String query : findUserTaskQueries(context, tenantId,
+                    scope != null ? scope : WorkflowTaskInstance.State.pending)) {
+                @SuppressWarnings("deprecation")
+                Iterator<Resource> found = resolver.findResources(query, Query.XPATH);
+                while (found.hasNext()) {
+                    Resource taskRes = found.next();
                     if (filter.accept(taskRes)) {
                         WorkflowTaskInstance task = loadInstance(context, taskRes.getPath());
                         tasks.add(task);
                     }
                 }
             }
-        } else {
-            ResourceResolver resolver = context.getResolver();
-            String query = "/jcr:root" + config.workflow_root()
-                    + "/*/" + (scope != null ? scope : WorkflowTaskInstance.State.pending) + "/*"
-                    + "[@sling:resourceType='" + INSTANCE_TYPE + "']";
-            @SuppressWarnings("deprecation")
-            Iterator<Resource> found = resolver.findResources(query, Query.XPATH);
-            while (found.hasNext()) {
-                Resource taskRes = found.next();
-                if (filter.accept(taskRes)) {
-                    WorkflowTaskInstance task = loadInstance(context, taskRes.getPath());
-                    tasks.add(task);
-                }
-            }
+            tasks.sort(Comparator.comparing(WorkflowTaskInstance::getTime));
+            return tasks.iterator();
         }
-        tasks.sort(Comparator.comparing(WorkflowTaskInstance::getTime));
-        return tasks.iterator();
     }
 
     /**
-     * loads a task instance from the repository
-     *
-     * @param context  the current request context
-     * @param pathOrId the repository path or the id of the task
+     * a page of a task list
      */
-    @Override
-    @Nullable
-    public WorkflowTaskInstance getInstance(@Nonnull final BeanContext context, @Nonnull final String pathOrId) {
-        if (pathOrId.startsWith(config.workflow_root()) || !pathOrId.contains("/")) {
-            return loadInstance(context, pathOrId);
+    protected static class ServiceTaskPage implements TaskPage {
+
+        protected final List<WorkflowTaskInstance> tasks;
+        protected final String next;
+
+        protected ServiceTaskPage(@Nonnull final List<WorkflowTaskInstance> tasks, @Nullable final String next) {
+            this.tasks = Collections.unmodifiableList(tasks);
+            this.next = next;
         }
-        return null;
-    }
 
-    /**
-     * loads a task template from the repository
-     *
-     * @param context the current request context
-     * @param path    the repository path
-     */
-    @Override
-    @Nullable
-    public WorkflowTaskTemplate getTemplate(@Nonnull final BeanContext context, @Nonnull final String path) {
-        if (!path.startsWith(config.workflow_root()) && path.contains("/")) {
-            return loadTemplate(context, path);
+        @Override
+        @Nonnull
+        public List<WorkflowTaskInstance> getTasks() {
+            return tasks;
+        }
+
+        @Override
+        @Nullable
+        public String getNext() {
+            return next;
         }
-        return null;
     }
 
     /**
-     * @return the current state of the task instance
+     * the position of a task in a task list ordered by time and path; used as continuation token of a page
      */
-    @Override
-    @Nullable
-    public WorkflowTaskInstance.State getState(@Nonnull final BeanContext context, @Nonnull final String pathOrId) {
-        Resource taskResource = getTaskResource(context, pathOrId);
-        if (taskResource != null) {
-            return getState(taskResource);
+    protected static class TaskPosition {
+
+        protected final Resource resource;
+        protected final long time;
+        protected final String path;
+
+        protected TaskPosition(@Nonnull final Resource resource, @Nonnull final String timeProperty) {
+            this.resource = resource;
+            Calendar value = resource.getValueMap().get(timeProperty, Calendar.class);
+            this.time = value != null ? value.getTimeInMillis() : 0L;
+            this.path = resource.getPath();
         }
-        return null;
-    }
 
-    @Nullable
-    protected WorkflowTaskInstance.State getState(@Nonnull final Resource taskResource) {
-        Matcher matcher = getPathMatcher(taskResource);
-        return matcher.matches() && StringUtils.isNotBlank(matcher.group(3))
-                ? WorkflowTaskInstance.State.valueOf(matcher.group(3)) : null;
+        protected TaskPosition(final long time, @Nonnull final String path) {
+            this.resource = null;
+            this.time = time;
+            this.path = path;
+        }
+
+        protected int compareTo(@Nonnull final TaskPosition other, final boolean descending) {
+            int result = Long.compare(time, other.time);
+            if (result == 0) {
+                result = path.compareTo(other.path);
+            }
+            return descending ? -result : result;
+        }
+
+        @Nonnull
+        protected String toToken() {
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(
+                    (time + ":" + path).getBytes(StandardCharsets.UTF_8));
+        }
+
+        @Nullable
+        protected static TaskPosition fromToken(@Nullable final String token) {
+            if (StringUtils.isNotBlank(token)) {
+                try {
+                    String value = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+                    int colon = value.indexOf(':');
+                    if (colon > 0) {
+                        return new TaskPosition(Long.parseLong(value.substring(0, colon)), value.substring(colon + 1));
+                    }
+                } catch (IllegalArgumentException ex) {
+                    LOG.warn("invalid task page token '{}'", token);
+                }
+            }
+            return null;
+        }
     }
 
     /**
-     * @return the tenant id derived from the hint (task instance path or another path or a tenant parameter)
+     * retrieves one page of the tasks in the requested scope; each task query is ordered by the time of the state
+     * and restricted to the tasks following the position of the token, the results are read only until the page
+     * is filled, merged and cut at the page limit; only the instances of the page are loaded
      */
     @Override
-    public String getTenantId(@Nonnull final BeanContext context, @Nullable final String hint) {
-        if (StringUtils.isNotBlank(hint)) {
-            Resource resource = context.getResolver().getResource(
-                    hint.startsWith("/") ? hint : config.general_path() + "/" + hint);
-            if (resource != null) {
-                Tenant tenant = resource.adaptTo(Tenant.class);
-                if (tenant != null) {
-                    return tenant.getId();
-                }
+    @Nonnull
+    public TaskPage findTasks(@Nonnull final BeanContext context, @Nullable final String tenantId,
+                              @Nullable final WorkflowTaskInstance.State scope, @Nullable final String page,
+                              final int limit, final boolean descending) {
+        try (final OperationScope operation = openScope()) {
+            WorkflowTaskInstance.State state = scope != null ? scope : WorkflowTaskInstance.State.pending;
+            String timeProperty = getTimeProperty(state);
+            TaskPosition start = TaskPosition.fromToken(page);
+            ResourceFilter filter = new TaskInstanceAssigneeFilter();
+            List<TaskPosition> found = new ArrayList<>();
+            boolean more = false;
+            for (String query : findUserTaskQueries(context, tenantId, state)) {
+                more = collectPage(context.getResolver(), pagedTasksQuery(query, timeProperty, start, descending),
+                        timeProperty, start, descending, filter, limit, found) || more;
             }
-            WorkflowTaskInstance instance = loadInstanceRef(context, hint);
-            if (instance != null) {
-                return getTenantId(instance.getResource());
+            found.sort((one, two) -> one.compareTo(two, descending));
+            if (found.size() > limit) {
+                found = found.subList(0, limit);
+                more = true;
+            }
+            List<WorkflowTaskInstance> tasks = new ArrayList<>();
+            for (TaskPosition position : found) {
+                WorkflowTaskInstance task = loadInstance(context, position.path);
+                if (task != null) {
+                    tasks.add(task);
+                }
             }
+            return new ServiceTaskPage(tasks,
+                    more && !found.isEmpty() ? found.get(found.size() - 1).toToken() : null);
         }
-        return null;
     }
 
     /**
-     * @return the tenant id from the task resource path
+     * reads the ordered results of one task query until the limit of accepted tasks is reached; tasks with the same
+     * time as the last accepted task are collected too to keep the order by path stable across pages
+     *
+     * @return 'true' if the query has more results than collected
      */
-    protected String getTenantId(Resource taskResource) {
-        Matcher matcher = getPathMatcher(taskResource);
-        if (matcher.matches()) {
-            String tenantId = matcher.group(1);
-            if (!tenantId.equals(config.general_path())) {
-                return tenantId;
+    protected boolean collectPage(@Nonnull final ResourceResolver resolver, @Nonnull final String query,
+                                  @Nonnull final String timeProperty, @Nullable final TaskPosition start,
+                                  final boolean descending, @Nonnull final ResourceFilter filter, final int limit,
+                                  @Nonnull final List<TaskPosition> found) {
+        int count = 0;
+        TaskPosition last = null;
+        @SuppressWarnings("deprecation")
+        Iterator<Resource> results = resolver.findResources(query, Query.XPATH);
+        while (results.hasNext()) {
+            TaskPosition position = new TaskPosition(results.next(), timeProperty);
+            if (start != null && position.compareTo(start, descending) <= 0) {
+                continue; // the tasks with the time of the token which are part of the previous pages
+            }
+            if (count >= limit && (last == null || position.time != last.time)) {
+                return true;
+            }
+            if (filter.accept(position.resource)) {
+                found.add(position);
+                last = position;
+                count++;
             }
         }
-        return null;
+        return false;
     }
 
+    /**
+     * @return the queries for the tasks in the requested state restricted to the tasks of the current user
+     * (unassigned or assigned to the user or to one of the users groups); not restricted for an admin
+     */
     @Nonnull
-    protected WorkflowTopic.Result validateTask(@Nonnull final BeanContext context,
+    protected List<String> findUserTaskQueries(@Nonnull final BeanContext context, @Nullable final String tenantId,
+                                               @Nonnull final WorkflowTaskInstance.State state) {
+        List<String> queries = findTaskQueries(context, tenantId, state);
+        Session session = context.getResolver().adaptTo(Session.class);
+        WorkflowAccessCache.Access access = session != null ? getAccess(session) : null;
+        if (access != null && access.isAdmin()) {
+            return queries;
+        }
+        Collection<String> assignees = access != null ? access.getMemberships() : Collections.emptySet();
+        List<String> result = new ArrayList<>();
+        for (String query : queries) {
+            if (!assignees.isEmpty()) {
+                result.add(assignedTasksQuery(query, assignees));
+            }
+            result.add(unassignedTasksQuery(query));
+        }
+        return result;
+    }
+
+    /**
+     * @return the queries for the tasks in the requested state stored in both storage modes
+     */
+    @Nonnull
+    protected List<String> findTaskQueries(@Nonnull final BeanContext context, @Nullable final String tenantId,
+                                           @Nonnull final WorkflowTaskInstance.State state) {
+        List<String> queries = new ArrayList<>();
+        if (StringUtils.isNotBlank(tenantId)) {
+            if (getInstanceFolder(context, tenantId, state) != null) {
+                queries.add(stateFolderTasksQuery(tenantId, state));
+            }
+        } else {
+            Resource root = context.getResolver().getResource(config.workflow_root());
+            if (root != null) {
+                for (Resource tenantFolder : root.getChildren()) {
+                    if (tenantFolder.getChild(state.name()) != null) {
+                        queries.add(stateFolderTasksQuery(tenantFolder.getName(), state));
+                    }
+                }
+            }
+        }
+        queries.add(stateTasksQuery(tenantId, state));
+        return queries;
+    }
+
+    /**
+     * @return the property of the time a task has entered the state (the order of a task list)
+     */
+    @Nonnull
+    protected String getTimeProperty(@Nonnull final WorkflowTaskInstance.State state) {
+        switch (state) {
+            case running:
+                return PN_EXECUTED;
+            case finished:
+                return PN_FINISHED;
+            default:
+                return JcrConstants.JCR_CREATED;
+        }
+    }
+
+    /**
+     * counts the tasks of the current user (assigned to the user, to one of the users groups or unassigned)
+     * by summing the task counters of the tenant
+     *
+     * @param context  the current request context
+     * @param tenantId the related tenant; all tenants if 'null'
+     * @return the number of tasks for each state
+     */
+    @Override
+    @Nonnull
+    public Map<WorkflowTaskInstance.State, Long> countTasks(@Nonnull final BeanContext context,
+                                                            @Nullable final String tenantId) {
+        Map<WorkflowTaskInstance.State, Long> result = new EnumMap<>(WorkflowTaskInstance.State.class);
+        for (WorkflowTaskInstance.State state : WorkflowTaskInstance.State.values()) {
+            result.put(state, 0L);
+        }
+        WorkflowTaskCounters counters = taskCounters;
+        if (counters != null) {
+            try (final ServiceContext serviceContext = new ServiceContext(context)) {
+                Collection<String> assignees = getAssigneeKeys(context);
+                List<String> tenants = new ArrayList<>();
+                if (StringUtils.isNotBlank(tenantId)) {
+                    tenants.add(tenantId);
+                } else {
+                    Resource root = serviceContext.getResolver().getResource(config.workflow_root());
+                    if (root != null) {
+                        for (Resource tenantFolder : root.getChildren()) {
+                            tenants.add(tenantFolder.getName());
+                        }
+                    }
+                }
+                for (String tenant : tenants) {
+                    counters.count(serviceContext.getResolver(), tenant, assignees)
+                            .forEach((state, count) -> result.merge(state, count, Long::sum));
+                }
+            } catch (LoginException | PersistenceException ex) {
+                LOG.error(ex.toString());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the keys of the task counters of the current user (unassigned, the user id and the group ids)
+     */
+    @Nonnull
+    protected Collection<String> getAssigneeKeys(@Nonnull final BeanContext context) {
+        Set<String> keys = new LinkedHashSet<>();
+        keys.add(WorkflowTaskCounters.UNASSIGNED);
+        Session session = context.getResolver().adaptTo(Session.class);
+        if (session != null) {
+            keys.addAll(getAccess(session).getMemberships());
+        }
+        return keys;
+    }
+
+    /**
+     * @return the short-lived access evaluations (memberships and privileges) of the session
+     */
+    @Nonnull
+    protected WorkflowAccessCache.Access getAccess(@Nonnull final Session session) {
+        WorkflowAccessCache cache = accessCache;
+        if (cache == null) {
+            accessCache = cache = new WorkflowAccessCache(permissionsService);
+        }
+        return cache.getAccess(session);
+    }
+
+    /**
+     * collects the task instances of a state folder including the instances stored in bucket folders
+     */
+    protected void collectTasks(@Nonnull final Resource folder, @Nonnull final List<Resource> tasks) {
+        for (Resource child : folder.getChildren()) {
+            if (child.isResourceType(INSTANCE_TYPE)) {
+                tasks.add(child);
+            } else if (!child.getName().startsWith(TASK_PREFIX)
+                    && !child.getName().equals(WorkflowJournal.JOURNAL_FOLDER)
+                    && !child.getName().equals(WorkflowTaskCounters.COUNTERS_FOLDER)) {
+                collectTasks(child, tasks);
+            }
+        }
+    }
+
+    /**
+     * loads a task instance from the repository
+     *
+     * @param context  the current request context
+     * @param pathOrId the repository path or the id of the task
+     */
+    @Override
+    @Nullable
+    public WorkflowTaskInstance getInstance(@Nonnull final BeanContext context, @Nonnull final String pathOrId) {
+        if (pathOrId.startsWith(config.workflow_root()) || !pathOrId.contains("/")) {
+            return loadInstance(context, pathOrId);
+        }
+        return null;
+    }
+
+    /**
+     * loads a task template from the repository
+     *
+     * @param context the current request context
+     * @param path    the repository path
+     */
+    @Override
+    @Nullable
+    public WorkflowTaskTemplate getTemplate(@Nonnull final BeanContext context, @Nonnull final String path) {
+        if (!path.startsWith(config.workflow_root()) && path.contains("/")) {
+            return loadTemplate(context, path);
+        }
+        return null;
+    }
+
+    /**
+     * @return the current state of the task instance
+     */
+    @Override
+    @Nullable
+    public WorkflowTaskInstance.State getState(@Nonnull final BeanContext context, @Nonnull final String pathOrId) {
+        Resource taskResource = getTaskResource(context, pathOrId);
+        if (taskResource != null) {
+            return getState(taskResource);
+        }
+        return null;
+    }
+
+    @Override
+    public long getGraphChanged(@Nonnull final BeanContext context, @Nonnull final String path) {
+        Resource resource = context.getResolver().getResource(path);
+        if (resource != null) {
+            if (resource.isResourceType(TEMPLATE_TYPE)) {
+                WorkflowTemplateCache cache = templateCache;
+                return cache != null && path.startsWith(WorkflowTemplateCache.TEMPLATE_ROOT + "/")
+                        ? cache.getLastChange() : 0L;
+            }
+            String workflowId = resource.getValueMap().get(WorkflowTaskInstance.PN_WORKFLOW_ID, String.class);
+            if (workflowId != null) {
+                try (final ServiceContext serviceContext = new ServiceContext(context)) {
+                    WorkflowSummaries.Summary summary = summaries.get(serviceContext.getResolver(),
+                            summaries.getTenant(path), workflowId);
+                    Calendar changed = summary != null ? summary.getChanged() : null;
+                    return changed != null ? changed.getTimeInMillis() : 0L;
+                } catch (LoginException | PersistenceException ex) {
+                    LOG.error(ex.getMessage(), ex);
+                }
+            }
+        }
+        return 0L;
+    }
+
+    @Nullable
+    protected WorkflowTaskInstance.State getState(@Nonnull final Resource taskResource) {
+        String state = taskResource.getValueMap().get(PN_STATE, String.class);
+        if (StringUtils.isBlank(state)) {
+            Matcher matcher = getPathMatcher(taskResource);
+            state = matcher.matches() ? matcher.group(3) : null;
+        }
+        if (StringUtils.isNotBlank(state)) {
+            for (WorkflowTaskInstance.State value : WorkflowTaskInstance.State.values()) {
+                if (value.name().equals(state)) {
+                    return value;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return 'true' if the task is stored in the property storage mode (the task is never moved)
+     */
+    protected boolean isStateProperty(@Nonnull final Resource taskResource) {
+        return StringUtils.isNotBlank(taskResource.getValueMap().get(PN_STATE, String.class));
+    }
+
+    /**
+     * @return 'true' if new tasks are created in the property storage mode
+     */
+    protected boolean isPropertyStorage() {
+        return STORAGE_PROPERTY.equals(config.task_storage());
+    }
+
+    /**
+     * @return the tenant id derived from the hint (task instance path or another path or a tenant parameter)
+     */
+    @Override
+    public String getTenantId(@Nonnull final BeanContext context, @Nullable final String hint) {
+        try (final OperationScope operation = openScope()) {
+            if (StringUtils.isNotBlank(hint)) {
+                Resource resource = context.getResolver().getResource(
+                        hint.startsWith("/") ? hint : config.general_path() + "/" + hint);
+                if (resource != null) {
+                    Tenant tenant = resource.adaptTo(Tenant.class);
+                    if (tenant != null) {
+                        return tenant.getId();
+                    }
+                }
+                WorkflowTaskInstance instance = loadInstanceRef(context, hint);
+                if (instance != null) {
+                    return getTenantId(instance.getResource());
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * @return the tenant id from the task resource path
+     */
+    protected String getTenantId(Resource taskResource) {
+        Matcher matcher = getPathMatcher(taskResource);
+        if (matcher.matches()) {
+            String tenantId = matcher.group(1);
+            if (!tenantId.equals(config.general_path())) {
+                return tenantId;
+            }
+        }
+        return null;
+    }
+
+    @Nonnull
+    protected WorkflowTopic.Result validateTask(@Nonnull final BeanContext context,
                                                 @Nonnull final WorkflowTaskTemplate template,
                                                 @Nonnull final List<String> target,
                                                 @Nonnull final ValueMap taskData) {
@@ -419,73 +1169,116 @@ public class PlatformWorkflowService implements WorkflowService {
                                         @Nullable final String previousTask, @Nonnull final String taskTemplate,
                                         @Nonnull final List<String> target, @Nullable final ValueMap data)
             throws PersistenceException {
+        try (final OperationScope operation = openScope()) {
+            WorkflowTaskInstance taskInstance = null;
+            if (context instanceof ServiceContext) {
+                // a nested call during a transition - the changes are committed by the transition
+                taskInstance = addTask((ServiceContext) context, context, requestData, previousTask, taskTemplate,
+                        target, data);
+            } else {
+                try (final ServiceContext serviceContext = new ServiceContext(context)) {
+                    taskInstance = addTask(serviceContext, context, requestData, previousTask, taskTemplate,
+                            target, data);
+                    serviceContext.commit();
+                } catch (LoginException | IllegalArgumentException ex) {
+                    LOG.error(ex.toString());
+                }
+            }
+            return taskInstance;
+        }
+    }
+
+    /**
+     * the internal 'add' as part of the unit of work of the service context (without commit)
+     *
+     * @param context the context to load the template and to validate the task data
+     */
+    @Nullable
+    protected WorkflowTaskInstance addTask(@Nonnull final ServiceContext serviceContext,
+                                           @Nonnull final BeanContext context, @Nonnull ValueMap requestData,
+                                           @Nullable final String previousTask, @Nonnull final String taskTemplate,
+                                           @Nonnull final List<String> target, @Nullable final ValueMap data)
+            throws PersistenceException {
         WorkflowTaskInstance taskInstance = null;
         final WorkflowTaskTemplate template = loadTemplate(context, taskTemplate);
         if (template != null) {
             if (LOG.isDebugEnabled()) {
                 LOG.debug("addTask; '{}'...", taskTemplate);
             }
-            try (final ServiceContext serviceContext = new ServiceContext(
-                    context instanceof ServiceContext ? ((ServiceContext) context).getRequestContext() : context)) {
-                ResourceResolver serviceResolver = serviceContext.getResolver();
-                final WorkflowTaskInstance previous = previousTask != null
-                        ? loadInstance(serviceContext, previousTask) : null;
-                final TaskData taskData = new TaskData(serviceContext, previous, requestData, data);
-                final String initiator = (String) taskData.get(META_USER_ID);
-                final String assignee = getAssignee(serviceContext, template, taskData);
-                WorkflowTopic.Result validationResult = validateTask(context, template, target, taskData);
-                if (validationResult.getStatus() != WorkflowTopic.Status.success) {
-                    throw new WorkflowException(validationResult);
-                }
-                final Map<String, Object> properties = new HashMap<>();
-                properties.put(JcrConstants.JCR_PRIMARYTYPE, ResourceUtil.TYPE_SLING_FOLDER);
-                properties.put(ResourceUtil.PROP_RESOURCE_TYPE, INSTANCE_TYPE);
-                properties.put(WorkflowTaskInstance.PN_TEMPLATE, template.getPath());
-                properties.put(WorkflowTaskInstance.PN_TARGET, target.toArray(new String[0]));
-                if (StringUtils.isNotBlank(assignee)) {
-                    properties.put(WorkflowTaskInstance.PN_ASSIGNEE, taskData.prepare(assignee));
+            ResourceResolver serviceResolver = serviceContext.getResolver();
+            final WorkflowTaskInstance previous = previousTask != null
+                    ? loadInstance(serviceContext, previousTask) : null;
+            final TaskData taskData = new TaskData(serviceContext, previous, requestData, data);
+            final String initiator = (String) taskData.get(META_USER_ID);
+            final String assignee = getAssignee(serviceContext, template, taskData);
+            WorkflowTopic.Result validationResult = validateTask(context, template, target, taskData);
+            if (validationResult.getStatus() != WorkflowTopic.Status.success) {
+                throw new WorkflowException(validationResult);
+            }
+            final Map<String, Object> properties = new HashMap<>();
+            properties.put(JcrConstants.JCR_PRIMARYTYPE, ResourceUtil.TYPE_SLING_FOLDER);
+            properties.put(ResourceUtil.PROP_RESOURCE_TYPE, INSTANCE_TYPE);
+            properties.put(WorkflowTaskInstance.PN_TEMPLATE, template.getPath());
+            properties.put(WorkflowTaskInstance.PN_TARGET, target.toArray(new String[0]));
+            if (StringUtils.isNotBlank(assignee)) {
+                properties.put(WorkflowTaskInstance.PN_ASSIGNEE, taskData.prepare(assignee));
+            }
+            if (StringUtils.isNotBlank(initiator)) {
+                properties.put(WorkflowTaskInstance.PN_INITIATOR, initiator);
+            }
+            if (previous != null) {
+                properties.put(WorkflowTaskInstance.PN_PREVIOUS, previous.getName());
+            }
+            // store the task in the 'inbox'...
+            String tenantId = taskData.get(PARAM_TENANT_ID,
+                    previous != null ? getTenantId(previous.getResource()) : PLATFORM_ID);
+            final String name = TASK_PREFIX + UUID.randomUUID().toString();
+            properties.put(WorkflowTaskInstance.PN_WORKFLOW_ID, previous != null ? previous.getWorkflowId() : name);
+            final Resource folder;
+            if (isPropertyStorage()) {
+                properties.put(PN_STATE, WorkflowTaskInstance.State.pending.name());
+                folder = giveTaskFolder(serviceContext, tenantId, name, Calendar.getInstance());
+            } else {
+                folder = giveInstanceFolder(serviceContext, tenantId,
+                        WorkflowTaskInstance.State.pending, name, Calendar.getInstance());
+            }
+            final String path = folder.getPath() + "/" + name;
+            changeCounters(serviceContext.scope.counters, path,
+                    (String) properties.get(WorkflowTaskInstance.PN_ASSIGNEE),
+                    null, WorkflowTaskInstance.State.pending);
+            if (previous != null) {
+                summaries.taskAdded(serviceResolver, path, previous.getWorkflowId());
+            } else {
+                summaries.create(serviceResolver, path, template.getPath(), initiator, target);
+            }
+            final Resource taskResource = serviceResolver.create(folder, name, properties);
+            final Resource dataResource = serviceResolver.create(taskResource, PP_DATA, SUBNODE_PROPERTIES);
+            journal(serviceContext, Trail.Type.added, path, template.getPath(),
+                    previous != null ? previous.getName() : null);
+            updateTaskIndex(taskResource);
+            taskInstance = loadInstance(serviceContext, path);
+            if (taskInstance != null) {
+                if (previous != null) {
+                    changeTaskData(serviceContext, taskInstance, PP_DATA, previous.getData(), taskData);
+                    changeTaskData(serviceContext, previous, null,
+                            new ValueMapDecorator(Collections.singletonMap(PN_NEXT, taskInstance.getName())),
+                            taskData);
                 }
-                if (StringUtils.isNotBlank(initiator)) {
-                    properties.put(WorkflowTaskInstance.PN_INITIATOR, initiator);
+                changeTaskData(serviceContext, taskInstance, PP_DATA, template.getData(), taskData);
+                if (data != null) {
+                    changeTaskData(serviceContext, taskInstance, PP_DATA, data, taskData);
                 }
-                if (previous != null) {
-                    properties.put(WorkflowTaskInstance.PN_PREVIOUS, previous.getName());
+                addTaskComment(serviceContext, taskInstance, requestData);
+                if (LOG.isInfoEnabled()) {
+                    LOG.info("addTask({}) done: '{}'{}", template, taskInstance,
+                            template.isAutoRun() ? " -> autoRun..." : "");
                 }
-                // store the task in the 'inbox'...
-                String tenantId = taskData.get(PARAM_TENANT_ID,
-                        previous != null ? getTenantId(previous.getResource()) : PLATFORM_ID);
-                final Resource folder = giveInstanceFolder(serviceContext, tenantId, WorkflowTaskInstance.State.pending);
-                final String name = "wft-" + UUID.randomUUID().toString();
-                final String path = folder.getPath() + "/" + name;
-                final Resource taskResource = serviceResolver.create(folder, name, properties);
-                final Resource dataResource = serviceResolver.create(taskResource, PP_DATA, SUBNODE_PROPERTIES);
-                taskInstance = loadInstance(serviceContext, path);
-                if (taskInstance != null) {
-                    if (previous != null) {
-                        changeTaskData(serviceContext, taskInstance, PP_DATA, previous.getData(), taskData);
-                        changeTaskData(serviceContext, previous, null,
-                                new ValueMapDecorator(Collections.singletonMap(PN_NEXT, taskInstance.getName())),
-                                taskData);
-                    }
-                    changeTaskData(serviceContext, taskInstance, PP_DATA, template.getData(), taskData);
-                    if (data != null) {
-                        changeTaskData(serviceContext, taskInstance, PP_DATA, data, taskData);
-                    }
-                    addTaskComment(serviceContext, taskInstance, requestData);
-                    serviceResolver.commit();
-                    if (LOG.isInfoEnabled()) {
-                        LOG.info("addTask({}) done: '{}'{}", template, taskInstance,
-                                template.isAutoRun() ? " -> autoRun..." : "");
-                    }
-                    if (template.isAutoRun()) {
-                        taskInstance = runTask(serviceContext, requestData, taskInstance, null,
-                                new ValueMapDecorator(Collections.emptyMap()), true);
-                    }
-                } else {
-                    LOG.error("created task not available ({})", path);
+                if (template.isAutoRun()) {
+                    taskInstance = runTask(serviceContext, requestData, taskInstance, null,
+                            new ValueMapDecorator(Collections.emptyMap()));
                 }
-            } catch (LoginException | IllegalArgumentException ex) {
-                LOG.error(ex.toString());
+            } else {
+                LOG.error("created task not available ({})", path);
             }
         } else {
             LOG.error("task template not available: '{}'", taskTemplate);
@@ -508,40 +1301,47 @@ public class PlatformWorkflowService implements WorkflowService {
                                         @Nonnull final String taskInstancePath,
                                         @Nullable final String option, @Nonnull final ValueMap data)
             throws PersistenceException {
-        WorkflowTaskInstance result = null;
-        WorkflowTaskInstance task = loadInstance(context, taskInstancePath);
-        if (LOG.isInfoEnabled()) {
-            LOG.info("runTask '{}' ({})...", task, taskInstancePath);
-        }
-        if (task != null) {
-            if (task.getState() != WorkflowTaskInstance.State.finished) {
-                if (new TaskInstanceAssigneeFilter().accept(task.getResource())) {
-                    try (final ServiceContext serviceContext = new ServiceContext(context)) {
-                        result = runTask(serviceContext, requestData, task, option, data, true);
-                    } catch (LoginException ex) {
-                        LOG.error(ex.toString());
+        try (final OperationScope operation = openScope()) {
+            WorkflowTaskInstance result = null;
+            WorkflowTaskInstance task = loadInstance(context, taskInstancePath);
+            if (LOG.isInfoEnabled()) {
+                LOG.info("runTask '{}' ({})...", task, taskInstancePath);
+            }
+            if (task != null) {
+                if (task.isCompletionPending()) {
+                    LOG.error("can't run task, the completion is pending: '{}'", taskInstancePath);
+                    throw new PersistenceException("can't run task, the completion of asynchronous actions is pending");
+                }
+                if (task.getState() != WorkflowTaskInstance.State.finished) {
+                    if (new TaskInstanceAssigneeFilter().accept(task.getResource())) {
+                        try (final ServiceContext serviceContext = new ServiceContext(context)) {
+                            result = runTask(serviceContext, requestData, task, option, data);
+                            serviceContext.commit();
+                        } catch (LoginException ex) {
+                            LOG.error(ex.toString());
+                        }
+                    } else {
+                        LOG.error("insufficient privileges: '{}' ({})", context.getResolver().getUserID(), taskInstancePath);
                     }
                 } else {
-                    LOG.error("insufficient privileges: '{}' ({})", context.getResolver().getUserID(), taskInstancePath);
+                    LOG.error("can't run task in state: '{}' ({})", task.getState(), taskInstancePath);
+                    throw new PersistenceException("can't run task, task not open");
                 }
             } else {
-                LOG.error("can't run task in state: '{}' ({})", task.getState(), taskInstancePath);
-                throw new PersistenceException("can't run task, task not open");
+                LOG.error("task not available: '{}'", taskInstancePath);
             }
-        } else {
-            LOG.error("task not available: '{}'", taskInstancePath);
+            return result;
         }
-        return result;
     }
 
     /**
-     * the internal 'run' using a given service resolver (for 'auto run' of an added task)
+     * the internal 'run' using a given service resolver (for 'auto run' of an added task); the state change,
+     * the data changes, the following task and the finishing are committed together by the caller
      */
     @Nullable
     protected WorkflowTaskInstance runTask(@Nonnull final ServiceContext serviceContext, @Nonnull ValueMap requestData,
                                            @Nonnull WorkflowTaskInstance taskInstance,
-                                           @Nullable final String optionKey, @Nonnull final ValueMap data,
-                                           boolean commit)
+                                           @Nullable final String optionKey, @Nonnull final ValueMap data)
             throws PersistenceException {
         Resource moved = null;
         final TaskData taskData = new TaskData(serviceContext, taskInstance, requestData, data);
@@ -549,11 +1349,13 @@ public class PlatformWorkflowService implements WorkflowService {
             if (LOG.isDebugEnabled()) {
                 LOG.debug("runTask; '{}.{}'...", taskInstance, optionKey);
             }
-            Resource runningFolder = giveInstanceFolder(serviceContext, getTenantId(taskInstance.getResource()),
-                    WorkflowTaskInstance.State.running);
-            moved = serviceContext.getResolver().move(taskInstance.getPath(), runningFolder.getPath());
+            moved = changeState(serviceContext, taskInstance, WorkflowTaskInstance.State.running);
             taskInstance = loadInstance(serviceContext, moved.getPath());
         } else {
+            if (taskInstance.isCompletionPending()) {
+                // the actions of the previous run are still running; a re-run would start them again
+                throw new PersistenceException("can't run task, the completion of asynchronous actions is pending");
+            }
             if (LOG.isDebugEnabled()) {
                 LOG.debug("re-runTask; '{}.{}'...", taskInstance, optionKey);
             }
@@ -567,15 +1369,22 @@ public class PlatformWorkflowService implements WorkflowService {
             opData.put(PN_EXECUTED, Calendar.getInstance());
             opData.put(PN_EXECUTED_BY, taskData.get(META_USER_ID));
             changeTaskData(serviceContext, taskInstance, null, opData, taskData);
+            journal(serviceContext, Trail.Type.run, taskInstance.getPath(), optionKey, null);
             addTaskComment(serviceContext, taskInstance, requestData);
-            if (commit) {
-                serviceContext.getResolver().commit();
-            }
+            int pendingMark = serviceContext.scope.pending.size();
             WorkflowAction.Result result = processOption(serviceContext, requestData, taskInstance, optionKey, data);
+            List<PendingAction> pending = serviceContext.scope.takePending(pendingMark);
             if (result.getStatus() != WorkflowAction.Status.failure) {
-                taskInstance = finishTask(serviceContext, requestData, taskInstance,
-                        result.getStatus() == WorkflowAction.Status.cancel,
-                        new ValueMapDecorator(Collections.emptyMap()));
+                if (pending.isEmpty() || result.getStatus() == WorkflowAction.Status.cancel) {
+                    taskInstance = finishTask(serviceContext, requestData, taskInstance,
+                            result.getStatus() == WorkflowAction.Status.cancel,
+                            new ValueMapDecorator(Collections.emptyMap()));
+                } else {
+                    deferCompletion(serviceContext, taskInstance, pending);
+                }
+            } else if (!pending.isEmpty()) {
+                LOG.warn("runTask: '{}' failed, the completion of {} asynchronous action(s) is ignored",
+                        taskInstance, pending.size());
             }
         } else {
             LOG.error("task instance can't be moved to state folder: '{}'", moved);
@@ -603,79 +1412,203 @@ public class PlatformWorkflowService implements WorkflowService {
                     optionKey, taskInstance, option != null ? "." + option.getName() : "");
         }
         TaskData taskData = new TaskData(serviceContext, taskInstance, requestData, data);
+        int pendingMark = serviceContext.scope.pending.size();
         String topic = taskInstance.getTopic();
         if (StringUtils.isNotBlank(topic)) {
             // process a task topic if declared before the option is performed
-            result.merge(processAction(topic, serviceContext.getRequestContext(),
-                    taskInstance, option, taskData));
+            result.merge(processAction(topic, serviceContext, taskInstance, option, taskData));
         }
         if (option != null && result.getStatus() == WorkflowAction.Status.success /* honor failure of task topic */) {
-            WorkflowTaskTemplate template = option.getTemplate();
-            ValueMap newData = new ValueMapDecorator(new HashMap<>());
-            newData.putAll(option.getData()); // prepare the declared option data for the following task
-            newData.putAll(data); // add the option dialog data
-            if (template != null) {
-                // create a following task if a template for such a task is declared
-                if (LOG.isDebugEnabled()) {
-                    LOG.debug("creating next task; '{}.{}' -> '{}'...",
-                            taskInstance, option.getName(), template.getPath());
-                }
-                WorkflowTaskInstance added = addTask(serviceContext, requestData,
-                        taskInstance.getPath(), template.getPath(), taskInstance.getTarget(), newData);
-                if (added == null) {
-                    LOG.error("creation of next task of template '{}' failed", template.getPath());
-                    return new WorkflowAction.Result(WorkflowAction.Status.failure);
-                }
-                // use the new task to perform an option topic
-                taskData = new TaskData(serviceContext, added, requestData, newData);
+            if (serviceContext.scope.pending.size() > pendingMark) {
+                // the task topic is not done yet; the option is performed after the completion of the task topic
+                deferOption(serviceContext, requestData, taskInstance, option, data);
             } else {
-                if (LOG.isDebugEnabled()) {
-                    LOG.debug("no following task declared; '{}.{}'", taskInstance, option.getName());
-                }
-                // use the current task to perform an option topic
-                taskData = new TaskData(serviceContext, taskInstance, requestData, newData);
+                result.merge(performOption(serviceContext, requestData, taskInstance, option, data));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * performs a chosen option after the task topic is done: creates the following task (if declared) and
+     * executes the option topic
+     */
+    @Nonnull
+    protected WorkflowAction.Result performOption(@Nonnull final ServiceContext serviceContext,
+                                                  @Nonnull ValueMap requestData,
+                                                  @Nonnull final WorkflowTaskInstance taskInstance,
+                                                  @Nonnull final WorkflowTaskTemplate.Option option,
+                                                  @Nonnull final ValueMap data)
+            throws PersistenceException {
+        WorkflowAction.Result result = new WorkflowAction.Result();
+        TaskData taskData;
+        WorkflowTaskTemplate template = option.getTemplate();
+        ValueMap newData = new ValueMapDecorator(new HashMap<>());
+        newData.putAll(option.getData()); // prepare the declared option data for the following task
+        newData.putAll(data); // add the option dialog data
+        if (template != null) {
+            // create a following task if a template for such a task is declared
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("creating next task; '{}.{}' -> '{}'...",
+                        taskInstance, option.getName(), template.getPath());
             }
-            topic = option.getTopic();
-            if (StringUtils.isNotBlank(topic)) {
-                result.merge(processAction(topic, serviceContext.getRequestContext(), taskInstance, option, taskData));
+            WorkflowTaskInstance added = addTask(serviceContext, serviceContext, requestData,
+                    taskInstance.getPath(), template.getPath(), taskInstance.getTarget(), newData);
+            if (added == null) {
+                LOG.error("creation of next task of template '{}' failed", template.getPath());
+                return new WorkflowAction.Result(WorkflowAction.Status.failure);
             }
+            // use the new task to perform an option topic
+            taskData = new TaskData(serviceContext, added, requestData, newData);
+        } else {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("no following task declared; '{}.{}'", taskInstance, option.getName());
+            }
+            // use the current task to perform an option topic
+            taskData = new TaskData(serviceContext, taskInstance, requestData, newData);
+        }
+        String topic = option.getTopic();
+        if (StringUtils.isNotBlank(topic)) {
+            result.merge(processAction(topic, serviceContext, taskInstance, option, taskData));
         }
         return result;
     }
 
     /**
-     * executes an action topic (all declared action services of the topic)
+     * stores the chosen option with the dialog data and the request data at the task; the option is performed
+     * by the completion of the asynchronous actions of the task topic (a failed completion leaves no following task)
+     */
+    protected void deferOption(@Nonnull final ServiceContext serviceContext, @Nonnull ValueMap requestData,
+                               @Nonnull final WorkflowTaskInstance taskInstance,
+                               @Nonnull final WorkflowTaskTemplate.Option option, @Nonnull final ValueMap data)
+            throws PersistenceException {
+        ResourceResolver resolver = serviceContext.getResolver();
+        Resource taskResource = taskInstance.getResource();
+        takeDeferredOption(taskResource); // a former run which has failed
+        changeCompletion(taskResource, Collections.singletonMap(WorkflowTaskInstance.PN_ASYNC_OPTION,
+                option.getName()));
+        Map<String, Object> request = new HashMap<>(SUBNODE_PROPERTIES);
+        request.putAll(requestData);
+        String userId = serviceContext.getUserId();
+        if (StringUtils.isNotBlank(userId)) {
+            request.putIfAbsent(META_USER_ID, userId);
+        }
+        resolver.create(taskResource, WorkflowTaskInstance.PP_ASYNC_REQUEST, request);
+        Map<String, Object> dialog = new HashMap<>(SUBNODE_PROPERTIES);
+        dialog.putAll(data);
+        resolver.create(taskResource, WorkflowTaskInstance.PP_ASYNC_DATA, dialog);
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("option '{}.{}' deferred until the completion of the task topic", taskInstance, option.getName());
+        }
+    }
+
+    /**
+     * an option stored at a task waiting for the completion of the task topic
+     */
+    protected static class DeferredOption {
+
+        protected final String key;
+        protected final ValueMap requestData;
+        protected final ValueMap data;
+
+        protected DeferredOption(@Nonnull final String key,
+                                 @Nonnull final ValueMap requestData, @Nonnull final ValueMap data) {
+            this.key = key;
+            this.requestData = requestData;
+            this.data = data;
+        }
+    }
+
+    /**
+     * removes a deferred option from the task
      *
-     * @param topic        the symbolic key of the action to perform
-     * @param context      the current request context
-     * @param taskInstance the target task instance
-     * @param option       the chosen option
-     * @param taskData     the data collection
+     * @return the stored option with the request data and the dialog data; 'null' if no option is deferred
+     */
+    @Nullable
+    protected DeferredOption takeDeferredOption(@Nonnull final Resource taskResource)
+            throws PersistenceException {
+        String optionKey = taskResource.getValueMap().get(WorkflowTaskInstance.PN_ASYNC_OPTION, String.class);
+        ValueMap requestData = takeValues(taskResource.getChild(WorkflowTaskInstance.PP_ASYNC_REQUEST));
+        ValueMap data = takeValues(taskResource.getChild(WorkflowTaskInstance.PP_ASYNC_DATA));
+        changeCompletion(taskResource, Collections.singletonMap(WorkflowTaskInstance.PN_ASYNC_OPTION, null));
+        return optionKey != null ? new DeferredOption(optionKey, requestData, data) : null;
+    }
+
+    @Nonnull
+    protected ValueMap takeValues(@Nullable final Resource resource) throws PersistenceException {
+        Map<String, Object> values = new HashMap<>();
+        if (resource != null) {
+            for (Map.Entry<String, Object> entry : resource.getValueMap().entrySet()) {
+                if (!entry.getKey().startsWith("jcr:")) {
+                    values.put(entry.getKey(), entry.getValue());
+                }
+            }
+            resource.getResourceResolver().delete(resource);
+        }
+        return new ValueMapDecorator(values);
+    }
+
+    /**
+     * executes an action topic (all declared action services of the topic); the actions are called with the
+     * request context, the pending changes are committed before an action which requires a separate transaction;
+     * adjacent actions declared as 'parallel' are executed concurrently if no uncommitted changes are pending
+     * (one after another otherwise), the results are merged in the ranking order
+     *
+     * @param topic          the symbolic key of the action to perform
+     * @param serviceContext the workflow service context
+     * @param taskInstance   the target task instance
+     * @param option         the chosen option
+     * @param taskData       the data collection
      * @return the result of the action execution
      */
-    protected WorkflowAction.Result processAction(@Nonnull final String topic, @Nonnull final BeanContext context,
+    protected WorkflowAction.Result processAction(@Nonnull final String topic,
+                                                  @Nonnull final ServiceContext serviceContext,
                                                   @Nonnull final WorkflowTaskInstance taskInstance,
                                                   @Nullable final WorkflowTaskTemplate.Option option,
                                                   @Nonnull final TaskData taskData) {
         WorkflowAction.Result result = new WorkflowAction.Result();
-        List<WorkflowActionManager.ActionReference> action = actionManager.getWorkflowAction(topic);
+        List<WorkflowActionManager.ActionReference> registered = actionManager.getWorkflowAction(topic);
         if (LOG.isInfoEnabled()) {
             LOG.info("processAction '{}' ({}{})...",
                     topic, taskInstance, option != null ? "." + option.getName() : "");
         }
-        if (action != null) {
-            for (WorkflowActionManager.ActionReference reference : action) {
+        if (registered != null) {
+            List<WorkflowActionManager.ActionReference> action = new ArrayList<>(registered);
+            int index = 0;
+            while (index < action.size()) {
                 if (result.getStatus() != WorkflowAction.Status.success) {
                     LOG.error("execution aborted ({})", result);
                     break;
                 }
+                int end = index + 1;
+                if (config.parallel_actions() && parallelExecution.get() == null && action.get(index).isParallel()) {
+                    while (end < action.size() && action.get(end).isParallel()) {
+                        end++;
+                    }
+                }
+                List<WorkflowActionManager.ActionReference> group = action.subList(index, end);
                 try {
-                    result.merge(reference.getAction().process(context, taskInstance, option, taskData));
+                    for (WorkflowActionManager.ActionReference reference : group) {
+                        if (reference.isSeparateTransaction() && serviceContext.getResolver().hasChanges()) {
+                            serviceContext.commit();
+                            break;
+                        }
+                    }
+                    if (group.size() > 1 && !serviceContext.getResolver().hasChanges()
+                            && !serviceContext.getRequestContext().getResolver().hasChanges()) {
+                        result.merge(processActions(topic, group, serviceContext, taskInstance, option, taskData));
+                    } else {
+                        for (WorkflowActionManager.ActionReference reference : group) {
+                            result.merge(processAction(topic, reference,
+                                    serviceContext, taskInstance, option, taskData));
+                        }
+                    }
                 } catch (Exception ex) {
                     LOG.error(ex.toString());
                     result.setStatus(WorkflowAction.Status.failure);
                     result.add(new WorkflowAction.Message(WorkflowAction.Level.error, ex.toString()));
                 }
+                index = end;
             }
         }
         switch (result.getStatus()) {
@@ -693,6 +1626,171 @@ public class PlatformWorkflowService implements WorkflowService {
         return result;
     }
 
+    /**
+     * executes one action of a topic; an asynchronous action is started and registered as pending action of the
+     * current operation (the completion of the task is deferred by the transition)
+     */
+    @Nonnull
+    protected WorkflowAction.Result processAction(@Nonnull final String topic,
+                                                  @Nonnull final WorkflowActionManager.ActionReference reference,
+                                                  @Nonnull final ServiceContext serviceContext,
+                                                  @Nonnull final WorkflowTaskInstance taskInstance,
+                                                  @Nullable final WorkflowTaskTemplate.Option option,
+                                                  @Nonnull final TaskData taskData) {
+        return processAction(topic, reference, serviceContext.getRequestContext(), serviceContext.scope.pending,
+                taskInstance, option, taskData);
+    }
+
+    /**
+     * calls one action of a topic with the given context; a started asynchronous action is added to 'pending'
+     */
+    @Nonnull
+    protected WorkflowAction.Result processAction(@Nonnull final String topic,
+                                                  @Nonnull final WorkflowActionManager.ActionReference reference,
+                                                  @Nonnull final BeanContext context,
+                                                  @Nonnull final List<PendingAction> pending,
+                                                  @Nonnull final WorkflowTaskInstance taskInstance,
+                                                  @Nullable final WorkflowTaskTemplate.Option option,
+                                                  @Nonnull final TaskData taskData) {
+        try {
+            WorkflowAction action = reference.getAction();
+            if (action instanceof WorkflowAsyncAction) {
+                pending.add(new PendingAction(topic, ((WorkflowAsyncAction) action)
+                        .processAsync(context, taskInstance, option, taskData)));
+                return new WorkflowAction.Result();
+            }
+            return action.process(context, taskInstance, option, taskData);
+        } catch (Exception ex) {
+            LOG.error(ex.toString());
+            WorkflowAction.Result result = new WorkflowAction.Result(WorkflowAction.Status.failure);
+            result.add(new WorkflowAction.Message(WorkflowAction.Level.error, ex.toString()));
+            return result;
+        }
+    }
+
+    /**
+     * executes a group of parallel actions of a topic concurrently (in the current thread if no executor is
+     * available or the executor is exhausted) and merges the results in the ranking order of the actions;
+     * the pending changes of the transition must be committed before, each action uses its own session of the user
+     */
+    @Nonnull
+    protected WorkflowAction.Result processActions(@Nonnull final String topic,
+                                                   @Nonnull final List<WorkflowActionManager.ActionReference> group,
+                                                   @Nonnull final ServiceContext serviceContext,
+                                                   @Nonnull final WorkflowTaskInstance taskInstance,
+                                                   @Nullable final WorkflowTaskTemplate.Option option,
+                                                   @Nonnull final TaskData taskData) {
+        final String taskPath = taskInstance.getPath();
+        final String optionName = option != null ? option.getName() : null;
+        final Map<String, Object> data = new HashMap<>();
+        for (Map.Entry<String, Object> entry : taskData.entrySet()) {
+            data.put(entry.getKey(), entry.getValue());
+        }
+        final ResourceResolver userResolver = serviceContext.getRequestContext().getResolver();
+        final List<PendingAction> pending = Collections.synchronizedList(new ArrayList<>());
+        List<Callable<WorkflowAction.Result>> parallel = new ArrayList<>();
+        List<Callable<WorkflowAction.Result>> inline = new ArrayList<>();
+        for (WorkflowActionManager.ActionReference reference : group) {
+            parallel.add(() -> processAction(topic, reference, userResolver, taskPath, optionName, data, pending));
+            inline.add(() -> processAction(topic, reference, serviceContext, taskInstance, option, taskData));
+        }
+        WorkflowAction.Result result = processActions(parallel, inline);
+        serviceContext.scope.pending.addAll(pending);
+        return result;
+    }
+
+    /**
+     * executes the actions concurrently and waits for the results; an action rejected by the executor is executed
+     * in the current thread (the 'inline' variant of the action); the results are merged in the order of the
+     * actions, an action which is not done in time (configured timeout of a group) is cancelled as failure
+     */
+    @Nonnull
+    protected WorkflowAction.Result processActions(@Nonnull final List<Callable<WorkflowAction.Result>> parallel,
+                                                   @Nonnull final List<Callable<WorkflowAction.Result>> inline) {
+        ExecutorService executor = actionExecutor;
+        List<Future<WorkflowAction.Result>> running = new ArrayList<>();
+        for (int i = 0; i < parallel.size(); i++) {
+            Future<WorkflowAction.Result> future = null;
+            if (executor != null) {
+                try {
+                    future = executor.submit(parallel.get(i));
+                } catch (RejectedExecutionException ex) {
+                    LOG.warn("parallel action rejected, executed in the current thread ({})", ex.toString());
+                }
+            }
+            if (future == null) {
+                FutureTask<WorkflowAction.Result> task = new FutureTask<>(inline.get(i));
+                task.run();
+                future = task;
+            }
+            running.add(future);
+        }
+        long timeout = config.parallel_action_timeout() * 1000L;
+        long deadline = System.currentTimeMillis() + timeout;
+        WorkflowAction.Result result = new WorkflowAction.Result();
+        for (Future<WorkflowAction.Result> future : running) {
+            try {
+                result.merge(timeout > 0
+                        ? future.get(Math.max(0L, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS)
+                        : future.get());
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                future.cancel(true);
+                result.setStatus(WorkflowAction.Status.failure);
+                result.add(new WorkflowAction.Message(WorkflowAction.Level.error, ex.toString()));
+            } catch (TimeoutException ex) {
+                LOG.error("parallel action not done in time, cancelled");
+                future.cancel(true);
+                result.setStatus(WorkflowAction.Status.failure);
+                result.add(new WorkflowAction.Message(WorkflowAction.Level.error,
+                        "parallel action not done in time, cancelled"));
+            } catch (ExecutionException ex) {
+                LOG.error(ex.toString());
+                result.setStatus(WorkflowAction.Status.failure);
+                result.add(new WorkflowAction.Message(WorkflowAction.Level.error, ex.getCause().toString()));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * executes a parallel action in a thread of the executor with its own session of the requesting user (a clone
+     * of the users resolver - no service session); the task is reloaded in this session, the changes of the action
+     * are committed after its successful execution
+     *
+     * @param pending the list of the asynchronous actions of the transition (the started actions are added)
+     */
+    @Nonnull
+    protected WorkflowAction.Result processAction(@Nonnull final String topic,
+                                                  @Nonnull final WorkflowActionManager.ActionReference reference,
+                                                  @Nonnull final ResourceResolver userResolver,
+                                                  @Nonnull final String taskPath, @Nullable final String optionName,
+                                                  @Nonnull final Map<String, Object> data,
+                                                  @Nonnull final List<PendingAction> pending) {
+        parallelExecution.set(Boolean.TRUE);
+        try (final ResourceResolver resolver = userResolver.clone(null)) {
+            BeanContext actionContext = new BeanContext.Service(resolver);
+            WorkflowTaskInstance taskInstance = loadInstance(actionContext, taskPath);
+            if (taskInstance == null) {
+                throw new PersistenceException("task not available: '" + taskPath + "'");
+            }
+            WorkflowAction.Result result = processAction(topic, reference, actionContext, pending, taskInstance,
+                    optionName != null ? taskInstance.getTemplate().getOption(optionName) : null,
+                    new TaskData(data));
+            if (result.getStatus() != WorkflowAction.Status.failure) {
+                resolver.commit();
+            }
+            return result;
+        } catch (LoginException | PersistenceException ex) {
+            LOG.error(ex.toString());
+            WorkflowAction.Result result = new WorkflowAction.Result(WorkflowAction.Status.failure);
+            result.add(new WorkflowAction.Message(WorkflowAction.Level.error, ex.toString()));
+            return result;
+        } finally {
+            parallelExecution.remove();
+        }
+    }
+
     /**
      * finishes the execution of the given task
      *
@@ -708,31 +1806,34 @@ public class PlatformWorkflowService implements WorkflowService {
                                            @Nonnull final String taskInstancePath, boolean cancelled,
                                            @Nonnull final ValueMap data)
             throws PersistenceException {
-        WorkflowTaskInstance taskInstance = loadInstance(context, taskInstancePath);
-        if (taskInstance != null) {
-            if (taskInstance.getState() != WorkflowTaskInstance.State.finished) {
-                Session session = context.getResolver().adaptTo(Session.class);
-                if (session != null) {
-                    if (permissionsService.hasAllPrivileges(session, taskInstancePath, WRITE_PRIVILEGE_KEY)) {
-                        try (final ServiceContext serviceContext = new ServiceContext(context)) {
-                            taskInstance = finishTask(serviceContext, requestData, taskInstance, cancelled, data);
-                        } catch (LoginException ex) {
-                            LOG.error(ex.toString());
+        try (final OperationScope operation = openScope()) {
+            WorkflowTaskInstance taskInstance = loadInstance(context, taskInstancePath);
+            if (taskInstance != null) {
+                if (taskInstance.getState() != WorkflowTaskInstance.State.finished) {
+                    Session session = context.getResolver().adaptTo(Session.class);
+                    if (session != null) {
+                        if (permissionsService.hasAllPrivileges(session, taskInstancePath, WRITE_PRIVILEGE_KEY)) {
+                            try (final ServiceContext serviceContext = new ServiceContext(context)) {
+                                taskInstance = finishTask(serviceContext, requestData, taskInstance, cancelled, data);
+                                serviceContext.commit();
+                            } catch (LoginException ex) {
+                                LOG.error(ex.toString());
+                            }
+                        } else {
+                            throw new PersistenceException("insufficient privileges");
                         }
                     } else {
-                        throw new PersistenceException("insufficient privileges");
+                        throw new IllegalStateException("can't adapt resolver to session");
                     }
                 } else {
-                    throw new IllegalStateException("can't adapt resolver to session");
+                    LOG.error("finish request for a finished task ({})", taskInstancePath);
+                    throw new PersistenceException("task is finished already");
                 }
             } else {
-                LOG.error("finish request for a finished task ({})", taskInstancePath);
-                throw new PersistenceException("task is finished already");
+                LOG.error("task instance not available: '{}'", taskInstancePath);
             }
-        } else {
-            LOG.error("task instance not available: '{}'", taskInstancePath);
+            return taskInstance;
         }
-        return taskInstance;
     }
 
     /**
@@ -754,18 +1855,26 @@ public class PlatformWorkflowService implements WorkflowService {
             LOG.debug("finishTask: '{}' ({})...", taskInstance, cancelled);
         }
         final TaskData taskData = new TaskData(serviceContext, taskInstance, requestData, data);
-        Resource finishedFolder = giveInstanceFolder(serviceContext, getTenantId(taskInstance.getResource()),
-                WorkflowTaskInstance.State.finished);
-        Resource moved = serviceContext.getResolver().move(taskInstance.getPath(), finishedFolder.getPath());
+        Resource moved = changeState(serviceContext, taskInstance, WorkflowTaskInstance.State.finished);
         taskInstance = loadInstance(serviceContext, moved.getPath());
         if (taskInstance != null) {
             changeTaskData(serviceContext, taskInstance, PP_DATA, data, taskData);
             Map<String, Object> opData = new HashMap<>();
-            opData.put(cancelled ? PN_CANCELLED : PN_FINISHED, Calendar.getInstance());
+            Calendar finished = Calendar.getInstance();
+            opData.put(PN_FINISHED, finished); // the time of the state change for each finished task
+            if (cancelled) {
+                opData.put(PN_CANCELLED, finished);
+            }
             opData.put(cancelled ? PN_CANCELLED_BY : PN_FINISHED_BY, taskData.get(META_USER_ID));
+            // a finished task doesn't wait for a completion (a late completion is dropped)
+            opData.put(WorkflowTaskInstance.PN_ASYNC_PENDING, null);
+            opData.put(WorkflowTaskInstance.PN_ASYNC_TOPICS, null);
+            opData.put(WorkflowTaskInstance.PN_ASYNC_OWNER, null);
+            opData.put(WorkflowTaskInstance.PN_ASYNC_RUN, null);
             changeTaskData(serviceContext, taskInstance, null, opData, taskData);
+            journal(serviceContext, cancelled ? Trail.Type.cancelled : Trail.Type.finished,
+                    taskInstance.getPath(), null, null);
             addTaskComment(serviceContext, taskInstance, requestData);
-            serviceContext.getResolver().commit();
             if (LOG.isInfoEnabled()) {
                 LOG.info("finishTask(): {} done.", taskInstance);
             }
@@ -775,6 +1884,462 @@ public class PlatformWorkflowService implements WorkflowService {
         return taskInstance;
     }
 
+    // asynchronous actions
+
+    /**
+     * an asynchronous action started by a transition
+     */
+    protected static class PendingAction {
+
+        protected final String topic;
+        protected final CompletionStage<WorkflowAction.Result> stage;
+
+        protected PendingAction(@Nonnull final String topic, @Nonnull final CompletionStage<WorkflowAction.Result> stage) {
+            this.topic = topic;
+            this.stage = stage;
+        }
+    }
+
+    /**
+     * marks the running task as waiting for the completion of its asynchronous actions; the completion is observed
+     * after the commit of the transition (the marker is committed with the transition)
+     */
+    protected void deferCompletion(@Nonnull final ServiceContext serviceContext,
+                                   @Nonnull final WorkflowTaskInstance taskInstance,
+                                   @Nonnull final List<PendingAction> pending)
+            throws PersistenceException {
+        Set<String> topics = new LinkedHashSet<>();
+        pending.forEach(action -> topics.add(action.topic));
+        Map<String, Object> marker = new HashMap<>();
+        marker.put(WorkflowTaskInstance.PN_ASYNC_PENDING, Calendar.getInstance());
+        marker.put(WorkflowTaskInstance.PN_ASYNC_TOPICS, topics.toArray(new String[0]));
+        marker.put(WorkflowTaskInstance.PN_ASYNC_FAILURE, null);
+        marker.put(WorkflowTaskInstance.PN_ASYNC_OWNER, slingSettings.getSlingId());
+        marker.put(WorkflowTaskInstance.PN_ASYNC_RUN, asyncRun);
+        changeCompletion(taskInstance.getResource(), marker);
+        if (LOG.isInfoEnabled()) {
+            LOG.info("runTask: '{}' waits for the completion of {}", taskInstance, topics);
+        }
+        final String taskPath = taskInstance.getPath(); // stable, a pending task can't be moved by a transition
+        serviceContext.scope.afterCommit.add(() -> awaitCompletion(taskPath, pending));
+    }
+
+    /**
+     * completes the task if all asynchronous actions are done; the completion is performed by the action executor
+     * (never in the thread of the transition which has started the actions)
+     */
+    protected void awaitCompletion(@Nonnull final String taskPath, @Nonnull final List<PendingAction> pending) {
+        trackedCompletions.add(taskPath);
+        CompletableFuture<?>[] stages = new CompletableFuture<?>[pending.size()];
+        for (int i = 0; i < stages.length; i++) {
+            stages[i] = pending.get(i).stage.toCompletableFuture();
+        }
+        Runnable completion = () -> {
+            WorkflowAction.Result result = new WorkflowAction.Result();
+            for (CompletableFuture<?> stage : stages) {
+                try {
+                    Object stageResult = stage.join();
+                    if (stageResult instanceof WorkflowAction.Result) {
+                        result.merge((WorkflowAction.Result) stageResult);
+                    }
+                } catch (RuntimeException ex) {
+                    Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+                    LOG.error(cause.toString());
+                    result.setStatus(WorkflowAction.Status.failure);
+                    result.add(new WorkflowAction.Message(WorkflowAction.Level.error, cause.toString()));
+                }
+            }
+            try {
+                completeTask(taskPath, result);
+            } finally {
+                trackedCompletions.remove(taskPath);
+            }
+        };
+        ExecutorService executor = actionExecutor;
+        if (executor != null) {
+            CompletableFuture.allOf(stages).whenCompleteAsync((done, ex) -> completion.run(), executor);
+        } else {
+            CompletableFuture.allOf(stages).whenCompleteAsync((done, ex) -> completion.run());
+        }
+    }
+
+    /**
+     * finishes a task waiting for its asynchronous actions with the merged result of the actions; a failure is
+     * stored at the task which stays running (can be executed again)
+     */
+    protected void completeTask(@Nonnull final String taskPath, @Nonnull final WorkflowAction.Result result) {
+        try (final ResourceResolver resolver = resolverFactory.getServiceResourceResolver(null);
+             final ServiceContext serviceContext = new ServiceContext(new BeanContext.Service(resolver))) {
+            WorkflowTaskInstance taskInstance = loadInstance(serviceContext, taskPath);
+            if (taskInstance == null || !taskInstance.isCompletionPending()) {
+                LOG.warn("completion of '{}' dropped, the task is not waiting for a completion", taskPath);
+                return;
+            }
+            Map<String, Object> done = new HashMap<>();
+            done.put(WorkflowTaskInstance.PN_ASYNC_PENDING, null);
+            done.put(WorkflowTaskInstance.PN_ASYNC_TOPICS, null);
+            done.put(WorkflowTaskInstance.PN_ASYNC_OWNER, null);
+            done.put(WorkflowTaskInstance.PN_ASYNC_RUN, null);
+            if (result.getStatus() == WorkflowAction.Status.failure) {
+                List<String> messages = new ArrayList<>();
+                result.getMessages().forEach(message -> messages.add(message.toString()));
+                done.put(WorkflowTaskInstance.PN_ASYNC_FAILURE, messages.toArray(new String[0]));
+                LOG.error("completion of '{}' failed: {}", taskInstance, result);
+            }
+            changeCompletion(taskInstance.getResource(), done);
+            DeferredOption deferred = takeDeferredOption(taskInstance.getResource());
+            List<PendingAction> pending = Collections.emptyList();
+            if (deferred != null && result.getStatus() == WorkflowAction.Status.success) {
+                // the task topic is done, the following task is created and the option topic is executed now
+                WorkflowTaskTemplate.Option option = taskInstance.getTemplate().getOption(deferred.key);
+                WorkflowAction.Result performed = option != null
+                        ? performOption(serviceContext, deferred.requestData, taskInstance, option, deferred.data)
+                        : new WorkflowAction.Result(WorkflowAction.Status.failure, new WorkflowAction.Message(
+                        WorkflowAction.Level.error, "option not available: '" + deferred.key + "'"));
+                pending = serviceContext.scope.takePending(0);
+                if (performed.getStatus() == WorkflowAction.Status.failure) {
+                    // nothing of the option is kept, the task stays running and can be executed again
+                    serviceContext.revert();
+                    LOG.error("completion of '{}' failed: {}", taskPath, performed);
+                    failCompletion(serviceContext, taskPath, done, performed);
+                    serviceContext.commit();
+                    return;
+                }
+                result.merge(performed);
+            }
+            if (result.getStatus() != WorkflowAction.Status.failure) {
+                if (pending.isEmpty() || result.getStatus() == WorkflowAction.Status.cancel) {
+                    finishTask(serviceContext, new ValueMapDecorator(Collections.emptyMap()), taskInstance,
+                            result.getStatus() == WorkflowAction.Status.cancel,
+                            new ValueMapDecorator(Collections.emptyMap()));
+                } else {
+                    deferCompletion(serviceContext, taskInstance, pending);
+                }
+            }
+            serviceContext.commit();
+            if (LOG.isInfoEnabled()) {
+                LOG.info("completion of '{}' done: {}", taskPath, result.getStatus());
+            }
+        } catch (LoginException | PersistenceException | RuntimeException ex) {
+            LOG.error("completion of '" + taskPath + "' failed: " + ex.getMessage(), ex);
+        }
+    }
+
+    /**
+     * stores the failure of a completion at the (reloaded) task and drops a deferred option
+     */
+    protected void failCompletion(@Nonnull final ServiceContext serviceContext, @Nonnull final String taskPath,
+                                  @Nonnull final Map<String, Object> done, @Nonnull final WorkflowAction.Result result)
+            throws PersistenceException {
+        Resource taskResource = serviceContext.getResolver().getResource(taskPath);
+        if (taskResource == null) {
+            throw new PersistenceException("task not available: '" + taskPath + "'");
+        }
+        List<String> messages = new ArrayList<>();
+        result.getMessages().forEach(message -> messages.add(message.toString()));
+        Map<String, Object> failed = new HashMap<>(done);
+        failed.put(WorkflowTaskInstance.PN_ASYNC_FAILURE, messages.toArray(new String[0]));
+        changeCompletion(taskResource, failed);
+        takeDeferredOption(taskResource);
+    }
+
+    protected void changeCompletion(@Nonnull final Resource taskResource, @Nonnull final Map<String, Object> data)
+            throws PersistenceException {
+        ModifiableValueMap values = taskResource.adaptTo(ModifiableValueMap.class);
+        if (values == null) {
+            throw new PersistenceException("can't modify properties of '" + taskResource.getPath() + "'");
+        }
+        for (Map.Entry<String, Object> entry : data.entrySet()) {
+            if (entry.getValue() != null) {
+                values.put(entry.getKey(), entry.getValue());
+            } else {
+                values.remove(entry.getKey());
+            }
+        }
+    }
+
+    /**
+     * the tasks waiting for a completion started by a former run of the service on this instance (or by an unknown
+     * instance) are resumed by a job (the observation of the actions started by a former run is lost)
+     */
+    @Override
+    @Nonnull
+    public Map<String, String> findOrphanedCompletions(@Nonnull final BeanContext context) {
+        Map<String, String> result = new LinkedHashMap<>();
+        String slingId = slingSettings.getSlingId();
+        @SuppressWarnings("deprecation")
+        Iterator<Resource> found = context.getResolver().findResources(asyncPendingQuery(), Query.XPATH);
+        while (found.hasNext()) {
+            Resource task = found.next();
+            ValueMap values = task.getValueMap();
+            String owner = values.get(WorkflowTaskInstance.PN_ASYNC_OWNER, String.class);
+            String run = values.get(WorkflowTaskInstance.PN_ASYNC_RUN, "");
+            if (getState(task) == WorkflowTaskInstance.State.running && !trackedCompletions.contains(task.getPath())
+                    && (owner == null || (owner.equals(slingId) && !run.equals(asyncRun)))) {
+                result.put(task.getPath(), run);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * calls the asynchronous actions of a task again (with a service context) and observes the completion; the task
+     * is claimed by this service run (committed) before the actions are called, a concurrent resume fails
+     */
+    @Override
+    public boolean resumeCompletion(@Nonnull final BeanContext context, @Nonnull final String taskPath,
+                                    @Nullable final String run, boolean giveUp)
+            throws PersistenceException {
+        if (trackedCompletions.contains(taskPath)) {
+            return true; // observed by this service run
+        }
+        List<PendingAction> pending = new ArrayList<>();
+        try (final ServiceContext serviceContext = new ServiceContext(context)) {
+            WorkflowTaskInstance taskInstance = loadInstance(serviceContext, taskPath);
+            if (taskInstance == null || !taskInstance.isCompletionPending() || !StringUtils.defaultString(run)
+                    .equals(taskInstance.getProperty(WorkflowTaskInstance.PN_ASYNC_RUN, ""))) {
+                return true; // completed or resumed meanwhile
+            }
+            List<String> topics = new ArrayList<>();
+            List<WorkflowAsyncAction> actions = new ArrayList<>();
+            for (String topic : taskInstance.getProperty(WorkflowTaskInstance.PN_ASYNC_TOPICS, new String[0])) {
+                List<WorkflowActionManager.ActionReference> action = actionManager.getWorkflowAction(topic);
+                if (action != null) {
+                    for (WorkflowActionManager.ActionReference reference : new ArrayList<>(action)) {
+                        if (reference.getAction() instanceof WorkflowAsyncAction) {
+                            topics.add(topic);
+                            actions.add((WorkflowAsyncAction) reference.getAction());
+                        }
+                    }
+                }
+            }
+            Map<String, Object> marker = new HashMap<>();
+            if (actions.isEmpty()) {
+                if (!giveUp) {
+                    return false;
+                }
+                LOG.error("resume of '{}' failed, no asynchronous action available", taskPath);
+                marker.put(WorkflowTaskInstance.PN_ASYNC_PENDING, null);
+                marker.put(WorkflowTaskInstance.PN_ASYNC_TOPICS, null);
+                marker.put(WorkflowTaskInstance.PN_ASYNC_OWNER, null);
+                marker.put(WorkflowTaskInstance.PN_ASYNC_RUN, null);
+                marker.put(WorkflowTaskInstance.PN_ASYNC_FAILURE,
+                        new String[]{"no asynchronous action available to resume"});
+                changeCompletion(taskInstance.getResource(), marker);
+                serviceContext.commit();
+                return true;
+            }
+            if (LOG.isInfoEnabled()) {
+                LOG.info("resuming the asynchronous actions of '{}'...", taskInstance);
+            }
+            marker.put(WorkflowTaskInstance.PN_ASYNC_OWNER, slingSettings.getSlingId());
+            marker.put(WorkflowTaskInstance.PN_ASYNC_RUN, asyncRun);
+            changeCompletion(taskInstance.getResource(), marker);
+            serviceContext.commit();
+            WorkflowTaskTemplate.Option option = taskInstance.getTemplate().getOption(taskInstance.getChosenOption());
+            TaskData taskData = new TaskData(serviceContext, taskInstance);
+            for (int i = 0; i < actions.size(); i++) {
+                CompletionStage<WorkflowAction.Result> stage;
+                try {
+                    stage = actions.get(i).processAsync(serviceContext.getRequestContext(),
+                            taskInstance, option, taskData);
+                } catch (Exception ex) {
+                    LOG.error("resume of '" + taskPath + "' failed: " + ex.getMessage(), ex);
+                    CompletableFuture<WorkflowAction.Result> failed = new CompletableFuture<>();
+                    failed.completeExceptionally(ex);
+                    stage = failed;
+                }
+                pending.add(new PendingAction(topics.get(i), stage));
+            }
+        } catch (LoginException ex) {
+            LOG.error(ex.toString());
+            return false;
+        }
+        awaitCompletion(taskPath, pending);
+        return true;
+    }
+
+    /**
+     * registers the change of the task counters in the changes of the current unit of work
+     * (written with the commit of the unit)
+     */
+    protected void changeCounters(@Nonnull final WorkflowTaskCounters.Changes changes, @Nonnull final String taskPath,
+                                  @Nullable final String assignee, @Nullable final WorkflowTaskInstance.State from,
+                                  @Nullable final WorkflowTaskInstance.State to) {
+        WorkflowTaskCounters counters = taskCounters;
+        if (counters != null) {
+            counters.change(changes, taskPath, assignee, from, to);
+        }
+    }
+
+    /**
+     * writes the counter changes of a unit of work as deltas of the task counters (before the commit of the unit)
+     */
+    protected void writeCounters(@Nonnull final ResourceResolver resolver,
+                                 @Nonnull final WorkflowTaskCounters.Changes changes)
+            throws PersistenceException {
+        WorkflowTaskCounters counters = taskCounters;
+        if (counters != null && !changes.isEmpty()) {
+            counters.write(resolver, changes);
+        }
+    }
+
+    /**
+     * submits the counter changes of a committed unit of work; the deltas are folded in the background
+     */
+    protected void submitCounters(@Nonnull final WorkflowTaskCounters.Changes changes) {
+        WorkflowTaskCounters counters = taskCounters;
+        if (counters != null && !changes.isEmpty()) {
+            counters.submit(changes);
+            changes.clear();
+            ExecutorService executor = actionExecutor;
+            if (executor != null) {
+                try {
+                    executor.execute(() -> applyCounters(counters));
+                    return;
+                } catch (RejectedExecutionException ex) {
+                    LOG.warn("task counters applied in the current thread ({})", ex.toString());
+                }
+            }
+            applyCounters(counters);
+        }
+    }
+
+    /**
+     * folds the committed counter deltas into the counters with a service resolver in a separate commit
+     */
+    protected void applyCounters(@Nonnull final WorkflowTaskCounters counters) {
+        try (final ResourceResolver resolver = resolverFactory.getServiceResourceResolver(null)) {
+            do {
+                counters.apply(resolver);
+            } while (counters.hasSubmitted() && !counters.isApplying());
+        } catch (LoginException | PersistenceException ex) {
+            LOG.error("task counters not changed: {}", ex.toString());
+        }
+    }
+
+    /**
+     * creates the journal segments of the next day in a separate commit if not present yet; the segments are not
+     * created by the concurrent transitions of the day
+     */
+    protected void prepareJournal(@Nonnull final ResourceResolver resolver, @Nonnull final Collection<String> tenants) {
+        Calendar tomorrow = Calendar.getInstance();
+        tomorrow.add(Calendar.DAY_OF_MONTH, 1);
+        List<String> missing = new ArrayList<>();
+        for (String tenant : tenants) {
+            if (!journal.hasSegment(resolver, tenant, tomorrow)) {
+                missing.add(tenant);
+            }
+        }
+        if (!missing.isEmpty()) {
+            Runnable prepare = () -> {
+                try (final ResourceResolver serviceResolver = resolverFactory.getServiceResourceResolver(null)) {
+                    for (String tenant : missing) {
+                        journal.prepare(serviceResolver, tenant, tomorrow);
+                    }
+                    serviceResolver.commit();
+                } catch (LoginException | PersistenceException ex) {
+                    LOG.warn("journal segments not prepared: {}", ex.toString()); // prepared by the next commit
+                }
+            };
+            ExecutorService executor = actionExecutor;
+            if (executor != null) {
+                try {
+                    executor.execute(prepare);
+                    return;
+                } catch (RejectedExecutionException ex) {
+                    LOG.warn("journal segments prepared in the current thread ({})", ex.toString());
+                }
+            }
+            prepare.run();
+        }
+    }
+
+    /**
+     * removes the expired journal segments without entries of all tenants (the events of the purged workflows are
+     * removed with each purge batch) and prepares the segments of the current and the next day
+     *
+     * @return the number of segments removed
+     */
+    protected int purgeJournal(@Nonnull final ResourceResolver resolver, @Nonnull final Resource root,
+                               @Nonnull final Calendar dueDate)
+            throws PersistenceException {
+        int count = 0;
+        Calendar today = Calendar.getInstance();
+        Calendar tomorrow = Calendar.getInstance();
+        tomorrow.add(Calendar.DAY_OF_MONTH, 1);
+        for (Resource tenantFolder : root.getChildren()) {
+            if (tenantFolder.getChild(WorkflowJournal.JOURNAL_FOLDER) != null) {
+                count += journal.purge(resolver, tenantFolder.getName(), dueDate);
+                journal.prepare(resolver, tenantFolder.getName(), today);
+                journal.prepare(resolver, tenantFolder.getName(), tomorrow);
+            }
+        }
+        resolver.commit();
+        return count;
+    }
+
+    /**
+     * removes a finished or removed open task from the summary of its workflow as part of the current unit of work
+     */
+    protected void changeSummary(@Nonnull final ResourceResolver resolver, @Nonnull final Resource taskResource)
+            throws PersistenceException {
+        String workflowId = taskResource.getValueMap().get(WorkflowTaskInstance.PN_WORKFLOW_ID, String.class);
+        if (workflowId != null) {
+            summaries.taskFinished(resolver, taskResource.getPath(), workflowId, Calendar.getInstance());
+        }
+    }
+
+    /**
+     * stamps another state change of a task on the summary of its workflow as part of the current unit of work
+     */
+    protected void touchSummary(@Nonnull final ResourceResolver resolver, @Nonnull final Resource taskResource)
+            throws PersistenceException {
+        String workflowId = taskResource.getValueMap().get(WorkflowTaskInstance.PN_WORKFLOW_ID, String.class);
+        if (workflowId != null) {
+            summaries.taskChanged(resolver, taskResource.getPath(), workflowId, Calendar.getInstance());
+        }
+    }
+
+    /**
+     * changes the state of a task; sets the state property of a task with a stable path or
+     * moves the task into the folder of the new state
+     *
+     * @return the task resource after the state change
+     */
+    @Nonnull
+    protected Resource changeState(@Nonnull final ServiceContext serviceContext,
+                                   @Nonnull final WorkflowTaskInstance taskInstance,
+                                   @Nonnull final WorkflowTaskInstance.State state)
+            throws PersistenceException {
+        ResourceResolver resolver = serviceContext.getResolver();
+        Resource taskResource = resolver.getResource(taskInstance.getPath());
+        if (taskResource == null) {
+            throw new PersistenceException("task not available: '" + taskInstance.getPath() + "'");
+        }
+        WorkflowTaskInstance.State from = getState(taskResource);
+        changeCounters(serviceContext.scope.counters, taskResource.getPath(),
+                taskResource.getValueMap().get(PN_ASSIGNEE, String.class), from, state);
+        if (state == WorkflowTaskInstance.State.finished && from != state) {
+            changeSummary(resolver, taskResource);
+        } else {
+            touchSummary(resolver, taskResource);
+        }
+        if (isStateProperty(taskResource)) {
+            ModifiableValueMap values = taskResource.adaptTo(ModifiableValueMap.class);
+            if (values == null) {
+                throw new PersistenceException("can't modify properties of '" + taskResource.getPath() + "'");
+            }
+            values.put(PN_STATE, state.name());
+            return taskResource;
+        } else {
+            Resource stateFolder = giveInstanceFolder(serviceContext, taskResource, state);
+            Resource moved = resolver.move(taskResource.getPath(), stateFolder.getPath());
+            updateTaskIndex(moved);
+            return moved;
+        }
+    }
+
     /**
      * removes a task from the task store
      *
@@ -789,64 +2354,518 @@ public class PlatformWorkflowService implements WorkflowService {
             if (LOG.isInfoEnabled()) {
                 LOG.info("removeTask(): {}", instancePath);
             }
-            ResourceResolver resolver = context.getResolver();
-            resolver.delete(taskResource);
-            resolver.commit();
-        } else {
-            LOG.error("removeTask({}) - task not available!", instancePath);
+            ResourceResolver resolver = context.getResolver();
+            WorkflowTaskCounters.Changes counters = new WorkflowTaskCounters.Changes();
+            String taskId = deleteTask(resolver, taskResource, counters);
+            writeCounters(resolver, counters);
+            resolver.commit();
+            submitCounters(counters);
+            removeFromTaskIndex(Collections.singletonList(taskId));
+        } else {
+            LOG.error("removeTask({}) - task not available!", instancePath);
+        }
+    }
+
+    /**
+     * deletes a task as part of the current unit of work (without commit)
+     *
+     * @param counters the counter changes of the unit of work (to write with the commit)
+     * @return the id of the deleted task
+     */
+    @Nullable
+    protected String deleteTask(@Nonnull final ResourceResolver resolver, @Nonnull final Resource taskResource,
+                                @Nonnull final WorkflowTaskCounters.Changes counters)
+            throws PersistenceException {
+        String taskId = getTaskId(taskResource.getPath());
+        WorkflowTaskInstance.State state = getState(taskResource);
+        changeCounters(counters, taskResource.getPath(), taskResource.getValueMap().get(PN_ASSIGNEE, String.class),
+                state, null);
+        if (state != WorkflowTaskInstance.State.finished) {
+            changeSummary(resolver, taskResource);
+        }
+        resolver.delete(taskResource);
+        return taskId;
+    }
+
+    /**
+     * drops the ids of committed task removals from the task index
+     */
+    protected void removeFromTaskIndex(@Nonnull final Collection<String> taskIds) {
+        WorkflowTaskIndex index = taskIndex;
+        if (index != null) {
+            for (String taskId : taskIds) {
+                if (taskId != null) {
+                    index.remove(taskId);
+                }
+            }
+        }
+    }
+
+    /**
+     * removes all tasks of workflows finished before the date 'daysFinished' in the past
+     *
+     * @param context    the current request context (must have all privileges to remove tasks)
+     * @param daysToKeep the number of days to keep finished workflows
+     */
+    @Override
+    public void purgeTasks(@Nonnull final BeanContext context, int daysToKeep)
+            throws PersistenceException {
+        purgeTasks(context, daysToKeep, config.purge_batch_size(), 0L, 0L, null);
+    }
+
+    /**
+     * the progress of a purge run
+     */
+    protected static class ServicePurgeProgress implements PurgeProgress {
+
+        protected final long start = System.currentTimeMillis();
+        protected int expired;
+        protected int workflows;
+        protected int tasks;
+        protected Calendar resumePoint;
+        protected boolean complete;
+
+        @Override
+        public int getExpired() {
+            return expired;
+        }
+
+        @Override
+        public int getWorkflows() {
+            return workflows;
+        }
+
+        @Override
+        public int getTasks() {
+            return tasks;
+        }
+
+        @Override
+        public long getDuration() {
+            return System.currentTimeMillis() - start;
+        }
+
+        @Override
+        @Nullable
+        public Calendar getResumePoint() {
+            return resumePoint;
+        }
+
+        @Override
+        public boolean isComplete() {
+            return complete;
+        }
+
+        @Override
+        public String toString() {
+            long duration = getDuration();
+            return workflows + "/" + expired + " workflows (" + tasks + " tasks) removed in " + duration + "ms ("
+                    + (duration > 0 ? tasks * 1000L / duration : tasks) + " tasks/s)"
+                    + (complete ? "" : ", resume point: " + (resumePoint != null
+                    ? ISO8601.format(resumePoint) : "-"));
+        }
+    }
+
+    /**
+     * removes the tasks of workflows finished before the date 'daysToKeep' in the past in batches ordered by the
+     * finished date of the workflows; the finished date of the last removed workflow is stored as resume point
+     * at the workflow root with each batch, the next run starts at this point if the run is not complete
+     *
+     * @param context    the current request context (must have all privileges to remove tasks)
+     * @param daysToKeep the number of days to keep finished workflows
+     * @param batchSize  the number of task instances (at most the number of workflows) removed in one commit
+     *                   (the tasks of a workflow are not split); the expired workflows are read per batch
+     * @param timeBudget the maximum duration of the run in milliseconds; no limit if '0'
+     * @param batchPause the pause between two batches in milliseconds
+     * @param proceed    called after each batch; the run is stopped if 'false' is returned
+     * @return the progress of the run
+     */
+    @Override
+    @Nonnull
+    public PurgeProgress purgeTasks(@Nonnull final BeanContext context, int daysToKeep, int batchSize,
+                                    long timeBudget, long batchPause, @Nullable Predicate<PurgeProgress> proceed)
+            throws PersistenceException {
+        ServicePurgeProgress progress = new ServicePurgeProgress();
+        long deadline = timeBudget > 0 ? progress.start + timeBudget : Long.MAX_VALUE;
+        Calendar now = Calendar.getInstance();
+        Calendar dueDate = new GregorianCalendar();
+        dueDate.set(now.get(Calendar.YEAR), now.get(Calendar.MONTH), now.get(Calendar.DAY_OF_MONTH));
+        dueDate.add(Calendar.DAY_OF_MONTH, -daysToKeep);
+        ResourceResolver resolver = context.getResolver();
+        Resource root = resolver.getResource(config.workflow_root());
+        if (root == null) {
+            progress.complete = true;
+            return progress;
+        }
+        progress.resumePoint = root.getValueMap().get(PN_PURGE_RESUME_POINT, Calendar.class);
+        if (LOG.isInfoEnabled()) {
+            LOG.info("purgeTasks ({}, {})...", daysToKeep,
+                    progress.resumePoint != null ? ISO8601.format(progress.resumePoint) : "-");
+        }
+        // the expired summaries are read lazily in the order of the finished date up to the end of a batch; the
+        // query is started again at the resume point for the next batch (the committed removals change the result)
+        List<String> removed = new ArrayList<>();
+        WorkflowTaskCounters.Changes counters = new WorkflowTaskCounters.Changes();
+        WorkflowJournal.Removal journalRemoval = new WorkflowJournal.Removal();
+        boolean proceeding = true;
+        boolean more = true;
+        while (proceeding && more) {
+            @SuppressWarnings("deprecation")
+            Iterator<Resource> found = resolver.findResources(
+                    finishedSummariesQuery(progress.resumePoint, dueDate), Query.XPATH);
+            int batchWorkflows = 0;
+            more = false;
+            while (!more && found.hasNext()) {
+                Resource summaryResource = found.next();
+                WorkflowSummaries.Summary summary = new WorkflowSummaries.Summary(summaryResource);
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("purging workflow '{}'...", summary.getWorkflowId());
+                }
+                progress.expired++;
+                removed.addAll(purgeWorkflow(resolver, summary.getWorkflowId(), counters));
+                Calendar finished = summary.getFinished();
+                Calendar changed = summary.getChanged();
+                journalRemoval.add(summaries.getTenant(summaryResource.getPath()), summary.getWorkflowId(),
+                        summary.getCreated(), changed != null && (finished == null || changed.after(finished))
+                                ? changed : finished);
+                resolver.delete(summaryResource);
+                progress.workflows++;
+                if (finished != null) {
+                    progress.resumePoint = finished;
+                }
+                // the end of a batch: the number of tasks or workflows (workflows without tasks) or the deadline
+                more = removed.size() >= batchSize || ++batchWorkflows >= batchSize
+                        || System.currentTimeMillis() >= deadline;
+            }
+            progress.complete = !more;
+            commitPurgeBatch(resolver, progress, removed, counters, journalRemoval, more);
+            if (more) {
+                proceeding = (proceed == null || proceed.test(progress))
+                        && System.currentTimeMillis() < deadline && pause(batchPause);
+            }
+        }
+        if (progress.complete) {
+            int segments = purgeJournal(resolver, root, dueDate);
+            if (segments > 0 && LOG.isInfoEnabled()) {
+                LOG.info("purgeTasks: {} journal segments removed", segments);
+            }
+        }
+        if (LOG.isInfoEnabled()) {
+            LOG.info("purgeTasks: {}", progress);
+        }
+        return progress;
+    }
+
+    /**
+     * commits the removals of a purge batch (tasks, summaries and the journal events of the purged workflows)
+     * together with the resume point of the purge and the deltas of the task counters
+     *
+     * @param resume if 'false' the resume point is removed (the purge is complete)
+     */
+    protected void commitPurgeBatch(@Nonnull final ResourceResolver resolver,
+                                    @Nonnull final ServicePurgeProgress progress,
+                                    @Nonnull final List<String> removed,
+                                    @Nonnull final WorkflowTaskCounters.Changes counters,
+                                    @Nonnull final WorkflowJournal.Removal journalRemoval, boolean resume)
+            throws PersistenceException {
+        if (!journalRemoval.isEmpty()) {
+            journal.remove(resolver, journalRemoval);
+            journalRemoval.clear();
+        }
+        writeCounters(resolver, counters);
+        ModifiableValueMap rootValues = Objects.requireNonNull(resolver.getResource(config.workflow_root()))
+                .adaptTo(ModifiableValueMap.class);
+        if (rootValues != null) {
+            if (resume && progress.resumePoint != null) {
+                rootValues.put(PN_PURGE_RESUME_POINT, progress.resumePoint);
+            } else {
+                rootValues.remove(PN_PURGE_RESUME_POINT);
+            }
+        }
+        try {
+            resolver.commit();
+        } catch (PersistenceException ex) {
+            resolver.revert(); // the next run resumes at the resume point of the last successful batch
+            counters.clear();
+            throw ex;
+        }
+        submitCounters(counters);
+        removeFromTaskIndex(removed);
+        progress.tasks += removed.size();
+        removed.clear();
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("purgeTasks: {}...", progress);
+        }
+    }
+
+    /**
+     * @return 'false' if the pause is interrupted
+     */
+    protected boolean pause(long millis) {
+        if (millis > 0) {
+            try {
+                Thread.sleep(millis);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * deletes all task instances of a workflow found by the workflow id (without commit)
+     *
+     * @return the ids of the deleted tasks
+     */
+    @Nonnull
+    protected List<String> purgeWorkflow(@Nonnull final ResourceResolver resolver, @Nonnull final String workflowId,
+                                         @Nonnull final WorkflowTaskCounters.Changes counters)
+            throws PersistenceException {
+        List<String> taskPaths = new ArrayList<>();
+        @SuppressWarnings("deprecation")
+        Iterator<Resource> found = resolver.findResources(workflowIdQuery(workflowId), Query.XPATH);
+        found.forEachRemaining(task -> taskPaths.add(task.getPath()));
+        List<String> removed = new ArrayList<>();
+        for (String taskPath : taskPaths) {
+            Resource taskResource = resolver.getResource(taskPath);
+            if (taskResource != null) {
+                removed.add(deleteTask(resolver, taskResource, counters));
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * creates the summaries of the workflows started before the summaries; the task instances of each workflow
+     * are found by the workflow id (the workflow ids must be stamped before)
+     *
+     * @param context the current request context (must have all privileges to change tasks)
+     * @return the number of summaries created
+     */
+    @Override
+    public int createSummaries(@Nonnull final BeanContext context)
+            throws PersistenceException {
+        int count = 0;
+        ResourceResolver resolver = context.getResolver();
+        if (LOG.isInfoEnabled()) {
+            LOG.info("createSummaries...");
+        }
+        Set<String> done = new HashSet<>();
+        @SuppressWarnings("deprecation")
+        Iterator<Resource> found = resolver.findResources(allTasksQuery(), Query.XPATH);
+        while (found.hasNext()) {
+            Resource task = found.next();
+            String workflowId = task.getValueMap().get(WorkflowTaskInstance.PN_WORKFLOW_ID, String.class);
+            if (workflowId == null || !done.add(workflowId)) {
+                continue;
+            }
+            Resource firstTask = getTaskResource(context, workflowId);
+            if (firstTask != null && resolver.getResource(summaries.getPath(
+                    summaries.getTenant(firstTask.getPath()), workflowId)) == null) {
+                List<Resource> tasks = new ArrayList<>();
+                @SuppressWarnings("deprecation")
+                Iterator<Resource> instances = resolver.findResources(workflowIdQuery(workflowId), Query.XPATH);
+                instances.forEachRemaining(tasks::add);
+                if (summaries.build(resolver, workflowId, tasks) && ++count % STAMP_BATCH_SIZE == 0) {
+                    resolver.commit();
+                }
+            }
+        }
+        resolver.commit();
+        if (LOG.isInfoEnabled()) {
+            LOG.info("createSummaries: {} summaries created.", count);
+        }
+        return count;
+    }
+
+    @Override
+    public int createCounters(@Nonnull final BeanContext context)
+            throws PersistenceException {
+        WorkflowTaskCounters counters = taskCounters;
+        return counters != null ? counters.create(context.getResolver()) : 0;
+    }
+
+    /**
+     * stamps the workflow id on all task instances created before the stamping of the workflow id; the chain of
+     * each unstamped instance is followed back to the first instance and forward to the last instance, each
+     * instance of the chain is stamped with the name of the first instance
+     *
+     * @param context the current request context (must have all privileges to change tasks)
+     * @return the number of task instances stamped
+     */
+    @Override
+    public int stampWorkflowIds(@Nonnull final BeanContext context)
+            throws PersistenceException {
+        int count = 0;
+        ResourceResolver resolver = context.getResolver();
+        if (LOG.isInfoEnabled()) {
+            LOG.info("stampWorkflowIds...");
+        }
+        @SuppressWarnings("deprecation")
+        Iterator<Resource> found = resolver.findResources(unstampedTasksQuery(), Query.XPATH);
+        while (found.hasNext()) {
+            Resource task = resolver.getResource(found.next().getPath());
+            if (task == null || task.getValueMap().get(WorkflowTaskInstance.PN_WORKFLOW_ID, String.class) != null) {
+                continue; // stamped as part of a chain found before
+            }
+            Set<String> visited = new HashSet<>();
+            Resource first = task;
+            Resource previous;
+            while ((previous = getChainedTask(context, first, WorkflowTaskInstance.PN_PREVIOUS)) != null
+                    && visited.add(previous.getPath())) {
+                first = previous;
+            }
+            String workflowId = first.getName();
+            visited.clear();
+            for (Resource chained = first; chained != null && visited.add(chained.getPath());
+                 chained = getChainedTask(context, chained, WorkflowTaskInstance.PN_NEXT)) {
+                ModifiableValueMap values = chained.adaptTo(ModifiableValueMap.class);
+                if (values != null && values.get(WorkflowTaskInstance.PN_WORKFLOW_ID, String.class) == null) {
+                    values.put(WorkflowTaskInstance.PN_WORKFLOW_ID, workflowId);
+                    if (++count % STAMP_BATCH_SIZE == 0) {
+                        resolver.commit();
+                    }
+                }
+            }
+        }
+        resolver.commit();
+        if (LOG.isInfoEnabled()) {
+            LOG.info("stampWorkflowIds: {} tasks stamped.", count);
+        }
+        return count;
+    }
+
+    /**
+     * @return the task referenced by the property ('previous' or 'next') of the task; 'null' if not available
+     */
+    @Nullable
+    protected Resource getChainedTask(@Nonnull final BeanContext context, @Nonnull final Resource task,
+                                      @Nonnull final String propertyName) {
+        String taskId = task.getValueMap().get(propertyName, String.class);
+        return StringUtils.isNotBlank(taskId) ? getTaskResource(context, taskId) : null;
+    }
+
+    /**
+     * moves all task instances into the storage layout of the current configuration (task storage mode and
+     * state folder bucketing); state folders created as ordered folders are changed to unordered folders
+     *
+     * @param context the current request context (must have all privileges to move tasks)
+     * @return the number of task instances moved
+     */
+    @Override
+    public int migrateTasks(@Nonnull final BeanContext context)
+            throws PersistenceException {
+        int count = 0;
+        ResourceResolver resolver = context.getResolver();
+        Resource root = resolver.getResource(config.workflow_root());
+        if (root != null) {
+            if (LOG.isInfoEnabled()) {
+                LOG.info("migrateTasks ({}, {})...", config.task_storage(), config.state_folder_bucketing());
+            }
+            for (Resource tenantFolder : root.getChildren()) {
+                for (WorkflowTaskInstance.State state : WorkflowTaskInstance.State.values()) {
+                    Resource stateFolder = tenantFolder.getChild(state.name());
+                    if (stateFolder != null) {
+                        count += migrateTasks(resolver, tenantFolder, stateFolder, state);
+                    }
+                }
+                Resource tasksFolder = tenantFolder.getChild(TASKS_FOLDER);
+                if (tasksFolder != null) {
+                    count += migrateTasks(resolver, tenantFolder, tasksFolder, null);
+                }
+            }
+            resolver.commit();
+            if (LOG.isInfoEnabled()) {
+                LOG.info("migrateTasks: {} tasks moved.", count);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @param folder the state folder or the tasks folder (state == 'null') to migrate
+     */
+    protected int migrateTasks(@Nonnull final ResourceResolver resolver, @Nonnull final Resource tenantFolder,
+                               @Nonnull Resource folder, @Nullable final WorkflowTaskInstance.State state)
+            throws PersistenceException {
+        int count = 0;
+        String folderPath = folder.getPath();
+        if (folder.isResourceType(ResourceUtil.TYPE_SLING_ORDERED_FOLDER)) {
+            try {
+                Node node = Objects.requireNonNull(folder.adaptTo(Node.class));
+                node.setPrimaryType(ResourceUtil.TYPE_SLING_FOLDER);
+                resolver.commit();
+                folder = Objects.requireNonNull(resolver.getResource(folderPath));
+            } catch (RepositoryException | RuntimeException ex) {
+                LOG.error("can't change the type of '{}': {}", folderPath, ex.toString());
+            }
+        }
+        List<Resource> tasks = new ArrayList<>();
+        collectTasks(folder, tasks);
+        for (Resource task : tasks) {
+            WorkflowTaskInstance.State taskState = state != null ? state : getState(task);
+            if (taskState == null) {
+                LOG.error("migrateTasks: can't determine the state of '{}'", task.getPath());
+                continue;
+            }
+            ModifiableValueMap values = Objects.requireNonNull(task.adaptTo(ModifiableValueMap.class));
+            if (taskState == WorkflowTaskInstance.State.finished && values.get(PN_FINISHED) == null
+                    && values.get(PN_CANCELLED) != null) {
+                values.put(PN_FINISHED, values.get(PN_CANCELLED)); // the order of the finished task lists
+            }
+            String basePath;
+            if (isPropertyStorage()) {
+                values.put(PN_STATE, taskState.name());
+                basePath = tenantFolder.getPath() + "/" + TASKS_FOLDER;
+            } else {
+                values.remove(PN_STATE);
+                basePath = tenantFolder.getPath() + "/" + taskState.name();
+            }
+            String target = basePath + getBucketPath(task.getName(), getCreated(task));
+            if (!target.equals(Objects.requireNonNull(task.getParent()).getPath())) {
+                if (resolver.getResource(basePath) == null) {
+                    resolver.create(tenantFolder, ResourceUtil.getName(basePath), STATE_FOLDER_PROPERTIES);
+                }
+                Resource targetFolder = giveFolder(resolver, basePath, target);
+                updateTaskIndex(resolver.move(task.getPath(), targetFolder.getPath()));
+                if (++count % MIGRATION_BATCH_SIZE == 0) {
+                    resolver.commit();
+                    if (LOG.isDebugEnabled()) {
+                        LOG.debug("migrateTasks: {} tasks of '{}' moved...", count, folderPath);
+                    }
+                }
+            }
         }
+        resolver.commit();
+        removeEmptyFolders(resolver, Objects.requireNonNull(resolver.getResource(folderPath)));
+        resolver.commit();
+        return count;
     }
 
     /**
-     * removes all tasks of workflows finished before the date 'daysFinished' in the past
+     * removes the bucket folders which are not containing any task instance
      *
-     * @param context    the current request context (must have all privileges to remove tasks)
-     * @param daysToKeep the number of days to keep finished workflows
+     * @return 'true' if the folder itself is empty
      */
-    @Override
-    public void purgeTasks(@Nonnull final BeanContext context, int daysToKeep)
+    protected boolean removeEmptyFolders(@Nonnull final ResourceResolver resolver, @Nonnull final Resource folder)
             throws PersistenceException {
-        if (LOG.isDebugEnabled()) {
-            LOG.debug("purgeTasks ({}) ...", daysToKeep);
-        }
-        ResourceResolver resolver = context.getResolver();
-        Calendar now = Calendar.getInstance();
-        Calendar dueDate = new GregorianCalendar();
-        dueDate.set(now.get(Calendar.YEAR), now.get(Calendar.MONTH), now.get(Calendar.DAY_OF_MONTH));
-        dueDate.add(Calendar.DAY_OF_MONTH, -daysToKeep);
-        List<Workflow> workflowsToPurge = new ArrayList<>();
-        String query = "/jcr:root" + config.workflow_root() + "/*/" + WorkflowTaskInstance.State.finished + "/*";
-        @SuppressWarnings("deprecation")
-        Iterator<Resource> finished = resolver.findResources(query, Query.XPATH);
-        while (finished.hasNext()) {
-            Resource taskResource = finished.next();
-            LOG.debug("Loading workflow {}", taskResource.getPath());
-            Workflow workflow = loadWorkflow(context, taskResource.getPath());
-            if (workflow == null || workflow.isHollow()) {
-                LOG.error("can't load workflow of task '{}'", taskResource.getPath());
+        boolean empty = true;
+        for (Resource child : folder.getChildren()) {
+            if (!child.isResourceType(INSTANCE_TYPE) && !child.getName().startsWith(TASK_PREFIX)
+                    && removeEmptyFolders(resolver, child)) {
+                resolver.delete(child);
             } else {
-                if (workflow.isFinished()) {
-                    Calendar finishedDate = workflow.getFinishedDate();
-                    if (finishedDate != null && finishedDate.before(dueDate)) {
-                        if (!workflowsToPurge.contains(workflow)) {
-                            workflowsToPurge.add(workflow);
-                        }
-                    }
-                }
-            }
-        }
-        for (Workflow workflow : workflowsToPurge) {
-            LOG.info("purging workflow starting with '{}'...", workflow.getFirstTask().getPath());
-            for (WorkflowTaskInstance task : workflow.getInstances()) {
-                removeTask(context, task.getPath());
+                empty = false;
             }
         }
+        return empty;
     }
 
     //
 
     /**
-     * add a comment if comment is not empty
+     * add a comment if comment is not empty (committed with the transition)
      *
      * @param context      the current request context
      * @param taskInstance the task instance to change
@@ -871,7 +2890,28 @@ public class PlatformWorkflowService implements WorkflowService {
                 commentValues.put("user", userId);
             }
             resolver.create(comments, "wfc-" + UUID.randomUUID().toString(), commentValues);
-            resolver.commit();
+            journal(context, Trail.Type.comment, taskInstance.getPath(), comment, null);
+        }
+    }
+
+    /**
+     * registers a journal event of the current transition; the events are written with the commit of the
+     * outermost service context
+     *
+     * @param taskPath the path of the task (the tenant and the workflow of the event are determined by the task)
+     * @param value    the template of an added task, the chosen option of a run or the text of a comment
+     * @param ref      the previous task of an added task
+     */
+    protected void journal(@Nonnull final ServiceContext context, @Nonnull final Trail.Type type,
+                           @Nonnull final String taskPath, @Nullable final String value, @Nullable final String ref)
+            throws PersistenceException {
+        Resource taskResource = context.getResolver().getResource(taskPath);
+        String workflowId = taskResource != null
+                ? taskResource.getValueMap().get(WorkflowTaskInstance.PN_WORKFLOW_ID, String.class) : null;
+        if (workflowId != null) {
+            context.scope.events.add(new WorkflowJournal.Event(type, Calendar.getInstance(),
+                    summaries.getTenant(taskPath), workflowId, ResourceUtil.getName(taskPath),
+                    context.getUserId(), value, ref));
         }
     }
 
@@ -879,15 +2919,24 @@ public class PlatformWorkflowService implements WorkflowService {
 
     protected class TaskData extends ValueUnion {
 
+        /**
+         * a copy of the task data (e.g. for the use in another thread)
+         */
+        public TaskData(@Nonnull final Map<String, Object> data) {
+            add(new ValueMapDecorator(data));
+        }
+
         public TaskData(@Nonnull final ServiceContext context,
                         @Nullable WorkflowTaskInstance task, @Nonnull final ValueMap... data) {
             final String userId = context.getUserId();
-            if (StringUtils.isNotBlank(userId)) {
-                putIfAbsent(META_USER_ID, userId);
-            }
+            boolean userGiven = false;
             for (ValueMap map : data) {
+                userGiven = userGiven || map.get(META_USER_ID) != null;
                 add(map);
             }
+            if (!userGiven && StringUtils.isNotBlank(userId)) {
+                putIfAbsent(META_USER_ID, userId);
+            }
             if (task != null) {
                 putIfAbsent(PN_INITIATOR, task.getInitiator());
                 add(task.getData());
@@ -949,16 +2998,109 @@ public class PlatformWorkflowService implements WorkflowService {
     //
 
     /**
-     * a context with a service resolver overlay and access to the requesting resolver (user id / session)
+     * the scope of a top level service operation; the service resolver is opened lazily on the first request
+     * of a service context and is shared by all nested service contexts (loads, added tasks) of the operation
+     */
+    protected class OperationScope implements Closeable {
+
+        protected ResourceResolver serviceResolver;
+        protected int sessions = 0;
+        protected int depth = 0;
+        protected int units = 0; // the nesting level of the service contexts
+
+        /** the template resources read in the operation by resolver and path */
+        protected final Map<ResourceResolver, Map<String, Optional<Resource>>> templates = new IdentityHashMap<>();
+
+        /** the journal events of the current unit of work */
+        protected final List<WorkflowJournal.Event> events = new ArrayList<>();
+
+        /** the task counter changes of the current unit of work */
+        protected final WorkflowTaskCounters.Changes counters = new WorkflowTaskCounters.Changes();
+
+        /** the asynchronous actions started in the operation (parallel actions are registered concurrently) */
+        protected final List<PendingAction> pending = Collections.synchronizedList(new ArrayList<>());
+
+        /** the callbacks of the current unit of work performed after its commit */
+        protected final List<Runnable> afterCommit = new ArrayList<>();
+
+        /**
+         * @return the asynchronous actions started after the given mark; removed from the scope
+         */
+        @Nonnull
+        protected List<PendingAction> takePending(int mark) {
+            synchronized (pending) {
+                List<PendingAction> started = pending.subList(Math.min(mark, pending.size()), pending.size());
+                List<PendingAction> result = new ArrayList<>(started);
+                started.clear();
+                return result;
+            }
+        }
+
+        @Nonnull
+        protected ResourceResolver getServiceResolver() throws LoginException {
+            if (serviceResolver == null) {
+                serviceResolver = resolverFactory.getServiceResourceResolver(null);
+                sessions++;
+            }
+            return serviceResolver;
+        }
+
+        @Override
+        public void close() {
+            if (--depth == 0) {
+                operationScope.remove();
+                if (serviceResolver != null) {
+                    if (serviceResolver.hasChanges()) {
+                        LOG.warn("reverting uncommitted changes of an aborted workflow operation");
+                        serviceResolver.revert();
+                    }
+                    serviceResolver.close();
+                    serviceResolver = null;
+                }
+                events.clear();
+                counters.clear();
+                pending.clear();
+                afterCommit.clear();
+                statistics.operationDone(sessions);
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("operation done: {} service session(s) opened", sessions);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the scope of the current operation; a new scope if no operation is running in the current thread
+     */
+    @Nonnull
+    protected OperationScope openScope() {
+        OperationScope scope = operationScope.get();
+        if (scope == null) {
+            scope = new OperationScope();
+            operationScope.set(scope);
+        }
+        scope.depth++;
+        return scope;
+    }
+
+    /**
+     * a context with a service resolver overlay and access to the requesting resolver (user id / session);
+     * the service resolver of the operation scope is the unit of work of a transition - committed by the
+     * outermost service context only; changes not committed are reverted on close
      */
     private class ServiceContext extends BeanContext.Wrapper implements Closeable {
 
+        protected final OperationScope scope;
+
         protected ServiceContext(@Nonnull BeanContext requestContext) throws LoginException {
-            this(requestContext, resolverFactory.getServiceResourceResolver(null));
+            this(requestContext, openScope());
         }
 
-        protected ServiceContext(@Nonnull BeanContext requestContext, @Nonnull ResourceResolver serviceResolver) {
-            super(requestContext, serviceResolver);
+        private ServiceContext(@Nonnull BeanContext requestContext, @Nonnull OperationScope scope)
+                throws LoginException {
+            super(requestContext, getServiceResolver(scope));
+            this.scope = scope;
+            scope.units++;
         }
 
         public BeanContext getRequestContext() {
@@ -969,9 +3111,65 @@ public class PlatformWorkflowService implements WorkflowService {
             return getRequestContext().getResolver().getUserID();
         }
 
+        /**
+         * commits the changes together with the journal events and the task counter deltas if this is the
+         * outermost context;
+         * a nested context is part of the outer unit of work
+         */
+        public void commit() throws PersistenceException {
+            if (scope.units == 1) {
+                Set<String> tenants = new LinkedHashSet<>();
+                if (!scope.events.isEmpty()) {
+                    journal.append(resolver, scope.events);
+                    scope.events.forEach(event -> tenants.add(event.getTenant()));
+                    scope.events.clear();
+                }
+                writeCounters(resolver, scope.counters);
+                resolver.commit();
+                submitCounters(scope.counters);
+                prepareJournal(resolver, tenants);
+                List<Runnable> callbacks = new ArrayList<>(scope.afterCommit);
+                scope.afterCommit.clear();
+                callbacks.forEach(Runnable::run);
+            }
+        }
+
+        /**
+         * drops all uncommitted changes of the unit of work (changes, journal events, counters, callbacks)
+         */
+        public void revert() {
+            resolver.revert();
+            scope.events.clear();
+            scope.counters.clear();
+            scope.afterCommit.clear();
+            scope.pending.clear();
+        }
+
         @Override
         public void close() {
-            resolver.close();
+            if (--scope.units == 0) {
+                if (resolver.hasChanges()) {
+                    LOG.warn("reverting uncommitted changes of an aborted workflow operation");
+                    resolver.revert();
+                }
+                scope.events.clear();
+                scope.counters.clear();
+                scope.afterCommit.clear();
+            }
+            scope.close();
+        }
+    }
+
+    /**
+     * @return the service resolver of the scope; the scope is closed if the resolver is not available
+     */
+    @Nonnull
+    private ResourceResolver getServiceResolver(@Nonnull final OperationScope scope) throws LoginException {
+        try {
+            return scope.getServiceResolver();
+        } catch (LoginException ex) {
+            scope.close();
+            throw ex;
         }
     }
 
@@ -982,25 +3180,27 @@ public class PlatformWorkflowService implements WorkflowService {
     public SlingBean createBean(@Nonnull BeanContext context, @Nonnull Resource resource,
                                 @Nonnull Class<? extends SlingBean> type)
             throws InstantiationException {
-        SlingBean result = null;
-        SlingHttpServletRequest request = context.getRequest();
-        // use service resolver to build the entire graph even if the access is not allowed
-        Workflow workflow = (Workflow) request.getAttribute(RA_WORKFLOW);
-        if (WorkflowTaskInstance.class.isAssignableFrom(type)) {
-            result = workflow != null
-                    ? loadInstanceRef(context, resource.getPath())
-                    : loadInstance(context, resource.getPath());
-        } else if (WorkflowTaskTemplate.class.isAssignableFrom(type)) {
-            result = workflow != null
-                    ? loadTemplateRef(context, resource.getPath())
-                    : loadTemplate(context, resource.getPath());
-        } else if (Workflow.class.isAssignableFrom(type)) {
-            result = workflow != null ? workflow : loadWorkflow(context, resource.getPath());
-        }
-        if (result == null) {
-            throw new InstantiationException("can't create instance of '" + type + "' for resource '" + resource.getPath() + "'");
+        try (final OperationScope operation = openScope()) {
+            SlingBean result = null;
+            SlingHttpServletRequest request = context.getRequest();
+            // use service resolver to build the entire graph even if the access is not allowed
+            Workflow workflow = (Workflow) request.getAttribute(RA_WORKFLOW);
+            if (WorkflowTaskInstance.class.isAssignableFrom(type)) {
+                result = workflow != null
+                        ? loadInstanceRef(context, resource.getPath())
+                        : loadInstance(context, resource.getPath());
+            } else if (WorkflowTaskTemplate.class.isAssignableFrom(type)) {
+                result = workflow != null
+                        ? loadTemplateRef(context, resource.getPath())
+                        : loadTemplate(context, resource.getPath());
+            } else if (Workflow.class.isAssignableFrom(type)) {
+                result = workflow != null ? workflow : loadWorkflow(context, resource.getPath());
+            }
+            if (result == null) {
+                throw new InstantiationException("can't create instance of '" + type + "' for resource '" + resource.getPath() + "'");
+            }
+            return result;
         }
-        return result;
     }
 
     protected class ServiceTaskInstance extends WorkflowTaskInstance {
@@ -1023,7 +3223,7 @@ public class PlatformWorkflowService implements WorkflowService {
             Session session;
             return state != State.finished
                     && (session = context.getResolver().adaptTo(Session.class)) != null
-                    && permissionsService.hasAllPrivileges(session, getResource().getPath(), WRITE_PRIVILEGE_KEY);
+                    && getAccess(session).hasAllPrivileges(session, getResource().getPath(), WRITE_PRIVILEGE_KEY);
         }
 
         /**
@@ -1149,6 +3349,43 @@ public class PlatformWorkflowService implements WorkflowService {
         protected WorkflowService getService() {
             return PlatformWorkflowService.this;
         }
+
+        @Override
+        @Nullable
+        protected WorkflowDefinition getDefinition(@Nonnull final BeanContext context,
+                                                   @Nonnull final String templatePath) {
+            return PlatformWorkflowService.this.getDefinition(context, templatePath);
+        }
+    }
+
+    /**
+     * @return the cached definition of the workflow which starts with the template; compiled on demand
+     * with the service resolver to build the entire graph independent of the users access rights
+     */
+    @Nullable
+    protected WorkflowDefinition getDefinition(@Nonnull final BeanContext context, @Nonnull final String path) {
+        WorkflowTemplateCache cache = templateCache;
+        WorkflowDefinition definition = cache != null ? cache.getDefinition(path) : null;
+        if (definition == null) {
+            long generation = cache != null ? cache.getGeneration() : 0L;
+            try (final ServiceContext serviceContext = new ServiceContext(context instanceof ServiceContext
+                    ? ((ServiceContext) context).getRequestContext() : context)) {
+                final ResourceResolver resolver = serviceContext.getResolver();
+                Resource start = resolver.getResource(path);
+                if (start != null) {
+                    definition = WorkflowDefinition.compile(getTemplateSnapshot(start), templatePath -> {
+                        Resource template = resolver.getResource(templatePath);
+                        return template != null ? getTemplateSnapshot(template) : null;
+                    });
+                    if (cache != null) {
+                        cache.putDefinition(path, definition, generation);
+                    }
+                }
+            } catch (LoginException ex) {
+                LOG.error(ex.toString());
+            }
+        }
+        return definition;
     }
 
     @Nullable
@@ -1187,18 +3424,37 @@ public class PlatformWorkflowService implements WorkflowService {
         return taskInstance;
     }
 
+    /**
+     * the template resource is read with the resolver of the context (access check);
+     * the model is a view of the cached snapshot of the template
+     */
     @Nullable
     protected ServiceTaskTemplate loadTemplate(@Nonnull final BeanContext context,
                                                @Nonnull final String path) {
         ServiceTaskTemplate taskTemplate = null;
-        Resource resource = getTaskResource(context, path);
+        Resource resource = getTemplateResource(context, path);
         if (resource != null) {
             taskTemplate = new ServiceTaskTemplate();
-            taskTemplate.initialize(context, resource);
+            taskTemplate.initialize(context, getTemplateSnapshot(resource));
         }
         return taskTemplate;
     }
 
+    /**
+     * @return the template resource read with the resolver of the context; a template is read once in an operation
+     * (the graph of a workflow references the same templates for each instance, each option and each loop)
+     */
+    @Nullable
+    protected Resource getTemplateResource(@Nonnull final BeanContext context, @Nonnull final String path) {
+        OperationScope scope = operationScope.get();
+        if (scope == null) {
+            return getTaskResource(context, path);
+        }
+        return scope.templates.computeIfAbsent(context.getResolver(), key -> new HashMap<>())
+                .computeIfAbsent(path, key -> Optional.ofNullable(getTaskResource(context, key)))
+                .orElse(null);
+    }
+
     /**
      * a reference to a template should be accessible even if the user has no access
      */
@@ -1209,10 +3465,10 @@ public class PlatformWorkflowService implements WorkflowService {
         if (taskTemplate == null) {
             try (final ServiceContext serviceContext = new ServiceContext(context instanceof ServiceContext
                     ? ((ServiceContext) context).getRequestContext() : context)) {
-                Resource resource = getTaskResource(serviceContext, path);
+                Resource resource = getTemplateResource(serviceContext, path);
                 if (resource != null) {
                     taskTemplate = new ServiceTaskTemplateRef();
-                    taskTemplate.initialize(context, resource);
+                    taskTemplate.initialize(context, getTemplateSnapshot(resource));
                 }
             } catch (Exception ex) {
                 LOG.error(ex.getMessage(), ex);
@@ -1224,33 +3480,110 @@ public class PlatformWorkflowService implements WorkflowService {
     @Nullable
     protected ServiceWorkflow loadWorkflow(@Nonnull final BeanContext context,
                                            @Nonnull final String path) {
-        ServiceWorkflow workflow = null;
-        Resource resource = getTaskResource(context, path);
-        if (resource != null) {
-            workflow = new ServiceWorkflow();
-            workflow.initialize(context, resource);
+        try (final OperationScope operation = openScope()) {
+            ServiceWorkflow workflow = null;
+            Resource resource = getTaskResource(context, path);
+            if (resource != null) {
+                workflow = new ServiceWorkflow();
+                workflow.initialize(context, resource);
+            }
+            return workflow;
         }
-        return workflow;
     }
 
+    /**
+     * @return the folder for the task resource in the given state; the resources tenant and bucket are kept
+     */
     @Nonnull
-    private Resource giveInstanceFolder(@Nonnull final ServiceContext context, @Nullable final String tenantId,
+    private Resource giveInstanceFolder(@Nonnull final ServiceContext context, @Nonnull final Resource taskResource,
                                         @Nonnull final WorkflowTaskInstance.State state)
             throws PersistenceException {
+        return giveInstanceFolder(context, getTenantId(taskResource), state,
+                taskResource.getName(), getCreated(taskResource));
+    }
+
+    @Nonnull
+    private Resource giveInstanceFolder(@Nonnull final ServiceContext context, @Nullable final String tenantId,
+                                        @Nonnull final WorkflowTaskInstance.State state,
+                                        @Nonnull final String taskName, @Nonnull final Calendar created)
+            throws PersistenceException {
         Resource stateFolder;
         Resource folder = getInstanceFolder(context, tenantId);
         if (folder != null) {
+            ResourceResolver resolver = context.getResolver();
             stateFolder = folder.getChild(state.name());
             if (stateFolder == null) {
-                ResourceResolver resolver = context.getResolver();
                 stateFolder = resolver.create(folder, state.name(), STATE_FOLDER_PROPERTIES);
             }
+            String bucketPath = getBucketPath(taskName, created);
+            if (StringUtils.isNotBlank(bucketPath)) {
+                stateFolder = giveFolder(resolver, stateFolder.getPath(), stateFolder.getPath() + bucketPath);
+            }
         } else {
             throw new PersistenceException("tenant folder must exist for tenant '" + tenantId + "'");
         }
         return stateFolder;
     }
 
+    /**
+     * @return the (bucket) folder of a new task in the tenants tasks folder (property storage mode)
+     */
+    @Nonnull
+    private Resource giveTaskFolder(@Nonnull final ServiceContext context, @Nullable final String tenantId,
+                                    @Nonnull final String taskName, @Nonnull final Calendar created)
+            throws PersistenceException {
+        Resource folder = getInstanceFolder(context, tenantId);
+        if (folder == null) {
+            throw new PersistenceException("tenant folder must exist for tenant '" + tenantId + "'");
+        }
+        ResourceResolver resolver = context.getResolver();
+        Resource tasksFolder = folder.getChild(TASKS_FOLDER);
+        if (tasksFolder == null) {
+            tasksFolder = resolver.create(folder, TASKS_FOLDER, STATE_FOLDER_PROPERTIES);
+        }
+        return giveFolder(resolver, tasksFolder.getPath(), tasksFolder.getPath() + getBucketPath(taskName, created));
+    }
+
+    /**
+     * @return the folder of the path below the base folder; the missing folders are created as unordered folders
+     */
+    @Nonnull
+    protected Resource giveFolder(@Nonnull final ResourceResolver resolver,
+                                  @Nonnull final String basePath, @Nonnull final String path)
+            throws PersistenceException {
+        Resource folder = resolver.getResource(basePath);
+        if (folder == null) {
+            throw new PersistenceException("folder must exist: '" + basePath + "'");
+        }
+        for (String name : StringUtils.split(path.substring(basePath.length()), '/')) {
+            Resource child = folder.getChild(name);
+            folder = child != null ? child : resolver.create(folder, name, STATE_FOLDER_PROPERTIES);
+        }
+        return folder;
+    }
+
+    /**
+     * @return the relative path of the bucket folder ('/...') in a state folder; an empty string if not bucketed
+     */
+    @Nonnull
+    protected String getBucketPath(@Nonnull final String taskName, @Nullable final Calendar created) {
+        switch (StringUtils.defaultString(config.state_folder_bucketing(), BUCKETING_NONE)) {
+            case BUCKETING_HASH:
+                return String.format("/%02x", taskName.hashCode() & 0xff);
+            case BUCKETING_DATE:
+                Calendar date = created != null ? created : Calendar.getInstance();
+                return String.format("/%04d/%02d", date.get(Calendar.YEAR), date.get(Calendar.MONTH) + 1);
+            default:
+                return "";
+        }
+    }
+
+    @Nonnull
+    protected Calendar getCreated(@Nonnull final Resource taskResource) {
+        Calendar created = taskResource.getValueMap().get(JcrConstants.JCR_CREATED, Calendar.class);
+        return created != null ? created : Calendar.getInstance();
+    }
+
     @Nullable
     protected Resource getInstanceFolder(@Nonnull final BeanContext context, @Nullable final String tenantId,
                                          @Nonnull final WorkflowTaskInstance.State state) {
@@ -1272,43 +3605,233 @@ public class PlatformWorkflowService implements WorkflowService {
         return folder;
     }
 
+    // queries - each query must be served by an index shipped with the package (see '/oak:index/composum*')
+
+    /**
+     * @return the query for all workflow declarations (the workflow nodes of the start templates)
+     */
+    @Nonnull
+    protected String workflowsQuery() {
+        return "/jcr:root/conf//" + WORKFLOW_NODE + "[@sling:resourceType='" + WORKFLOW_TYPE + "']";
+    }
+
+    /**
+     * @return the query for all task instances (of all tenants in all states)
+     */
+    @Nonnull
+    protected String allTasksQuery() {
+        return "/jcr:root" + config.workflow_root() + "//*[@sling:resourceType='" + INSTANCE_TYPE + "']";
+    }
+
+    /**
+     * @return the query for the summaries of the workflows initiated by the user
+     */
+    @Nonnull
+    protected String initiatedSummariesQuery(@Nonnull final String userId) {
+        return "/jcr:root" + config.workflow_root() + "//*[@" + PN_INITIATOR + "='" + escapeValue(userId) + "'"
+                + " and @sling:resourceType='" + WorkflowSummaries.SUMMARY_TYPE + "']";
+    }
+
+    /**
+     * @return the query for the summaries of the workflows finished in the time range ordered by the finished date;
+     * served by the index of the finishing date of the summaries which contains the finished workflows only
+     * and in the order of the date by the ordered index ('composumWorkflowOrdered')
+     */
+    @Nonnull
+    protected String finishedSummariesQuery(@Nullable final Calendar from, @Nonnull final Calendar before) {
+        return "/jcr:root" + config.workflow_root() + "//*[@sling:resourceType='" + WorkflowSummaries.SUMMARY_TYPE
+                + "'" + (from != null ? " and @" + WorkflowSummaries.PN_FINISHED + " >= " + dateTime(from) : "")
+                + " and @" + WorkflowSummaries.PN_FINISHED + " < " + dateTime(before) + "]"
+                + " order by @" + WorkflowSummaries.PN_FINISHED;
+    }
+
+    @Nonnull
+    protected static String dateTime(@Nonnull final Calendar calendar) {
+        Calendar time = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        time.setTimeInMillis(calendar.getTimeInMillis());
+        return "xs:dateTime('" + ISO8601.format(time) + "')";
+    }
+
+    /**
+     * @return the query for all task instances of a workflow
+     */
+    @Nonnull
+    protected String workflowIdQuery(@Nonnull final String workflowId) {
+        return "/jcr:root" + config.workflow_root() + "//*[@" + WorkflowTaskInstance.PN_WORKFLOW_ID + "='"
+                + escapeValue(workflowId) + "']";
+    }
+
+    /**
+     * @return the query for the running task instances waiting for the completion of asynchronous actions
+     */
+    @Nonnull
+    protected String asyncPendingQuery() {
+        return "/jcr:root" + config.workflow_root() + "//*[@" + WorkflowTaskInstance.PN_ASYNC_PENDING + "]";
+    }
+
+    /**
+     * @return the query for the task instances without a stamped workflow id
+     */
+    @Nonnull
+    protected String unstampedTasksQuery() {
+        return "/jcr:root" + config.workflow_root() + "//*[@sling:resourceType='" + INSTANCE_TYPE + "'"
+                + " and not(@" + WorkflowTaskInstance.PN_WORKFLOW_ID + ")]";
+    }
+
+    /**
+     * @return the query for the task instances of a tenant stored in the folder of the state
+     */
+    @Nonnull
+    protected String stateFolderTasksQuery(@Nonnull final String tenantId,
+                                           @Nonnull final WorkflowTaskInstance.State state) {
+        return "/jcr:root" + config.workflow_root() + "/" + tenantId + "/" + state + "//*"
+                + "[@sling:resourceType='" + INSTANCE_TYPE + "']";
+    }
+
+    /**
+     * @return the query for the task instances in the state stored with a stable path (property storage mode)
+     */
+    @Nonnull
+    protected String stateTasksQuery(@Nullable final String tenantId,
+                                     @Nonnull final WorkflowTaskInstance.State state) {
+        return "/jcr:root" + config.workflow_root()
+                + (StringUtils.isNotBlank(tenantId) ? "/" + tenantId + "/" + TASKS_FOLDER : "")
+                + "//*[@" + PN_STATE + "='" + state + "' and @sling:resourceType='" + INSTANCE_TYPE + "']";
+    }
+
+    /**
+     * @return the query for a task instance by its id; restricted to task instances to use the resource type index
+     */
+    @Nonnull
+    protected String taskIdQuery(@Nonnull final String taskId) {
+        return "/jcr:root" + config.workflow_root() + "//" + taskId
+                + "[@sling:resourceType='" + INSTANCE_TYPE + "']";
+    }
+
+    /**
+     * @return the task query restricted to the tasks assigned to one of the assignees (served by the assignee index)
+     */
+    @Nonnull
+    protected String assignedTasksQuery(@Nonnull final String query, @Nonnull final Collection<String> assignees) {
+        StringBuilder restricted = new StringBuilder(query);
+        restricted.setLength(restricted.length() - 1); // extend the predicate of the query
+        restricted.append(" and (");
+        String separator = "";
+        for (String assignee : assignees) {
+            restricted.append(separator).append("@").append(PN_ASSIGNEE).append("='")
+                    .append(escapeValue(assignee)).append("'");
+            separator = " or ";
+        }
+        return restricted.append(")]").toString();
+    }
+
+    /**
+     * @return the task query restricted to the tasks without assignee; a property index can't serve a missing
+     * property, this restriction is evaluated on the results of the state or resource type index
+     */
+    @Nonnull
+    protected String unassignedTasksQuery(@Nonnull final String query) {
+        return query.substring(0, query.length() - 1) + " and not(@" + PN_ASSIGNEE + ")]";
+    }
+
+    /**
+     * @return the task query restricted to the tasks at or behind the start position and ordered by time; tasks
+     * without the time property (e.g. cancelled tasks not migrated yet) are ordered as the oldest tasks, they are
+     * part of the first pages in ascending order and of the last pages in descending order; the order is
+     * served by the ordered index of the time properties ('composumWorkflowOrdered') without sorting in memory
+     */
+    @Nonnull
+    protected String pagedTasksQuery(@Nonnull final String query, @Nonnull final String timeProperty,
+                                     @Nullable final TaskPosition start, final boolean descending) {
+        StringBuilder paged = new StringBuilder(query);
+        if (start != null && (descending || start.time > 0L)) {
+            Calendar time = Calendar.getInstance();
+            time.setTimeInMillis(start.time);
+            paged.setLength(paged.length() - 1); // extend the predicate of the query
+            if (descending) {
+                paged.append(" and (@").append(timeProperty).append(" <= ").append(dateTime(time))
+                        .append(" or not(@").append(timeProperty).append("))]");
+            } else {
+                paged.append(" and @").append(timeProperty).append(" >= ").append(dateTime(time)).append("]");
+            }
+        }
+        return paged.append(" order by @").append(timeProperty).append(descending ? " descending" : "").toString();
+    }
+
+    @Nonnull
+    protected static String escapeValue(@Nonnull final String value) {
+        return value.replace("'", "''");
+    }
+
+    /**
+     * @return the pattern of the paths below the workflow root (tenant folders and task instances)
+     */
+    @Nonnull
+    protected static Pattern createPathPattern(@Nonnull final String workflowRoot) {
+        return Pattern.compile("^" + Pattern.quote(workflowRoot)
+                + "/([^/]+)(/([^/]+)((?:/[^/]+){0,2})/(" + TASK_PREFIX + "[^/]+))?$");
+    }
+
     /**
-     * @return the path segments matcher: [1]=tenant, [3]=state, [4]=id; doesn't match if not a valid instance
+     * @return the path segments matcher: [1]=tenant, [3]=state, [4]=bucket, [5]=id; doesn't match if not a valid instance
      */
     protected Matcher getPathMatcher(Resource taskResource) {
         return getPathMatcher(taskResource.getPath());
     }
 
     /**
-     * @return the path segments matcher: [1]=tenant, [3]=state, [4]=id; doesn't match if not a valid instance
+     * @return the path segments matcher: [1]=tenant, [3]=state (or 'tasks'), [4]=bucket, [5]=id;
+     * doesn't match if not a valid instance
      */
     protected Matcher getPathMatcher(String path) {
-        Pattern pathPattern = Pattern.compile("^" + config.workflow_root() + "/([^/]+)(/([^/]+)/([^/]+))?$");
         return pathPattern.matcher(path);
     }
 
+    /**
+     * @return the id (node name) of the task instance if the path is a task instance path; otherwise 'null'
+     */
+    @Nullable
+    protected String getTaskId(@Nonnull final String path) {
+        Matcher matcher = getPathMatcher(path);
+        return matcher.matches() && StringUtils.isNotBlank(matcher.group(5)) ? matcher.group(5) : null;
+    }
+
     protected Resource getTaskResource(@Nonnull final BeanContext context, @Nonnull String pathOrId) {
         Resource resource = null;
         if (StringUtils.isNotBlank(pathOrId = pathOrId.trim())) {
             ResourceResolver resolver = context.getResolver();
-            if (!pathOrId.contains("/")) { // use task id for a query
-                String query = "/jcr:root" + config.workflow_root() + "/*/*/" + pathOrId;
-                //noinspection deprecation
-                Iterator<Resource> found = resolver.findResources(query, Query.XPATH);
-                if (found.hasNext()) {
-                    resource = found.next();
+            if (!pathOrId.contains("/")) { // use task id for an index lookup or a query
+                WorkflowTaskIndex index = taskIndex;
+                String indexedPath = index != null ? index.getPath(pathOrId) : null;
+                if (indexedPath != null) {
+                    resource = resolver.getResource(indexedPath);
+                }
+                if (resource == null && TASK_ID.matcher(pathOrId).matches()) { // not indexed (yet) or outdated
+                    String query = taskIdQuery(pathOrId);
+                    //noinspection deprecation
+                    Iterator<Resource> found = resolver.findResources(query, Query.XPATH);
+                    if (found.hasNext()) {
+                        resource = found.next();
+                        if (index != null) {
+                            index.put(pathOrId, resource.getPath());
+                        }
+                    }
                 }
             } else { // use task path for retrieval
                 resource = resolver.getResource(pathOrId);
                 if (resource == null) {
                     Matcher matcher = getPathMatcher(pathOrId);
-                    if (matcher.matches() && StringUtils.isNotBlank(matcher.group(4))) {
+                    if (matcher.matches() && StringUtils.isNotBlank(matcher.group(5))) {
+                        // the bucket of a task is kept on state changes; probe the other state folders first
                         for (WorkflowTaskInstance.State state : WorkflowTaskInstance.State.values()) {
-                            if ((resource = resolver.getResource(config.workflow_root()
-                                    + "/" + matcher.group(1) + "/" + state.name() + "/" + matcher.group(4))) != null) {
+                            if ((resource = resolver.getResource(config.workflow_root() + "/" + matcher.group(1)
+                                    + "/" + state.name() + matcher.group(4) + "/" + matcher.group(5))) != null) {
                                 break;
                             }
                         }
+                        if (resource == null) { // the task has been moved into another bucket (migration)
+                            resource = getTaskResource(context, matcher.group(5));
+                        }
                     }
                 }
             }
@@ -0,0 +1,176 @@
+package com.composum.platform.workflow.service.impl;
+
+import com.composum.sling.core.service.PermissionsService;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.jackrabbit.api.JackrabbitSession;
+import org.apache.jackrabbit.api.security.user.Authorizable;
+import org.apache.jackrabbit.api.security.user.Group;
+import org.apache.jackrabbit.api.security.user.User;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * a short-lived cache of the access evaluations of a user (the user of a request resolver in most cases);
+ * the membership of the user (the user id and the ids of all groups of the user) is resolved once and the
+ * privilege checks of the tasks are evaluated once for each folder of tasks (the access rules of the tasks are
+ * declared on the folders of the workflow root); the evaluations are cached by the user id without a reference
+ * to a session, the number of cached users is bounded and the expired evaluations are dropped
+ */
+public class WorkflowAccessCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(WorkflowAccessCache.class);
+
+    /** the maximum age of the evaluations of a user */
+    public static final long TIME_TO_LIVE = 10000L;
+
+    /** the maximum number of cached users */
+    public static final int MAX_ENTRIES = 1000;
+
+    /**
+     * the access evaluations of one user
+     */
+    public static class Access {
+
+        protected final String userId;
+        protected final PermissionsService permissionsService;
+        protected final long created = System.currentTimeMillis();
+
+        protected boolean admin;
+        protected final Set<String> memberships;
+        protected final Map<String, Boolean> privileges = new ConcurrentHashMap<>();
+
+        protected Access(@Nonnull final Session session, @Nonnull final PermissionsService permissionsService) {
+            this.userId = StringUtils.defaultString(session.getUserID());
+            this.permissionsService = permissionsService;
+            this.memberships = Collections.unmodifiableSet(loadMemberships(session));
+        }
+
+        /**
+         * @return the id of the user and the ids of all groups of the user (declared and inherited)
+         */
+        @Nonnull
+        public Set<String> getMemberships() {
+            return memberships;
+        }
+
+        /**
+         * @return 'true' if the user is an admin (each task is assigned to an admin)
+         */
+        public boolean isAdmin() {
+            return admin;
+        }
+
+        /**
+         * @return 'true' if the assignee is the user or a group of the user (each assignee for an admin)
+         */
+        public boolean isAssignee(@Nullable final String assignee) {
+            return StringUtils.isBlank(assignee) || admin || memberships.contains(assignee);
+        }
+
+        /**
+         * @param session    a session of the user (used if the privileges of the folder are not evaluated yet)
+         * @param taskPath   the path of a task
+         * @param privileges the privilege keys to check
+         * @return 'true' if all privileges are granted; evaluated once for all tasks of the same folder
+         */
+        public boolean hasAllPrivileges(@Nonnull final Session session,
+                                        @Nonnull final String taskPath, @Nonnull final String privileges) {
+            String folder = StringUtils.substringBeforeLast(taskPath, "/");
+            return this.privileges.computeIfAbsent(folder + "#" + privileges,
+                    key -> permissionsService.hasAllPrivileges(session, taskPath, privileges));
+        }
+
+        protected boolean isExpired(long timeToLive) {
+            return System.currentTimeMillis() - created > timeToLive;
+        }
+
+        @Nonnull
+        protected Set<String> loadMemberships(@Nonnull final Session session) {
+            Set<String> result = new LinkedHashSet<>();
+            if (StringUtils.isNotBlank(userId)) {
+                result.add(userId);
+                if (session instanceof JackrabbitSession) {
+                    try {
+                        Authorizable user = ((JackrabbitSession) session).getUserManager().getAuthorizable(userId);
+                        if (user != null) {
+                            admin = user instanceof User && ((User) user).isAdmin();
+                            for (Iterator<Group> groups = user.memberOf(); groups.hasNext(); ) {
+                                result.add(groups.next().getID());
+                            }
+                        }
+                    } catch (RepositoryException ex) {
+                        LOG.error(ex.toString());
+                    }
+                }
+            }
+            return result;
+        }
+    }
+
+    protected final PermissionsService permissionsService;
+    protected final long timeToLive;
+    protected final int maxEntries;
+
+    protected final Map<String, Access> accessByUser;
+
+    public WorkflowAccessCache(@Nonnull final PermissionsService permissionsService) {
+        this(permissionsService, TIME_TO_LIVE, MAX_ENTRIES);
+    }
+
+    public WorkflowAccessCache(@Nonnull final PermissionsService permissionsService,
+                               long timeToLive, final int maxEntries) {
+        this.permissionsService = permissionsService;
+        this.timeToLive = timeToLive;
+        this.maxEntries = maxEntries;
+        this.accessByUser = new LinkedHashMap<String, Access>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Access> eldest) {
+                return size() > WorkflowAccessCache.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * @return the (cached) access evaluations of the user of the session
+     */
+    @Nonnull
+    public Access getAccess(@Nonnull final Session session) {
+        String userId = StringUtils.defaultString(session.getUserID());
+        synchronized (accessByUser) {
+            Access access = accessByUser.get(userId);
+            if (access == null || access.isExpired(timeToLive)) {
+                accessByUser.values().removeIf(entry -> entry.isExpired(timeToLive));
+                access = new Access(session, permissionsService);
+                accessByUser.put(userId, access);
+            }
+            return access;
+        }
+    }
+
+    /**
+     * @return the number of cached evaluations
+     */
+    public int size() {
+        synchronized (accessByUser) {
+            return accessByUser.size();
+        }
+    }
+
+    public void clear() {
+        synchronized (accessByUser) {
+            accessByUser.clear();
+        }
+    }
+}
@@ -0,0 +1,256 @@
+package com.composum.platform.workflow.service.impl;
+
+import com.composum.sling.core.filter.ResourceFilter;
+import com.composum.sling.core.mapping.jcr.ResourceFilterMapping;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.observation.ExternalResourceChangeListener;
+import org.apache.sling.api.resource.observation.ResourceChange;
+import org.apache.sling.api.resource.observation.ResourceChangeListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import static com.composum.platform.workflow.model.Workflow.PN_TARGET_FILTER;
+import static com.composum.platform.workflow.model.Workflow.WORKFLOW_NODE;
+
+/**
+ * the catalog of the available workflows (the start templates declared in the configuration) with their parsed
+ * target filters, an index of the filters by target properties and the order by title for each locale; the catalog
+ * is loaded on demand and dropped by resource change events below '/conf' which are affecting a workflow declaration;
+ * a catalog loaded during a change is used by its request only (not kept, possibly outdated)
+ */
+public class WorkflowCatalog implements ResourceChangeListener, ExternalResourceChangeListener {
+
+    private static final Logger LOG = LoggerFactory.getLogger(WorkflowCatalog.class);
+
+    /**
+     * a workflow of the catalog
+     */
+    public static class Entry {
+
+        protected final String path;
+        protected final ResourceFilter targetFilter;
+        protected final Map<Locale, String> titles = new ConcurrentHashMap<>();
+
+        /**
+         * @param template the start template of the workflow
+         */
+        public Entry(@Nonnull final Resource template) {
+            this(template.getPath(), getTargetFilter(template.getValueMap().get(PN_TARGET_FILTER, String.class)));
+        }
+
+        protected Entry(@Nonnull final String path, @Nullable final ResourceFilter targetFilter) {
+            this.path = path;
+            this.targetFilter = targetFilter;
+        }
+
+        @Override
+        public String toString() {
+            return path;
+        }
+
+        @Nullable
+        protected static ResourceFilter getTargetFilter(@Nullable final String filterRule) {
+            return StringUtils.isNotBlank(filterRule) ? ResourceFilterMapping.fromString(filterRule) : null;
+        }
+
+        /**
+         * @return the path of the start template
+         */
+        @Nonnull
+        public String getPath() {
+            return path;
+        }
+
+        /**
+         * @return the filter of the target resources; 'null' if the workflow is applicable without a target
+         */
+        @Nullable
+        public ResourceFilter getTargetFilter() {
+            return targetFilter;
+        }
+
+        /**
+         * @return 'true' if the workflow can be started for the target
+         */
+        public boolean isApplicable(@Nullable final Resource target) {
+            return targetFilter == null || (target != null && targetFilter.accept(target));
+        }
+
+        @Nonnull
+        protected String getTitle(@Nonnull final Locale locale, @Nonnull final Function<Entry, String> loader) {
+            return titles.computeIfAbsent(locale, key -> loader.apply(this));
+        }
+    }
+
+    /**
+     * the entries of a catalog sorted by their titles in one locale
+     */
+    protected static class Sorted {
+
+        protected final List<Entry> entries;
+        protected final Map<Entry, Integer> rank = new HashMap<>();
+
+        protected Sorted(@Nonnull final List<Entry> entries) {
+            this.entries = Collections.unmodifiableList(entries);
+            for (int i = 0; i < entries.size(); i++) {
+                rank.put(entries.get(i), i);
+            }
+        }
+    }
+
+    /**
+     * the state of a loaded catalog
+     */
+    protected static class Entries {
+
+        protected final List<Entry> entries;
+        protected final WorkflowTargetIndex targetIndex;
+        protected final Map<Locale, Sorted> sorted = new ConcurrentHashMap<>();
+
+        protected Entries(@Nonnull final List<Entry> entries) {
+            this.entries = Collections.unmodifiableList(entries);
+            this.targetIndex = new WorkflowTargetIndex(entries);
+        }
+    }
+
+    protected final AtomicReference<Entries> current = new AtomicReference<>();
+
+    /** incremented by each invalidation; a load is kept only if no invalidation has happened during the load */
+    protected final AtomicLong generation = new AtomicLong();
+
+    /**
+     * @param locale the locale of the titles to sort the catalog
+     * @param loader loads the entries of the catalog if not loaded yet
+     * @param title  loads the title of an entry in the given locale if not known yet
+     * @param target the target resource; 'null' if no target is selected
+     * @return the entries of the workflows applicable for the target sorted by their title;
+     * only the candidates of the target index are checked by their filters
+     */
+    @Nonnull
+    public List<Entry> getApplicable(@Nonnull final Locale locale,
+                                     @Nonnull final Supplier<List<Entry>> loader,
+                                     @Nonnull final Function<Entry, String> title,
+                                     @Nullable final Resource target) {
+        Entries catalog = getCatalog(loader);
+        return getApplicable(catalog, getSorted(catalog, locale, title), target);
+    }
+
+    /**
+     * the batch variant of {@link #getApplicable(Locale, Supplier, Function, Resource)}
+     *
+     * @return the sorted entries of the applicable workflows for each target (by target path)
+     */
+    @Nonnull
+    public Map<String, List<Entry>> getApplicable(@Nonnull final Locale locale,
+                                                  @Nonnull final Supplier<List<Entry>> loader,
+                                                  @Nonnull final Function<Entry, String> title,
+                                                  @Nonnull final Collection<Resource> targets) {
+        Entries catalog = getCatalog(loader);
+        Sorted sorted = getSorted(catalog, locale, title);
+        Map<String, List<Entry>> result = new LinkedHashMap<>();
+        for (Resource target : targets) {
+            result.put(target.getPath(), getApplicable(catalog, sorted, target));
+        }
+        return result;
+    }
+
+    @Nonnull
+    protected List<Entry> getApplicable(@Nonnull final Entries catalog, @Nonnull final Sorted sorted,
+                                        @Nullable final Resource target) {
+        List<Entry> applicable = new ArrayList<>();
+        for (Entry candidate : catalog.targetIndex.getCandidates(target)) {
+            if (candidate.isApplicable(target)) {
+                applicable.add(candidate);
+            }
+        }
+        applicable.sort(Comparator.comparing(sorted.rank::get));
+        return applicable;
+    }
+
+    @Nonnull
+    protected Entries getCatalog(@Nonnull final Supplier<List<Entry>> loader) {
+        Entries catalog = current.get();
+        if (catalog == null) {
+            long loaded = generation.get();
+            catalog = new Entries(loader.get());
+            if (current.compareAndSet(null, catalog) && generation.get() != loaded) {
+                current.compareAndSet(catalog, null); // invalidated during the load, possibly outdated
+            }
+            if (LOG.isInfoEnabled()) {
+                LOG.info("workflow catalog loaded: {} workflows ({} not indexed by target)",
+                        catalog.entries.size(), catalog.targetIndex.getUnindexedCount());
+            }
+        }
+        return catalog;
+    }
+
+    @Nonnull
+    protected Sorted getSorted(@Nonnull final Entries catalog, @Nonnull final Locale locale,
+                               @Nonnull final Function<Entry, String> title) {
+        return catalog.sorted.computeIfAbsent(locale, key -> {
+            List<Entry> entries = new ArrayList<>(catalog.entries);
+            entries.sort(Comparator.comparing(entry -> entry.getTitle(key, title)));
+            return new Sorted(entries);
+        });
+    }
+
+    public void clear() {
+        generation.incrementAndGet();
+        current.set(null);
+    }
+
+    @Override
+    public void onChange(@Nonnull final List<ResourceChange> changes) {
+        Entries catalog = current.get();
+        if (catalog == null) {
+            generation.incrementAndGet(); // a load can be in progress, the affected entries are not known yet
+            return;
+        }
+        for (ResourceChange change : changes) {
+            if (isAffected(catalog, change.getPath())) {
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("workflow catalog invalidated by '{}' ({})", change.getPath(), change.getType());
+                }
+                clear();
+                break;
+            }
+        }
+    }
+
+    /**
+     * @return 'true' if the path is a workflow declaration or part of a workflow of the catalog
+     */
+    protected boolean isAffected(@Nonnull final Entries catalog, @Nullable final String path) {
+        if (StringUtils.isNotBlank(path)) {
+            if (path.endsWith("/" + WORKFLOW_NODE)) {
+                return true;
+            }
+            String prefix = path + "/";
+            for (Entry entry : catalog.entries) {
+                String entryPath = entry.getPath();
+                if (entryPath.equals(path) || path.startsWith(entryPath + "/") || entryPath.startsWith(prefix)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
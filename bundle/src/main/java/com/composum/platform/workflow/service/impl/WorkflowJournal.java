@@ -0,0 +1,658 @@
+package com.composum.platform.workflow.service.impl;
+
+import com.composum.platform.workflow.service.WorkflowService;
+import com.composum.platform.workflow.service.WorkflowService.Trail.Type;
+import com.composum.sling.core.util.ResourceUtil;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.jackrabbit.JcrConstants;
+import org.apache.sling.api.resource.ModifiableValueMap;
+import org.apache.sling.api.resource.PersistenceException;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ValueMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * the append-only journal of the workflow transitions stored in the tenant folder of the workflow root
+ * ('{root}/{tenant}/journal/{yyyyMMdd}/wfj-{stamp}'); the events of one unit of work (a transition) are written
+ * as one entry of the segment of the day with a multi value property for each event field; the entries are
+ * written by the service together with the task changes in the same commit and never changed afterwards;
+ * the history of a workflow is replayed by reading the segments and their entries in the order of their names;
+ * the segments are created ahead in separate commits (the segment of a day is not created by the concurrent
+ * transitions of the day); the purge of a workflow removes its events from the entries (the events of the other
+ * workflows are kept), the segments left empty are removed if expired
+ */
+public class WorkflowJournal {
+
+    private static final Logger LOG = LoggerFactory.getLogger(WorkflowJournal.class);
+
+    public static final String ENTRY_TYPE = "composum/platform/workflow/journal";
+
+    /** the name of the journal folder in each tenant folder */
+    public static final String JOURNAL_FOLDER = "journal";
+
+    /** the name prefix of the entries; not the task prefix to keep the journal out of the task id index */
+    public static final String ENTRY_PREFIX = "wfj-";
+
+    /** the name pattern of the segments (one segment for each day) */
+    public static final String SEGMENT_FORMAT = "yyyyMMdd";
+
+    public static final String PN_EVENT = "event";
+    public static final String PN_TIME = "time";
+    public static final String PN_WORKFLOW = "workflow";
+    public static final String PN_TASK = "task";
+    public static final String PN_USER = "user";
+    public static final String PN_VALUE = "value";
+    public static final String PN_REF = "ref";
+
+    protected static final Map<String, Object> FOLDER_PROPERTIES =
+            Collections.singletonMap(JcrConstants.JCR_PRIMARYTYPE, ResourceUtil.TYPE_SLING_FOLDER);
+
+    /**
+     * one event of the journal
+     */
+    public static class Event implements WorkflowService.Trail.Event {
+
+        protected final Type type;
+        protected final Calendar time;
+        protected final String tenant;
+        protected final String workflowId;
+        protected final String taskId;
+        protected final String user;
+        protected final String value;
+        protected final String ref;
+
+        public Event(@Nonnull final Type type, @Nonnull final Calendar time, @Nonnull final String tenant,
+                     @Nonnull final String workflowId, @Nonnull final String taskId, @Nullable final String user,
+                     @Nullable final String value, @Nullable final String ref) {
+            this.type = type;
+            this.time = time;
+            this.tenant = tenant;
+            this.workflowId = workflowId;
+            this.taskId = taskId;
+            this.user = user;
+            this.value = value;
+            this.ref = ref;
+        }
+
+        @Override
+        @Nonnull
+        public Type getType() {
+            return type;
+        }
+
+        @Override
+        @Nonnull
+        public Calendar getTime() {
+            return time;
+        }
+
+        @Nonnull
+        public String getTenant() {
+            return tenant;
+        }
+
+        @Override
+        @Nonnull
+        public String getWorkflowId() {
+            return workflowId;
+        }
+
+        @Override
+        @Nonnull
+        public String getTaskId() {
+            return taskId;
+        }
+
+        @Override
+        @Nullable
+        public String getUser() {
+            return user;
+        }
+
+        /**
+         * @return the template of an added task, the option of a run, the text of a comment
+         */
+        @Override
+        @Nullable
+        public String getValue() {
+            return value;
+        }
+
+        /**
+         * @return the previous task of an added task
+         */
+        @Override
+        @Nullable
+        public String getRef() {
+            return ref;
+        }
+
+        @Override
+        public String toString() {
+            return type + ":" + taskId + (value != null ? "(" + value + ")" : "");
+        }
+    }
+
+    /**
+     * the history of one workflow rebuilt by the replay of its events
+     */
+    public static class Trail implements WorkflowService.Trail, Consumer<WorkflowJournal.Event> {
+
+        /**
+         * the replayed state of one task of the workflow
+         */
+        public static class Step implements WorkflowService.Trail.Step {
+
+            protected final String taskId;
+            protected String template;
+            protected String previous;
+            protected Calendar added;
+            protected Calendar executed;
+            protected String executedBy;
+            protected String option;
+            protected Calendar finished;
+            protected String finishedBy;
+            protected boolean cancelled;
+            protected final List<WorkflowJournal.Event> comments = new ArrayList<>();
+
+            protected Step(@Nonnull final String taskId) {
+                this.taskId = taskId;
+            }
+
+            @Override
+            @Nonnull
+            public String getTaskId() {
+                return taskId;
+            }
+
+            @Override
+            @Nullable
+            public String getTemplate() {
+                return template;
+            }
+
+            @Override
+            @Nullable
+            public String getPrevious() {
+                return previous;
+            }
+
+            @Override
+            @Nullable
+            public Calendar getAdded() {
+                return added;
+            }
+
+            @Override
+            @Nullable
+            public Calendar getExecuted() {
+                return executed;
+            }
+
+            @Override
+            @Nullable
+            public String getExecutedBy() {
+                return executedBy;
+            }
+
+            @Override
+            @Nullable
+            public String getOption() {
+                return option;
+            }
+
+            @Override
+            @Nullable
+            public Calendar getFinished() {
+                return finished;
+            }
+
+            @Override
+            @Nullable
+            public String getFinishedBy() {
+                return finishedBy;
+            }
+
+            @Override
+            public boolean isCancelled() {
+                return cancelled;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return finished == null;
+            }
+
+            @Override
+            @Nonnull
+            public List<WorkflowJournal.Event> getComments() {
+                return comments;
+            }
+
+            @Override
+            public String toString() {
+                return taskId + "(" + template + ")";
+            }
+        }
+
+        protected final String workflowId;
+        protected final List<WorkflowJournal.Event> events = new ArrayList<>();
+        protected final Map<String, Step> steps = new LinkedHashMap<>();
+
+        public Trail(@Nonnull final String workflowId) {
+            this.workflowId = workflowId;
+        }
+
+        @Override
+        public void accept(@Nonnull final WorkflowJournal.Event event) {
+            if (workflowId.equals(event.getWorkflowId())) {
+                events.add(event);
+                Step step = steps.computeIfAbsent(event.getTaskId(), Step::new);
+                switch (event.getType()) {
+                    case added:
+                        step.template = event.getValue();
+                        step.previous = event.getRef();
+                        step.added = event.getTime();
+                        break;
+                    case run:
+                        step.option = event.getValue();
+                        step.executed = event.getTime();
+                        step.executedBy = event.getUser();
+                        break;
+                    case cancelled:
+                        step.cancelled = true;
+                        // no break - a cancelled task is finished
+                    case finished:
+                        step.finished = event.getTime();
+                        step.finishedBy = event.getUser();
+                        break;
+                    case comment:
+                        step.comments.add(event);
+                        break;
+                }
+            }
+        }
+
+        @Override
+        @Nonnull
+        public String getWorkflowId() {
+            return workflowId;
+        }
+
+        /**
+         * @return all events of the workflow in the order of the journal (the audit trail)
+         */
+        @Override
+        @Nonnull
+        public List<WorkflowJournal.Event> getEvents() {
+            return events;
+        }
+
+        /**
+         * @return the replayed tasks of the workflow in the order of their first event
+         */
+        @Override
+        @Nonnull
+        public Collection<Step> getSteps() {
+            return steps.values();
+        }
+
+        @Override
+        @Nullable
+        public Step getStep(@Nonnull final String taskId) {
+            return steps.get(taskId);
+        }
+
+        /**
+         * @return the steps which are added as the follower of the given task (the chosen transitions)
+         */
+        @Override
+        @Nonnull
+        public List<Step> getNext(@Nonnull final String taskId) {
+            List<Step> next = new ArrayList<>();
+            for (Step step : steps.values()) {
+                if (taskId.equals(step.previous)) {
+                    next.add(step);
+                }
+            }
+            return next;
+        }
+
+        @Override
+        public boolean isOpen() {
+            for (Step step : steps.values()) {
+                if (step.isOpen()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * the workflows of a tenant to remove from the journal with the range of days of their events
+     */
+    public static class Removal {
+
+        protected final Map<String, Set<String>> workflows = new LinkedHashMap<>();
+        protected final Map<String, Calendar> from = new HashMap<>();
+        protected final Map<String, Calendar> to = new HashMap<>();
+
+        /**
+         * @param created  the start of the workflow; all segments before the end if 'null'
+         * @param finished the last change of the workflow; all segments after the start if 'null'
+         */
+        public void add(@Nonnull final String tenant, @Nonnull final String workflowId,
+                        @Nullable final Calendar created, @Nullable final Calendar finished) {
+            boolean first = !workflows.containsKey(tenant);
+            workflows.computeIfAbsent(tenant, key -> new HashSet<>()).add(workflowId);
+            Calendar start = from.get(tenant);
+            if (first || (start != null && (created == null || created.before(start)))) {
+                from.put(tenant, created);
+            }
+            Calendar end = to.get(tenant);
+            if (first || (end != null && (finished == null || finished.after(end)))) {
+                to.put(tenant, finished);
+            }
+        }
+
+        public boolean isEmpty() {
+            return workflows.isEmpty();
+        }
+
+        public void clear() {
+            workflows.clear();
+            from.clear();
+            to.clear();
+        }
+    }
+
+    protected final String root;
+
+    /** the sequence of the entry names created in the same millisecond */
+    protected final AtomicInteger sequence = new AtomicInteger();
+
+    public WorkflowJournal(@Nonnull final String root) {
+        this.root = root;
+    }
+
+    /**
+     * writes the events of a unit of work (without commit); one entry for each tenant of the events
+     */
+    public void append(@Nonnull final ResourceResolver resolver, @Nonnull final List<Event> events)
+            throws PersistenceException {
+        Map<String, List<Event>> byTenant = new LinkedHashMap<>();
+        for (Event event : events) {
+            byTenant.computeIfAbsent(event.getTenant(), key -> new ArrayList<>()).add(event);
+        }
+        Calendar now = Calendar.getInstance();
+        for (Map.Entry<String, List<Event>> tenantEvents : byTenant.entrySet()) {
+            List<Event> entry = tenantEvents.getValue();
+            int size = entry.size();
+            String[] type = new String[size];
+            Calendar[] time = new Calendar[size];
+            String[] workflow = new String[size];
+            String[] task = new String[size];
+            String[] user = new String[size];
+            String[] value = new String[size];
+            String[] ref = new String[size];
+            for (int i = 0; i < size; i++) {
+                Event event = entry.get(i);
+                type[i] = event.getType().name();
+                time[i] = event.getTime();
+                workflow[i] = event.getWorkflowId();
+                task[i] = event.getTaskId();
+                user[i] = StringUtils.defaultString(event.getUser());
+                value[i] = StringUtils.defaultString(event.getValue());
+                ref[i] = StringUtils.defaultString(event.getRef());
+            }
+            Map<String, Object> properties = new HashMap<>();
+            properties.put(JcrConstants.JCR_PRIMARYTYPE, ResourceUtil.TYPE_UNSTRUCTURED);
+            properties.put(ResourceUtil.PROP_RESOURCE_TYPE, ENTRY_TYPE);
+            properties.put(PN_EVENT, type);
+            properties.put(PN_TIME, time);
+            properties.put(PN_WORKFLOW, workflow);
+            properties.put(PN_TASK, task);
+            properties.put(PN_USER, user);
+            properties.put(PN_VALUE, value);
+            properties.put(PN_REF, ref);
+            resolver.create(giveSegment(resolver, tenantEvents.getKey(), now), getEntryName(now), properties);
+        }
+    }
+
+    /**
+     * replays the events of a tenant in the order of the journal
+     *
+     * @param from   the first day of the replay; the first segment if 'null'
+     * @param to     the last day of the replay; the last segment if 'null'
+     * @param events the consumer of the replayed events (a {@link Trail} to rebuild the history of a workflow)
+     */
+    public void replay(@Nonnull final ResourceResolver resolver, @Nonnull final String tenant,
+                       @Nullable final Calendar from, @Nullable final Calendar to,
+                       @Nonnull final Consumer<Event> events) {
+        Resource journal = resolver.getResource(root + "/" + tenant + "/" + JOURNAL_FOLDER);
+        if (journal != null) {
+            String first = from != null ? getSegmentName(from) : null;
+            String last = to != null ? getSegmentName(to) : null;
+            for (Resource segment : sorted(journal.getChildren())) {
+                String name = segment.getName();
+                if ((first == null || name.compareTo(first) >= 0) && (last == null || name.compareTo(last) <= 0)) {
+                    for (Resource entry : sorted(segment.getChildren())) {
+                        if (entry.getName().startsWith(ENTRY_PREFIX)) {
+                            replay(tenant, entry, events);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    protected void replay(@Nonnull final String tenant, @Nonnull final Resource entry,
+                          @Nonnull final Consumer<Event> events) {
+        ValueMap values = entry.getValueMap();
+        String[] type = values.get(PN_EVENT, new String[0]);
+        Calendar[] time = values.get(PN_TIME, new Calendar[0]);
+        String[] workflow = values.get(PN_WORKFLOW, new String[0]);
+        String[] task = values.get(PN_TASK, new String[0]);
+        String[] user = values.get(PN_USER, new String[0]);
+        String[] value = values.get(PN_VALUE, new String[0]);
+        String[] ref = values.get(PN_REF, new String[0]);
+        if (time.length != type.length || workflow.length != type.length || task.length != type.length) {
+            LOG.error("journal entry '{}' is inconsistent, skipped", entry.getPath());
+            return;
+        }
+        for (int i = 0; i < type.length; i++) {
+            Type eventType;
+            try {
+                eventType = Type.valueOf(type[i]);
+            } catch (IllegalArgumentException ex) {
+                LOG.warn("unknown journal event '{}' in '{}'", type[i], entry.getPath());
+                continue;
+            }
+            events.accept(new Event(eventType, time[i], tenant, workflow[i], task[i],
+                    get(user, i), get(value, i), get(ref, i)));
+        }
+    }
+
+    /**
+     * creates the segment of the day of the time if not present (without commit)
+     *
+     * @return 'true' if the segment is created
+     */
+    public boolean prepare(@Nonnull final ResourceResolver resolver, @Nonnull final String tenant,
+                           @Nonnull final Calendar time)
+            throws PersistenceException {
+        if (!hasSegment(resolver, tenant, time)) {
+            giveSegment(resolver, tenant, time);
+            return true;
+        }
+        return false;
+    }
+
+    public boolean hasSegment(@Nonnull final ResourceResolver resolver, @Nonnull final String tenant,
+                              @Nonnull final Calendar time) {
+        return resolver.getResource(root + "/" + tenant + "/" + JOURNAL_FOLDER + "/" + getSegmentName(time)) != null;
+    }
+
+    /**
+     * removes the events of the purged workflows from the segments of the days of their events (without commit);
+     * an entry is written again without these events, an entry without events left is removed
+     *
+     * @return the number of events removed
+     */
+    public int remove(@Nonnull final ResourceResolver resolver, @Nonnull final Removal removal)
+            throws PersistenceException {
+        int count = 0;
+        for (Map.Entry<String, Set<String>> tenantWorkflows : removal.workflows.entrySet()) {
+            String tenant = tenantWorkflows.getKey();
+            Resource journal = resolver.getResource(root + "/" + tenant + "/" + JOURNAL_FOLDER);
+            if (journal != null) {
+                Calendar from = removal.from.get(tenant);
+                Calendar to = removal.to.get(tenant);
+                String first = from != null ? getSegmentName(from) : null;
+                String last = to != null ? getSegmentName(to) : null;
+                for (Resource segment : sorted(journal.getChildren())) {
+                    String name = segment.getName();
+                    if ((first == null || name.compareTo(first) >= 0) && (last == null || name.compareTo(last) <= 0)) {
+                        for (Resource entry : sorted(segment.getChildren())) {
+                            if (entry.getName().startsWith(ENTRY_PREFIX)) {
+                                count += remove(resolver, entry, tenantWorkflows.getValue());
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    protected int remove(@Nonnull final ResourceResolver resolver, @Nonnull final Resource entry,
+                         @Nonnull final Set<String> workflowIds)
+            throws PersistenceException {
+        ModifiableValueMap values = entry.adaptTo(ModifiableValueMap.class);
+        String[] workflow = entry.getValueMap().get(PN_WORKFLOW, new String[0]);
+        List<Integer> kept = new ArrayList<>();
+        for (int i = 0; i < workflow.length; i++) {
+            if (!workflowIds.contains(workflow[i])) {
+                kept.add(i);
+            }
+        }
+        int count = workflow.length - kept.size();
+        if (count > 0) {
+            if (kept.isEmpty()) {
+                resolver.delete(entry);
+            } else if (values != null) {
+                for (String key : new String[]{PN_EVENT, PN_WORKFLOW, PN_TASK, PN_USER, PN_VALUE, PN_REF}) {
+                    String[] value = values.get(key, new String[0]);
+                    List<String> keptValues = new ArrayList<>();
+                    kept.forEach(index -> keptValues.add(index < value.length ? value[index] : ""));
+                    values.put(key, keptValues.toArray(new String[0]));
+                }
+                Calendar[] time = values.get(PN_TIME, new Calendar[0]);
+                List<Calendar> keptTime = new ArrayList<>();
+                kept.forEach(index -> keptTime.add(time[index]));
+                values.put(PN_TIME, keptTime.toArray(new Calendar[0]));
+            } else {
+                throw new PersistenceException("can't modify journal entry '" + entry.getPath() + "'");
+            }
+        }
+        return count;
+    }
+
+    /**
+     * removes the segments without entries of the days before the day of the due date (without commit); the
+     * segments with entries are kept (the events of the workflows not purged)
+     *
+     * @return the number of segments removed
+     */
+    public int purge(@Nonnull final ResourceResolver resolver, @Nonnull final String tenant,
+                     @Nonnull final Calendar dueDate)
+            throws PersistenceException {
+        int count = 0;
+        Resource journal = resolver.getResource(root + "/" + tenant + "/" + JOURNAL_FOLDER);
+        if (journal != null) {
+            String first = getSegmentName(dueDate);
+            for (Resource segment : sorted(journal.getChildren())) {
+                if (segment.getName().compareTo(first) >= 0) {
+                    break;
+                }
+                if (!segment.hasChildren()) {
+                    resolver.delete(segment);
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return the segment of the day of the time; created if not prepared before (the only creation within the
+     * commit of a transition, e.g. the first transition of a tenant)
+     */
+    @Nonnull
+    protected Resource giveSegment(@Nonnull final ResourceResolver resolver, @Nonnull final String tenant,
+                                   @Nonnull final Calendar time)
+            throws PersistenceException {
+        Resource tenantFolder = resolver.getResource(root + "/" + tenant);
+        if (tenantFolder == null) {
+            throw new PersistenceException("tenant folder not available: '" + tenant + "'");
+        }
+        Resource journal = tenantFolder.getChild(JOURNAL_FOLDER);
+        if (journal == null) {
+            journal = resolver.create(tenantFolder, JOURNAL_FOLDER, FOLDER_PROPERTIES);
+        }
+        String name = getSegmentName(time);
+        Resource segment = journal.getChild(name);
+        if (segment == null) {
+            segment = resolver.create(journal, name, FOLDER_PROPERTIES);
+        }
+        return segment;
+    }
+
+    @Nonnull
+    protected static String getSegmentName(@Nonnull final Calendar time) {
+        SimpleDateFormat format = new SimpleDateFormat(SEGMENT_FORMAT);
+        format.setTimeZone(time.getTimeZone());
+        return format.format(time.getTime());
+    }
+
+    /**
+     * @return a name sortable in the order of the entries (the time and a sequence in hex, fixed length)
+     */
+    @Nonnull
+    protected String getEntryName(@Nonnull final Calendar time) {
+        return ENTRY_PREFIX + String.format("%011x%04x", time.getTimeInMillis(), sequence.incrementAndGet() & 0xffff);
+    }
+
+    @Nonnull
+    protected static List<Resource> sorted(@Nonnull final Iterable<Resource> children) {
+        List<Resource> sorted = new ArrayList<>();
+        children.forEach(sorted::add);
+        sorted.sort(Comparator.comparing(Resource::getName));
+        return sorted;
+    }
+
+    @Nullable
+    protected static String get(@Nonnull final String[] values, int index) {
+        return index < values.length && StringUtils.isNotEmpty(values[index]) ? values[index] : null;
+    }
+}
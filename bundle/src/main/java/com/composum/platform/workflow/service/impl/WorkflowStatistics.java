@@ -0,0 +1,83 @@
+package com.composum.platform.workflow.service.impl;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * the collector of the workflow service runtime statistics
+ */
+public class WorkflowStatistics implements WorkflowStatisticsMBean {
+
+    protected final AtomicLong operations = new AtomicLong();
+    protected final AtomicLong serviceSessions = new AtomicLong();
+    protected final AtomicLong maxServiceSessions = new AtomicLong();
+    protected final AtomicLong templateCacheHits = new AtomicLong();
+    protected final AtomicLong templateCacheMisses = new AtomicLong();
+    protected final AtomicLong workflowCompilations = new AtomicLong();
+
+    /**
+     * @param sessions the number of service sessions opened by the finished operation
+     */
+    public void operationDone(int sessions) {
+        operations.incrementAndGet();
+        serviceSessions.addAndGet(sessions);
+        maxServiceSessions.accumulateAndGet(sessions, Math::max);
+    }
+
+    public void templateCacheHit() {
+        templateCacheHits.incrementAndGet();
+    }
+
+    public void templateCacheMiss() {
+        templateCacheMisses.incrementAndGet();
+    }
+
+    public void workflowCompiled() {
+        workflowCompilations.incrementAndGet();
+    }
+
+    @Override
+    public long getOperations() {
+        return operations.get();
+    }
+
+    @Override
+    public long getServiceSessions() {
+        return serviceSessions.get();
+    }
+
+    @Override
+    public double getServiceSessionsPerOperation() {
+        long count = operations.get();
+        return count > 0 ? (double) serviceSessions.get() / count : 0.0;
+    }
+
+    @Override
+    public long getMaxServiceSessionsPerOperation() {
+        return maxServiceSessions.get();
+    }
+
+    @Override
+    public long getTemplateCacheHits() {
+        return templateCacheHits.get();
+    }
+
+    @Override
+    public long getTemplateCacheMisses() {
+        return templateCacheMisses.get();
+    }
+
+    @Override
+    public long getWorkflowCompilations() {
+        return workflowCompilations.get();
+    }
+
+    @Override
+    public void reset() {
+        operations.set(0);
+        serviceSessions.set(0);
+        maxServiceSessions.set(0);
+        templateCacheHits.set(0);
+        templateCacheMisses.set(0);
+        workflowCompilations.set(0);
+    }
+}
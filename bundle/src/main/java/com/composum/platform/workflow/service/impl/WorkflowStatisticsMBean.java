@@ -0,0 +1,46 @@
+package com.composum.platform.workflow.service.impl;
+
+/**
+ * the runtime statistics of the workflow service (registered as MBean via the JMX whiteboard)
+ */
+public interface WorkflowStatisticsMBean {
+
+    String OBJECT_NAME = "com.composum.platform.workflow:type=WorkflowStatistics";
+
+    /**
+     * @return the number of top level service operations
+     */
+    long getOperations();
+
+    /**
+     * @return the number of service sessions (service resolvers) opened by all operations
+     */
+    long getServiceSessions();
+
+    /**
+     * @return the average number of service sessions opened per operation
+     */
+    double getServiceSessionsPerOperation();
+
+    /**
+     * @return the maximum number of service sessions opened by one operation
+     */
+    long getMaxServiceSessionsPerOperation();
+
+    /**
+     * @return the number of template loads served by the template cache
+     */
+    long getTemplateCacheHits();
+
+    /**
+     * @return the number of template loads which have read the template from the repository
+     */
+    long getTemplateCacheMisses();
+
+    /**
+     * @return the number of workflow graphs compiled from the templates
+     */
+    long getWorkflowCompilations();
+
+    void reset();
+}
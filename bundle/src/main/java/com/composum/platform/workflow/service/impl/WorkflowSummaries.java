@@ -0,0 +1,384 @@
+package com.composum.platform.workflow.service.impl;
+
+import com.composum.platform.workflow.model.WorkflowTaskInstance;
+import com.composum.sling.core.util.ResourceUtil;
+import org.apache.commons.lang3.ArrayUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.jackrabbit.JcrConstants;
+import org.apache.sling.api.resource.ModifiableValueMap;
+import org.apache.sling.api.resource.PersistenceException;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ValueMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import static com.composum.platform.workflow.model.WorkflowTaskInstance.PN_INITIATOR;
+import static com.composum.platform.workflow.model.WorkflowTaskInstance.PN_TARGET;
+import static com.composum.platform.workflow.model.WorkflowTaskInstance.PN_TEMPLATE;
+
+/**
+ * the summaries of the workflows stored in the tenant folder of the workflow root
+ * ('{root}/{tenant}/summaries/wfs-{id}'); a summary holds the start template, the initiator, the target, the
+ * creation, finishing and change dates, the ids of the open tasks and the id of the last finished task of a workflow;
+ * the summaries are changed by the service together with the task changes in the same commit
+ */
+public class WorkflowSummaries {
+
+    private static final Logger LOG = LoggerFactory.getLogger(WorkflowSummaries.class);
+
+    public static final String SUMMARY_TYPE = "composum/platform/workflow/summary";
+
+    /** the name of the summaries folder in each tenant folder */
+    public static final String SUMMARIES_FOLDER = "summaries";
+
+    /** the name prefix of the summaries; not the task prefix to keep summaries out of the task id index */
+    public static final String SUMMARY_PREFIX = "wfs-";
+
+    public static final String PN_FIRST_TASK = "firstTask";
+    public static final String PN_TENANT = "tenant";
+    public static final String PN_CREATED = "created";
+    /** the finishing date of a finished workflow; a property of the summaries only (see the finished index) */
+    public static final String PN_FINISHED = "workflowFinished";
+    /** the date of the last transition of a workflow (the change stamp of the rendered graph) */
+    public static final String PN_CHANGED = "workflowChanged";
+    public static final String PN_OPEN_TASKS = "openTasks";
+    public static final String PN_LAST_TASK = "lastTask";
+
+    protected static final Map<String, Object> FOLDER_PROPERTIES =
+            Collections.singletonMap(JcrConstants.JCR_PRIMARYTYPE, ResourceUtil.TYPE_SLING_FOLDER);
+
+    /**
+     * the summary of one workflow
+     */
+    public static class Summary {
+
+        protected final Resource resource;
+        protected final ValueMap values;
+
+        protected Summary(@Nonnull final Resource resource) {
+            this.resource = resource;
+            this.values = resource.getValueMap();
+        }
+
+        @Nonnull
+        public String getPath() {
+            return resource.getPath();
+        }
+
+        /**
+         * @return the id of the workflow (the id of the first task)
+         */
+        @Nonnull
+        public String getWorkflowId() {
+            return values.get(PN_FIRST_TASK, "");
+        }
+
+        @Nullable
+        public String getTemplate() {
+            return values.get(PN_TEMPLATE, String.class);
+        }
+
+        @Nullable
+        public String getInitiator() {
+            return values.get(PN_INITIATOR, String.class);
+        }
+
+        @Nullable
+        public String getTenant() {
+            return values.get(PN_TENANT, String.class);
+        }
+
+        @Nullable
+        public Calendar getCreated() {
+            return values.get(PN_CREATED, Calendar.class);
+        }
+
+        /**
+         * @return the date of the last finished task of a finished workflow; 'null' if the workflow is open
+         */
+        @Nullable
+        public Calendar getFinished() {
+            return values.get(PN_FINISHED, Calendar.class);
+        }
+
+        /**
+         * @return the date of the last transition of the workflow; 'null' for a summary without change date
+         */
+        @Nullable
+        public Calendar getChanged() {
+            return values.get(PN_CHANGED, Calendar.class);
+        }
+
+        @Nonnull
+        public List<String> getOpenTasks() {
+            return Arrays.asList(values.get(PN_OPEN_TASKS, new String[0]));
+        }
+
+        @Nullable
+        public String getLastTask() {
+            return values.get(PN_LAST_TASK, String.class);
+        }
+
+        @Nonnull
+        public List<String> getTarget() {
+            return Arrays.asList(values.get(PN_TARGET, new String[0]));
+        }
+
+        public boolean isOpen() {
+            return !getOpenTasks().isEmpty();
+        }
+
+        @Override
+        public String toString() {
+            return getPath();
+        }
+    }
+
+    protected final String root;
+
+    /** determines the state of a task instance */
+    protected final Function<Resource, WorkflowTaskInstance.State> stateOf;
+
+    public WorkflowSummaries(@Nonnull final String root,
+                             @Nonnull final Function<Resource, WorkflowTaskInstance.State> stateOf) {
+        this.root = root;
+        this.stateOf = stateOf;
+    }
+
+    /**
+     * @return the summary of the workflow; 'null' if not available
+     */
+    @Nullable
+    public Summary get(@Nonnull final ResourceResolver resolver, @Nonnull final String tenant,
+                       @Nonnull final String workflowId) {
+        Resource resource = resolver.getResource(getPath(tenant, workflowId));
+        return resource != null ? new Summary(resource) : null;
+    }
+
+    /**
+     * creates the summary of a started workflow (without commit)
+     *
+     * @param taskPath the path of the first task (the name of the first task is the id of the workflow)
+     */
+    public void create(@Nonnull final ResourceResolver resolver, @Nonnull final String taskPath,
+                       @Nonnull final String template, @Nullable final String initiator,
+                       @Nonnull final Collection<String> target)
+            throws PersistenceException {
+        String tenant = getTenant(taskPath);
+        String firstTask = ResourceUtil.getName(taskPath);
+        Map<String, Object> properties = newSummary(tenant, firstTask, template, initiator, target);
+        Calendar created = Calendar.getInstance();
+        properties.put(PN_CREATED, created);
+        properties.put(PN_CHANGED, created);
+        properties.put(PN_OPEN_TASKS, new String[]{firstTask});
+        resolver.create(giveSummaries(resolver, tenant), getName(firstTask), properties);
+    }
+
+    /**
+     * registers a new open task of a workflow (without commit)
+     *
+     * @param taskPath the path of the new task (the tenant folder of the summary is determined by the path)
+     */
+    public void taskAdded(@Nonnull final ResourceResolver resolver, @Nonnull final String taskPath,
+                          @Nonnull final String workflowId)
+            throws PersistenceException {
+        String taskId = ResourceUtil.getName(taskPath);
+        ModifiableValueMap values = getValues(resolver, getTenant(taskPath), workflowId);
+        if (values != null) {
+            String[] openTasks = values.get(PN_OPEN_TASKS, new String[0]);
+            if (!ArrayUtils.contains(openTasks, taskId)) {
+                values.put(PN_OPEN_TASKS, ArrayUtils.add(openTasks, taskId));
+            }
+            values.remove(PN_FINISHED);
+            values.put(PN_CHANGED, Calendar.getInstance());
+        }
+    }
+
+    /**
+     * registers another state change of a task of a workflow (without commit)
+     *
+     * @param taskPath the path of the task (the tenant folder of the summary is determined by the path)
+     */
+    public void taskChanged(@Nonnull final ResourceResolver resolver, @Nonnull final String taskPath,
+                            @Nonnull final String workflowId, @Nonnull final Calendar changed)
+            throws PersistenceException {
+        ModifiableValueMap values = getValues(resolver, getTenant(taskPath), workflowId);
+        if (values != null) {
+            values.put(PN_CHANGED, changed);
+        }
+    }
+
+    /**
+     * registers a finished (or removed) task of a workflow; the workflow is finished with its last open task
+     * (without commit)
+     *
+     * @param taskPath the path of the task (the tenant folder of the summary is determined by the path)
+     */
+    public void taskFinished(@Nonnull final ResourceResolver resolver, @Nonnull final String taskPath,
+                             @Nonnull final String workflowId, @Nonnull final Calendar finished)
+            throws PersistenceException {
+        String taskId = ResourceUtil.getName(taskPath);
+        ModifiableValueMap values = getValues(resolver, getTenant(taskPath), workflowId);
+        if (values != null) {
+            String[] openTasks = ArrayUtils.removeElement(values.get(PN_OPEN_TASKS, new String[0]), taskId);
+            values.put(PN_OPEN_TASKS, openTasks);
+            values.put(PN_LAST_TASK, taskId);
+            values.put(PN_CHANGED, finished);
+            if (openTasks.length == 0) {
+                values.put(PN_FINISHED, finished);
+            }
+        }
+    }
+
+    /**
+     * removes the summary of a workflow (without commit)
+     */
+    public void delete(@Nonnull final ResourceResolver resolver, @Nonnull final String tenant,
+                       @Nonnull final String workflowId)
+            throws PersistenceException {
+        Resource resource = resolver.getResource(getPath(tenant, workflowId));
+        if (resource != null) {
+            resolver.delete(resource);
+        }
+    }
+
+    /**
+     * creates the summary of a workflow from its task instances (a workflow started before the summaries)
+     *
+     * @param tasks the task instances of the workflow
+     * @return 'true' if the summary is created; 'false' if the first task is not part of the tasks
+     */
+    public boolean build(@Nonnull final ResourceResolver resolver, @Nonnull final String workflowId,
+                         @Nonnull final Collection<Resource> tasks)
+            throws PersistenceException {
+        Resource firstTask = null;
+        List<String> openTasks = new ArrayList<>();
+        Calendar finished = null;
+        String lastTask = null;
+        for (Resource task : tasks) {
+            if (task.getName().equals(workflowId)) {
+                firstTask = task;
+            }
+            if (stateOf.apply(task) != WorkflowTaskInstance.State.finished) {
+                openTasks.add(task.getName());
+            } else {
+                Calendar taskFinished = task.getValueMap().get(WorkflowTaskInstance.PN_FINISHED, Calendar.class);
+                if (taskFinished != null && (finished == null || finished.before(taskFinished))) {
+                    finished = taskFinished;
+                    lastTask = task.getName();
+                }
+            }
+        }
+        if (firstTask == null) {
+            LOG.warn("first task '{}' not found, no summary created", workflowId);
+            return false;
+        }
+        String tenant = getTenant(firstTask.getPath());
+        ValueMap first = firstTask.getValueMap();
+        Map<String, Object> properties = newSummary(tenant, workflowId, first.get(PN_TEMPLATE, ""),
+                first.get(PN_INITIATOR, String.class), Arrays.asList(first.get(PN_TARGET, new String[0])));
+        Calendar created = first.get(JcrConstants.JCR_CREATED, Calendar.getInstance());
+        properties.put(PN_CREATED, created);
+        properties.put(PN_CHANGED, finished != null && finished.after(created) ? finished : created);
+        properties.put(PN_OPEN_TASKS, openTasks.toArray(new String[0]));
+        if (lastTask != null) {
+            properties.put(PN_LAST_TASK, lastTask);
+        }
+        if (openTasks.isEmpty() && finished != null) {
+            properties.put(PN_FINISHED, finished);
+        }
+        resolver.create(giveSummaries(resolver, tenant), getName(workflowId), properties);
+        return true;
+    }
+
+    @Nonnull
+    protected Map<String, Object> newSummary(@Nonnull final String tenant, @Nonnull final String firstTask,
+                                             @Nonnull final String template, @Nullable final String initiator,
+                                             @Nonnull final Collection<String> target) {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put(JcrConstants.JCR_PRIMARYTYPE, ResourceUtil.TYPE_UNSTRUCTURED);
+        properties.put(ResourceUtil.PROP_RESOURCE_TYPE, SUMMARY_TYPE);
+        properties.put(PN_FIRST_TASK, firstTask);
+        properties.put(PN_TENANT, tenant);
+        properties.put(PN_TEMPLATE, template);
+        if (StringUtils.isNotBlank(initiator)) {
+            properties.put(PN_INITIATOR, initiator);
+        }
+        properties.put(PN_TARGET, target.toArray(new String[0]));
+        return properties;
+    }
+
+    @Nullable
+    protected ModifiableValueMap getValues(@Nonnull final ResourceResolver resolver, @Nonnull final String tenant,
+                                           @Nonnull final String workflowId)
+            throws PersistenceException {
+        Resource resource = resolver.getResource(getPath(tenant, workflowId));
+        if (resource == null) {
+            // a workflow started before the summaries - created by the migration job
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("no summary available for workflow '{}' of '{}'", workflowId, tenant);
+            }
+            return null;
+        }
+        ModifiableValueMap values = resource.adaptTo(ModifiableValueMap.class);
+        if (values == null) {
+            throw new PersistenceException("can't modify the workflow summary '" + resource.getPath() + "'");
+        }
+        return values;
+    }
+
+    /**
+     * @return the name of the tenant folder of a task path
+     */
+    @Nonnull
+    protected String getTenant(@Nonnull final String taskPath)
+            throws PersistenceException {
+        if (taskPath.startsWith(root + "/")) {
+            String tenant = StringUtils.substringBefore(taskPath.substring(root.length() + 1), "/");
+            if (StringUtils.isNotBlank(tenant)) {
+                return tenant;
+            }
+        }
+        throw new PersistenceException("no tenant folder found for task '" + taskPath + "'");
+    }
+
+    @Nonnull
+    protected Resource giveSummaries(@Nonnull final ResourceResolver resolver, @Nonnull final String tenant)
+            throws PersistenceException {
+        Resource tenantFolder = resolver.getResource(root + "/" + tenant);
+        if (tenantFolder == null) {
+            throw new PersistenceException("tenant folder not available: '" + tenant + "'");
+        }
+        Resource summaries = tenantFolder.getChild(SUMMARIES_FOLDER);
+        if (summaries == null) {
+            summaries = resolver.create(tenantFolder, SUMMARIES_FOLDER, FOLDER_PROPERTIES);
+        }
+        return summaries;
+    }
+
+    @Nonnull
+    public String getPath(@Nonnull final String tenant, @Nonnull final String workflowId) {
+        return root + "/" + tenant + "/" + SUMMARIES_FOLDER + "/" + getName(workflowId);
+    }
+
+    /**
+     * @return the name of the summary of the workflow (the id of the workflow with the summary prefix)
+     */
+    @Nonnull
+    protected static String getName(@Nonnull final String workflowId) {
+        return SUMMARY_PREFIX + StringUtils.removeStart(workflowId, PlatformWorkflowService.TASK_PREFIX);
+    }
+}
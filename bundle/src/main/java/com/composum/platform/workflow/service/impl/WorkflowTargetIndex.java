@@ -0,0 +1,247 @@
+package com.composum.platform.workflow.service.impl;
+
+import com.composum.sling.core.filter.ResourceFilter;
+import com.composum.sling.core.filter.StringFilter;
+import com.composum.sling.core.util.ResourceUtil;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.jackrabbit.JcrConstants;
+import org.apache.sling.api.resource.Resource;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * an index of the workflows of the catalog by the discriminating parts of their target filters
+ * <p>
+ * for each target filter a necessary condition is extracted - the resource type, the primary type or the path
+ * of the target must start with one of the literal prefixes of the filters (anchored) patterns; the index delivers
+ * the candidates for a target which are fulfilling such a condition, the candidates must be checked by their
+ * filter; workflows without such a condition are always candidates
+ * </p>
+ */
+public class WorkflowTargetIndex {
+
+    /** the indexed properties of a target */
+    public enum Dimension {
+        resourceType, primaryType, path
+    }
+
+    /** a necessary condition of a filter - one of the prefixes must match */
+    protected static class Condition {
+
+        protected final Dimension dimension;
+        protected final Set<String> prefixes;
+
+        protected Condition(@Nonnull final Dimension dimension, @Nonnull final Set<String> prefixes) {
+            this.dimension = dimension;
+            this.prefixes = prefixes;
+        }
+    }
+
+    protected final List<WorkflowCatalog.Entry> unfiltered = new ArrayList<>();
+    protected final List<WorkflowCatalog.Entry> unindexed = new ArrayList<>();
+    protected final Map<Dimension, Map<String, List<WorkflowCatalog.Entry>>> index = new EnumMap<>(Dimension.class);
+
+    public WorkflowTargetIndex(@Nonnull final Collection<WorkflowCatalog.Entry> entries) {
+        for (Dimension dimension : Dimension.values()) {
+            index.put(dimension, new HashMap<>());
+        }
+        for (WorkflowCatalog.Entry entry : entries) {
+            ResourceFilter filter = entry.getTargetFilter();
+            if (filter == null) {
+                unfiltered.add(entry);
+            } else {
+                Condition condition = getCondition(filter);
+                if (condition != null) {
+                    Map<String, List<WorkflowCatalog.Entry>> prefixes = index.get(condition.dimension);
+                    for (String prefix : condition.prefixes) {
+                        prefixes.computeIfAbsent(prefix, key -> new ArrayList<>()).add(entry);
+                    }
+                } else {
+                    unindexed.add(entry);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param target the target resource; 'null' if no target is selected
+     * @return the candidates of the applicable workflows (not checked by their filters)
+     */
+    @Nonnull
+    public Set<WorkflowCatalog.Entry> getCandidates(@Nullable final Resource target) {
+        Set<WorkflowCatalog.Entry> candidates = new LinkedHashSet<>(unfiltered);
+        if (target != null) {
+            candidates.addAll(unindexed);
+            for (String resourceType : getResourceTypes(target)) {
+                addCandidates(candidates, Dimension.resourceType, resourceType);
+            }
+            addCandidates(candidates, Dimension.primaryType, ResourceUtil.getPrimaryType(target));
+            addCandidates(candidates, Dimension.path, target.getPath());
+        }
+        return candidates;
+    }
+
+    /**
+     * @return the number of workflows which are candidates for each target
+     */
+    public int getUnindexedCount() {
+        return unindexed.size();
+    }
+
+    protected void addCandidates(@Nonnull final Set<WorkflowCatalog.Entry> candidates,
+                                 @Nonnull final Dimension dimension, @Nullable final String value) {
+        Map<String, List<WorkflowCatalog.Entry>> prefixes = index.get(dimension);
+        if (StringUtils.isNotBlank(value) && !prefixes.isEmpty()) {
+            for (int length = 1; length <= value.length(); length++) {
+                List<WorkflowCatalog.Entry> entries = prefixes.get(value.substring(0, length));
+                if (entries != null) {
+                    candidates.addAll(entries);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the resource types checked by a resource type filter - the type of the resource and its content
+     */
+    @Nonnull
+    protected List<String> getResourceTypes(@Nonnull Resource target) {
+        List<String> types = new ArrayList<>();
+        for (Resource resource = target; resource != null; resource = resource.getChild(JcrConstants.JCR_CONTENT)) {
+            String type = resource.getResourceType();
+            if (StringUtils.isNotBlank(type)) {
+                types.add(type);
+            }
+        }
+        return types;
+    }
+
+    /**
+     * @return a necessary condition of the filter; 'null' if no condition can be determined
+     */
+    @Nullable
+    protected static Condition getCondition(@Nonnull final ResourceFilter filter) {
+        if (filter instanceof ResourceFilter.FilterSet) {
+            ResourceFilter.FilterSet filterSet = (ResourceFilter.FilterSet) filter;
+            switch (filterSet.getRule()) {
+                case and: // each condition of the set is necessary - the most selective one is used
+                    Condition selected = null;
+                    for (ResourceFilter member : filterSet.getSet()) {
+                        Condition condition = getCondition(member);
+                        if (condition != null && (selected == null
+                                || condition.prefixes.size() < selected.prefixes.size())) {
+                            selected = condition;
+                        }
+                    }
+                    return selected;
+                case or: // one of the conditions is necessary - possible if all of the same dimension
+                    Dimension dimension = null;
+                    Set<String> prefixes = new LinkedHashSet<>();
+                    for (ResourceFilter member : filterSet.getSet()) {
+                        Condition condition = getCondition(member);
+                        if (condition == null || (dimension != null && dimension != condition.dimension)) {
+                            return null;
+                        }
+                        dimension = condition.dimension;
+                        prefixes.addAll(condition.prefixes);
+                    }
+                    return dimension != null ? new Condition(dimension, prefixes) : null;
+                default:
+                    return null;
+            }
+        } else if (filter instanceof ResourceFilter.ResourceTypeFilter) {
+            return getCondition(Dimension.resourceType, ((ResourceFilter.PatternFilter) filter).getFilter());
+        } else if (filter instanceof ResourceFilter.PrimaryTypeFilter) {
+            return getCondition(Dimension.primaryType, ((ResourceFilter.PatternFilter) filter).getFilter());
+        } else if (filter instanceof ResourceFilter.PathFilter) {
+            return getCondition(Dimension.path, ((ResourceFilter.PatternFilter) filter).getFilter());
+        }
+        return null;
+    }
+
+    @Nullable
+    protected static Condition getCondition(@Nonnull final Dimension dimension, @Nullable final StringFilter filter) {
+        if (filter instanceof StringFilter.WhiteList) {
+            Set<String> prefixes = new LinkedHashSet<>();
+            for (Pattern pattern : ((StringFilter.WhiteList) filter).getPatterns()) {
+                String prefix = getLiteralPrefix(pattern);
+                if (prefix == null) {
+                    return null;
+                }
+                prefixes.add(prefix);
+            }
+            return !prefixes.isEmpty() ? new Condition(dimension, Collections.unmodifiableSet(prefixes)) : null;
+        }
+        return null;
+    }
+
+    /**
+     * @return the literal prefix of a pattern anchored at the start of the input ('^...');
+     * 'null' if the pattern is not anchored or has no literal prefix
+     */
+    @Nullable
+    protected static String getLiteralPrefix(@Nonnull final Pattern pattern) {
+        String regex = pattern.pattern();
+        if (pattern.flags() != 0 || !regex.startsWith("^") || hasAlternatives(regex)) {
+            return null;
+        }
+        StringBuilder prefix = new StringBuilder();
+        for (int i = 1; i < regex.length(); i++) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                if (i + 1 < regex.length() && !Character.isLetterOrDigit(regex.charAt(i + 1))) {
+                    prefix.append(regex.charAt(++i)); // an escaped special character
+                    continue;
+                }
+                break;
+            }
+            if ("*?{".indexOf(c) >= 0) { // the last character is optional
+                if (prefix.length() > 0) {
+                    prefix.setLength(prefix.length() - 1);
+                }
+                break;
+            }
+            if (".[]()+^$|".indexOf(c) >= 0) {
+                break;
+            }
+            prefix.append(c);
+        }
+        return prefix.length() > 0 ? prefix.toString() : null;
+    }
+
+    /**
+     * @return 'true' if the pattern contains alternatives on the top level ('a|b')
+     */
+    protected static boolean hasAlternatives(@Nonnull final String regex) {
+        int depth = 0;
+        boolean inClass = false;
+        for (int i = 0; i < regex.length(); i++) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (inClass) {
+                inClass = c != ']';
+            } else if (c == '[') {
+                inClass = true;
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+            } else if (c == '|' && depth == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,474 @@
+package com.composum.platform.workflow.service.impl;
+
+import com.composum.platform.workflow.model.WorkflowTaskInstance;
+import com.composum.sling.core.util.ResourceUtil;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.jackrabbit.JcrConstants;
+import org.apache.jackrabbit.util.Text;
+import org.apache.sling.api.resource.ModifiableValueMap;
+import org.apache.sling.api.resource.PersistenceException;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ValueMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+import static com.composum.platform.workflow.model.WorkflowTask.PN_ASSIGNEE;
+
+/**
+ * the number of task instances per tenant, state and assignee stored in the tenant folder of the workflow root
+ * ('{root}/{tenant}/counters/{state}/@{assignee}'); the changes of a unit of work are written as a delta node
+ * ('{root}/{tenant}/counters/deltas/{id}/{state}/@{assignee}') with the changes of the unit in its commit - a
+ * new node with a unique name, never a conflict of concurrent transitions; the committed deltas are folded into
+ * the counters by one writer in a separate commit (retried on conflicts with another cluster node), a query sums
+ * the counters and the deltas not folded yet; the counters of a tenant are created by counting the tasks of the
+ * tenant once (by the migration job or by the first query); the counters of a tenant are counted again if a fold
+ * would make a counter negative (a drift of the counters)
+ */
+public class WorkflowTaskCounters {
+
+    private static final Logger LOG = LoggerFactory.getLogger(WorkflowTaskCounters.class);
+
+    /** the name of the counters folder in each tenant folder */
+    public static final String COUNTERS_FOLDER = "counters";
+
+    /** the name of the folder of the deltas not folded yet in each counters folder */
+    public static final String DELTAS_FOLDER = "deltas";
+
+    /** the counter key of the tasks without assignee */
+    public static final String UNASSIGNED = "*";
+
+    protected static final Map<String, Object> FOLDER_PROPERTIES =
+            Collections.singletonMap(JcrConstants.JCR_PRIMARYTYPE, ResourceUtil.TYPE_SLING_FOLDER);
+
+    protected static final Map<String, Object> COUNTER_PROPERTIES =
+            Collections.singletonMap(JcrConstants.JCR_PRIMARYTYPE, ResourceUtil.TYPE_UNSTRUCTURED);
+
+    /** the number of attempts to apply the deltas (conflicting with the changes of another cluster node) */
+    protected static final int APPLY_ATTEMPTS = 3;
+
+    /**
+     * the changes of the counters of a unit of work (tenant, state, counter name, delta)
+     */
+    public static class Changes {
+
+        protected final Map<String, Map<WorkflowTaskInstance.State, Map<String, Long>>> deltas = new HashMap<>();
+
+        public boolean isEmpty() {
+            return deltas.isEmpty();
+        }
+
+        public void clear() {
+            deltas.clear();
+        }
+
+        protected void add(@Nonnull final String tenant, @Nonnull final WorkflowTaskInstance.State state,
+                           @Nonnull final String name, long delta) {
+            deltas.computeIfAbsent(tenant, key -> new EnumMap<>(WorkflowTaskInstance.State.class))
+                    .computeIfAbsent(state, key -> new HashMap<>())
+                    .merge(name, delta, Long::sum);
+        }
+    }
+
+    protected final String root;
+
+    /** set if deltas are committed since the last fold */
+    protected final AtomicBoolean submitted = new AtomicBoolean();
+
+    /** set during the fold of the committed deltas (one writer) */
+    protected final AtomicBoolean applying = new AtomicBoolean();
+
+    /** collects the task instances of a folder (including the bucket folders) */
+    protected final BiConsumer<Resource, List<Resource>> collector;
+
+    /** determines the state of a task instance */
+    protected final Function<Resource, WorkflowTaskInstance.State> stateOf;
+
+    public WorkflowTaskCounters(@Nonnull final String root,
+                                @Nonnull final BiConsumer<Resource, List<Resource>> collector,
+                                @Nonnull final Function<Resource, WorkflowTaskInstance.State> stateOf) {
+        this.root = root;
+        this.collector = collector;
+        this.stateOf = stateOf;
+    }
+
+    /**
+     * registers the change of the counters for a state change of a task in the changes of the unit of work
+     *
+     * @param taskPath the path of the task instance (the tenant folder is determined by the path)
+     * @param assignee the assignee of the task
+     * @param from     the state before the change; 'null' if the task is created
+     * @param to       the state after the change; 'null' if the task is removed
+     */
+    public void change(@Nonnull final Changes changes, @Nonnull final String taskPath,
+                       @Nullable final String assignee, @Nullable final WorkflowTaskInstance.State from,
+                       @Nullable final WorkflowTaskInstance.State to) {
+        if (from != to) {
+            String tenant = getTenant(taskPath);
+            if (tenant != null) {
+                String name = getCounterName(assignee);
+                if (from != null) {
+                    changes.add(tenant, from, name, -1L);
+                }
+                if (to != null) {
+                    changes.add(tenant, to, name, 1L);
+                }
+            } else {
+                LOG.error("no tenant folder found for task '{}'", taskPath);
+            }
+        }
+    }
+
+    /**
+     * writes the changes of a unit of work as delta nodes of the tenants (part of the unit of work, no commit);
+     * the changes of a tenant without counters are dropped, they are part of the initial count of the tenant
+     */
+    public void write(@Nonnull final ResourceResolver resolver, @Nonnull final Changes changes)
+            throws PersistenceException {
+        String id = UUID.randomUUID().toString();
+        for (Map.Entry<String, Map<WorkflowTaskInstance.State, Map<String, Long>>> tenant : changes.deltas.entrySet()) {
+            Resource deltas = resolver.getResource(root + "/" + tenant.getKey() + "/" + COUNTERS_FOLDER
+                    + "/" + DELTAS_FOLDER);
+            if (deltas == null) {
+                LOG.debug("no task counters of tenant '{}' present, changes dropped", tenant.getKey());
+                continue;
+            }
+            Resource delta = resolver.create(deltas, id, COUNTER_PROPERTIES);
+            for (Map.Entry<WorkflowTaskInstance.State, Map<String, Long>> state : tenant.getValue().entrySet()) {
+                Map<String, Object> properties = new HashMap<>(COUNTER_PROPERTIES);
+                state.getValue().forEach((name, value) -> {
+                    if (value != 0L) {
+                        properties.put(name, value);
+                    }
+                });
+                resolver.create(delta, state.getKey().name(), properties);
+            }
+        }
+    }
+
+    /**
+     * registers the written changes of a committed unit of work; the deltas are folded by the next 'apply'
+     */
+    public void submit(@Nonnull final Changes changes) {
+        if (!changes.isEmpty()) {
+            submitted.set(true);
+        }
+    }
+
+    /**
+     * @return 'true' if deltas are committed since the last fold
+     */
+    public boolean hasSubmitted() {
+        return submitted.get();
+    }
+
+    /**
+     * @return 'true' if another thread is applying the committed deltas
+     */
+    public boolean isApplying() {
+        return applying.get();
+    }
+
+    /**
+     * folds the committed deltas of all tenants into the counters in one commit; does nothing if another thread
+     * is applying the deltas (the caller has to check 'hasSubmitted' after the call to fold the deltas committed
+     * meanwhile); a conflict with the fold of another cluster node is retried with the current state
+     */
+    public void apply(@Nonnull final ResourceResolver resolver)
+            throws PersistenceException {
+        if (applying.compareAndSet(false, true)) {
+            try {
+                submitted.set(false);
+                for (int attempt = 1; ; attempt++) {
+                    try {
+                        resolver.refresh();
+                        if (fold(resolver)) {
+                            resolver.commit();
+                        }
+                        break;
+                    } catch (PersistenceException ex) {
+                        resolver.revert();
+                        if (attempt >= APPLY_ATTEMPTS) {
+                            throw ex;
+                        }
+                    }
+                }
+            } finally {
+                applying.set(false);
+            }
+        }
+    }
+
+    /**
+     * @return 'true' if deltas are folded (changes to commit)
+     */
+    protected boolean fold(@Nonnull final ResourceResolver resolver)
+            throws PersistenceException {
+        boolean changed = false;
+        Resource rootFolder = resolver.getResource(root);
+        if (rootFolder != null) {
+            for (Resource tenantFolder : rootFolder.getChildren()) {
+                Resource counters = tenantFolder.getChild(COUNTERS_FOLDER);
+                Resource deltas = counters != null ? counters.getChild(DELTAS_FOLDER) : null;
+                if (deltas == null || !deltas.hasChildren()) {
+                    continue;
+                }
+                Changes changes = new Changes(); // summed first, the order of the deltas is arbitrary
+                for (Resource delta : deltas.getChildren()) {
+                    for (Resource state : delta.getChildren()) {
+                        WorkflowTaskInstance.State taskState = getState(state.getName());
+                        if (taskState != null) {
+                            state.getValueMap().forEach((name, value) -> {
+                                if (!name.startsWith("jcr:") && value instanceof Long) {
+                                    changes.add(tenantFolder.getName(), taskState, name, (Long) value);
+                                }
+                            });
+                        }
+                    }
+                    resolver.delete(delta);
+                }
+                boolean drift = false;
+                for (Map.Entry<WorkflowTaskInstance.State, Map<String, Long>> state :
+                        changes.deltas.getOrDefault(tenantFolder.getName(), Collections.emptyMap()).entrySet()) {
+                    for (Map.Entry<String, Long> counter : state.getValue().entrySet()) {
+                        if (!add(resolver, counters, state.getKey(), counter.getKey(), counter.getValue())) {
+                            drift = true;
+                        }
+                    }
+                }
+                if (drift) {
+                    LOG.warn("task counters of '{}' drifted, counted again", tenantFolder.getPath());
+                    recount(resolver, counters, tenantFolder);
+                }
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * creates the counters of all tenants without counters (e.g. after an update)
+     *
+     * @return the number of tenants initialized
+     */
+    public int create(@Nonnull final ResourceResolver resolver)
+            throws PersistenceException {
+        int count = 0;
+        Resource rootFolder = resolver.getResource(root);
+        if (rootFolder != null) {
+            for (Resource tenantFolder : rootFolder.getChildren()) {
+                Resource counters = tenantFolder.getChild(COUNTERS_FOLDER);
+                if (counters == null || counters.getChild(DELTAS_FOLDER) == null) {
+                    giveCounters(resolver, tenantFolder);
+                    resolver.commit();
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @param tenant    the name of the tenant folder
+     * @param assignees the counter keys to sum (user id, group ids and {@link #UNASSIGNED})
+     * @return the sum of the counters and the deltas not folded yet of the assignees for each state; the counters
+     * of a tenant without counters are created (counted and committed) once
+     */
+    @Nonnull
+    public Map<WorkflowTaskInstance.State, Long> count(@Nonnull final ResourceResolver resolver,
+                                                       @Nonnull final String tenant,
+                                                       @Nonnull final Collection<String> assignees)
+            throws PersistenceException {
+        Map<WorkflowTaskInstance.State, Long> result = new EnumMap<>(WorkflowTaskInstance.State.class);
+        for (WorkflowTaskInstance.State state : WorkflowTaskInstance.State.values()) {
+            result.put(state, 0L);
+        }
+        Resource tenantFolder = resolver.getResource(root + "/" + tenant);
+        if (tenantFolder != null) {
+            Resource counters = tenantFolder.getChild(COUNTERS_FOLDER);
+            if (counters == null) {
+                counters = createCounters(resolver, tenantFolder);
+            }
+            List<Resource> stateCounters = new ArrayList<>();
+            counters.getChildren().forEach(stateCounters::add);
+            Resource deltas = counters.getChild(DELTAS_FOLDER);
+            if (deltas != null) {
+                for (Resource delta : deltas.getChildren()) {
+                    delta.getChildren().forEach(stateCounters::add);
+                }
+            }
+            for (Resource counter : stateCounters) {
+                WorkflowTaskInstance.State state = getState(counter.getName());
+                if (state != null) {
+                    ValueMap values = counter.getValueMap();
+                    long sum = 0L;
+                    for (String assignee : assignees) {
+                        sum += values.get(getCounterName(assignee), 0L);
+                    }
+                    result.merge(state, sum, Long::sum);
+                }
+            }
+            result.replaceAll((state, sum) -> Math.max(0L, sum));
+        }
+        return result;
+    }
+
+    /**
+     * creates the counters of a tenant in a separate commit; the counters created concurrently by another
+     * cluster node are used if the commit fails
+     */
+    @Nonnull
+    protected Resource createCounters(@Nonnull final ResourceResolver resolver, @Nonnull final Resource tenantFolder)
+            throws PersistenceException {
+        String path = tenantFolder.getPath() + "/" + COUNTERS_FOLDER;
+        try {
+            giveCounters(resolver, tenantFolder);
+            resolver.commit();
+        } catch (PersistenceException ex) {
+            resolver.revert();
+            resolver.refresh();
+            if (resolver.getResource(path) == null) {
+                throw ex;
+            }
+        }
+        return Objects.requireNonNull(resolver.getResource(path));
+    }
+
+    /**
+     * @return the counters folder of the tenant, created and initialized with the current tasks if not present
+     */
+    @Nonnull
+    protected Resource giveCounters(@Nonnull final ResourceResolver resolver, @Nonnull final Resource tenantFolder)
+            throws PersistenceException {
+        Resource counters = tenantFolder.getChild(COUNTERS_FOLDER);
+        if (counters != null && counters.getChild(DELTAS_FOLDER) == null) {
+            resolver.create(counters, DELTAS_FOLDER, FOLDER_PROPERTIES);
+        }
+        if (counters == null) {
+            long start = System.currentTimeMillis();
+            Map<WorkflowTaskInstance.State, Map<String, Object>> values = countTasks(tenantFolder);
+            counters = resolver.create(tenantFolder, COUNTERS_FOLDER, FOLDER_PROPERTIES);
+            for (WorkflowTaskInstance.State state : WorkflowTaskInstance.State.values()) {
+                Map<String, Object> properties = new HashMap<>(COUNTER_PROPERTIES);
+                properties.putAll(values.get(state));
+                resolver.create(counters, state.name(), properties);
+            }
+            resolver.create(counters, DELTAS_FOLDER, FOLDER_PROPERTIES);
+            if (LOG.isInfoEnabled()) {
+                LOG.info("task counters of '{}' initialized ({}ms)",
+                        tenantFolder.getPath(), System.currentTimeMillis() - start);
+            }
+        }
+        return counters;
+    }
+
+    /**
+     * replaces the counters of a tenant by the number of the current tasks
+     */
+    protected void recount(@Nonnull final ResourceResolver resolver, @Nonnull final Resource counters,
+                           @Nonnull final Resource tenantFolder)
+            throws PersistenceException {
+        Map<WorkflowTaskInstance.State, Map<String, Object>> values = countTasks(tenantFolder);
+        for (WorkflowTaskInstance.State state : WorkflowTaskInstance.State.values()) {
+            Resource stateCounters = counters.getChild(state.name());
+            if (stateCounters == null) {
+                stateCounters = resolver.create(counters, state.name(), COUNTER_PROPERTIES);
+            }
+            ModifiableValueMap properties = stateCounters.adaptTo(ModifiableValueMap.class);
+            if (properties == null) {
+                throw new PersistenceException("can't modify the task counters '" + stateCounters.getPath() + "'");
+            }
+            properties.keySet().removeIf(key -> !key.startsWith("jcr:"));
+            properties.putAll(values.get(state));
+        }
+    }
+
+    /**
+     * @return the number of the tasks of a tenant for each state and counter name
+     */
+    @Nonnull
+    protected Map<WorkflowTaskInstance.State, Map<String, Object>> countTasks(@Nonnull final Resource tenantFolder) {
+        Map<WorkflowTaskInstance.State, Map<String, Object>> values = new EnumMap<>(WorkflowTaskInstance.State.class);
+        for (WorkflowTaskInstance.State state : WorkflowTaskInstance.State.values()) {
+            values.put(state, new HashMap<>());
+        }
+        List<Resource> tasks = new ArrayList<>();
+        collector.accept(tenantFolder, tasks);
+        for (Resource task : tasks) {
+            WorkflowTaskInstance.State state = stateOf.apply(task);
+            if (state != null) {
+                String name = getCounterName(task.getValueMap().get(PN_ASSIGNEE, String.class));
+                values.get(state).merge(name, 1L, (one, two) -> (Long) one + (Long) two);
+            }
+        }
+        return values;
+    }
+
+    /**
+     * @return 'false' if the counter would be negative (kept at '0')
+     */
+    protected boolean add(@Nonnull final ResourceResolver resolver, @Nonnull final Resource counters,
+                          @Nonnull final WorkflowTaskInstance.State state, @Nonnull final String name,
+                          final long delta)
+            throws PersistenceException {
+        Resource stateCounters = counters.getChild(state.name());
+        if (stateCounters == null) {
+            stateCounters = resolver.create(counters, state.name(), COUNTER_PROPERTIES);
+        }
+        ModifiableValueMap values = stateCounters.adaptTo(ModifiableValueMap.class);
+        if (values == null) {
+            throw new PersistenceException("can't modify the task counters '" + stateCounters.getPath() + "'");
+        }
+        long value = values.get(name, 0L) + delta;
+        values.put(name, Math.max(0L, value));
+        return value >= 0L;
+    }
+
+    /**
+     * @return the state of a counter node name; 'null' if the node is not a counter (e.g. the deltas folder)
+     */
+    @Nullable
+    protected static WorkflowTaskInstance.State getState(@Nonnull final String name) {
+        for (WorkflowTaskInstance.State state : WorkflowTaskInstance.State.values()) {
+            if (state.name().equals(name)) {
+                return state;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the name of the tenant folder of a task path; 'null' if the path is not below the root
+     */
+    @Nullable
+    protected String getTenant(@Nonnull final String taskPath) {
+        if (taskPath.startsWith(root + "/")) {
+            String tenant = StringUtils.substringBefore(taskPath.substring(root.length() + 1), "/");
+            return StringUtils.isNotBlank(tenant) ? tenant : null;
+        }
+        return null;
+    }
+
+    /**
+     * @return the (escaped) property name of the counter of the assignee
+     */
+    @Nonnull
+    protected static String getCounterName(@Nullable final String assignee) {
+        return Text.escapeIllegalJcrChars(StringUtils.isNotBlank(assignee) ? assignee : UNASSIGNED);
+    }
+}
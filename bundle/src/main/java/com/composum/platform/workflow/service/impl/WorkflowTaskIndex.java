@@ -0,0 +1,111 @@
+package com.composum.platform.workflow.service.impl;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.observation.ExternalResourceChangeListener;
+import org.apache.sling.api.resource.observation.ResourceChange;
+import org.apache.sling.api.resource.observation.ResourceChangeListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.jcr.query.Query;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * an in memory index of the task instance paths by their id (node name) to avoid a repository query
+ * for each task reference; the index is bootstrapped by a query at activation and kept up to date by
+ * resource change events below the workflow root (and by the service itself for its own changes)
+ */
+public class WorkflowTaskIndex implements ResourceChangeListener, ExternalResourceChangeListener {
+
+    private static final Logger LOG = LoggerFactory.getLogger(WorkflowTaskIndex.class);
+
+    protected final String root;
+
+    /** extracts the task id from a path; 'null' if the path is not the path of a task instance */
+    protected final Function<String, String> taskId;
+
+    protected final Map<String, String> pathById = new ConcurrentHashMap<>();
+
+    public WorkflowTaskIndex(@Nonnull final String root, @Nonnull final Function<String, String> taskId) {
+        this.root = root;
+        this.taskId = taskId;
+    }
+
+    /**
+     * loads all task instances found by the query into the index
+     *
+     * @param resolver the (service) resolver used for the query
+     * @param query    the XPath query to retrieve all task instance nodes
+     */
+    public void bootstrap(@Nonnull final ResourceResolver resolver, @Nonnull final String query) {
+        long start = System.currentTimeMillis();
+        @SuppressWarnings("deprecation")
+        Iterator<Resource> found = resolver.findResources(query, Query.XPATH);
+        while (found.hasNext()) {
+            String path = found.next().getPath();
+            String id = taskId.apply(path);
+            if (id != null) {
+                pathById.putIfAbsent(id, path);
+            }
+        }
+        if (LOG.isInfoEnabled()) {
+            LOG.info("task index of '{}' bootstrapped: {} tasks ({}ms)",
+                    root, pathById.size(), System.currentTimeMillis() - start);
+        }
+    }
+
+    /**
+     * @return the indexed path of the task; 'null' if the id is not (yet) known
+     */
+    @Nullable
+    public String getPath(@Nonnull final String id) {
+        return pathById.get(id);
+    }
+
+    public void put(@Nonnull final String id, @Nonnull final String path) {
+        pathById.put(id, path);
+    }
+
+    public void remove(@Nonnull final String id) {
+        pathById.remove(id);
+    }
+
+    public int size() {
+        return pathById.size();
+    }
+
+    @Override
+    public void onChange(@Nonnull final List<ResourceChange> changes) {
+        for (ResourceChange change : changes) {
+            String path = change.getPath();
+            String id = taskId.apply(path);
+            switch (change.getType()) {
+                case ADDED:
+                    if (id != null) {
+                        pathById.put(id, path);
+                    }
+                    break;
+                case REMOVED:
+                    if (id != null) {
+                        // a moved task is probably registered with its new path already
+                        pathById.remove(id, path);
+                    } else if (StringUtils.isNotBlank(path)) {
+                        // a tenant or state folder removed - drop all tasks stored below
+                        String prefix = path + "/";
+                        pathById.values().removeIf(value -> value.startsWith(prefix));
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package com.composum.platform.workflow.service.impl;
+
+import com.composum.platform.workflow.model.WorkflowDefinition;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.sling.api.resource.AbstractResource;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceMetadata;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ValueMap;
+import org.apache.sling.api.resource.observation.ExternalResourceChangeListener;
+import org.apache.sling.api.resource.observation.ResourceChange;
+import org.apache.sling.api.resource.observation.ResourceChangeListener;
+import org.apache.sling.api.wrappers.ValueMapDecorator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * a cache of the task templates declared in the configuration ('/conf'); each template is stored as a detached
+ * and immutable snapshot of its resource including the options, the data and the i18n variations, the models
+ * of a request are views of these snapshots; the compiled workflow definitions are cached too (by the path
+ * of the first template); the cache is invalidated by resource change events below '/conf'
+ */
+public class WorkflowTemplateCache implements ResourceChangeListener, ExternalResourceChangeListener {
+
+    private static final Logger LOG = LoggerFactory.getLogger(WorkflowTemplateCache.class);
+
+    /** the root of the cached templates */
+    public static final String TEMPLATE_ROOT = "/conf";
+
+    /**
+     * a detached copy of a resource and its subtree, not bound to a resolver
+     */
+    protected static class Snapshot extends AbstractResource {
+
+        protected final String path;
+        protected final String resourceType;
+        protected final String resourceSuperType;
+        protected final ValueMap values;
+        protected final Map<String, Resource> children;
+        protected final ResourceMetadata metadata = new ResourceMetadata();
+
+        protected Snapshot(@Nonnull final Resource resource) {
+            path = resource.getPath();
+            resourceType = resource.getResourceType();
+            resourceSuperType = resource.getResourceSuperType();
+            values = new ValueMapDecorator(Collections.unmodifiableMap(new HashMap<>(resource.getValueMap())));
+            Map<String, Resource> loaded = new LinkedHashMap<>();
+            for (Resource child : resource.getChildren()) {
+                loaded.put(child.getName(), new Snapshot(child));
+            }
+            children = Collections.unmodifiableMap(loaded);
+            metadata.setResolutionPath(path);
+            metadata.lock();
+        }
+
+        @Override
+        @Nonnull
+        public String getPath() {
+            return path;
+        }
+
+        @Override
+        @Nonnull
+        public String getResourceType() {
+            return resourceType;
+        }
+
+        @Override
+        @Nullable
+        public String getResourceSuperType() {
+            return resourceSuperType;
+        }
+
+        @Override
+        @Nonnull
+        public ValueMap getValueMap() {
+            return values;
+        }
+
+        @Override
+        @Nullable
+        public Resource getChild(@Nonnull final String relPath) {
+            int slash = relPath.indexOf('/');
+            if (slash > 0) {
+                Resource child = children.get(relPath.substring(0, slash));
+                return child != null ? child.getChild(relPath.substring(slash + 1)) : null;
+            }
+            return children.get(relPath);
+        }
+
+        @Override
+        @Nonnull
+        public Iterator<Resource> listChildren() {
+            return children.values().iterator();
+        }
+
+        @Override
+        @Nonnull
+        public Iterable<Resource> getChildren() {
+            return children.values();
+        }
+
+        @Override
+        public boolean hasChildren() {
+            return !children.isEmpty();
+        }
+
+        /**
+         * @return always 'null' - a snapshot is not embedded in a resource tree
+         */
+        @Override
+        @Nullable
+        public Resource getParent() {
+            return null;
+        }
+
+        @Override
+        @Nonnull
+        public ResourceMetadata getResourceMetadata() {
+            return metadata;
+        }
+
+        /**
+         * @return always 'null' - a snapshot is not bound to a resolver
+         */
+        @Override
+        @SuppressWarnings("ConstantConditions")
+        public ResourceResolver getResourceResolver() {
+            return null;
+        }
+    }
+
+    protected final WorkflowStatistics statistics;
+
+    protected final Map<String, Snapshot> snapshots = new ConcurrentHashMap<>();
+
+    protected final Map<String, WorkflowDefinition> definitions = new ConcurrentHashMap<>();
+
+    /** the time of the last change below the template root (or of the start of the cache) */
+    protected volatile long lastChange = System.currentTimeMillis();
+
+    /** incremented by each invalidation; an entry loaded during an invalidation is not kept */
+    protected final AtomicLong generation = new AtomicLong();
+
+    public WorkflowTemplateCache(@Nonnull final WorkflowStatistics statistics) {
+        this.statistics = statistics;
+    }
+
+    /**
+     * @param resource the template resource (read with the resolver of the requesting context to check the access)
+     * @param loader   reads the template with the service resolver (the snapshot is shared by all users)
+     * @return the cached snapshot of the template; the resource itself if the template is not cacheable
+     */
+    @Nonnull
+    public Resource getSnapshot(@Nonnull final Resource resource,
+                                @Nonnull final Function<String, Resource> loader) {
+        String path = resource.getPath();
+        if (!path.startsWith(TEMPLATE_ROOT + "/")) {
+            return resource;
+        }
+        Snapshot snapshot = snapshots.get(path);
+        if (snapshot != null) {
+            statistics.templateCacheHit();
+        } else {
+            statistics.templateCacheMiss();
+            long loaded = generation.get();
+            Resource template = loader.apply(path);
+            if (template == null) {
+                return resource;
+            }
+            snapshot = new Snapshot(template);
+            snapshots.put(path, snapshot);
+            if (generation.get() != loaded) {
+                snapshots.remove(path, snapshot); // invalidated during the load, possibly outdated
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * @return the current generation of the cache; to pass to 'putDefinition' after the compilation
+     */
+    public long getGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * @param path the path of the first template of the workflow
+     * @return the cached definition of the workflow; 'null' if not compiled yet
+     */
+    @Nullable
+    public WorkflowDefinition getDefinition(@Nonnull final String path) {
+        return definitions.get(path);
+    }
+
+    /**
+     * @param generation the generation of the cache before the compilation of the definition
+     */
+    public void putDefinition(@Nonnull final String path, @Nonnull final WorkflowDefinition definition,
+                              long generation) {
+        statistics.workflowCompiled();
+        if (path.startsWith(TEMPLATE_ROOT + "/")) {
+            definitions.put(path, definition);
+            if (this.generation.get() != generation) {
+                definitions.remove(path, definition); // invalidated during the compilation
+            }
+        }
+    }
+
+    /**
+     * @return the time of the last change of a template or of the start of the cache (the change stamp of the
+     * rendered template graphs)
+     */
+    public long getLastChange() {
+        return lastChange;
+    }
+
+    public void clear() {
+        generation.incrementAndGet();
+        snapshots.clear();
+        definitions.clear();
+        lastChange = System.currentTimeMillis();
+    }
+
+    public int size() {
+        return snapshots.size();
+    }
+
+    @Override
+    public void onChange(@Nonnull final List<ResourceChange> changes) {
+        lastChange = System.currentTimeMillis();
+        generation.incrementAndGet();
+        for (ResourceChange change : changes) {
+            String path = change.getPath();
+            if (StringUtils.isNotBlank(path)) {
+                // a change of the template itself, of an element of the template or of a folder of templates
+                String prefix = path + "/";
+                if (snapshots.keySet().removeIf(key ->
+                        key.equals(path) || path.startsWith(key + "/") || key.startsWith(prefix))
+                        && LOG.isDebugEnabled()) {
+                    LOG.debug("template snapshot(s) invalidated by '{}' ({})", path, change.getType());
+                }
+                definitions.values().removeIf(definition -> definition.dependsOn(path));
+            }
+        }
+    }
+}
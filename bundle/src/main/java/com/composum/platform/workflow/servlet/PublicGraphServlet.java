@@ -60,10 +60,14 @@ public class PublicGraphServlet extends AbstractServiceServlet {
 
     protected BundleContext bundleContext;
 
+    /** the rendered template graphs (the same for each user) */
+    protected final WorkflowGraphCache graphCache = new WorkflowGraphCache("no-cache");
+
     @Activate
     @Modified
     protected void activate(ComponentContext context) {
         this.bundleContext = context.getBundleContext();
+        graphCache.clear();
     }
 
     //
@@ -126,6 +130,10 @@ public class PublicGraphServlet extends AbstractServiceServlet {
         }
     }
 
+    /**
+     * renders the graph page of a template with the 'rendering' service resolver; the rendered page is cached
+     * by the template path and the locale until the next change of the templates
+     */
     public class ForwardToGraphOperation implements ServletOperation {
 
         @Override
@@ -135,22 +143,27 @@ public class PublicGraphServlet extends AbstractServiceServlet {
                 throws ServletException, IOException {
             BeanContext context = new BeanContext.Servlet(getServletContext(), bundleContext, request, response);
             if (resource.isValid() && resource.isResourceType(TEMPLATE_TYPE)) {
-                try (ResourceResolver renderResolver = resolverFactory.getServiceResourceResolver(
-                        Collections.singletonMap(ResourceResolverFactory.SUBSERVICE, "rendering"))) {
-                    RequestDispatcherOptions options = new RequestDispatcherOptions();
-                    options.setReplaceSelectors("page");
-                    RequestDispatcher dispatcher = request.getRequestDispatcher(resource, options);
-                    if (dispatcher != null) {
-                        RenderingRequestWrapper requestWrapper = new RenderingRequestWrapper(request, renderResolver);
-                        dispatcher.forward(requestWrapper, response);
-                    } else {
-                        LOG.error("can't forward request to '{}.page.html'", resource.getPath());
-                        response.sendError(SC_INTERNAL_SERVER_ERROR);
-                    }
-                } catch (LoginException ex) {
-                    LOG.error(ex.getMessage());
-                    response.sendError(SC_INTERNAL_SERVER_ERROR);
-                }
+                long changed = workflowService.getGraphChanged(context, resource.getPath());
+                graphCache.deliver(request, response, resource.getPath(), String.valueOf(context.getLocale()),
+                        changed, target -> {
+                            try (ResourceResolver renderResolver = resolverFactory.getServiceResourceResolver(
+                                    Collections.singletonMap(ResourceResolverFactory.SUBSERVICE, "rendering"))) {
+                                RequestDispatcherOptions options = new RequestDispatcherOptions();
+                                options.setReplaceSelectors("page");
+                                RequestDispatcher dispatcher = request.getRequestDispatcher(resource, options);
+                                if (dispatcher != null) {
+                                    RenderingRequestWrapper requestWrapper =
+                                            new RenderingRequestWrapper(request, renderResolver);
+                                    dispatcher.forward(requestWrapper, target);
+                                } else {
+                                    LOG.error("can't forward request to '{}.page.html'", resource.getPath());
+                                    target.sendError(SC_INTERNAL_SERVER_ERROR);
+                                }
+                            } catch (LoginException ex) {
+                                LOG.error(ex.getMessage());
+                                target.sendError(SC_INTERNAL_SERVER_ERROR);
+                            }
+                        });
             } else {
                 request.getRequestProgressTracker().log("graph: not found ''{0}'' ({1},{2})",
                         resource.getPath(), resource.isValid(), resource.getResourceType());
@@ -0,0 +1,375 @@
+package com.composum.platform.workflow.servlet;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.api.SlingHttpServletResponse;
+import org.apache.sling.api.wrappers.SlingHttpServletResponseWrapper;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * a cache of rendered workflow graphs; the renderings are stored by the id of the graph (the workflow id or the
+ * template path) and the variant of the rendering (the rendered task, the selectors, the locale...) together
+ * with the change stamp of the graph ({@link com.composum.platform.workflow.service.WorkflowService#getGraphChanged});
+ * all renderings of a graph are dropped with the first request after a transition of the workflow; the renderings
+ * are delivered with 'ETag' and 'Last-Modified' and conditional requests are answered with 'Not Modified'
+ */
+public class WorkflowGraphCache {
+
+    /** the maximum number of cached graphs (the least recently used graphs are dropped) */
+    public static final int MAX_GRAPHS = 500;
+
+    public static final String HEADER_ETAG = "ETag";
+    public static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+    public static final String HEADER_LAST_MODIFIED = "Last-Modified";
+    public static final String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+    public static final String HEADER_CACHE_CONTROL = "Cache-Control";
+
+    /**
+     * renders a graph into the given response
+     */
+    @FunctionalInterface
+    public interface Renderer {
+
+        void render(@Nonnull SlingHttpServletResponse response) throws ServletException, IOException;
+    }
+
+    /**
+     * one rendered graph
+     */
+    public static class Rendering {
+
+        protected final long changed;
+        protected final String etag;
+        protected final byte[] content;
+        protected final String contentType;
+
+        protected Rendering(final long changed, @Nonnull final String etag,
+                            @Nonnull final byte[] content, @Nullable final String contentType) {
+            this.changed = changed;
+            this.etag = etag;
+            this.content = content;
+            this.contentType = contentType;
+        }
+
+        public long getChanged() {
+            return changed;
+        }
+
+        @Nonnull
+        public String getETag() {
+            return etag;
+        }
+
+        /**
+         * @return 'true' if the client has this rendering already ('If-None-Match' if present, otherwise
+         * 'If-Modified-Since')
+         */
+        public boolean isNotModified(@Nonnull final HttpServletRequest request) {
+            String ifNoneMatch = request.getHeader(HEADER_IF_NONE_MATCH);
+            if (ifNoneMatch != null) {
+                for (String tag : StringUtils.split(ifNoneMatch, ',')) {
+                    tag = StringUtils.removeStart(tag.trim(), "W/");
+                    if (tag.equals(etag) || tag.equals("*")) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+            long ifModifiedSince;
+            try {
+                ifModifiedSince = request.getDateHeader(HEADER_IF_MODIFIED_SINCE);
+            } catch (IllegalArgumentException ex) {
+                return false;
+            }
+            return ifModifiedSince >= 0 && changed / 1000L <= ifModifiedSince / 1000L;
+        }
+
+        /**
+         * sends the rendering or 'Not Modified' if the client has the rendering already
+         */
+        public void deliver(@Nonnull final HttpServletRequest request, @Nonnull final HttpServletResponse response,
+                            @Nonnull final String cacheControl)
+                throws IOException {
+            response.setHeader(HEADER_ETAG, etag);
+            response.setDateHeader(HEADER_LAST_MODIFIED, changed);
+            response.setHeader(HEADER_CACHE_CONTROL, cacheControl);
+            if (isNotModified(request)) {
+                response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            } else {
+                response.setStatus(HttpServletResponse.SC_OK);
+                if (contentType != null) {
+                    response.setContentType(contentType);
+                }
+                response.setContentLength(content.length);
+                response.getOutputStream().write(content);
+            }
+        }
+    }
+
+    /**
+     * the renderings of one graph with the same change stamp
+     */
+    protected static class Graph {
+
+        protected final long changed;
+        protected final Map<String, Rendering> variants = new ConcurrentHashMap<>();
+
+        protected Graph(final long changed) {
+            this.changed = changed;
+        }
+    }
+
+    /**
+     * collects the rendered content of a forwarded request; errors and redirects are passed through
+     */
+    public static class CapturingResponse extends SlingHttpServletResponseWrapper {
+
+        protected final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        protected ServletOutputStream stream;
+        protected PrintWriter writer;
+        protected int status = SC_OK;
+
+        public CapturingResponse(@Nonnull final SlingHttpServletResponse response) {
+            super(response);
+        }
+
+        /**
+         * @return 'true' if the content is rendered successfully (neither an error nor a redirect is sent)
+         */
+        public boolean isRendered() {
+            return status == SC_OK;
+        }
+
+        @Nonnull
+        public byte[] getContent() {
+            if (writer != null) {
+                writer.flush();
+            }
+            return buffer.toByteArray();
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() {
+            if (writer != null) {
+                throw new IllegalStateException("writer already used");
+            }
+            if (stream == null) {
+                stream = new ServletOutputStream() {
+
+                    @Override
+                    public boolean isReady() {
+                        return true;
+                    }
+
+                    @Override
+                    public void setWriteListener(WriteListener listener) {
+                    }
+
+                    @Override
+                    public void write(int b) {
+                        buffer.write(b);
+                    }
+
+                    @Override
+                    public void write(@Nonnull byte[] bytes, int offset, int length) {
+                        buffer.write(bytes, offset, length);
+                    }
+                };
+            }
+            return stream;
+        }
+
+        @Override
+        public PrintWriter getWriter() {
+            if (stream != null) {
+                throw new IllegalStateException("output stream already used");
+            }
+            if (writer == null) {
+                setCharacterEncoding(StandardCharsets.UTF_8.name());
+                writer = new PrintWriter(new OutputStreamWriter(buffer, StandardCharsets.UTF_8));
+            }
+            return writer;
+        }
+
+        @Override
+        public void setContentLength(int length) {
+        }
+
+        @Override
+        public void setContentLengthLong(long length) {
+        }
+
+        @Override
+        public void flushBuffer() {
+            if (writer != null) {
+                writer.flush();
+            }
+        }
+
+        @Override
+        public void resetBuffer() {
+            if (writer != null) {
+                writer.flush();
+            }
+            buffer.reset();
+        }
+
+        @Override
+        public void reset() {
+            super.reset();
+            resetBuffer();
+            status = SC_OK;
+        }
+
+        @Override
+        public boolean isCommitted() {
+            return status != SC_OK && super.isCommitted();
+        }
+
+        @Override
+        public void setStatus(int status) {
+            this.status = status;
+            super.setStatus(status);
+        }
+
+        @Override
+        public void sendError(int status) throws IOException {
+            this.status = status;
+            super.sendError(status);
+        }
+
+        @Override
+        public void sendError(int status, String message) throws IOException {
+            this.status = status;
+            super.sendError(status, message);
+        }
+
+        @Override
+        public void sendRedirect(String location) throws IOException {
+            this.status = SC_FOUND;
+            super.sendRedirect(location);
+        }
+    }
+
+    protected final String cacheControl;
+
+    protected final Map<String, Graph> graphs = Collections.synchronizedMap(
+            new LinkedHashMap<String, Graph>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Graph> eldest) {
+                    return size() > MAX_GRAPHS;
+                }
+            });
+
+    /**
+     * @param cacheControl the 'Cache-Control' header of the delivered renderings
+     */
+    public WorkflowGraphCache(@Nonnull final String cacheControl) {
+        this.cacheControl = cacheControl;
+    }
+
+    @Nonnull
+    public String getCacheControl() {
+        return cacheControl;
+    }
+
+    /**
+     * delivers the cached rendering of a graph or renders the graph and caches the rendering; a graph without
+     * change stamp is rendered for each request and not cached
+     *
+     * @param graphId  the id of the graph (the workflow id or the template path)
+     * @param variant  the key of the rendering variant
+     * @param changed  the current change stamp of the graph; '0' if not known
+     * @param renderer renders the graph if no rendering is available
+     */
+    public void deliver(@Nonnull final SlingHttpServletRequest request,
+                        @Nonnull final SlingHttpServletResponse response,
+                        @Nonnull final String graphId, @Nonnull final String variant, final long changed,
+                        @Nonnull final Renderer renderer)
+            throws ServletException, IOException {
+        if (changed <= 0L) {
+            renderer.render(response);
+            return;
+        }
+        Rendering rendering = get(graphId, variant, changed);
+        if (rendering == null) {
+            CapturingResponse capture = new CapturingResponse(response);
+            renderer.render(capture);
+            if (!capture.isRendered()) {
+                return; // an error or a redirect is sent already
+            }
+            rendering = put(graphId, variant, changed, capture.getContent(), capture.getContentType());
+        }
+        rendering.deliver(request, response, cacheControl);
+    }
+
+    /**
+     * @param graphId the id of the graph (the workflow id or the template path)
+     * @param variant the key of the rendering variant
+     * @param changed the current change stamp of the graph
+     * @return the rendering if available for the change stamp; 'null' if the graph must be rendered
+     */
+    @Nullable
+    public Rendering get(@Nonnull final String graphId, @Nonnull final String variant, final long changed) {
+        Graph graph = graphs.get(graphId);
+        if (graph != null) {
+            if (graph.changed == changed) {
+                return graph.variants.get(variant);
+            }
+            graphs.remove(graphId, graph);
+        }
+        return null;
+    }
+
+    /**
+     * stores a rendering of a graph; all renderings of the graph with another change stamp are dropped
+     *
+     * @return the stored rendering
+     */
+    @Nonnull
+    public Rendering put(@Nonnull final String graphId, @Nonnull final String variant, final long changed,
+                         @Nonnull final byte[] content, @Nullable final String contentType) {
+        Rendering rendering = new Rendering(changed, getETag(graphId, variant, changed), content, contentType);
+        if (changed > 0L) {
+            graphs.compute(graphId, (key, graph) ->
+                    graph != null && graph.changed == changed ? graph : new Graph(changed))
+                    .variants.put(variant, rendering);
+        }
+        return rendering;
+    }
+
+    public void invalidate(@Nonnull final String graphId) {
+        graphs.remove(graphId);
+    }
+
+    public void clear() {
+        graphs.clear();
+    }
+
+    public int size() {
+        return graphs.size();
+    }
+
+    @Nonnull
+    protected static String getETag(@Nonnull final String graphId, @Nonnull final String variant,
+                                    final long changed) {
+        return "\"" + Long.toHexString(changed) + "-" + Integer.toHexString(graphId.hashCode())
+                + Integer.toHexString(variant.hashCode()) + "\"";
+    }
+}
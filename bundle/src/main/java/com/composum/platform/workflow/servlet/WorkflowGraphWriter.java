@@ -0,0 +1,198 @@
+package com.composum.platform.workflow.servlet;
+
+import com.composum.platform.workflow.model.Workflow;
+import com.composum.platform.workflow.model.WorkflowTask;
+import com.composum.platform.workflow.model.WorkflowTaskInstance;
+import com.composum.platform.workflow.model.WorkflowTaskTemplate;
+import com.google.gson.stream.JsonWriter;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.jackrabbit.util.ISO8601;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Calendar;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * streams the graph of a workflow model as JSON; each task and each transition is written directly from the
+ * model (no intermediate JSON tree):
+ * <pre>
+ * {"id":..,"path":..,"title":..,"template":false,"open":true,"created":..,"finished":..,
+ *  "tasks":[{"key":..,"path":..,"type":"instance","title":..,"template":..,"state":..,"start":true,"end":false,
+ *            "loop":false,...},...],
+ *  "transitions":[{"from":..,"to":..,"option":..,"title":..,"loop":false,"default":true,"chosen":true},...]}
+ * </pre>
+ * a condensed graph (like the rendered graph with the 'condense' selector) contains only the chosen transitions
+ * of the finished tasks and the tasks reachable from the first task by the remaining transitions
+ */
+public class WorkflowGraphWriter {
+
+    protected final Workflow workflow;
+    protected final boolean condense;
+
+    /** the keys of the tasks of a condensed graph; 'null' if not condensed */
+    protected final Set<String> reachable;
+
+    public WorkflowGraphWriter(@Nonnull final Workflow workflow, final boolean condense) {
+        this.workflow = workflow;
+        this.condense = condense;
+        this.reachable = condense ? findReachable() : null;
+    }
+
+    public void write(@Nonnull final JsonWriter writer) throws IOException {
+        writer.beginObject();
+        writer.name("id").value(workflow.getName());
+        writer.name("path").value(workflow.getPath());
+        writer.name("title").value(workflow.getTitle());
+        writer.name("template").value(workflow.isTemplate());
+        if (!workflow.isTemplate()) {
+            writer.name("open").value(workflow.isOpen());
+            writeDate(writer, "created", workflow.getCreationDate());
+            writeDate(writer, "finished", workflow.getFinishedDate());
+        }
+        writer.name("condensed").value(condense);
+        writer.name("tasks").beginArray();
+        for (Map.Entry<String, WorkflowTask> entry : workflow.getTasks().entrySet()) {
+            if (reachable == null || reachable.contains(entry.getKey())) {
+                writeTask(writer, entry.getKey(), entry.getValue());
+            }
+        }
+        writer.endArray();
+        writer.name("transitions").beginArray();
+        for (Workflow.Transition transition : workflow.getTransitions()) {
+            if (isIncluded(transition)) {
+                writeTransition(writer, transition);
+            }
+        }
+        writer.endArray();
+        writer.endObject();
+    }
+
+    protected void writeTask(@Nonnull final JsonWriter writer, @Nonnull final String key,
+                             @Nonnull final WorkflowTask task) throws IOException {
+        boolean loop = task instanceof WorkflowTaskTemplate && ((WorkflowTaskTemplate) task).isWorkflowLoop();
+        writer.beginObject();
+        writer.name("key").value(key);
+        writer.name("path").value(task.getPath());
+        writer.name("title").value(task.getTitle());
+        writer.name("start").value(task.equals(workflow.getFirstTask()) && !loop);
+        writer.name("end").value(!loop && workflow.getTransitions(task).isEmpty());
+        writer.name("loop").value(loop);
+        writer.name("autoRun").value(task.isAutoRun());
+        String topic = task.getTopic();
+        if (StringUtils.isNotBlank(topic)) {
+            writer.name("topic").value(topic);
+        }
+        if (task instanceof WorkflowTaskInstance) {
+            WorkflowTaskInstance instance = (WorkflowTaskInstance) task;
+            writer.name("type").value("instance");
+            writer.name("template").value(instance.getTemplate().getPath());
+            writer.name("state").value(instance.getState().name());
+            writer.name("cancelled").value(instance.isCancelled());
+            writer.name("assignee").value(instance.getAssignee());
+            writer.name("userId").value(instance.getUserId());
+            writeDate(writer, "created", instance.getCreated());
+            writeDate(writer, "finished", instance.getFinished());
+            String chosenOption = instance.getChosenOption();
+            if (StringUtils.isNotBlank(chosenOption)) {
+                writer.name("chosenOption").value(chosenOption);
+            }
+        } else {
+            writer.name("type").value("template");
+            writer.name("template").value(task.getPath());
+        }
+        writer.endObject();
+    }
+
+    protected void writeTransition(@Nonnull final JsonWriter writer, @Nonnull final Workflow.Transition transition)
+            throws IOException {
+        WorkflowTask.Option option = transition.option;
+        writer.beginObject();
+        writer.name("from").value(getKey(transition.from));
+        writer.name("to").value(getToKey(transition));
+        writer.name("option").value(option != null ? option.getName() : null);
+        if (option != null) {
+            writer.name("title").value(option.getTitle());
+            writer.name("loop").value(option.isLoop());
+            writer.name("default").value(option.isDefault());
+        }
+        writer.name("chosen").value(transition.to instanceof WorkflowTaskInstance);
+        writer.endObject();
+    }
+
+    protected void writeDate(@Nonnull final JsonWriter writer, @Nonnull final String name,
+                             @Nullable final Calendar date) throws IOException {
+        if (date != null) {
+            writer.name(name).value(ISO8601.format(date));
+        }
+    }
+
+    /**
+     * @return the key of a task in the tasks of the workflow (the name of an instance, the path of a template)
+     */
+    @Nonnull
+    protected String getKey(@Nonnull final WorkflowTask task) {
+        return task instanceof WorkflowTaskInstance ? task.getName() : task.getPath();
+    }
+
+    /**
+     * @return the key of the target task in the tasks of the workflow (the key of a loop node for a loop)
+     */
+    @Nullable
+    protected String getToKey(@Nonnull final Workflow.Transition transition) {
+        return transition.to instanceof WorkflowTaskInstance ? getKey(transition.to) : transition.getToKey();
+    }
+
+    /**
+     * @return 'true' if the transition is part of the graph (the chosen transition of a condensed finished task)
+     */
+    protected boolean isIncluded(@Nonnull final Workflow.Transition transition) {
+        return reachable == null || (reachable.contains(getKey(transition.from)) && isChosenOrOpen(transition));
+    }
+
+    /**
+     * @return the keys of the tasks reachable from the first task by the included transitions (walked with an
+     * explicit stack; the transitions of a loop node are not followed)
+     */
+    @Nonnull
+    protected Set<String> findReachable() {
+        Set<String> keys = new HashSet<>();
+        WorkflowTask first = workflow.getFirstTask();
+        if (first != null) {
+            Deque<WorkflowTask> pending = new ArrayDeque<>();
+            keys.add(getKey(first));
+            pending.push(first);
+            WorkflowTask task;
+            while ((task = pending.poll()) != null) {
+                for (Workflow.Transition transition : workflow.getTransitions(task)) {
+                    String toKey = getToKey(transition);
+                    if (toKey != null && isChosenOrOpen(transition) && keys.add(toKey)
+                            && transition.to != null && toKey.equals(getKey(transition.to))) {
+                        pending.push(transition.to);
+                    }
+                }
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * @return 'true' if the transition starts at an open task or is the chosen transition of a finished task
+     * (each transition if no option is chosen - the same rule as for the options of a condensed rendering)
+     */
+    protected boolean isChosenOrOpen(@Nonnull final Workflow.Transition transition) {
+        if (transition.from instanceof WorkflowTaskInstance) {
+            WorkflowTaskInstance instance = (WorkflowTaskInstance) transition.from;
+            if (instance.getState() == WorkflowTaskInstance.State.finished) {
+                WorkflowTask.Option chosen = instance.getTemplate().getOption(instance.getChosenOption());
+                return chosen == null || chosen.equals(transition.option);
+            }
+        }
+        return true;
+    }
+}
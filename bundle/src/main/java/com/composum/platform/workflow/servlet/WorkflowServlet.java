@@ -1,5 +1,6 @@
 package com.composum.platform.workflow.servlet;
 
+import com.composum.platform.workflow.model.Workflow;
 import com.composum.platform.workflow.model.WorkflowTaskInstance;
 import com.composum.platform.workflow.model.WorkflowTaskTemplate;
 import com.composum.platform.workflow.service.WorkflowService;
@@ -83,10 +84,14 @@ public class WorkflowServlet extends AbstractServiceServlet {
 
     protected BundleContext bundleContext;
 
+    /** the rendered workflow graphs of the task dialogs (rendered for each user) */
+    protected final WorkflowGraphCache graphCache = new WorkflowGraphCache("private, no-cache");
+
     @Activate
     @Modified
     protected void activate(ComponentContext context) {
         this.bundleContext = context.getBundleContext();
+        graphCache.clear();
     }
 
     //
@@ -98,7 +103,7 @@ public class WorkflowServlet extends AbstractServiceServlet {
     }
 
     public enum Operation {
-        dialog, startDialog, taskList, addTask, runTask, cancelTask
+        dialog, graph, workflowGraph, startDialog, taskList, taskTable, taskCounts, addTask, runTask, cancelTask
     }
 
     protected TenantsOperationSet operations = new TenantsOperationSet();
@@ -122,10 +127,18 @@ public class WorkflowServlet extends AbstractServiceServlet {
         // GET
         operations.setOperation(ServletOperationSet.Method.GET, Extension.json,
                 Operation.dialog, new GetDialogOperation());
+        operations.setOperation(ServletOperationSet.Method.GET, Extension.json,
+                Operation.graph, new GetGraphOperation());
+        operations.setOperation(ServletOperationSet.Method.GET, Extension.json,
+                Operation.workflowGraph, new GetWorkflowGraphOperation());
         operations.setOperation(ServletOperationSet.Method.GET, Extension.json,
                 Operation.startDialog, new GetStartDialogOperation());
         operations.setOperation(ServletOperationSet.Method.GET, Extension.json,
                 Operation.taskList, new GetTaskListOperation());
+        operations.setOperation(ServletOperationSet.Method.GET, Extension.json,
+                Operation.taskTable, new GetTaskListOperation("composum/platform/workflow/components/inbox/table"));
+        operations.setOperation(ServletOperationSet.Method.GET, Extension.json,
+                Operation.taskCounts, new GetTaskCountsOperation());
 
         // POST
         operations.setOperation(ServletOperationSet.Method.POST, Extension.json,
@@ -172,6 +185,72 @@ public class WorkflowServlet extends AbstractServiceServlet {
         }
     }
 
+    /**
+     * renders the workflow graph dialog of a task instance ('condense' selector: without the options of the
+     * finished tasks); the rendered dialog is cached by the workflow id until the next transition of the workflow
+     */
+    public class GetGraphOperation implements ServletOperation {
+
+        @Override
+        public void doIt(@Nonnull final SlingHttpServletRequest request,
+                         @Nonnull final SlingHttpServletResponse response,
+                         @Nonnull final ResourceHandle resource)
+                throws ServletException, IOException {
+            if (resource.isValid() && resource.isResourceType(WorkflowTaskInstance.INSTANCE_TYPE)) {
+                BeanContext context = new BeanContext.Servlet(getServletContext(), bundleContext, request, response);
+                boolean condense = Arrays.asList(request.getRequestPathInfo().getSelectors())
+                        .contains(Workflow.SELECTOR_CONDENSE);
+                String workflowId = resource.getValueMap().get(WorkflowTaskInstance.PN_WORKFLOW_ID, resource.getName());
+                String variant = resource.getName() + (condense ? "." + Workflow.SELECTOR_CONDENSE : "")
+                        + ";" + context.getLocale() + ";" + request.getResourceResolver().getUserID();
+                long changed = workflowService.getGraphChanged(context, resource.getPath());
+                graphCache.deliver(request, response, workflowId, variant, changed, target -> {
+                    RequestDispatcherOptions options = new RequestDispatcherOptions();
+                    options.setReplaceSelectors(condense ? "dialog." + Workflow.SELECTOR_CONDENSE : "dialog");
+                    RequestDispatcher dispatcher = request.getRequestDispatcher(resource, options);
+                    if (dispatcher != null) {
+                        dispatcher.forward(request, target);
+                    } else {
+                        sendError(LOG::error, target, SC_INTERNAL_SERVER_ERROR,
+                                i18n(request, "can't forward request") + " '" + resource.getPath() + "'");
+                    }
+                });
+            } else {
+                sendError(LOG::info, response, HttpServletResponse.SC_BAD_REQUEST,
+                        i18n(request, "no task found at") + " '" + resource.getPath() + "'");
+            }
+        }
+    }
+
+    /**
+     * delivers the graph of the workflow of a task instance or of a template as JSON (tasks, transitions, states
+     * and loop markers; see {@link WorkflowGraphWriter}); the 'condense' selector reduces the finished tasks
+     * to their chosen transitions like the rendered graph
+     */
+    public class GetWorkflowGraphOperation implements ServletOperation {
+
+        @Override
+        public void doIt(@Nonnull final SlingHttpServletRequest request,
+                         @Nonnull final SlingHttpServletResponse response,
+                         @Nonnull final ResourceHandle resource)
+                throws IOException {
+            BeanContext context = new BeanContext.Servlet(getServletContext(), bundleContext, request, response);
+            Workflow workflow = resource.isValid() ? workflowService.getWorkflow(context, resource) : null;
+            if (workflow != null) {
+                boolean condense = Arrays.asList(request.getRequestPathInfo().getSelectors())
+                        .contains(Workflow.SELECTOR_CONDENSE);
+                response.setStatus(SC_OK);
+                response.setContentType("application/json; charset=UTF-8");
+                JsonWriter writer = new JsonWriter(response.getWriter());
+                new WorkflowGraphWriter(workflow, condense).write(writer);
+                writer.flush();
+            } else {
+                sendError(LOG::info, response, HttpServletResponse.SC_NOT_FOUND,
+                        i18n(request, "no workflow found at") + " '" + resource.getPath() + "'");
+            }
+        }
+    }
+
     public class GetStartDialogOperation implements ServletOperation {
 
         @Override
@@ -191,15 +270,33 @@ public class WorkflowServlet extends AbstractServiceServlet {
         }
     }
 
+    /**
+     * renders one page of the task list of the inbox (the list of the pages inbox or the rows of the console
+     * table); the page is selected by the parameters of the inbox model
+     * ('page': the continuation token rendered as 'data-next' of the list, 'limit', 'order': 'asc' or 'desc')
+     */
     public class GetTaskListOperation implements ServletOperation {
 
+        protected final String resourceType;
+
+        public GetTaskListOperation() {
+            this("composum/platform/workflow/components/inbox/list");
+        }
+
+        /**
+         * @param resourceType the component to render the page (the list of the pages inbox or the console table)
+         */
+        public GetTaskListOperation(@Nonnull final String resourceType) {
+            this.resourceType = resourceType;
+        }
+
         @Override
         public void doIt(@Nonnull final SlingHttpServletRequest request,
                          @Nonnull final SlingHttpServletResponse response,
                          @Nonnull final ResourceHandle resource)
                 throws ServletException, IOException {
             RequestDispatcherOptions options = new RequestDispatcherOptions();
-            options.setForceResourceType("composum/platform/workflow/components/inbox/list");
+            options.setForceResourceType(resourceType);
             RequestDispatcher dispatcher = request.getRequestDispatcher(resource, options);
             if (dispatcher != null) {
                 dispatcher.forward(request, response);
@@ -210,6 +307,40 @@ public class WorkflowServlet extends AbstractServiceServlet {
         }
     }
 
+    /**
+     * delivers the number of tasks of the current user for each state: {"pending":n,"running":n,"finished":n};
+     * the tenant is selected by the 'tenant.id' parameter ('*' or none: all tenants)
+     */
+    public class GetTaskCountsOperation implements ServletOperation {
+
+        @Override
+        public void doIt(@Nonnull final SlingHttpServletRequest request,
+                         @Nonnull final SlingHttpServletResponse response,
+                         @Nonnull final ResourceHandle resource)
+                throws IOException {
+            BeanContext context = new BeanContext.Servlet(getServletContext(), bundleContext, request, response);
+            String tenantId = XSS.filter(request.getParameter(PARAM_TENANT_ID));
+            if (StringUtils.isNotBlank(tenantId) && !"*".equals(tenantId)) {
+                tenantId = workflowService.getTenantId(context, tenantId);
+                if (StringUtils.isBlank(tenantId)) {
+                    sendError(LOG::info, response, SC_BAD_REQUEST, i18n(request, "unknown tenant"));
+                    return;
+                }
+            } else {
+                tenantId = null;
+            }
+            Map<WorkflowTaskInstance.State, Long> counts = workflowService.countTasks(context, tenantId);
+            response.setStatus(SC_OK);
+            response.setContentType("application/json; charset=UTF-8");
+            JsonWriter writer = new JsonWriter(response.getWriter());
+            writer.beginObject();
+            for (Map.Entry<WorkflowTaskInstance.State, Long> count : counts.entrySet()) {
+                writer.name(count.getKey().name()).value(count.getValue());
+            }
+            writer.endObject();
+        }
+    }
+
     // task execution
 
     /**
@@ -260,7 +391,13 @@ public class WorkflowServlet extends AbstractServiceServlet {
                 String optionKey = XSS.filter(request.getParameter(PARAM_OPTION));
                 WorkflowTaskInstance taskInstance = workflowService.runTask(context, getRequestData(request),
                         resource.getPath(), optionKey, getTaskData(request));
-                if (taskInstance != null) {
+                if (taskInstance != null && taskInstance.isCompletionPending()) {
+                    // the task is finished by the service when the asynchronous actions are completed
+                    WorkflowTaskTemplate.Option option = taskInstance.getTemplate().getOption(optionKey);
+                    jsonStatus(request, response, true, WorkflowTaskInstance.State.running,
+                            option != null ? option.getTitle() : i18n(request, "Running"),
+                            i18n(request, "task is running, the completion is pending"), null);
+                } else if (taskInstance != null) {
                     WorkflowTaskTemplate.Option option = taskInstance.getTemplate().getOption(optionKey);
                     jsonStatus(request, response, true,
                             option != null ? option.getTitle() : i18n(request, "Success"),
@@ -395,6 +532,18 @@ public class WorkflowServlet extends AbstractServiceServlet {
                               final boolean success, @Nullable final String title, @Nullable final String text,
                               @Nullable final Collection<Message> messages)
             throws IOException {
+        jsonStatus(request, response, success, null, title, text, messages);
+    }
+
+    /**
+     * @param state the state of the task after the request (e.g. 'running' if the completion is pending)
+     */
+    protected void jsonStatus(@Nonnull final SlingHttpServletRequest request,
+                              @Nonnull final SlingHttpServletResponse response,
+                              final boolean success, @Nullable final WorkflowTaskInstance.State state,
+                              @Nullable final String title, @Nullable final String text,
+                              @Nullable final Collection<Message> messages)
+            throws IOException {
         if (success) {
             if (LOG.isDebugEnabled()) {
                 LOG.debug("{}:{} successful: '{}'", request.getMethod(), request.getRequestURI(), text);
@@ -407,6 +556,9 @@ public class WorkflowServlet extends AbstractServiceServlet {
         JsonWriter writer = new JsonWriter(response.getWriter());
         writer.beginObject();
         writer.name("success").value(success);
+        if (state != null) {
+            writer.name("state").value(state.name());
+        }
         if (StringUtils.isNotBlank(text)) {
             writer.name("response").beginObject();
             writer.name("level").value(success ? "info" : "error");
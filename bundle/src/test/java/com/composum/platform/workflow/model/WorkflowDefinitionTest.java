@@ -0,0 +1,71 @@
+package com.composum.platform.workflow.model;
+
+import com.composum.sling.platform.testing.testutil.ErrorCollectorAlwaysPrintingFailures;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.testing.mock.sling.ResourceResolverType;
+import org.apache.sling.testing.mock.sling.junit.SlingContext;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.Objects;
+
+import static com.composum.platform.workflow.model.WorkflowTask.PN_TEMPLATE;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+
+public class WorkflowDefinitionTest {
+
+    protected static final String ROOT = "/conf/test/workflow";
+
+    @Rule
+    public final ErrorCollectorAlwaysPrintingFailures ec = new ErrorCollectorAlwaysPrintingFailures();
+
+    @Rule
+    public final SlingContext context = new SlingContext(ResourceResolverType.RESOURCERESOLVER_MOCK);
+
+    /**
+     * start -(review)-> review -(accept)-> end
+     * .                        -(reject)-> start (loop)
+     * .     -(cancel)-> (end of workflow)
+     */
+    @Before
+    public void setup() {
+        context.build().resource(ROOT + "/start")
+                .resource(ROOT + "/start/options/review", PN_TEMPLATE, ROOT + "/review")
+                .resource(ROOT + "/start/options/cancel")
+                .resource(ROOT + "/review")
+                .resource(ROOT + "/review/options/accept", PN_TEMPLATE, ROOT + "/end")
+                .resource(ROOT + "/review/options/reject", PN_TEMPLATE, ROOT + "/start")
+                .resource(ROOT + "/end")
+                .commit();
+    }
+
+    @Test
+    public void compile() {
+        ResourceResolver resolver = context.resourceResolver();
+        WorkflowDefinition definition = WorkflowDefinition.compile(
+                Objects.requireNonNull(resolver.getResource(ROOT + "/start")), resolver::getResource);
+        ec.checkThat(definition.getTaskCount(), is(4));
+        ec.checkThat(definition.getTransitionCount(), is(4));
+        ec.checkThat(definition.getTaskPath(WorkflowDefinition.START), is(ROOT + "/start"));
+        int[] transitions = definition.getTransitions(WorkflowDefinition.START);
+        ec.checkThat(transitions.length, is(2));
+        ec.checkThat(definition.getOptionKey(transitions[0]), is("review"));
+        ec.checkThat(definition.getTarget(transitions[1]), is(WorkflowDefinition.END));
+        int review = definition.getTarget(transitions[0]);
+        ec.checkThat(definition.getTaskPath(review), is(ROOT + "/review"));
+        transitions = definition.getTransitions(review);
+        int end = definition.getTarget(transitions[0]);
+        ec.checkThat(definition.isLoop(end), is(false));
+        ec.checkThat(definition.getTransitions(end).length, is(0));
+        int loop = definition.getTarget(transitions[1]);
+        ec.checkThat(definition.getTaskPath(loop), is(ROOT + "/start"));
+        ec.checkThat(definition.isLoop(loop), is(true));
+        ec.checkThat(definition.getTransitions(loop).length, is(0));
+        ec.checkThat(definition.getDependencies(), contains(ROOT + "/start", ROOT + "/review", ROOT + "/end"));
+        ec.checkThat(definition.dependsOn(ROOT + "/review/options/accept"), is(true));
+        ec.checkThat(definition.dependsOn(ROOT), is(true));
+        ec.checkThat(definition.dependsOn("/conf/other"), is(false));
+    }
+}
@@ -0,0 +1,351 @@
+package com.composum.platform.workflow.model;
+
+import com.composum.platform.models.simple.LoadedResource;
+import com.composum.platform.workflow.service.WorkflowService;
+import com.composum.platform.workflow.servlet.WorkflowGraphWriter;
+import com.composum.sling.core.BeanContext;
+import com.composum.sling.core.util.ResourceUtil;
+import com.composum.sling.platform.testing.testutil.ErrorCollectorAlwaysPrintingFailures;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonWriter;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.testing.mock.sling.ResourceResolverType;
+import org.apache.sling.testing.mock.sling.junit.SlingContext;
+import org.apache.sling.testing.mock.sling.builder.ContentBuilder;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import static com.composum.platform.workflow.model.WorkflowTask.PN_TEMPLATE;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.sameInstance;
+
+/**
+ * the graph lookups of the rendering on a workflow with hundreds of loops and the JSON of the graph writer
+ */
+public class WorkflowGraphTest {
+
+    private static final Logger LOG = LoggerFactory.getLogger(WorkflowGraphTest.class);
+
+    protected static final String ROOT = "/conf/test/workflow";
+
+    /** the number of steps; each step has an option back to the first step (a loop) */
+    protected static final int STEPS = 500;
+
+    /** the templates of a small workflow with a loop */
+    protected static final String LOOP = "/conf/test/loop";
+
+    @Rule
+    public final ErrorCollectorAlwaysPrintingFailures ec = new ErrorCollectorAlwaysPrintingFailures();
+
+    @Rule
+    public final SlingContext context = new SlingContext(ResourceResolverType.RESOURCERESOLVER_MOCK);
+
+    protected BeanContext beanContext;
+
+    protected class TestTemplate extends WorkflowTaskTemplate {
+
+        protected boolean isLoop = false;
+
+        @Override
+        @Nonnull
+        public Option createOption(Resource resource) {
+            return new Option(resource) {
+
+                private TestTemplate template;
+
+                @Override
+                public WorkflowTaskTemplate getTemplate() {
+                    if (template == null) {
+                        template = loadTemplate(templatePath);
+                        template.isLoop = isLoop;
+                    }
+                    return template;
+                }
+
+                @Override
+                public void setIsLoop(boolean isLoop) {
+                    this.isLoop = isLoop;
+                    getTemplate();
+                    template.isLoop = isLoop;
+                }
+            };
+        }
+
+        @Override
+        public boolean isWorkflowLoop() {
+            return isLoop;
+        }
+    }
+
+    protected class TestWorkflow extends Workflow {
+
+        protected final LinkedHashMap<String, WorkflowTask> tasks = new LinkedHashMap<>();
+        protected WorkflowDefinition definition;
+
+        @Override
+        @Nonnull
+        public LinkedHashMap<String, WorkflowTask> getTasks() {
+            return tasks;
+        }
+
+        @Override
+        protected void addInstance(@Nonnull WorkflowTaskInstance task) {
+            tasks.put(task.getName(), task);
+        }
+
+        @Override
+        protected void addTemplate(@Nonnull WorkflowTaskTemplate template, @Nonnull String key) {
+            tasks.put(key, template);
+        }
+
+        @Override
+        public boolean isRestricted() {
+            return false;
+        }
+
+        @Override
+        protected WorkflowService getService() {
+            return null;
+        }
+
+        /**
+         * the workflow resource of a graph built in the test (the template of the first task)
+         */
+        protected void load(@Nonnull final WorkflowTask first) {
+            context = beanContext;
+            resource = new LoadedResource(first instanceof WorkflowTaskInstance
+                    ? ((WorkflowTaskInstance) first).getTemplate().getResource() : first.getResource());
+        }
+
+        @Override
+        protected WorkflowDefinition getDefinition(@Nonnull BeanContext context, @Nonnull String templatePath) {
+            if (definition == null) {
+                ResourceResolver resolver = context.getResolver();
+                definition = WorkflowDefinition.compile(
+                        Objects.requireNonNull(resolver.getResource(templatePath)), resolver::getResource);
+            }
+            return definition;
+        }
+    }
+
+    /**
+     * a task instance linked in memory with its predecessor and successor
+     */
+    protected class TestInstance extends WorkflowTaskInstance {
+
+        protected TestInstance(@Nonnull final String templatePath, @Nonnull final State state,
+                               @Nonnull final String path, Object... properties) {
+            super(loadTemplate(templatePath), state);
+            initialize(beanContext, WorkflowGraphTest.this.context.create().resource(path, properties));
+        }
+
+        @Override
+        protected WorkflowTaskInstance getTask(String propertyName) {
+            return null;
+        }
+
+        @Override
+        public boolean isCancellingAllowed() {
+            return false;
+        }
+
+        @Override
+        public boolean isGraphAvailable() {
+            return true;
+        }
+    }
+
+    @Nonnull
+    protected TestTemplate loadTemplate(@Nonnull final String path) {
+        TestTemplate template = new TestTemplate();
+        template.initialize(beanContext, Objects.requireNonNull(context.resourceResolver().getResource(path)));
+        return template;
+    }
+
+    /**
+     * step-0 -(next)-> step-1 -(next)-> ... step-n
+     * .      -(back)-> step-0 (loop) ...   -(back)-> step-0 (loop)
+     */
+    @Before
+    public void setup() {
+        ContentBuilder builder = context.create();
+        for (int i = 0; i < STEPS; i++) {
+            builder.resource(ROOT + "/step-" + i, ResourceUtil.PROP_RESOURCE_TYPE, WorkflowTaskTemplate.TEMPLATE_TYPE);
+            if (i < STEPS - 1) {
+                builder.resource(ROOT + "/step-" + i + "/options/next", PN_TEMPLATE, ROOT + "/step-" + (i + 1));
+            }
+            builder.resource(ROOT + "/step-" + i + "/options/back", PN_TEMPLATE, ROOT + "/step-0");
+        }
+        beanContext = new BeanContext.Service(context.resourceResolver());
+    }
+
+    @Test
+    public void lookupsOfTheRendering() {
+        long start = System.nanoTime();
+        TestWorkflow workflow = new TestWorkflow();
+        TestTemplate first = loadTemplate(ROOT + "/step-0");
+        workflow.firstTask = first;
+        workflow.buildWorkflowFromTemplates(beanContext, first, null);
+        long built = System.nanoTime();
+        ec.checkThat(workflow.getTasks().size(), is(2 * STEPS));
+        ec.checkThat(workflow.getTransitions().size(), is(2 * STEPS - 1));
+        // the lookups of the graph JSPs for each node of the graph
+        int lookups = 0;
+        for (Map.Entry<String, WorkflowTask> entry : workflow.getTasks().entrySet()) {
+            WorkflowTask task = entry.getValue();
+            if (!(task instanceof WorkflowTaskTemplate) || !((WorkflowTaskTemplate) task).isWorkflowLoop()) {
+                ec.checkThat(entry.getKey(), workflow.getTask(task.getResource()), sameInstance(task));
+                List<Workflow.Transition> transitions = workflow.getTransitions(task);
+                for (WorkflowTask.Option option : task.getOptions()) {
+                    Workflow.Transition transition = workflow.getTransition(task.getResource(), option);
+                    ec.checkThat(task.getPath() + "/" + option.getName(), transition, notNullValue());
+                    ec.checkThat(transitions.contains(transition), is(true));
+                    lookups++;
+                }
+            }
+        }
+        long rendered = System.nanoTime();
+        ec.checkThat(lookups, is(2 * STEPS - 1));
+        ec.checkThat(workflow.getTransition(ROOT + "/step-1", "back").option.isLoop(), is(true));
+        ec.checkThat(workflow.getTransition(ROOT + "/step-1", "next").option.isLoop(), is(false));
+        LOG.info("{} steps, {} tasks: graph built in {}ms, {} lookups in {}ms", STEPS, workflow.getTasks().size(),
+                (built - start) / 1000000L, lookups, (rendered - built) / 1000000L);
+    }
+
+    /**
+     * edit -(submit)-> review -(approve)-> publish
+     * .                       -(reject)-> edit (loop)
+     */
+    protected void createLoopTemplates() {
+        ContentBuilder builder = context.create();
+        for (String step : new String[]{"edit", "review", "publish"}) {
+            builder.resource(LOOP + "/" + step, ResourceUtil.PROP_RESOURCE_TYPE, WorkflowTaskTemplate.TEMPLATE_TYPE,
+                    WorkflowTask.PN_TITLE, step);
+        }
+        builder.resource(LOOP + "/edit/options/submit", PN_TEMPLATE, LOOP + "/review");
+        builder.resource(LOOP + "/review/options/approve", PN_TEMPLATE, LOOP + "/publish");
+        builder.resource(LOOP + "/review/options/reject", PN_TEMPLATE, LOOP + "/edit");
+    }
+
+    @Nonnull
+    protected JsonObject writeGraph(@Nonnull final Workflow workflow, boolean condense) throws IOException {
+        StringWriter json = new StringWriter();
+        new WorkflowGraphWriter(workflow, condense).write(new JsonWriter(json));
+        return new JsonParser().parse(json.toString()).getAsJsonObject();
+    }
+
+    /**
+     * @return the keys of the tasks of a written graph (relative to the loop templates)
+     */
+    @Nonnull
+    protected List<String> tasks(@Nonnull final JsonObject graph, @Nonnull final String flag) {
+        List<String> keys = new ArrayList<>();
+        for (JsonElement task : graph.getAsJsonArray("tasks")) {
+            JsonObject values = task.getAsJsonObject();
+            if (flag.isEmpty() || values.get(flag).getAsBoolean()) {
+                keys.add(StringUtils.removeStart(values.get("key").getAsString(), LOOP + "/"));
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * @return the transitions of a written graph ('from -option-> to', '-option=>' for a loop)
+     */
+    @Nonnull
+    protected List<String> transitions(@Nonnull final JsonObject graph) {
+        List<String> transitions = new ArrayList<>();
+        for (JsonElement transition : graph.getAsJsonArray("transitions")) {
+            JsonObject values = transition.getAsJsonObject();
+            transitions.add(StringUtils.removeStart(values.get("from").getAsString(), LOOP + "/")
+                    + " -" + values.get("option").getAsString() + (values.get("loop").getAsBoolean() ? "=> " : "-> ")
+                    + StringUtils.removeStart(values.get("to").getAsString(), LOOP + "/"));
+        }
+        return transitions;
+    }
+
+    /**
+     * each transition of a written graph connects two tasks of the graph
+     */
+    protected void checkConnected(@Nonnull final JsonObject graph) {
+        List<String> keys = tasks(graph, "");
+        for (String transition : transitions(graph)) {
+            ec.checkThat(transition, keys.contains(StringUtils.substringBefore(transition, " -")), is(true));
+            ec.checkThat(transition, keys.contains(StringUtils.substringAfter(transition, "> ")), is(true));
+        }
+    }
+
+    @Test
+    public void writtenGraph() throws Exception {
+        createLoopTemplates();
+        TestWorkflow template = new TestWorkflow();
+        TestTemplate edit = loadTemplate(LOOP + "/edit");
+        template.firstTask = edit;
+        template.buildWorkflowFromTemplates(beanContext, edit, null);
+        template.load(edit);
+        for (boolean condense : new boolean[]{false, true}) {
+            // each template is open, the condensed graph of a template is the full graph
+            JsonObject graph = writeGraph(template, condense);
+            ec.checkThat(graph.get("template").getAsBoolean(), is(true));
+            ec.checkThat(tasks(graph, ""), contains("edit", "review", "publish", "edit#0"));
+            ec.checkThat(tasks(graph, "start"), contains("edit"));
+            ec.checkThat(tasks(graph, "end"), contains("publish"));
+            ec.checkThat(tasks(graph, "loop"), contains("edit#0"));
+            ec.checkThat(transitions(graph), contains(
+                    "edit -submit-> review", "review -approve-> publish", "review -reject=> edit#0"));
+            checkConnected(graph);
+        }
+        // a workflow rejected once: edit -(submit)-> review -(reject)-> edit (open)
+        Calendar date = Calendar.getInstance();
+        TestInstance first = new TestInstance(LOOP + "/edit", WorkflowTaskInstance.State.finished, "/var/test/wft-1",
+                WorkflowTaskInstance.PN_CHOSEN_OPTION, "submit", WorkflowTaskInstance.PN_FINISHED, date);
+        TestInstance review = new TestInstance(LOOP + "/review", WorkflowTaskInstance.State.finished,
+                "/var/test/wft-2", WorkflowTaskInstance.PN_CHOSEN_OPTION, "reject",
+                WorkflowTaskInstance.PN_FINISHED, date);
+        TestInstance open = new TestInstance(LOOP + "/edit", WorkflowTaskInstance.State.pending, "/var/test/wft-3");
+        first.linkTasks(null, review);
+        review.linkTasks(first, open);
+        TestWorkflow workflow = new TestWorkflow();
+        workflow.workflowTemplate = false;
+        workflow.firstTask = first;
+        workflow.buildWorkflowFromInstances(beanContext, first);
+        workflow.load(first);
+        JsonObject graph = writeGraph(workflow, false);
+        ec.checkThat(graph.get("open").getAsBoolean(), is(true));
+        ec.checkThat(tasks(graph, ""), contains("wft-1", "wft-2", "wft-3",
+                "review", "publish", "edit", "review#0", "publish#0"));
+        ec.checkThat(tasks(graph, "loop"), contains("review#0", "publish#0"));
+        ec.checkThat(transitions(graph), contains("wft-1 -submit-> wft-2", "wft-2 -reject-> wft-3",
+                "wft-3 -submit-> review", "review -approve-> publish", "review -reject-> edit",
+                "edit -submit=> review#0", "wft-2 -approve=> publish#0"));
+        checkConnected(graph);
+        // condensed: the options not chosen by the finished tasks are dropped
+        graph = writeGraph(workflow, true);
+        ec.checkThat(graph.get("condensed").getAsBoolean(), is(true));
+        ec.checkThat(tasks(graph, ""), contains("wft-1", "wft-2", "wft-3", "review", "publish", "edit", "review#0"));
+        ec.checkThat(tasks(graph, "loop"), contains("review#0"));
+        ec.checkThat(transitions(graph), contains("wft-1 -submit-> wft-2", "wft-2 -reject-> wft-3",
+                "wft-3 -submit-> review", "review -approve-> publish", "review -reject-> edit",
+                "edit -submit=> review#0"));
+        checkConnected(graph);
+    }
+}
@@ -0,0 +1,62 @@
+package com.composum.platform.workflow.service.impl;
+
+import com.composum.sling.core.service.PermissionsService;
+import com.composum.sling.platform.testing.testutil.ErrorCollectorAlwaysPrintingFailures;
+import org.junit.Rule;
+import org.junit.Test;
+
+import javax.jcr.Session;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Proxy;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Checks that the access cache doesn't keep the sessions and drops the expired evaluations.
+ */
+public class WorkflowAccessCacheTest {
+
+    @Rule
+    public final ErrorCollectorAlwaysPrintingFailures ec = new ErrorCollectorAlwaysPrintingFailures();
+
+    protected final WorkflowAccessCache cache = new WorkflowAccessCache(mock(PermissionsService.class), 200L, 2);
+
+    /**
+     * a plain session stub (a mock would be referenced by the mock framework)
+     */
+    protected Session session(String userId) {
+        return (Session) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{Session.class},
+                (proxy, method, args) -> "getUserID".equals(method.getName()) ? userId : null);
+    }
+
+    @Test
+    public void expiredEvicted() throws Exception {
+        WorkflowAccessCache.Access access = cache.getAccess(session("alice"));
+        ec.checkThat(cache.getAccess(session("alice")), sameInstance(access));
+        ec.checkThat(access.getMemberships().contains("alice"), is(true));
+        Thread.sleep(300L);
+        cache.getAccess(session("bob"));
+        ec.checkThat(cache.size(), is(1));
+        ec.checkThat(cache.getAccess(session("alice")), not(sameInstance(access)));
+        cache.getAccess(session("carol"));
+        ec.checkThat(cache.size(), is(2));
+    }
+
+    @Test
+    public void closedSessionEvicted() throws Exception {
+        Session session = session("alice");
+        cache.getAccess(session);
+        WeakReference<Session> reference = new WeakReference<>(session);
+        session = null;
+        for (int i = 0; i < 50 && reference.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10L);
+        }
+        ec.checkThat(reference.get(), nullValue());
+        ec.checkThat(cache.size(), is(1));
+    }
+}
@@ -0,0 +1,295 @@
+package com.composum.platform.workflow.service.impl;
+
+import com.composum.platform.workflow.WorkflowAction;
+import com.composum.platform.workflow.WorkflowAsyncAction;
+import com.composum.platform.workflow.model.WorkflowTaskInstance;
+import com.composum.platform.workflow.model.WorkflowTaskTemplate;
+import com.composum.platform.workflow.service.WorkflowActionManager;
+import com.composum.platform.workflow.service.WorkflowService;
+import com.composum.sling.core.BeanContext;
+import com.composum.sling.core.util.ResourceUtil;
+import com.composum.sling.platform.testing.testutil.ErrorCollectorAlwaysPrintingFailures;
+import org.apache.sling.api.resource.ModifiableValueMap;
+import org.apache.sling.api.resource.PersistenceException;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.apache.sling.api.resource.ValueMap;
+import org.apache.sling.api.wrappers.ValueMapDecorator;
+import org.apache.sling.settings.SlingSettingsService;
+import org.apache.sling.testing.mock.sling.ResourceResolverType;
+import org.apache.sling.testing.mock.sling.junit.SlingContext;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static com.composum.platform.workflow.model.WorkflowTaskInstance.PN_ASYNC_FAILURE;
+import static com.composum.platform.workflow.model.WorkflowTaskInstance.PN_ASYNC_OPTION;
+import static com.composum.platform.workflow.model.WorkflowTaskInstance.PN_ASYNC_OWNER;
+import static com.composum.platform.workflow.model.WorkflowTaskInstance.PN_ASYNC_PENDING;
+import static com.composum.platform.workflow.model.WorkflowTaskInstance.PN_ASYNC_RUN;
+import static com.composum.platform.workflow.model.WorkflowTaskInstance.PN_ASYNC_TOPICS;
+import static com.composum.platform.workflow.model.WorkflowTaskInstance.PN_CANCELLED;
+import static com.composum.platform.workflow.model.WorkflowTaskInstance.PN_NEXT;
+import static com.composum.platform.workflow.model.WorkflowTaskInstance.PN_PREVIOUS;
+import static com.composum.platform.workflow.model.WorkflowTaskInstance.PN_STATE;
+import static com.composum.platform.workflow.model.WorkflowTaskInstance.PN_TEMPLATE;
+import static com.composum.platform.workflow.model.WorkflowTaskInstance.PN_WORKFLOW_ID;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Checks the deferred completion of a task by its asynchronous actions and the resume of a completion
+ * started by a former run of the service.
+ */
+public class WorkflowAsyncActionTest {
+
+    protected static final String ROOT = "/var/composum/workflow";
+    protected static final String TEMPLATE = "/conf/test/workflow/review";
+    protected static final String TASK = ROOT + "/tenant/tasks/wft-1";
+    protected static final String TOPIC = "test/async";
+    protected static final String CHECKED = "/conf/test/workflow/checked";
+    protected static final String PUBLISH = "/conf/test/workflow/publish";
+
+    @Rule
+    public final ErrorCollectorAlwaysPrintingFailures ec = new ErrorCollectorAlwaysPrintingFailures();
+
+    @Rule
+    public final SlingContext context = new SlingContext(ResourceResolverType.RESOURCERESOLVER_MOCK);
+
+    protected final List<CompletableFuture<WorkflowAction.Result>> started = new ArrayList<>();
+
+    protected ExecutorService executor;
+    protected ResourceResolver resolver;
+    protected WorkflowActionManager.ActionReference reference;
+    protected PlatformWorkflowService service;
+
+    protected class TestAsyncAction implements WorkflowAsyncAction {
+
+        @Nonnull
+        @Override
+        public CompletionStage<Result> processAsync(@Nonnull BeanContext context, @Nonnull WorkflowTaskInstance task,
+                                                    @Nullable WorkflowTaskTemplate.Option option,
+                                                    @Nonnull ValueMap data) {
+            CompletableFuture<Result> stage = new CompletableFuture<>();
+            started.add(stage);
+            return stage;
+        }
+    }
+
+    @Before
+    public void setup() throws Exception {
+        context.build().resource(TEMPLATE, ResourceUtil.PROP_RESOURCE_TYPE, WorkflowTaskTemplate.TEMPLATE_TYPE)
+                .resource("options/approve", "topic", TOPIC, "default", true)
+                .commit();
+        // a task topic processed asynchronously before the option creates the following task
+        context.build().resource(CHECKED, ResourceUtil.PROP_RESOURCE_TYPE, WorkflowTaskTemplate.TEMPLATE_TYPE,
+                "topic", TOPIC)
+                .resource("options/approve", "template", PUBLISH, "default", true)
+                .resource(PUBLISH, ResourceUtil.PROP_RESOURCE_TYPE, WorkflowTaskTemplate.TEMPLATE_TYPE)
+                .commit();
+        // the service resolver is closed after each use; all contexts are sharing the test resolver
+        resolver = Mockito.spy(context.resourceResolver());
+        Mockito.doNothing().when(resolver).close();
+        executor = Executors.newSingleThreadExecutor();
+        reference = mock(WorkflowActionManager.ActionReference.class);
+        when(reference.getAction()).thenReturn(new TestAsyncAction());
+        service = new PlatformWorkflowService();
+        service.config = mock(WorkflowService.Configuration.class);
+        when(service.config.workflow_root()).thenReturn(ROOT);
+        service.resolverFactory = mock(ResourceResolverFactory.class);
+        when(service.resolverFactory.getServiceResourceResolver(any())).thenReturn(resolver);
+        service.actionManager = mock(WorkflowActionManager.class);
+        when(service.actionManager.getWorkflowAction(TOPIC)).thenReturn(Collections.singletonList(reference));
+        service.slingSettings = mock(SlingSettingsService.class);
+        when(service.slingSettings.getSlingId()).thenReturn("sling-1");
+        service.actionExecutor = executor;
+        service.pathPattern = PlatformWorkflowService.createPathPattern(ROOT);
+        service.summaries = new WorkflowSummaries(ROOT, service::getState);
+        service.journal = new WorkflowJournal(ROOT);
+    }
+
+    @After
+    public void teardown() {
+        executor.shutdownNow();
+    }
+
+    protected void createTask(String state, Object... properties) throws PersistenceException {
+        createTaskOf(TEMPLATE, state, properties);
+    }
+
+    protected void createTaskOf(String template, String state, Object... properties) throws PersistenceException {
+        context.build().resource(TASK, ResourceUtil.PROP_RESOURCE_TYPE, WorkflowTaskInstance.INSTANCE_TYPE,
+                PN_STATE, state, PN_TEMPLATE, template).resource(WorkflowTaskInstance.PP_DATA).commit();
+        ModifiableValueMap values = resolver.getResource(TASK).adaptTo(ModifiableValueMap.class);
+        for (int i = 0; i + 1 < properties.length; i += 2) {
+            values.put((String) properties[i], properties[i + 1]);
+        }
+        resolver.commit();
+    }
+
+    protected void runTask() throws PersistenceException {
+        service.runTask(new BeanContext.Service(resolver), new ValueMapDecorator(new HashMap<>()), TASK,
+                "approve", new ValueMapDecorator(new HashMap<>()));
+    }
+
+    /**
+     * waits until the completions queued by the completed stages are done (single threaded executor)
+     */
+    protected void awaitCompletions() throws Exception {
+        executor.submit(() -> {
+        }).get(5, TimeUnit.SECONDS);
+    }
+
+    protected ValueMap task() {
+        return resolver.getResource(TASK).getValueMap();
+    }
+
+    @Test
+    public void completionDeferred() throws Exception {
+        createTask("pending");
+        runTask();
+        ec.checkThat(started.size(), is(1));
+        ec.checkThat(task().get(PN_STATE, String.class), is("running"));
+        ec.checkThat(task().get(PN_ASYNC_PENDING, Calendar.class), notNullValue());
+        ec.checkThat(task().get(PN_ASYNC_OWNER, String.class), is("sling-1"));
+        ec.checkThat(task().get(PN_ASYNC_RUN, String.class), is(service.asyncRun));
+        // a second run is rejected while the completion is pending
+        boolean rejected = false;
+        try {
+            runTask();
+        } catch (PersistenceException ex) {
+            rejected = true;
+        }
+        ec.checkThat(rejected, is(true));
+        ec.checkThat(started.size(), is(1));
+        started.get(0).complete(new WorkflowAction.Result());
+        awaitCompletions();
+        ec.checkThat(task().get(PN_STATE, String.class), is("finished"));
+        ec.checkThat(task().get(PN_ASYNC_PENDING, Calendar.class), nullValue());
+        ec.checkThat(task().get(PN_CANCELLED, Calendar.class), nullValue());
+    }
+
+    @Test
+    public void completionFailed() throws Exception {
+        createTask("pending");
+        runTask();
+        started.get(0).completeExceptionally(new IllegalStateException("external system not available"));
+        awaitCompletions();
+        ec.checkThat(task().get(PN_STATE, String.class), is("running"));
+        ec.checkThat(task().get(PN_ASYNC_PENDING, Calendar.class), nullValue());
+        ec.checkThat(task().get(PN_ASYNC_FAILURE, new String[0]).length, is(1));
+        // the task can be executed again after a failure
+        runTask();
+        ec.checkThat(started.size(), is(2));
+        ec.checkThat(task().get(PN_ASYNC_FAILURE, String[].class), nullValue());
+    }
+
+    @Test
+    public void optionDeferredUntilCompletion() throws Exception {
+        createTaskOf(CHECKED, "pending", PN_WORKFLOW_ID, "wft-1");
+        runTask();
+        ec.checkThat(started.size(), is(1));
+        ec.checkThat(task().get(PN_NEXT, String.class), nullValue());
+        ec.checkThat(task().get(PN_ASYNC_OPTION, String.class), is("approve"));
+        started.get(0).completeExceptionally(new IllegalStateException("external system not available"));
+        awaitCompletions();
+        // no following task after the failure, the option is dropped
+        ec.checkThat(task().get(PN_STATE, String.class), is("running"));
+        ec.checkThat(task().get(PN_NEXT, String.class), nullValue());
+        ec.checkThat(task().get(PN_ASYNC_OPTION, String.class), nullValue());
+        ec.checkThat(successors().size(), is(0));
+        // the run after the failure creates exactly one following task
+        runTask();
+        ec.checkThat(started.size(), is(2));
+        ec.checkThat(successors().size(), is(0));
+        started.get(1).complete(new WorkflowAction.Result());
+        awaitCompletions();
+        ec.checkThat(task().get(PN_STATE, String.class), is("finished"));
+        ec.checkThat(task().get(PN_ASYNC_OPTION, String.class), nullValue());
+        ec.checkThat(resolver.getResource(TASK + "/" + WorkflowTaskInstance.PP_ASYNC_DATA), nullValue());
+        List<Resource> successors = successors();
+        ec.checkThat(successors.size(), is(1));
+        ec.checkThat(task().get(PN_NEXT, String.class), is(successors.get(0).getName()));
+        ec.checkThat(successors.get(0).getValueMap().get(PN_TEMPLATE, String.class), is(PUBLISH));
+    }
+
+    /**
+     * @return the tasks following the test task
+     */
+    protected List<Resource> successors() {
+        List<Resource> result = new ArrayList<>();
+        collectSuccessors(resolver.getResource(ROOT), result);
+        return result;
+    }
+
+    protected void collectSuccessors(Resource resource, List<Resource> result) {
+        if ("wft-1".equals(resource.getValueMap().get(PN_PREVIOUS, String.class))) {
+            result.add(resource);
+        }
+        resource.getChildren().forEach(child -> collectSuccessors(child, result));
+    }
+
+    @Test
+    public void completionCancelled() throws Exception {
+        createTask("pending");
+        runTask();
+        started.get(0).complete(new WorkflowAction.Result(WorkflowAction.Status.cancel));
+        awaitCompletions();
+        ec.checkThat(task().get(PN_STATE, String.class), is("finished"));
+        ec.checkThat(task().get(PN_CANCELLED, Calendar.class), notNullValue());
+    }
+
+    @Test
+    public void completionResumed() throws Exception {
+        createTask("running", PN_ASYNC_PENDING, Calendar.getInstance(), PN_ASYNC_TOPICS, new String[]{TOPIC},
+                PN_ASYNC_OWNER, "sling-1", PN_ASYNC_RUN, "former");
+        BeanContext serviceContext = new BeanContext.Service(resolver);
+        // another run has resumed the task meanwhile
+        ec.checkThat(service.resumeCompletion(serviceContext, TASK, "other", false), is(true));
+        ec.checkThat(started.size(), is(0));
+        // the actions are not bound (yet)
+        when(service.actionManager.getWorkflowAction(TOPIC)).thenReturn(null);
+        ec.checkThat(service.resumeCompletion(serviceContext, TASK, "former", false), is(false));
+        ec.checkThat(task().get(PN_ASYNC_PENDING, Calendar.class), notNullValue());
+        when(service.actionManager.getWorkflowAction(TOPIC)).thenReturn(Collections.singletonList(reference));
+        ec.checkThat(service.resumeCompletion(serviceContext, TASK, "former", false), is(true));
+        ec.checkThat(started.size(), is(1));
+        ec.checkThat(task().get(PN_ASYNC_RUN, String.class), is(service.asyncRun));
+        // tracked by this run, not resumed twice
+        ec.checkThat(service.resumeCompletion(serviceContext, TASK, service.asyncRun, false), is(true));
+        ec.checkThat(started.size(), is(1));
+        started.get(0).complete(new WorkflowAction.Result());
+        awaitCompletions();
+        ec.checkThat(task().get(PN_STATE, String.class), is("finished"));
+    }
+
+    @Test
+    public void resumeGivenUp() throws Exception {
+        createTask("running", PN_ASYNC_PENDING, Calendar.getInstance(), PN_ASYNC_TOPICS, new String[]{TOPIC});
+        when(service.actionManager.getWorkflowAction(TOPIC)).thenReturn(null);
+        ec.checkThat(service.resumeCompletion(new BeanContext.Service(resolver), TASK, null, true), is(true));
+        ec.checkThat(task().get(PN_STATE, String.class), is("running"));
+        ec.checkThat(task().get(PN_ASYNC_PENDING, Calendar.class), nullValue());
+        ec.checkThat(task().get(PN_ASYNC_FAILURE, new String[0]).length, is(1));
+    }
+}
@@ -0,0 +1,54 @@
+package com.composum.platform.workflow.service.impl;
+
+import com.composum.sling.platform.testing.testutil.ErrorCollectorAlwaysPrintingFailures;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.observation.ResourceChange;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.hamcrest.Matchers.is;
+
+public class WorkflowCatalogTest {
+
+    @Rule
+    public final ErrorCollectorAlwaysPrintingFailures ec = new ErrorCollectorAlwaysPrintingFailures();
+
+    protected final WorkflowCatalog catalog = new WorkflowCatalog();
+
+    protected final AtomicInteger loads = new AtomicInteger();
+
+    protected List<WorkflowCatalog.Entry> load() {
+        loads.incrementAndGet();
+        return Collections.singletonList(new WorkflowCatalog.Entry("/conf/test/workflow/review", null));
+    }
+
+    protected List<WorkflowCatalog.Entry> applicable(Supplier<List<WorkflowCatalog.Entry>> loader) {
+        return catalog.getApplicable(Locale.ENGLISH, loader, WorkflowCatalog.Entry::getPath, (Resource) null);
+    }
+
+    @Test
+    public void invalidatedDuringTheLoad() {
+        List<WorkflowCatalog.Entry> entries = applicable(() -> {
+            List<WorkflowCatalog.Entry> loaded = load();
+            catalog.onChange(Collections.singletonList(new ResourceChange(ResourceChange.ChangeType.ADDED,
+                    "/conf/test/workflow/other/workflow", false)));
+            return loaded;
+        });
+        // the outdated load is used by its request only
+        ec.checkThat(entries.size(), is(1));
+        applicable(this::load);
+        ec.checkThat(loads.get(), is(2));
+        applicable(this::load);
+        ec.checkThat(loads.get(), is(2));
+        catalog.onChange(Collections.singletonList(new ResourceChange(ResourceChange.ChangeType.CHANGED,
+                "/conf/test/workflow/review/jcr:content", false)));
+        applicable(this::load);
+        ec.checkThat(loads.get(), is(3));
+    }
+}
@@ -0,0 +1,205 @@
+package com.composum.platform.workflow.service.impl;
+
+import com.composum.platform.workflow.model.WorkflowTaskInstance;
+import com.composum.platform.workflow.model.WorkflowTaskTemplate;
+import com.composum.platform.workflow.service.WorkflowService;
+import com.composum.platform.workflow.servlet.WorkflowServlet;
+import com.composum.sling.core.BeanContext;
+import com.composum.sling.core.util.ResourceUtil;
+import com.composum.sling.platform.testing.testutil.ErrorCollectorAlwaysPrintingFailures;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.apache.sling.api.resource.ValueMap;
+import org.apache.sling.api.wrappers.ValueMapDecorator;
+import org.apache.sling.testing.mock.sling.ResourceResolverType;
+import org.apache.sling.testing.mock.sling.junit.SlingContext;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+import static com.composum.platform.workflow.service.WorkflowService.Trail.Type.added;
+import static com.composum.platform.workflow.service.WorkflowService.Trail.Type.cancelled;
+import static com.composum.platform.workflow.service.WorkflowService.Trail.Type.comment;
+import static com.composum.platform.workflow.service.WorkflowService.Trail.Type.finished;
+import static com.composum.platform.workflow.service.WorkflowService.Trail.Type.run;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class WorkflowJournalTest {
+
+    protected static final String ROOT = "/var/composum/workflow";
+
+    @Rule
+    public final ErrorCollectorAlwaysPrintingFailures ec = new ErrorCollectorAlwaysPrintingFailures();
+
+    @Rule
+    public final SlingContext context = new SlingContext(ResourceResolverType.RESOURCERESOLVER_MOCK);
+
+    protected WorkflowJournal journal;
+
+    @Before
+    public void setup() {
+        context.build().resource(ROOT + "/tenant/pending").commit();
+        journal = new WorkflowJournal(ROOT);
+    }
+
+    protected WorkflowJournal.Event event(WorkflowService.Trail.Type type, String workflowId, String taskId,
+                                          String value, String ref) {
+        return new WorkflowJournal.Event(type, Calendar.getInstance(), "tenant", workflowId, taskId, "user:1",
+                value, ref);
+    }
+
+    @Test
+    public void replayOfTransitions() throws Exception {
+        ResourceResolver resolver = context.resourceResolver();
+        journal.append(resolver, Arrays.asList(
+                event(added, "wft-1", "wft-1", "/conf/test/start", null),
+                event(comment, "wft-1", "wft-1", "please review", null)));
+        resolver.commit();
+        journal.append(resolver, Collections.singletonList(
+                event(added, "wft-9", "wft-9", "/conf/test/other", null)));
+        resolver.commit();
+        journal.append(resolver, Arrays.asList(
+                event(run, "wft-1", "wft-1", "review", null),
+                event(added, "wft-1", "wft-2", "/conf/test/review", "wft-1"),
+                event(finished, "wft-1", "wft-1", null, null)));
+        resolver.commit();
+        journal.append(resolver, Collections.singletonList(
+                event(cancelled, "wft-1", "wft-2", null, null)));
+        resolver.commit();
+        List<WorkflowService.Trail.Type> types = new ArrayList<>();
+        journal.replay(resolver, "tenant", null, null, event -> types.add(event.getType()));
+        ec.checkThat(types, contains(added, comment, added, run, added, finished, cancelled));
+        WorkflowJournal.Trail trail = new WorkflowJournal.Trail("wft-1");
+        journal.replay(resolver, "tenant", Calendar.getInstance(), Calendar.getInstance(), trail);
+        ec.checkThat(trail.getEvents().size(), is(6));
+        ec.checkThat(trail.isOpen(), is(false));
+        WorkflowJournal.Trail.Step first = trail.getStep("wft-1");
+        ec.checkThat(first, notNullValue());
+        if (first != null) {
+            ec.checkThat(first.getTemplate(), is("/conf/test/start"));
+            ec.checkThat(first.getPrevious(), nullValue());
+            ec.checkThat(first.getOption(), is("review"));
+            ec.checkThat(first.getExecutedBy(), is("user:1"));
+            ec.checkThat(first.isCancelled(), is(false));
+            ec.checkThat(first.getComments().size(), is(1));
+            ec.checkThat(first.getComments().get(0).getValue(), is("please review"));
+        }
+        List<WorkflowJournal.Trail.Step> next = trail.getNext("wft-1");
+        ec.checkThat(next.size(), is(1));
+        ec.checkThat(next.get(0).getTaskId(), is("wft-2"));
+        ec.checkThat(next.get(0).getTemplate(), is("/conf/test/review"));
+        ec.checkThat(next.get(0).isCancelled(), is(true));
+        ec.checkThat(next.get(0).getFinished(), notNullValue());
+        // no segments out of the range
+        Calendar yesterday = Calendar.getInstance();
+        yesterday.add(Calendar.DAY_OF_MONTH, -1);
+        WorkflowJournal.Trail none = new WorkflowJournal.Trail("wft-1");
+        journal.replay(resolver, "tenant", null, yesterday, none);
+        ec.checkThat(none.getEvents().isEmpty(), is(true));
+    }
+
+    @Test
+    public void trailOfTheService() throws Exception {
+        context.build().resource("/conf/test/workflow/review",
+                ResourceUtil.PROP_RESOURCE_TYPE, WorkflowTaskTemplate.TEMPLATE_TYPE)
+                .resource("options/approve", "default", true)
+                .commit();
+        ResourceResolver resolver = Mockito.spy(context.resourceResolver());
+        Mockito.doNothing().when(resolver).close();
+        PlatformWorkflowService service = new PlatformWorkflowService();
+        service.config = mock(WorkflowService.Configuration.class);
+        when(service.config.workflow_root()).thenReturn(ROOT);
+        when(service.config.task_storage()).thenReturn(PlatformWorkflowService.STORAGE_PROPERTY);
+        service.resolverFactory = mock(ResourceResolverFactory.class);
+        when(service.resolverFactory.getServiceResourceResolver(any())).thenReturn(resolver);
+        service.pathPattern = PlatformWorkflowService.createPathPattern(ROOT);
+        service.taskIndex = new WorkflowTaskIndex(ROOT, service::getTaskId);
+        service.summaries = new WorkflowSummaries(ROOT, service::getState);
+        service.journal = journal;
+        BeanContext beanContext = new BeanContext.Service(resolver);
+        ValueMap requestData = new ValueMapDecorator(new HashMap<>());
+        requestData.put(WorkflowServlet.PARAM_TENANT_ID, "tenant");
+        WorkflowTaskInstance task = service.addTask(beanContext, requestData, null, "/conf/test/workflow/review",
+                Collections.singletonList("/content/test"), new ValueMapDecorator(new HashMap<>()));
+        ec.checkThat(task, notNullValue());
+        if (task != null) {
+            service.runTask(beanContext, requestData, task.getPath(), "approve",
+                    new ValueMapDecorator(new HashMap<>()));
+            WorkflowService.Trail trail = service.getTrail(beanContext, task.getName());
+            ec.checkThat(trail, notNullValue());
+            if (trail != null) {
+                List<WorkflowService.Trail.Type> types = new ArrayList<>();
+                trail.getEvents().forEach(event -> types.add(event.getType()));
+                ec.checkThat(types, contains(added, run, finished));
+                WorkflowService.Trail.Step step = trail.getStep(task.getName());
+                ec.checkThat(step != null ? step.getOption() : null, is("approve"));
+                ec.checkThat(trail.isOpen(), is(false));
+            }
+        }
+        ec.checkThat(service.getTrail(beanContext, "wft-unknown"), nullValue());
+    }
+
+    @Test
+    public void purgedWorkflowsRemoved() throws Exception {
+        ResourceResolver resolver = context.resourceResolver();
+        Calendar past = Calendar.getInstance();
+        past.add(Calendar.DAY_OF_MONTH, -10);
+        journal.append(resolver, Arrays.asList(
+                new WorkflowJournal.Event(added, past, "tenant", "wft-1", "wft-1", "user:1", "/conf/test/start", null),
+                new WorkflowJournal.Event(added, past, "tenant", "wft-9", "wft-9", "user:1", "/conf/test/other", null)));
+        resolver.commit();
+        journal.append(resolver, Arrays.asList(
+                event(finished, "wft-1", "wft-1", null, null),
+                event(run, "wft-9", "wft-9", "review", null)));
+        journal.append(resolver, Collections.singletonList(event(finished, "wft-1", "wft-2", null, null)));
+        resolver.commit();
+        WorkflowJournal.Removal removal = new WorkflowJournal.Removal();
+        removal.add("tenant", "wft-1", null, Calendar.getInstance());
+        ec.checkThat(journal.remove(resolver, removal), is(3));
+        resolver.commit();
+        // the events of the open workflow are kept
+        List<String> events = new ArrayList<>();
+        journal.replay(resolver, "tenant", null, null, event -> events.add(event.getWorkflowId() + ":" + event));
+        ec.checkThat(events, contains("wft-9:added:wft-9(/conf/test/other)", "wft-9:run:wft-9(review)"));
+        Calendar dueDate = Calendar.getInstance();
+        ec.checkThat(journal.purge(resolver, "tenant", dueDate), is(0));
+    }
+
+    @Test
+    public void preparedAndPurged() throws Exception {
+        ResourceResolver resolver = context.resourceResolver();
+        Calendar today = Calendar.getInstance();
+        Calendar past = Calendar.getInstance();
+        past.add(Calendar.DAY_OF_MONTH, -10);
+        ec.checkThat(journal.prepare(resolver, "tenant", past), is(true));
+        ec.checkThat(journal.prepare(resolver, "tenant", today), is(true));
+        ec.checkThat(journal.prepare(resolver, "tenant", today), is(false));
+        resolver.commit();
+        // the segment of the day is prepared, the transition adds its entry only
+        journal.append(resolver, Collections.singletonList(event(added, "wft-1", "wft-1", "/conf/test/start", null)));
+        ec.checkThat(journal.hasSegment(resolver, "tenant", today), is(true));
+        resolver.commit();
+        Calendar dueDate = Calendar.getInstance();
+        dueDate.add(Calendar.DAY_OF_MONTH, -5);
+        ec.checkThat(journal.purge(resolver, "tenant", dueDate), is(1));
+        resolver.commit();
+        ec.checkThat(journal.hasSegment(resolver, "tenant", past), is(false));
+        List<WorkflowService.Trail.Type> types = new ArrayList<>();
+        journal.replay(resolver, "tenant", null, null, event -> types.add(event.getType()));
+        ec.checkThat(types, contains(added));
+    }
+}
@@ -0,0 +1,110 @@
+package com.composum.platform.workflow.service.impl;
+
+import com.composum.platform.workflow.WorkflowAction;
+import com.composum.platform.workflow.service.WorkflowService;
+import com.composum.sling.platform.testing.testutil.ErrorCollectorAlwaysPrintingFailures;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Checks the execution of a group of parallel actions: the results are merged in the order of the actions
+ * independent of the completion order, rejected actions are executed in the current thread and the wait
+ * for a group is bounded.
+ */
+public class WorkflowParallelActionsTest {
+
+    @Rule
+    public final ErrorCollectorAlwaysPrintingFailures ec = new ErrorCollectorAlwaysPrintingFailures();
+
+    protected ExecutorService executor;
+    protected PlatformWorkflowService service;
+
+    @Before
+    public void setup() {
+        executor = Executors.newFixedThreadPool(3);
+        service = new PlatformWorkflowService();
+        service.config = mock(WorkflowService.Configuration.class);
+        when(service.config.parallel_action_timeout()).thenReturn(10);
+        service.actionExecutor = executor;
+    }
+
+    @After
+    public void teardown() {
+        executor.shutdownNow();
+    }
+
+    protected Callable<WorkflowAction.Result> action(String name, long duration) {
+        return () -> {
+            Thread.sleep(duration);
+            return new WorkflowAction.Result(WorkflowAction.Status.success,
+                    new WorkflowAction.Message(WorkflowAction.Level.info, name + "@{}",
+                            Thread.currentThread().getName()));
+        };
+    }
+
+    protected List<String> messages(WorkflowAction.Result result) {
+        List<String> messages = new ArrayList<>();
+        result.getMessages().forEach(message -> messages.add(message.text));
+        return messages;
+    }
+
+    @Test
+    public void mergedInActionOrder() {
+        List<Callable<WorkflowAction.Result>> parallel = new ArrayList<>();
+        List<Callable<WorkflowAction.Result>> inline = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            parallel.add(action("action-" + i, 300 - i * 100)); // the last action is done first
+            inline.add(action("inline-" + i, 0));
+        }
+        WorkflowAction.Result result = service.processActions(parallel, inline);
+        ec.checkThat(result.getStatus(), is(WorkflowAction.Status.success));
+        ec.checkThat(messages(result), contains("action-0@{}", "action-1@{}", "action-2@{}"));
+    }
+
+    @Test
+    public void rejectedActionsInline() {
+        executor.shutdown();
+        final String thread = Thread.currentThread().getName();
+        List<Callable<WorkflowAction.Result>> parallel = new ArrayList<>();
+        List<Callable<WorkflowAction.Result>> inline = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            parallel.add(action("action-" + i, 0));
+            inline.add(action("inline-" + i, 0));
+        }
+        WorkflowAction.Result result = service.processActions(parallel, inline);
+        ec.checkThat(result.getStatus(), is(WorkflowAction.Status.success));
+        ec.checkThat(messages(result), contains("inline-0@{}", "inline-1@{}"));
+        result.getMessages().forEach(message -> ec.checkThat(message.toString(), is(message.text
+                .replace("{}", thread))));
+    }
+
+    @Test
+    public void boundedWait() {
+        when(service.config.parallel_action_timeout()).thenReturn(1);
+        List<Callable<WorkflowAction.Result>> parallel = new ArrayList<>();
+        List<Callable<WorkflowAction.Result>> inline = new ArrayList<>();
+        parallel.add(action("action-0", 0));
+        parallel.add(action("action-1", 60000));
+        inline.add(action("inline-0", 0));
+        inline.add(action("inline-1", 0));
+        long start = System.currentTimeMillis();
+        WorkflowAction.Result result = service.processActions(parallel, inline);
+        ec.checkThat(System.currentTimeMillis() - start < 10000L, is(true));
+        ec.checkThat(result.getStatus(), is(WorkflowAction.Status.failure));
+        ec.checkThat(messages(result).size(), is(2));
+        ec.checkThat(messages(result).get(0), is("action-0@{}"));
+    }
+}
@@ -0,0 +1,353 @@
+package com.composum.platform.workflow.service.impl;
+
+import com.composum.platform.workflow.mail.impl.EmailCleanupServiceImpl;
+import com.composum.platform.workflow.mail.impl.EmailServiceImpl;
+import com.composum.platform.workflow.model.Workflow;
+import com.composum.platform.workflow.model.WorkflowTaskInstance;
+import com.composum.platform.workflow.service.WorkflowService;
+import com.composum.sling.core.util.ResourceUtil;
+import com.composum.sling.platform.staging.query.QueryBuilder;
+import com.composum.sling.platform.staging.query.impl.StagingQueryImpl;
+import com.composum.sling.platform.testing.testutil.ErrorCollectorAlwaysPrintingFailures;
+import org.apache.jackrabbit.JcrConstants;
+import org.apache.jackrabbit.commons.JcrUtils;
+import org.apache.jackrabbit.oak.plugins.index.counter.ApproximateCounter;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.testing.mock.sling.ResourceResolverType;
+import org.apache.sling.testing.mock.sling.junit.SlingContext;
+import org.hamcrest.Matcher;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.NodeList;
+
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.PropertyType;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.Value;
+import javax.jcr.query.Query;
+import javax.jcr.query.QueryManager;
+import javax.jcr.query.RowIterator;
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.File;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.regex.Pattern;
+
+import static org.apache.jackrabbit.JcrConstants.NT_UNSTRUCTURED;
+import static org.hamcrest.Matchers.anyOf;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Checks that each query of the workflow service and the mail queue is served by one of the
+ * index definitions shipped with the content package ('package/src/main/content/jcr_root/_oak_index')
+ * or by the 'slingResourceType' index provided by the Sling platform. The ordered queries are checked against
+ * the rules of the ordered Lucene index definition - the Lucene index provider is not part of the test repository,
+ * the plans of the property indexes would sort the results in memory.
+ */
+public class WorkflowQueryIndexTest {
+
+    protected static final File INDEX_DEFINITIONS = new File("../package/src/main/content/jcr_root/_oak_index");
+
+    protected static final String MAIL_ROOT = "/var/composum/platform/mail";
+
+    protected static final String WORKFLOW_ROOT = "/var/composum/workflow";
+
+    /** the platforms index for 'sling:resourceType' */
+    protected static final String RESOURCE_TYPE_INDEX = "slingResourceType";
+
+    /** the ordered properties of a query, the predicate properties and the property of the order */
+    protected static final Pattern QUERY_PROPERTY = Pattern.compile("@([\\w:]+)");
+
+    /** some content below each query path - the traversal of an empty path is cheaper than each index */
+    protected static final int NODES = 500;
+
+    @Rule
+    public final ErrorCollectorAlwaysPrintingFailures ec = new ErrorCollectorAlwaysPrintingFailures();
+
+    @Rule
+    public final SlingContext context = new SlingContext(ResourceResolverType.JCR_OAK);
+
+    protected Session session;
+
+    protected PlatformWorkflowService service;
+
+    @Before
+    public void setup() throws Exception {
+        // the index entries are counted approximately (at random) - the same estimated costs in each run
+        Method setSeed = ApproximateCounter.class.getDeclaredMethod("setSeed", int.class);
+        setSeed.setAccessible(true);
+        setSeed.invoke(null, 1);
+        session = Objects.requireNonNull(context.resourceResolver().adaptTo(Session.class));
+        File[] definitions = INDEX_DEFINITIONS.listFiles(File::isDirectory);
+        ec.checkThat(definitions != null ? definitions.length : 0, greaterThan(0));
+        if (definitions != null) {
+            Node indexRoot = session.getNode("/oak:index");
+            for (File definition : definitions) {
+                createIndex(indexRoot, definition.getName(), new File(definition, ".content.xml"));
+            }
+            session.save();
+        }
+        createContent();
+        service = new PlatformWorkflowService();
+        service.config = mock(WorkflowService.Configuration.class);
+        when(service.config.workflow_root()).thenReturn(WORKFLOW_ROOT);
+    }
+
+    protected void createContent() throws Exception {
+        Calendar date = Calendar.getInstance();
+        Node workflows = JcrUtils.getOrCreateByPath("/conf/test/workflow", NT_UNSTRUCTURED, session);
+        Node tasks = JcrUtils.getOrCreateByPath(WORKFLOW_ROOT + "/tenant/tasks", NT_UNSTRUCTURED, session);
+        Node summaries = JcrUtils.getOrCreateByPath(WORKFLOW_ROOT + "/tenant/summaries", NT_UNSTRUCTURED, session);
+        Node queue = JcrUtils.getOrCreateByPath(MAIL_ROOT + "/queue", NT_UNSTRUCTURED, session);
+        Node failed = JcrUtils.getOrCreateByPath(MAIL_ROOT + "/queue-failed", NT_UNSTRUCTURED, session);
+        Node sent = JcrUtils.getOrCreateByPath(MAIL_ROOT + "/queue-sent", NT_UNSTRUCTURED, session);
+        for (int i = 0; i < NODES; i++) {
+            workflows.addNode("template-" + i, NT_UNSTRUCTURED).addNode(Workflow.WORKFLOW_NODE, NT_UNSTRUCTURED)
+                    .setProperty(ResourceUtil.PROP_RESOURCE_TYPE, Workflow.WORKFLOW_TYPE);
+            WorkflowTaskInstance.State state = WorkflowTaskInstance.State.values()[i % 3];
+            Node task = JcrUtils.getOrCreateByPath(WORKFLOW_ROOT + "/tenant/" + state, NT_UNSTRUCTURED, session)
+                    .addNode(PlatformWorkflowService.TASK_PREFIX + i, NT_UNSTRUCTURED);
+            task.setProperty(ResourceUtil.PROP_RESOURCE_TYPE, WorkflowTaskInstance.INSTANCE_TYPE);
+            task.setProperty(WorkflowTaskInstance.PN_INITIATOR, "user-" + i);
+            task.setProperty(WorkflowTaskInstance.PN_ASSIGNEE, "user-" + i);
+            task.setProperty(WorkflowTaskInstance.PN_WORKFLOW_ID, PlatformWorkflowService.TASK_PREFIX + (i / 5));
+            if (i % 10 == 1) {
+                task.setProperty(WorkflowTaskInstance.PN_ASYNC_PENDING, date);
+            }
+            task = tasks.addNode(PlatformWorkflowService.TASK_PREFIX + "s" + i, NT_UNSTRUCTURED);
+            task.setProperty(ResourceUtil.PROP_RESOURCE_TYPE, WorkflowTaskInstance.INSTANCE_TYPE);
+            task.setProperty(WorkflowTaskInstance.PN_STATE, state.name());
+            task.setProperty(WorkflowTaskInstance.PN_ASSIGNEE, "group-" + (i % 50));
+            Node summary = summaries.addNode(WorkflowSummaries.SUMMARY_PREFIX + i, NT_UNSTRUCTURED);
+            summary.setProperty(ResourceUtil.PROP_RESOURCE_TYPE, WorkflowSummaries.SUMMARY_TYPE);
+            summary.setProperty(WorkflowTaskInstance.PN_INITIATOR, "user-" + i);
+            if (state == WorkflowTaskInstance.State.finished) {
+                summary.setProperty(WorkflowSummaries.PN_FINISHED, date);
+            }
+            queue.addNode("mail-" + i, NT_UNSTRUCTURED).setProperty("nextTry", date);
+            failed.addNode("mail-" + i, NT_UNSTRUCTURED).setProperty(JcrConstants.JCR_LASTMODIFIED, date);
+            sent.addNode("mail-" + i, NT_UNSTRUCTURED).setProperty(JcrConstants.JCR_LASTMODIFIED, date);
+        }
+        session.save();
+    }
+
+    @Test
+    public void workflowQueries() throws Exception {
+        checkIndexUsed(service.workflowsQuery(), RESOURCE_TYPE_INDEX);
+        checkIndexUsed(service.allTasksQuery(), RESOURCE_TYPE_INDEX);
+        checkIndexUsed(service.taskIdQuery("wft-0000"), RESOURCE_TYPE_INDEX);
+        checkIndexUsed(service.initiatedSummariesQuery("admin"), "composumWorkflowInitiator", RESOURCE_TYPE_INDEX);
+        Calendar now = Calendar.getInstance();
+        checkIndexUsed(service.finishedSummariesQuery(null, now), "composumWorkflowFinished", RESOURCE_TYPE_INDEX);
+        checkIndexUsed(service.finishedSummariesQuery(now, now), "composumWorkflowFinished", RESOURCE_TYPE_INDEX);
+        checkOrderServed(service.finishedSummariesQuery(null, now));
+        checkOrderServed(service.finishedSummariesQuery(now, now));
+        checkIndexUsed(service.workflowIdQuery("wft-1"), "composumWorkflowId");
+        checkIndexUsed(service.unstampedTasksQuery(), RESOURCE_TYPE_INDEX);
+        checkIndexUsed(service.asyncPendingQuery(), "composumWorkflowAsyncPending");
+        for (WorkflowTaskInstance.State state : WorkflowTaskInstance.State.values()) {
+            checkIndexUsed(service.stateFolderTasksQuery("tenant", state), RESOURCE_TYPE_INDEX);
+            checkIndexUsed(service.stateTasksQuery(null, state), "composumWorkflowState", RESOURCE_TYPE_INDEX);
+            checkIndexUsed(service.stateTasksQuery("tenant", state), "composumWorkflowState", RESOURCE_TYPE_INDEX);
+            // the paged variants of the task queries (continuation of a page, ordered by the time of the state)
+            PlatformWorkflowService.TaskPosition start = new PlatformWorkflowService.TaskPosition(
+                    System.currentTimeMillis(), WORKFLOW_ROOT + "/tenant/" + state + "/wft-0");
+            String timeProperty = service.getTimeProperty(state);
+            checkIndexUsed(service.pagedTasksQuery(service.stateFolderTasksQuery("tenant", state),
+                    timeProperty, start, true), RESOURCE_TYPE_INDEX);
+            checkIndexUsed(service.pagedTasksQuery(service.stateTasksQuery("tenant", state),
+                    timeProperty, start, false), "composumWorkflowState", RESOURCE_TYPE_INDEX);
+            // the tasks of a user (the assigned tasks by the assignee index)
+            List<String> assignees = Arrays.asList("user-1", "group-1", "group-2");
+            for (String query : Arrays.asList(service.stateFolderTasksQuery("tenant", state),
+                    service.stateTasksQuery("tenant", state))) {
+                for (boolean descending : new boolean[]{false, true}) {
+                    checkOrderServed(service.pagedTasksQuery(query, timeProperty, start, descending));
+                    checkOrderServed(service.pagedTasksQuery(service.assignedTasksQuery(query, assignees),
+                            timeProperty, start, descending));
+                    checkOrderServed(service.pagedTasksQuery(service.unassignedTasksQuery(query),
+                            timeProperty, start, descending));
+                }
+            }
+            checkIndexUsed(service.assignedTasksQuery(service.stateFolderTasksQuery("tenant", state), assignees),
+                    "composumWorkflowAssignee");
+            checkIndexUsed(service.assignedTasksQuery(service.stateTasksQuery("tenant", state), assignees),
+                    "composumWorkflowAssignee");
+            checkIndexUsed(service.unassignedTasksQuery(service.stateTasksQuery("tenant", state)),
+                    "composumWorkflowState", RESOURCE_TYPE_INDEX);
+        }
+    }
+
+    /**
+     * the staging query of the mail services; the SQL2 statement of the query is explained with its bound values
+     */
+    protected static class MailQuery extends StagingQueryImpl {
+
+        protected MailQuery(ResourceResolver resolver) {
+            super(resolver);
+        }
+
+        protected String getStatement() {
+            return buildSQL2(QueryGenerationMode.NORMAL);
+        }
+
+        protected RowIterator explain(QueryManager queryManager) throws RepositoryException {
+            return initJcrQuery(queryManager, "explain " + getStatement()).execute().getRows();
+        }
+    }
+
+    /**
+     * the queries of the mail services built by the staging query builder
+     * (EmailServiceImpl.queryPendingMails and EmailCleanupServiceImpl.cleanupFolder)
+     */
+    @Test
+    public void mailQueueQueries() throws Exception {
+        ResourceResolver resolver = Mockito.spy(context.resourceResolver());
+        Mockito.doAnswer(invocation -> (QueryBuilder) () -> new MailQuery(resolver))
+                .when(resolver).adaptTo(QueryBuilder.class);
+        Calendar now = Calendar.getInstance();
+        checkIndexUsed((MailQuery) new EmailServiceImpl().pendingMailsQuery(resolver, now), "composumMailNextTry");
+        EmailCleanupServiceImpl cleanup = new EmailCleanupServiceImpl();
+        checkIndexUsed((MailQuery) cleanup.cleanupQuery(resolver, MAIL_ROOT + "/queue-failed", now),
+                "composumMailLastModified");
+        checkIndexUsed((MailQuery) cleanup.cleanupQuery(resolver, MAIL_ROOT + "/queue-sent", now),
+                "composumMailLastModified");
+    }
+
+    /**
+     * @param indexNames the acceptable indexes (Oak chooses the cheapest index for a query)
+     */
+    protected void checkIndexUsed(String xpath, String... indexNames) throws Exception {
+        QueryManager queryManager = session.getWorkspace().getQueryManager();
+        checkPlan(xpath, queryManager.createQuery("explain " + xpath, Query.XPATH).execute().getRows(), indexNames);
+    }
+
+    protected void checkIndexUsed(MailQuery query, String... indexNames) throws Exception {
+        checkPlan(query.getStatement(), query.explain(session.getWorkspace().getQueryManager()), indexNames);
+    }
+
+    /**
+     * each part of a union must use an index; the part of the query root itself ('issamenode', built by the
+     * staging query for the path of the query) is the lookup of one node
+     */
+    protected void checkPlan(String statement, RowIterator rows, String... indexNames) throws Exception {
+        ec.checkThat(statement, rows.hasNext(), is(true));
+        String plan = rows.hasNext() ? rows.nextRow().getValue("plan").getString() : "";
+        List<Matcher<? super String>> indexUsed = new ArrayList<>();
+        for (String indexName : indexNames) {
+            indexUsed.add(containsString("property " + indexName + " "));
+        }
+        ec.checkThat(statement, plan, anyOf(indexUsed));
+        for (String part : plan.split(" union ")) {
+            if (!part.contains("where (issamenode(")) {
+                ec.checkThat(statement, part, not(containsString("traverse")));
+            }
+        }
+    }
+
+    /**
+     * an ordered query must be served completely by one ordered index: the path of the query is included, the order
+     * property is an ordered property and each property of the predicate is an indexed property of the index rules
+     */
+    protected void checkOrderServed(String xpath) throws Exception {
+        ec.checkThat(xpath, xpath, containsString(" order by @"));
+        String path = xpath.substring("/jcr:root".length(), xpath.indexOf("//"));
+        String orderProperty = xpath.substring(xpath.indexOf(" order by @") + " order by @".length()).split(" ")[0];
+        List<String> orderedIndexes = new ArrayList<>();
+        NodeIterator indexes = session.getNode("/oak:index").getNodes();
+        while (indexes.hasNext()) {
+            Node index = indexes.nextNode();
+            if (index.hasNode("indexRules/nt:base/properties") && index.hasProperty("includedPaths")
+                    && isIncluded(path, index.getProperty("includedPaths").getValues())) {
+                Map<String, Node> properties = new HashMap<>();
+                NodeIterator rules = index.getNode("indexRules/nt:base/properties").getNodes();
+                while (rules.hasNext()) {
+                    Node rule = rules.nextNode();
+                    properties.put(rule.getProperty("name").getString(), rule);
+                }
+                boolean served = isEnabled(properties.get(orderProperty), "ordered");
+                java.util.regex.Matcher property = QUERY_PROPERTY.matcher(xpath);
+                while (served && property.find()) {
+                    served = isEnabled(properties.get(property.group(1)), "propertyIndex");
+                }
+                if (served) {
+                    orderedIndexes.add(index.getName());
+                }
+            }
+        }
+        ec.checkThat(xpath, orderedIndexes.size(), greaterThan(0));
+    }
+
+    protected boolean isIncluded(String path, Value[] includedPaths) throws RepositoryException {
+        for (Value includedPath : includedPaths) {
+            if (path.equals(includedPath.getString()) || path.startsWith(includedPath.getString() + "/")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    protected boolean isEnabled(Node rule, String flag) throws RepositoryException {
+        return rule != null && rule.hasProperty(flag) && rule.getProperty(flag).getBoolean();
+    }
+
+    /**
+     * creates an index definition node from the properties of a vault '.content.xml' file
+     */
+    protected void createIndex(Node indexRoot, String name, File contentXml) throws Exception {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        Element root = factory.newDocumentBuilder().parse(contentXml).getDocumentElement();
+        createNode(indexRoot, name, root);
+    }
+
+    /**
+     * creates the node of a vault XML element with its properties and its child nodes (e.g. the index rules)
+     */
+    protected void createNode(Node parent, String name, Element element) throws Exception {
+        Node index = parent.addNode(name, element.getAttribute("jcr:primaryType"));
+        NamedNodeMap attributes = element.getAttributes();
+        for (int i = 0; i < attributes.getLength(); i++) {
+            Attr attribute = (Attr) attributes.item(i);
+            String property = attribute.getName();
+            if (!property.startsWith("xmlns") && !property.equals("jcr:primaryType")) {
+                String value = attribute.getValue();
+                int type = PropertyType.STRING;
+                if (value.startsWith("{")) {
+                    type = PropertyType.valueFromName(value.substring(1, value.indexOf('}')));
+                    value = value.substring(value.indexOf('}') + 1);
+                }
+                if (value.startsWith("[") && value.endsWith("]")) {
+                    index.setProperty(property, value.substring(1, value.length() - 1).split(","), type);
+                } else {
+                    index.setProperty(property, value, type);
+                }
+            }
+        }
+        NodeList children = element.getChildNodes();
+        for (int i = 0; i < children.getLength(); i++) {
+            if (children.item(i) instanceof Element) {
+                Element child = (Element) children.item(i);
+                createNode(index, child.getTagName(), child);
+            }
+        }
+    }
+}
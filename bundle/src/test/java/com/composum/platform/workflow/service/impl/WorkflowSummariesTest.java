@@ -0,0 +1,95 @@
+package com.composum.platform.workflow.service.impl;
+
+import com.composum.platform.workflow.model.WorkflowTaskInstance;
+import com.composum.sling.platform.testing.testutil.ErrorCollectorAlwaysPrintingFailures;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.testing.mock.sling.ResourceResolverType;
+import org.apache.sling.testing.mock.sling.junit.SlingContext;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+
+import static com.composum.platform.workflow.model.WorkflowTaskInstance.PN_FINISHED;
+import static com.composum.platform.workflow.model.WorkflowTaskInstance.PN_INITIATOR;
+import static com.composum.platform.workflow.model.WorkflowTaskInstance.PN_TEMPLATE;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+
+public class WorkflowSummariesTest {
+
+    protected static final String ROOT = "/var/composum/workflow";
+
+    @Rule
+    public final ErrorCollectorAlwaysPrintingFailures ec = new ErrorCollectorAlwaysPrintingFailures();
+
+    @Rule
+    public final SlingContext context = new SlingContext(ResourceResolverType.RESOURCERESOLVER_MOCK);
+
+    protected WorkflowSummaries summaries;
+
+    @Before
+    public void setup() {
+        context.build().resource(ROOT + "/tenant/pending").commit();
+        summaries = new WorkflowSummaries(ROOT,
+                task -> WorkflowTaskInstance.State.valueOf(task.getParent().getName()));
+    }
+
+    @Test
+    public void transitions() throws Exception {
+        ResourceResolver resolver = context.resourceResolver();
+        summaries.create(resolver, ROOT + "/tenant/pending/wft-1", "/conf/test/start", "user:1",
+                Collections.singletonList("/content/test"));
+        summaries.taskAdded(resolver, ROOT + "/tenant/pending/wft-2", "wft-1");
+        summaries.taskFinished(resolver, ROOT + "/tenant/running/wft-1", "wft-1", Calendar.getInstance());
+        resolver.commit();
+        WorkflowSummaries.Summary summary = summaries.get(resolver, "tenant", "wft-1");
+        ec.checkThat(summary != null, is(true));
+        if (summary != null) {
+            ec.checkThat(summary.getPath(), is(ROOT + "/tenant/summaries/wfs-1"));
+            ec.checkThat(summary.getWorkflowId(), is("wft-1"));
+            ec.checkThat(summary.getTemplate(), is("/conf/test/start"));
+            ec.checkThat(summary.getInitiator(), is("user:1"));
+            ec.checkThat(summary.getTarget(), contains("/content/test"));
+            ec.checkThat(summary.getOpenTasks(), contains("wft-2"));
+            ec.checkThat(summary.getLastTask(), is("wft-1"));
+            ec.checkThat(summary.isOpen(), is(true));
+            ec.checkThat(summary.getFinished(), nullValue());
+        }
+        summaries.taskFinished(resolver, ROOT + "/tenant/running/wft-2", "wft-1", Calendar.getInstance());
+        resolver.commit();
+        summary = summaries.get(resolver, "tenant", "wft-1");
+        ec.checkThat(summary != null && !summary.isOpen(), is(true));
+        ec.checkThat(summary != null ? summary.getFinished() : null, notNullValue());
+        ec.checkThat(summary != null ? summary.getChanged() : null, is(summary != null ? summary.getFinished() : null));
+        // a change of a workflow without summary is ignored
+        summaries.taskAdded(resolver, ROOT + "/tenant/pending/wft-9", "wft-8");
+        ec.checkThat(summaries.get(resolver, "tenant", "wft-8"), nullValue());
+    }
+
+    @Test
+    public void build() throws Exception {
+        Calendar finished = Calendar.getInstance();
+        Resource first = context.create().resource(ROOT + "/tenant/finished/wft-1",
+                PN_TEMPLATE, "/conf/test/start", PN_INITIATOR, "user:1", PN_FINISHED, finished);
+        Resource second = context.create().resource(ROOT + "/tenant/pending/wft-2");
+        ResourceResolver resolver = context.resourceResolver();
+        ec.checkThat(summaries.build(resolver, "wft-1", Arrays.asList(first, second)), is(true));
+        ec.checkThat(summaries.build(resolver, "wft-3", Collections.singletonList(second)), is(false));
+        resolver.commit();
+        WorkflowSummaries.Summary summary = summaries.get(resolver, "tenant", "wft-1");
+        ec.checkThat(summary != null, is(true));
+        if (summary != null) {
+            ec.checkThat(summary.getInitiator(), is("user:1"));
+            ec.checkThat(summary.getOpenTasks(), contains("wft-2"));
+            ec.checkThat(summary.getLastTask(), is("wft-1"));
+            ec.checkThat(summary.getFinished(), nullValue());
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.composum.platform.workflow.service.impl;
+
+import com.composum.sling.core.filter.ResourceFilter;
+import com.composum.sling.core.filter.StringFilter;
+import com.composum.sling.platform.testing.testutil.ErrorCollectorAlwaysPrintingFailures;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.testing.mock.sling.ResourceResolverType;
+import org.apache.sling.testing.mock.sling.junit.SlingContext;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+
+public class WorkflowTargetIndexTest {
+
+    @Rule
+    public final ErrorCollectorAlwaysPrintingFailures ec = new ErrorCollectorAlwaysPrintingFailures();
+
+    @Rule
+    public final SlingContext context = new SlingContext(ResourceResolverType.RESOURCERESOLVER_MOCK);
+
+    @Test
+    public void literalPrefix() {
+        ec.checkThat(prefix("^/content/test/"), is("/content/test/"));
+        ec.checkThat(prefix("^composum/pages/components/page$"), is("composum/pages/components/page"));
+        ec.checkThat(prefix("^/content/.*"), is("/content/"));
+        ec.checkThat(prefix("^/contents?/"), is("/content"));
+        ec.checkThat(prefix("^/content\\.x+"), is("/content.x"));
+        ec.checkThat(prefix("^/content(/.*)?$"), is("/content"));
+        ec.checkThat(prefix("/content/"), nullValue());
+        ec.checkThat(prefix("^/content|^/conf"), nullValue());
+        ec.checkThat(prefix("^.*/content"), nullValue());
+        ec.checkThat(prefix("^\\w+"), nullValue());
+    }
+
+    @Test
+    public void candidates() {
+        WorkflowCatalog.Entry unfiltered = entry("/conf/unfiltered", null);
+        WorkflowCatalog.Entry pages = entry("/conf/pages", new ResourceFilter.ResourceTypeFilter(
+                new StringFilter.WhiteList("^composum/pages/components/page$")));
+        WorkflowCatalog.Entry content = entry("/conf/content", ResourceFilter.FilterSet.Rule.and.of(
+                new ResourceFilter.PathFilter(new StringFilter.WhiteList("^/content/")),
+                new ResourceFilter.ResourceTypeFilter(new StringFilter.BlackList("^composum/pages/"))));
+        WorkflowCatalog.Entry assets = entry("/conf/assets", ResourceFilter.FilterSet.Rule.or.of(
+                new ResourceFilter.PathFilter(new StringFilter.WhiteList("^/content/dam/")),
+                new ResourceFilter.PathFilter(new StringFilter.WhiteList("^/content/assets/"))));
+        WorkflowCatalog.Entry any = entry("/conf/any", new ResourceFilter.PathFilter(
+                new StringFilter.WhiteList("test")));
+        WorkflowTargetIndex index = new WorkflowTargetIndex(Arrays.asList(unfiltered, pages, content, assets, any));
+        ec.checkThat(index.getUnindexedCount(), is(1));
+
+        Resource page = context.create().resource("/content/site/home",
+                "sling:resourceType", "composum/pages/components/page");
+        Resource pageContent = context.create().resource("/var/site/page");
+        context.create().resource("/var/site/page/jcr:content",
+                "sling:resourceType", "composum/pages/components/page");
+        Resource asset = context.create().resource("/content/dam/image");
+        Resource other = context.create().resource("/var/other");
+
+        ec.checkThat(index.getCandidates(null), containsInAnyOrder(unfiltered));
+        ec.checkThat(index.getCandidates(page), containsInAnyOrder(unfiltered, any, pages, content));
+        ec.checkThat(index.getCandidates(pageContent), containsInAnyOrder(unfiltered, any, pages));
+        ec.checkThat(index.getCandidates(asset), containsInAnyOrder(unfiltered, any, content, assets));
+        ec.checkThat(index.getCandidates(other), containsInAnyOrder(unfiltered, any));
+        // each applicable workflow must be a candidate
+        for (Resource target : new Resource[]{page, pageContent, asset, other}) {
+            Set<WorkflowCatalog.Entry> candidates = index.getCandidates(target);
+            for (WorkflowCatalog.Entry entry : Arrays.asList(unfiltered, pages, content, assets, any)) {
+                if (entry.isApplicable(target)) {
+                    ec.checkThat(target.getPath() + " : " + entry.getPath(), candidates.contains(entry), is(true));
+                }
+            }
+        }
+    }
+
+    protected String prefix(String regex) {
+        return WorkflowTargetIndex.getLiteralPrefix(Pattern.compile(regex));
+    }
+
+    protected WorkflowCatalog.Entry entry(String path, ResourceFilter filter) {
+        return new WorkflowCatalog.Entry(path, filter);
+    }
+}
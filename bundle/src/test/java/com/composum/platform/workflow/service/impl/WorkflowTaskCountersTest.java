@@ -0,0 +1,129 @@
+package com.composum.platform.workflow.service.impl;
+
+import com.composum.platform.workflow.model.WorkflowTaskInstance;
+import com.composum.sling.platform.testing.testutil.ErrorCollectorAlwaysPrintingFailures;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.testing.mock.sling.ResourceResolverType;
+import org.apache.sling.testing.mock.sling.junit.SlingContext;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static com.composum.platform.workflow.model.WorkflowTask.PN_ASSIGNEE;
+import static com.composum.platform.workflow.model.WorkflowTaskInstance.State.finished;
+import static com.composum.platform.workflow.model.WorkflowTaskInstance.State.pending;
+import static com.composum.platform.workflow.model.WorkflowTaskInstance.State.running;
+import static org.hamcrest.Matchers.is;
+
+public class WorkflowTaskCountersTest {
+
+    protected static final String ROOT = "/var/composum/workflow";
+
+    @Rule
+    public final ErrorCollectorAlwaysPrintingFailures ec = new ErrorCollectorAlwaysPrintingFailures();
+
+    @Rule
+    public final SlingContext context = new SlingContext(ResourceResolverType.RESOURCERESOLVER_MOCK);
+
+    protected WorkflowTaskCounters counters;
+
+    @Before
+    public void setup() {
+        context.build().resource(ROOT + "/tenant/pending/wft-1", PN_ASSIGNEE, "editors")
+                .resource(ROOT + "/tenant/pending/wft-2")
+                .resource(ROOT + "/tenant/pending/wft-3", PN_ASSIGNEE, "other")
+                .resource(ROOT + "/tenant/running/wft-4", PN_ASSIGNEE, "user:1")
+                .commit();
+        counters = new WorkflowTaskCounters(ROOT, this::collectTasks,
+                task -> WorkflowTaskInstance.State.valueOf(task.getParent().getName()));
+    }
+
+    @Test
+    public void countAndChange() throws Exception {
+        ResourceResolver resolver = context.resourceResolver();
+        List<String> user = Arrays.asList(WorkflowTaskCounters.UNASSIGNED, "user:1", "editors");
+        // the first query creates the counters of the tenant
+        Map<WorkflowTaskInstance.State, Long> counts = counters.count(resolver, "tenant", user);
+        ec.checkThat(counts.get(pending), is(2L));
+        ec.checkThat(counts.get(running), is(1L));
+        ec.checkThat(counts.get(finished), is(0L));
+        ec.checkThat(resolver.getResource(ROOT + "/tenant/counters/deltas") != null, is(true));
+        ec.checkThat(counters.create(resolver), is(0));
+        WorkflowTaskCounters.Changes changes = new WorkflowTaskCounters.Changes();
+        counters.change(changes, ROOT + "/tenant/pending/wft-5", "user:1", null, pending);
+        counters.change(changes, ROOT + "/tenant/pending/wft-1", "editors", pending, running);
+        counters.change(changes, ROOT + "/tenant/running/wft-4", "user:1", running, finished);
+        // the changes of a reverted unit of work are not counted
+        counters.write(resolver, changes);
+        resolver.revert();
+        ec.checkThat(counters.count(resolver, "tenant", user).get(finished), is(0L));
+        counters.write(resolver, changes);
+        resolver.commit();
+        counters.submit(changes);
+        changes.clear();
+        counters.change(changes, ROOT + "/tenant/pending/wft-3", "other", pending, null);
+        counters.write(resolver, changes);
+        resolver.commit();
+        counters.submit(changes);
+        // the committed deltas are counted before the fold
+        counts = counters.count(resolver, "tenant", user);
+        ec.checkThat(counts.get(pending), is(2L));
+        ec.checkThat(counts.get(running), is(1L));
+        ec.checkThat(counts.get(finished), is(1L));
+        ec.checkThat(counters.hasSubmitted(), is(true));
+        counters.apply(resolver);
+        ec.checkThat(counters.hasSubmitted(), is(false));
+        ec.checkThat(resolver.getResource(ROOT + "/tenant/counters/deltas").hasChildren(), is(false));
+        counts = counters.count(resolver, "tenant", user);
+        ec.checkThat(counts.get(pending), is(2L));
+        ec.checkThat(counts.get(running), is(1L));
+        ec.checkThat(counts.get(finished), is(1L));
+        counts = counters.count(resolver, "tenant", Arrays.asList("other", "unknown"));
+        ec.checkThat(counts.get(pending), is(0L));
+    }
+
+    @Test
+    public void driftCounted() throws Exception {
+        ResourceResolver resolver = context.resourceResolver();
+        counters.create(resolver);
+        // a task removed without a change of the counters
+        resolver.delete(resolver.getResource(ROOT + "/tenant/running/wft-4"));
+        resolver.commit();
+        WorkflowTaskCounters.Changes changes = new WorkflowTaskCounters.Changes();
+        counters.change(changes, ROOT + "/tenant/pending/wft-2", null, pending, running);
+        counters.write(resolver, changes);
+        resolver.commit();
+        counters.apply(resolver);
+        // the counter of 'user:1' is still '1' (no drift detected), the other counters are changed
+        Map<WorkflowTaskInstance.State, Long> counts = counters.count(resolver, "tenant",
+                Arrays.asList(WorkflowTaskCounters.UNASSIGNED, "user:1"));
+        ec.checkThat(counts.get(pending), is(0L));
+        ec.checkThat(counts.get(running), is(2L));
+        changes.clear();
+        counters.change(changes, ROOT + "/tenant/pending/wft-3", "other", pending, finished);
+        counters.change(changes, ROOT + "/tenant/pending/wft-9", "other", pending, finished);
+        counters.write(resolver, changes);
+        resolver.commit();
+        counters.apply(resolver);
+        // a negative counter: all counters of the tenant are counted again
+        counts = counters.count(resolver, "tenant", Arrays.asList(WorkflowTaskCounters.UNASSIGNED, "user:1"));
+        ec.checkThat(counts.get(pending), is(1L));
+        ec.checkThat(counts.get(running), is(0L));
+        ec.checkThat(counters.count(resolver, "tenant", Arrays.asList("other")).get(pending), is(1L));
+    }
+
+    protected void collectTasks(Resource folder, List<Resource> tasks) {
+        for (Resource child : folder.getChildren()) {
+            if (child.getName().startsWith("wft-")) {
+                tasks.add(child);
+            } else {
+                collectTasks(child, tasks);
+            }
+        }
+    }
+}
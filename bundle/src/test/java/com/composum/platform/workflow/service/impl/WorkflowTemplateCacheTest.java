@@ -0,0 +1,66 @@
+package com.composum.platform.workflow.service.impl;
+
+import com.composum.sling.platform.testing.testutil.ErrorCollectorAlwaysPrintingFailures;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceWrapper;
+import org.apache.sling.api.resource.observation.ResourceChange;
+import org.apache.sling.testing.mock.sling.ResourceResolverType;
+import org.apache.sling.testing.mock.sling.junit.SlingContext;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.sameInstance;
+
+public class WorkflowTemplateCacheTest {
+
+    protected static final String TEMPLATE = "/conf/test/workflow/review";
+
+    @Rule
+    public final ErrorCollectorAlwaysPrintingFailures ec = new ErrorCollectorAlwaysPrintingFailures();
+
+    @Rule
+    public final SlingContext context = new SlingContext(ResourceResolverType.RESOURCERESOLVER_MOCK);
+
+    protected WorkflowTemplateCache cache;
+
+    @Before
+    public void setup() {
+        context.build().resource(TEMPLATE, "title", "Review")
+                .resource("options/approve", "topic", "test/approve")
+                .commit();
+        cache = new WorkflowTemplateCache(new WorkflowStatistics());
+    }
+
+    @Test
+    public void snapshotOfTheServiceTemplate() {
+        Resource service = context.resourceResolver().getResource(TEMPLATE);
+        // the template as visible for a user without access to the options
+        Resource user = context.create().resource("/conf/restricted/review", "title", "Review");
+        Resource snapshot = cache.getSnapshot(new ResourceWrapper(user) {
+            @Override
+            public String getPath() {
+                return TEMPLATE;
+            }
+        }, path -> service);
+        ec.checkThat(snapshot.getChild("options/approve"), notNullValue());
+        ec.checkThat(cache.getSnapshot(service, path -> null), sameInstance(snapshot));
+    }
+
+    @Test
+    public void invalidatedDuringTheLoad() {
+        Resource template = context.resourceResolver().getResource(TEMPLATE);
+        cache.getSnapshot(template, path -> {
+            cache.onChange(Collections.singletonList(
+                    new ResourceChange(ResourceChange.ChangeType.CHANGED, TEMPLATE, false)));
+            return template;
+        });
+        ec.checkThat(cache.size(), is(0));
+        cache.getSnapshot(template, path -> template);
+        ec.checkThat(cache.size(), is(1));
+    }
+}
@@ -0,0 +1,82 @@
+package com.composum.platform.workflow.servlet;
+
+import com.composum.sling.platform.testing.testutil.ErrorCollectorAlwaysPrintingFailures;
+import org.apache.sling.testing.mock.sling.ResourceResolverType;
+import org.apache.sling.testing.mock.sling.junit.SlingContext;
+import org.apache.sling.testing.mock.sling.servlet.MockSlingHttpServletRequest;
+import org.apache.sling.testing.mock.sling.servlet.MockSlingHttpServletResponse;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static javax.servlet.http.HttpServletResponse.SC_NOT_FOUND;
+import static javax.servlet.http.HttpServletResponse.SC_NOT_MODIFIED;
+import static javax.servlet.http.HttpServletResponse.SC_OK;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+
+public class WorkflowGraphCacheTest {
+
+    @Rule
+    public final ErrorCollectorAlwaysPrintingFailures ec = new ErrorCollectorAlwaysPrintingFailures();
+
+    @Rule
+    public final SlingContext context = new SlingContext(ResourceResolverType.RESOURCERESOLVER_MOCK);
+
+    protected final WorkflowGraphCache cache = new WorkflowGraphCache("no-cache");
+
+    protected final AtomicInteger rendered = new AtomicInteger();
+
+    protected MockSlingHttpServletResponse deliver(String variant, long changed, String etag) throws Exception {
+        MockSlingHttpServletRequest request = new MockSlingHttpServletRequest(context.bundleContext());
+        if (etag != null) {
+            request.addHeader(WorkflowGraphCache.HEADER_IF_NONE_MATCH, etag);
+        }
+        MockSlingHttpServletResponse response = new MockSlingHttpServletResponse();
+        cache.deliver(request, response, "wft-1", variant, changed, target -> {
+            rendered.incrementAndGet();
+            target.setContentType("text/html;charset=UTF-8");
+            target.getWriter().write("<div>" + variant + "@" + changed + "</div>");
+        });
+        return response;
+    }
+
+    @Test
+    public void renderOnceForEachChange() throws Exception {
+        MockSlingHttpServletResponse response = deliver("wft-1", 1000L, null);
+        ec.checkThat(response.getStatus(), is(SC_OK));
+        ec.checkThat(response.getOutputAsString(), is("<div>wft-1@1000</div>"));
+        String etag = response.getHeader(WorkflowGraphCache.HEADER_ETAG);
+        ec.checkThat(etag, notNullValue());
+        response = deliver("wft-1", 1000L, null);
+        ec.checkThat(response.getOutputAsString(), is("<div>wft-1@1000</div>"));
+        ec.checkThat(rendered.get(), is(1));
+        response = deliver("wft-1", 1000L, etag);
+        ec.checkThat(response.getStatus(), is(SC_NOT_MODIFIED));
+        ec.checkThat(response.getOutputAsString(), is(""));
+        deliver("wft-2", 1000L, etag);
+        ec.checkThat(rendered.get(), is(2));
+        // a transition of the workflow drops all variants
+        response = deliver("wft-1", 2000L, etag);
+        ec.checkThat(response.getStatus(), is(SC_OK));
+        ec.checkThat(response.getOutputAsString(), is("<div>wft-1@2000</div>"));
+        ec.checkThat(rendered.get(), is(3));
+        ec.checkThat(cache.get("wft-1", "wft-2", 2000L), nullValue());
+        // no change stamp - rendered for each request
+        deliver("wft-1", 0L, null);
+        deliver("wft-1", 0L, null);
+        ec.checkThat(rendered.get(), is(5));
+    }
+
+    @Test
+    public void errorsAreNotCached() throws Exception {
+        MockSlingHttpServletResponse response = new MockSlingHttpServletResponse();
+        cache.deliver(new MockSlingHttpServletRequest(context.bundleContext()), response, "wft-1", "wft-1", 1000L,
+                target -> target.sendError(SC_NOT_FOUND));
+        ec.checkThat(response.getStatus(), is(SC_NOT_FOUND));
+        ec.checkThat(cache.get("wft-1", "wft-1", 1000L), nullValue());
+        ec.checkThat(cache.size(), is(0));
+    }
+}
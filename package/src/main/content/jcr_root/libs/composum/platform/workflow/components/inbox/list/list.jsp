@@ -5,7 +5,7 @@
 <sling:defineObjects/>
 <cpn:component id="inbox" type="com.composum.platform.workflow.model.WorkflowInboxModel">
     <div class="composum-platform-workflow_inbox" data-path="${inbox.path}" data-scope="${inbox.scope}"
-         data-tenant="${inbox.tenantId}">
+         data-tenant="${inbox.tenantId}" data-next="${inbox.next}">
         <c:choose>
             <c:when test="${not empty inbox.tasks}">
                 <ul class="composum-platform-workflow_inbox-list">
@@ -33,6 +33,10 @@
                             </div>
                         </li>
                     </c:forEach>
+                    <c:if test="${not empty inbox.next}">
+                        <li class="composum-platform-workflow_inbox-more list-item" data-next="${inbox.next}">
+                            <a href="#">${cpn:i18n(slingRequest,'more...')}</a></li>
+                    </c:if>
                 </ul>
             </c:when>
             <c:otherwise>
@@ -4,7 +4,8 @@
 <%@taglib prefix="c" uri="http://java.sun.com/jsp/jstl/core" %>
 <sling:defineObjects/>
 <cpn:component id="inbox" type="com.composum.platform.workflow.model.WorkflowInboxModel">
-    <div class="composum-platform-workflow_inbox-table" data-path="${inbox.path}" data-scope="${inbox.scope}">
+    <div class="composum-platform-workflow_inbox-table" data-path="${inbox.path}" data-scope="${inbox.scope}"
+         data-tenant="${inbox.tenantId}" data-next="${inbox.next}">
         <table class="table table-striped table-hover table-condensed">
             <thead>
             <tr>
@@ -29,6 +30,11 @@
                             <td class="task-assignee">${cpn:text(task.assignee)}</td>
                         </tr>
                     </c:forEach>
+                    <c:if test="${not empty inbox.next}">
+                        <tr class="composum-platform-workflow_inbox-more" data-next="${inbox.next}">
+                            <td colspan="5"><a href="#">${cpn:i18n(slingRequest,'more...')}</a></td>
+                        </tr>
+                    </c:if>
                 </c:when>
                 <c:otherwise>
                     <tr>
@@ -37,6 +37,7 @@
             url: {
                 base: '/bin/cpm/platform/workflow',
                 _dialog: '.dialog.html',
+                _graph: '.graph.condense.html',
                 _start: '.startDialog.html',
                 _cancel: '.cancelTask.json'
             }
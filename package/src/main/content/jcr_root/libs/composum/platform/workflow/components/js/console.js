@@ -12,6 +12,27 @@
 
             initialize: function (options) {
                 workflow.InboxView.prototype.initialize.apply(this, [options]);
+                this.$('.composum-platform-workflow_inbox-more a').click(_.bind(this.loadMore, this));
+            },
+
+            /**
+             * appends the rows of the following page of the task table (replaces the 'more' row)
+             */
+            loadMore: function (event) {
+                if (event) {
+                    event.preventDefault();
+                }
+                var $more = this.$('.composum-platform-workflow_inbox-more');
+                var tenant = this.$el.data('tenant') || '*';
+                core.getHtml('/bin/cpm/platform/workflow.taskTable.' + this.scope + '.html'
+                    + (this.path ? core.encodePath(this.path) : '')
+                    + '?tenant.id=' + tenant + '&page=' + encodeURIComponent($more.data('next')),
+                    _.bind(function (content) {
+                        $more.replaceWith($(content).find('tbody').children());
+                        this.initContent();
+                        this.$('.composum-platform-workflow_inbox-more a').click(_.bind(this.loadMore, this));
+                    }, this));
+                return false;
             },
 
             onTaskSelected: function () {
@@ -81,8 +81,9 @@
                     event.preventDefault();
                 }
                 if (this.$selected.length === 1) {
+                    var u = workflow.const.url;
                     var path = this.$selected.data('path');
-                    core.getHtml(core.encodePath(path) + '.dialog.condense.html', _.bind(function (content) {
+                    core.getHtml(u.base + u._graph + core.encodePath(path), _.bind(function (content) {
                             core.showLoadedDialog(core.components.LoadedDialog, content);
                         }, this)
                     );
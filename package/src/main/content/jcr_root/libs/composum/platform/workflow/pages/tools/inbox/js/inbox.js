@@ -21,6 +21,7 @@
 
             initialize: function (options) {
                 workflow.InboxView.prototype.initialize.apply(this, [options]);
+                this.$('.composum-platform-workflow_inbox-more a').click(_.bind(this.loadMore, this));
                 $(document).on('site:selected.Inbox', _.bind(this.onSiteChanged, this));
             },
 
@@ -40,11 +41,32 @@
                 this.reload();
             },
 
-            reload: function () {
+            /**
+             * appends the following page of the task list (replaces the 'more' item)
+             */
+            loadMore: function (event) {
+                if (event) {
+                    event.preventDefault();
+                }
+                var $more = this.$('.composum-platform-workflow_inbox-more');
+                core.getHtml(this.listUrl() + '&page=' + encodeURIComponent($more.data('next')),
+                    _.bind(function (content) {
+                        $more.replaceWith($(content).find('.composum-platform-workflow_inbox-list').children());
+                        this.initContent();
+                        this.$('.composum-platform-workflow_inbox-more a').click(_.bind(this.loadMore, this));
+                    }, this));
+                return false;
+            },
+
+            listUrl: function () {
                 var tenant = this.$el.data('tenant') || '*';
                 var scope = '?tenant.id=' + tenant; // tenant or all (*)
-                core.getHtml('/bin/cpm/platform/workflow.taskList.pending.html'
-                    + (this.path ? core.encodePath(this.path) : '') + scope,
+                return '/bin/cpm/platform/workflow.taskList.pending.html'
+                    + (this.path ? core.encodePath(this.path) : '') + scope;
+            },
+
+            reload: function () {
+                core.getHtml(this.listUrl(),
                     _.bind(function (content) {
                         workflow.$inboxParent.html(content);
                         workflow.inboxView = core.getView('.composum-platform-workflow_inbox', workflow.PagesInboxList);